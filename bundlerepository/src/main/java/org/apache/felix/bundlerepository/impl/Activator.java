@@ -68,7 +68,7 @@ public class Activator implements BundleActivator
         Activator.logger = new Logger(context);
 
         // Register bundle repository service.
-        m_repoAdmin = new RepositoryAdminImpl(context, logger);
+        m_repoAdmin = new RepositoryAdminImpl(context, logger, RepositoryCache.create(context, logger));
         context.registerService(
             RepositoryAdmin.class.getName(),
             m_repoAdmin, null);
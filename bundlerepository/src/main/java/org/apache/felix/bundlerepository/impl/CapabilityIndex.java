@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Repository;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+
+/**
+ * Index of the capabilities of a set of resources, by namespace and by the
+ * value of the primary attribute of the namespace (the package name, the
+ * bundle symbolic name, the service interface, ...).
+ * <p>
+ * A requirement whose filter requires the primary attribute to be equal to
+ * a value, either as the whole filter or as a term of a top level
+ * conjunction, is only checked against the capabilities having this value
+ * and the capabilities lacking a single string value. Other requirements are
+ * checked against all capabilities of their namespace. Candidates are always
+ * verified with {@link Requirement#isSatisfied(Capability)} and are returned
+ * in the order of the resources and of their capabilities.
+ * <p>
+ * An index is immutable, repositories build it once and share it with all
+ * resolvers, see {@link #getIndex(Repository)}.
+ */
+public class CapabilityIndex
+{
+    private static final List<IndexedCapability> EMPTY = Collections.emptyList();
+
+    // namespace -> primary attribute value -> capabilities
+    private final Map<String, Map<String, List<IndexedCapability>>> m_keyed =
+        new HashMap<String, Map<String, List<IndexedCapability>>>();
+    // namespace -> capabilities without a single string primary attribute value
+    private final Map<String, List<IndexedCapability>> m_unkeyed = new HashMap<String, List<IndexedCapability>>();
+    // namespace -> all capabilities
+    private final Map<String, List<IndexedCapability>> m_all = new HashMap<String, List<IndexedCapability>>();
+
+    public CapabilityIndex(Resource[] resources)
+    {
+        int ordinal = 0;
+        for (int i = 0; (resources != null) && (i < resources.length); i++)
+        {
+            Resource resource = resources[i];
+            Capability[] caps = (resource != null) ? resource.getCapabilities() : null;
+            for (int j = 0; (caps != null) && (j < caps.length); j++)
+            {
+                IndexedCapability cap = new IndexedCapability(resource, caps[j], ordinal++);
+                String namespace = caps[j].getName();
+                getList(m_all, namespace).add(cap);
+                Object value = caps[j].getPropertiesAsMap().get(getPrimaryAttribute(namespace));
+                if (value instanceof String)
+                {
+                    Map<String, List<IndexedCapability>> byValue = m_keyed.get(namespace);
+                    if (byValue == null)
+                    {
+                        byValue = new HashMap<String, List<IndexedCapability>>();
+                        m_keyed.put(namespace, byValue);
+                    }
+                    getList(byValue, (String) value).add(cap);
+                }
+                else
+                {
+                    getList(m_unkeyed, namespace).add(cap);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the given repository, built by the repository
+     * if it maintains one, or built on the fly otherwise.
+     */
+    public static CapabilityIndex getIndex(Repository repository)
+    {
+        if (repository instanceof IndexedRepository)
+        {
+            return ((IndexedRepository) repository).getCapabilityIndex();
+        }
+        return new CapabilityIndex(repository.getResources());
+    }
+
+    /**
+     * Returns the capabilities satisfying the given requirement.
+     */
+    public List<ResourceCapability> search(Requirement req)
+    {
+        String namespace = req.getName();
+        List<IndexedCapability> candidates;
+        String key = getKey(req.getFilter(), getPrimaryAttribute(namespace));
+        if (key == null)
+        {
+            candidates = get(m_all, namespace);
+        }
+        else
+        {
+            Map<String, List<IndexedCapability>> byValue = m_keyed.get(namespace);
+            candidates = merge((byValue != null) ? get(byValue, key) : EMPTY, get(m_unkeyed, namespace));
+        }
+
+        List<ResourceCapability> result = new ArrayList<ResourceCapability>();
+        for (IndexedCapability cap : candidates)
+        {
+            if (req.isSatisfied(cap.getCapability()))
+            {
+                result.add(cap);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The attribute holding the identity of a capability of the given namespace.
+     */
+    static String getPrimaryAttribute(String namespace)
+    {
+        if (Capability.BUNDLE.equals(namespace))
+        {
+            return Resource.SYMBOLIC_NAME;
+        }
+        if (Capability.FRAGMENT.equals(namespace))
+        {
+            return "host";
+        }
+        // package, service, ee and most generic capabilities
+        return namespace;
+    }
+
+    /**
+     * Extracts the value the given attribute must be equal to from a
+     * normalized filter, or returns <code>null</code> if the filter does not
+     * require such a value.
+     */
+    static String getKey(String filter, String attribute)
+    {
+        if ((filter == null) || (attribute == null))
+        {
+            return null;
+        }
+        if (filter.startsWith("(&"))
+        {
+            // look at the terms of the conjunction
+            int depth = 0;
+            int start = -1;
+            for (int i = 2; i < filter.length() - 1; i++)
+            {
+                char c = filter.charAt(i);
+                if (c == '\\')
+                {
+                    i++;
+                }
+                else if (c == '(')
+                {
+                    if (depth++ == 0)
+                    {
+                        start = i;
+                    }
+                }
+                else if ((c == ')') && (--depth == 0))
+                {
+                    String key = getEqualsValue(filter.substring(start, i + 1), attribute);
+                    if (key != null)
+                    {
+                        return key;
+                    }
+                }
+            }
+            return null;
+        }
+        return getEqualsValue(filter, attribute);
+    }
+
+    /**
+     * Returns the value of a <code>(attribute=value)</code> term, or
+     * <code>null</code> if the term is not an equality or contains a wildcard.
+     */
+    private static String getEqualsValue(String term, String attribute)
+    {
+        int length = attribute.length();
+        if ((term.length() < length + 3)
+            || (term.charAt(0) != '(')
+            || !term.regionMatches(true, 1, attribute, 0, length)
+            || (term.charAt(length + 1) != '=')
+            || (term.charAt(term.length() - 1) != ')'))
+        {
+            return null;
+        }
+        StringBuffer value = new StringBuffer(term.length() - length - 3);
+        for (int i = length + 2; i < term.length() - 1; i++)
+        {
+            char c = term.charAt(i);
+            if (c == '\\')
+            {
+                c = term.charAt(++i);
+            }
+            else if ((c == '*') || (c == '(') || (c == ')'))
+            {
+                // a substring or a nested filter
+                return null;
+            }
+            value.append(c);
+        }
+        return value.toString();
+    }
+
+    private static List<IndexedCapability> merge(List<IndexedCapability> l1, List<IndexedCapability> l2)
+    {
+        if (l2.isEmpty())
+        {
+            return l1;
+        }
+        if (l1.isEmpty())
+        {
+            return l2;
+        }
+        List<IndexedCapability> merged = new ArrayList<IndexedCapability>(l1.size() + l2.size());
+        int i1 = 0, i2 = 0;
+        while ((i1 < l1.size()) && (i2 < l2.size()))
+        {
+            merged.add((l1.get(i1).m_ordinal < l2.get(i2).m_ordinal) ? l1.get(i1++) : l2.get(i2++));
+        }
+        merged.addAll(l1.subList(i1, l1.size()));
+        merged.addAll(l2.subList(i2, l2.size()));
+        return merged;
+    }
+
+    private static List<IndexedCapability> get(Map<String, List<IndexedCapability>> map, String key)
+    {
+        List<IndexedCapability> list = map.get(key);
+        return (list != null) ? list : EMPTY;
+    }
+
+    private static List<IndexedCapability> getList(Map<String, List<IndexedCapability>> map, String key)
+    {
+        List<IndexedCapability> list = map.get(key);
+        if (list == null)
+        {
+            list = new ArrayList<IndexedCapability>(1);
+            map.put(key, list);
+        }
+        return list;
+    }
+
+    private static final class IndexedCapability extends ResourceCapabilityImpl
+    {
+        // position of the capability in the indexed resources
+        final int m_ordinal;
+
+        IndexedCapability(Resource resource, Capability capability, int ordinal)
+        {
+            super(resource, capability);
+            m_ordinal = ordinal;
+        }
+    }
+
+    /**
+     * A repository maintaining the index of its resources.
+     */
+    public interface IndexedRepository
+    {
+        /**
+         * Returns the index of the current resources of the repository.
+         */
+        CapabilityIndex getCapabilityIndex();
+    }
+}
@@ -89,15 +89,19 @@ public class DataModelHelperImpl implements DataModelHelper
     }
 
     public Repository repository(final URL url) throws Exception
+    {
+        return repository(url, FileUtil.openURL(url));
+    }
+
+    RepositoryImpl repository(final URL url, final InputStream stream) throws Exception
     {
         InputStream is = null;
-        BufferedReader br = null;
 
         try
         {
             if (url.getPath().endsWith(".zip"))
             {
-                ZipInputStream zin = new ZipInputStream(FileUtil.openURL(url));
+                ZipInputStream zin = new ZipInputStream(stream);
                 ZipEntry entry = zin.getNextEntry();
                 while (entry != null)
                 {
@@ -111,11 +115,11 @@ public class DataModelHelperImpl implements DataModelHelper
             }
             else if (url.getPath().endsWith(".gz"))
             {
-                is = new GZIPInputStream(FileUtil.openURL(url));                    
+                is = new GZIPInputStream(stream);
             }
             else
             {
-                is = FileUtil.openURL(url);
+                is = stream;
             }
 
             if (is != null)
@@ -138,6 +142,10 @@ public class DataModelHelperImpl implements DataModelHelper
                 {
                     is.close();
                 }
+                else
+                {
+                    stream.close();
+                }
             }
             catch (IOException ex)
             {
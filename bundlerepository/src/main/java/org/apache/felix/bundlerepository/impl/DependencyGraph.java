@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Repository;
+import org.apache.felix.bundlerepository.RepositoryAdmin;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+
+/**
+ * Reverse dependency graph of the resources of a set of repositories: for
+ * each resource, the requirements of other resources it can satisfy.
+ * <p>
+ * Resources are identified by symbolic name and version, so that the copies
+ * of an artifact found in several repositories (typically an installed
+ * bundle and the repository resource it was deployed from) form a single
+ * node. The graph is built once from the {@link CapabilityIndex} of each
+ * repository and answers "who depends on X" and "what breaks if X is
+ * removed or replaced" without resolving.
+ * <p>
+ * A graph is immutable, {@link RepositoryAdminImpl} keeps the graph of its
+ * repositories until one of them changes, see {@link #getGraph(RepositoryAdmin)}.
+ */
+public class DependencyGraph
+{
+    private static final List<Dependency> EMPTY = Collections.emptyList();
+
+    // the indexes the graph has been built from
+    private final CapabilityIndex[] m_indexes;
+    // resource key -> dependencies the resource can satisfy
+    private final Map<Object, List<Dependency>> m_dependents = new HashMap<Object, List<Dependency>>();
+
+    public DependencyGraph(Repository[] repositories)
+    {
+        m_indexes = new CapabilityIndex[repositories.length];
+        for (int i = 0; i < repositories.length; i++)
+        {
+            m_indexes[i] = CapabilityIndex.getIndex(repositories[i]);
+        }
+
+        // requirements are often shared, so search each filter only once
+        Map<String, Resource[]> searched = new HashMap<String, Resource[]>();
+        Set<Object> visited = new HashSet<Object>();
+        for (int repoIdx = 0; repoIdx < repositories.length; repoIdx++)
+        {
+            Resource[] resources = repositories[repoIdx].getResources();
+            for (int resIdx = 0; (resources != null) && (resIdx < resources.length); resIdx++)
+            {
+                Resource resource = resources[resIdx];
+                // only the first copy of an artifact is considered
+                if (visited.add(getKey(resource)))
+                {
+                    addRequirements(resource, searched);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the dependency graph of the repositories of the given
+     * repository admin, kept by the repository admin if it is ours, or built
+     * on the fly otherwise.
+     */
+    public static DependencyGraph getGraph(RepositoryAdmin admin)
+    {
+        if (admin instanceof RepositoryAdminImpl)
+        {
+            return ((RepositoryAdminImpl) admin).getDependencyGraph();
+        }
+        List<Repository> repositories = new ArrayList<Repository>();
+        repositories.add(admin.getSystemRepository());
+        repositories.add(admin.getLocalRepository());
+        Collections.addAll(repositories, admin.listRepositories());
+        return new DependencyGraph(repositories.toArray(new Repository[repositories.size()]));
+    }
+
+    /**
+     * Returns whether the graph reflects the current resources of the given
+     * repositories, that is whether it has been built from the same indexes.
+     */
+    boolean isCurrent(Repository[] repositories)
+    {
+        if (repositories.length != m_indexes.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < repositories.length; i++)
+        {
+            if (!(repositories[i] instanceof CapabilityIndex.IndexedRepository)
+                || (((CapabilityIndex.IndexedRepository) repositories[i]).getCapabilityIndex() != m_indexes[i]))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the requirements of other resources the given resource can
+     * satisfy, whether or not other resources can satisfy them too.
+     */
+    public Dependency[] getDependents(Resource resource)
+    {
+        List<Dependency> deps = get(getKey(resource));
+        return deps.toArray(new Dependency[deps.size()]);
+    }
+
+    /**
+     * Returns the resources depending directly or indirectly on the given
+     * resource, nearest first.
+     */
+    public Resource[] getTransitiveDependents(Resource resource)
+    {
+        Map<Object, Resource> result = new LinkedHashMap<Object, Resource>();
+        Object key = getKey(resource);
+        LinkedList<Object> queue = new LinkedList<Object>();
+        queue.add(key);
+        while (!queue.isEmpty())
+        {
+            for (Dependency dep : get(queue.removeFirst()))
+            {
+                Object requirer = getKey(dep.getRequirer());
+                if (!requirer.equals(key) && !result.containsKey(requirer))
+                {
+                    result.put(requirer, dep.getRequirer());
+                    queue.add(requirer);
+                }
+            }
+        }
+        return result.values().toArray(new Resource[result.size()]);
+    }
+
+    /**
+     * Returns the requirements which can no longer be satisfied if the given
+     * resource is replaced by the given replacement, or removed if the
+     * replacement is <code>null</code>. A requirement is broken if all the
+     * resources which can satisfy it are gone and the replacement cannot
+     * satisfy it either. Resources with a broken mandatory requirement are
+     * gone in turn, so the result also holds the requirements broken
+     * indirectly, nearest first.
+     */
+    public Dependency[] getImpact(Resource resource, Resource replacement)
+    {
+        List<Dependency> result = new ArrayList<Dependency>();
+        Set<Dependency> checked = new HashSet<Dependency>();
+        Set<Object> gone = new HashSet<Object>();
+        LinkedList<Object> queue = new LinkedList<Object>();
+        gone.add(getKey(resource));
+        queue.add(getKey(resource));
+        while (!queue.isEmpty())
+        {
+            for (Dependency dep : get(queue.removeFirst()))
+            {
+                if (checked.contains(dep) || !isGone(dep, gone)
+                    || ((replacement != null) && isSatisfied(dep.getRequirement(), replacement)))
+                {
+                    continue;
+                }
+                checked.add(dep);
+                result.add(dep);
+                Object requirer = getKey(dep.getRequirer());
+                if (!dep.getRequirement().isOptional() && gone.add(requirer))
+                {
+                    queue.add(requirer);
+                }
+            }
+        }
+        return result.toArray(new Dependency[result.size()]);
+    }
+
+    private void addRequirements(Resource resource, Map<String, Resource[]> searched)
+    {
+        Object requirer = getKey(resource);
+        Requirement[] reqs = resource.getRequirements();
+        for (int reqIdx = 0; (reqs != null) && (reqIdx < reqs.length); reqIdx++)
+        {
+            String filter = reqs[reqIdx].getName() + ":" + reqs[reqIdx].getFilter();
+            Resource[] providers = searched.get(filter);
+            if (providers == null)
+            {
+                providers = search(reqs[reqIdx]);
+                searched.put(filter, providers);
+            }
+            if (providers.length == 0)
+            {
+                continue;
+            }
+
+            Dependency dep = new Dependency(resource, reqs[reqIdx], providers);
+            for (int i = 0; i < providers.length; i++)
+            {
+                Object provider = getKey(providers[i]);
+                // a resource satisfying its own requirement does not depend on itself
+                if (!provider.equals(requirer))
+                {
+                    List<Dependency> deps = m_dependents.get(provider);
+                    if (deps == null)
+                    {
+                        deps = new ArrayList<Dependency>(2);
+                        m_dependents.put(provider, deps);
+                    }
+                    deps.add(dep);
+                }
+            }
+        }
+    }
+
+    private Resource[] search(Requirement req)
+    {
+        Map<Object, Resource> providers = new LinkedHashMap<Object, Resource>();
+        for (int i = 0; i < m_indexes.length; i++)
+        {
+            for (ResourceCapability cap : m_indexes[i].search(req))
+            {
+                Object key = getKey(cap.getResource());
+                if (!providers.containsKey(key))
+                {
+                    providers.put(key, cap.getResource());
+                }
+            }
+        }
+        return providers.values().toArray(new Resource[providers.size()]);
+    }
+
+    private List<Dependency> get(Object key)
+    {
+        List<Dependency> deps = m_dependents.get(key);
+        return (deps != null) ? deps : EMPTY;
+    }
+
+    private static boolean isGone(Dependency dep, Set<Object> gone)
+    {
+        Resource[] providers = dep.getProviders();
+        for (int i = 0; i < providers.length; i++)
+        {
+            if (!gone.contains(getKey(providers[i])))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSatisfied(Requirement req, Resource resource)
+    {
+        Capability[] caps = resource.getCapabilities();
+        for (int i = 0; (caps != null) && (i < caps.length); i++)
+        {
+            if (req.isSatisfied(caps[i]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The identity of a resource in the graph, resources without a symbolic
+     * name are only equal to themselves.
+     */
+    static Object getKey(Resource resource)
+    {
+        if (resource.getSymbolicName() == null)
+        {
+            return resource;
+        }
+        return resource.getSymbolicName() + ";" + resource.getVersion();
+    }
+
+    /**
+     * A requirement of a resource with the resources able to satisfy it.
+     */
+    public static final class Dependency
+    {
+        private final Resource m_requirer;
+        private final Requirement m_requirement;
+        private final Resource[] m_providers;
+
+        Dependency(Resource requirer, Requirement requirement, Resource[] providers)
+        {
+            m_requirer = requirer;
+            m_requirement = requirement;
+            m_providers = providers;
+        }
+
+        public Resource getRequirer()
+        {
+            return m_requirer;
+        }
+
+        public Requirement getRequirement()
+        {
+            return m_requirement;
+        }
+
+        public Resource[] getProviders()
+        {
+            return m_providers;
+        }
+    }
+}
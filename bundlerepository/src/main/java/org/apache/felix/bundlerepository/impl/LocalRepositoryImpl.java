@@ -30,12 +30,13 @@ import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.SynchronousBundleListener;
 import org.apache.felix.bundlerepository.*;
 
-public class LocalRepositoryImpl implements Repository, SynchronousBundleListener, AllServiceListener
+public class LocalRepositoryImpl implements Repository, CapabilityIndex.IndexedRepository, SynchronousBundleListener, AllServiceListener
 {
     private final BundleContext m_context;
     private final Logger m_logger;
     private long m_snapshotTimeStamp = 0;
     private Map<Long, Resource> m_localResourceList = new HashMap<Long, Resource>();
+    private CapabilityIndex m_index = null;
 
     public LocalRepositoryImpl(BundleContext context, Logger logger)
     {
@@ -93,6 +94,7 @@ public class LocalRepositoryImpl implements Repository, SynchronousBundleListene
             return;
         }
         m_localResourceList.put(bundle.getBundleId(), new LazyLocalResourceImpl(bundle, m_logger));
+        m_index = null;
     }
 
     private void removeBundle(Bundle bundle)
@@ -104,6 +106,7 @@ public class LocalRepositoryImpl implements Repository, SynchronousBundleListene
          */
 
         m_localResourceList.remove(bundle.getBundleId());
+        m_index = null;
     }
 
     public void dispose()
@@ -132,6 +135,15 @@ public class LocalRepositoryImpl implements Repository, SynchronousBundleListene
         return m_localResourceList.values().toArray(new Resource[m_localResourceList.size()]);
     }
 
+    public synchronized CapabilityIndex getCapabilityIndex()
+    {
+        if (m_index == null)
+        {
+            m_index = new CapabilityIndex(getResources());
+        }
+        return m_index;
+    }
+
     private void initialize()
     {
         // register for bundle and service events now
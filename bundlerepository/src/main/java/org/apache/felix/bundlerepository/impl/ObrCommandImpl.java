@@ -24,6 +24,7 @@ import java.net.URL;
 import java.util.*;
 
 import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.LocalResource;
 import org.apache.felix.bundlerepository.Reason;
 import org.apache.felix.bundlerepository.Requirement;
 import org.apache.felix.bundlerepository.Resolver;
@@ -45,9 +46,12 @@ public class ObrCommandImpl implements Command
     private static final String START_CMD = "start";
     private static final String SOURCE_CMD = "source";
     private static final String JAVADOC_CMD = "javadoc";
+    private static final String DEPENDENTS_CMD = "dependents";
+    private static final String IMPACT_CMD = "impact";
 
     private static final String EXTRACT_SWITCH = "-x";
     private static final String VERBOSE_SWITCH = "-v";
+    private static final String TRANSITIVE_SWITCH = "-t";
 
     private BundleContext m_context = null;
     private org.apache.felix.bundlerepository.RepositoryAdmin m_repoAdmin = null;
@@ -126,6 +130,14 @@ public class ObrCommandImpl implements Command
                 {
                     javadoc(commandLine, command, out, err);
                 }
+                else if (command.equals(DEPENDENTS_CMD))
+                {
+                    dependents(commandLine, command, out, err);
+                }
+                else if (command.equals(IMPACT_CMD))
+                {
+                    impact(commandLine, command, out, err);
+                }
                 else
                 {
                     err.println("Unknown command: " + command);
@@ -483,6 +495,145 @@ public class ObrCommandImpl implements Command
         }
     }
 
+    private void dependents(
+        String commandLine, String command, PrintStream out, PrintStream err)
+        throws IOException, InvalidSyntaxException
+    {
+        ParsedCommand pc = parseDependents(commandLine);
+        DependencyGraph graph = DependencyGraph.getGraph(m_repoAdmin);
+        for (int i = 0; i < pc.getTargetCount(); i++)
+        {
+            Resource resource = selectTarget(pc.getTargetId(i), pc.getTargetVersion(i));
+            if (resource == null)
+            {
+                err.println("Unknown bundle and/or version: "
+                    + pc.getTargetId(i));
+                continue;
+            }
+
+            if (i > 0)
+            {
+                out.println("");
+            }
+            String title = "Dependent resource(s) of " + getName(resource)
+                + " (" + resource.getVersion() + "):";
+            out.println(title);
+            printUnderline(out, title.length());
+            if (pc.isTransitive())
+            {
+                Resource[] resources = graph.getTransitiveDependents(resource);
+                for (int resIdx = 0; resIdx < resources.length; resIdx++)
+                {
+                    out.println("   " + getName(resources[resIdx])
+                        + " (" + resources[resIdx].getVersion() + ")");
+                }
+                if (resources.length == 0)
+                {
+                    out.println("   None.");
+                }
+            }
+            else
+            {
+                printDependencies(out, graph.getDependents(resource));
+            }
+        }
+    }
+
+    private void impact(
+        String commandLine, String command, PrintStream out, PrintStream err)
+        throws IOException, InvalidSyntaxException
+    {
+        // The command line is the target followed by an optional version
+        // to update the target to, both parsed as targets.
+        ParsedCommand pc = parseInfo(commandLine);
+        if ((pc.getTargetCount() < 1) || (pc.getTargetCount() > 2)
+            || (pc.getTargetVersion(1) != null))
+        {
+            err.println("Usage: obr " + IMPACT_CMD
+                + " <bundle-name>|<bundle-symbolic-name>|<bundle-id>[;<version>] [<new-version>]");
+            return;
+        }
+
+        Resource resource = selectTarget(pc.getTargetId(0), pc.getTargetVersion(0));
+        if (resource == null)
+        {
+            err.println("Unknown bundle and/or version: "
+                + pc.getTargetId(0));
+            return;
+        }
+        Resource replacement = null;
+        if (pc.getTargetCount() > 1)
+        {
+            replacement = selectNewestVersion(
+                searchRepository(resource.getSymbolicName(), pc.getTargetId(1)));
+            if (replacement == null)
+            {
+                err.println("Unknown bundle and/or version: "
+                    + resource.getSymbolicName() + ";" + pc.getTargetId(1));
+                return;
+            }
+        }
+
+        String title = (replacement == null)
+            ? "Requirement(s) broken by removing " + getName(resource)
+                + " (" + resource.getVersion() + "):"
+            : "Requirement(s) broken by updating " + getName(resource)
+                + " (" + resource.getVersion() + ") to " + replacement.getVersion() + ":";
+        out.println(title);
+        printUnderline(out, title.length());
+        printDependencies(out,
+            DependencyGraph.getGraph(m_repoAdmin).getImpact(resource, replacement));
+    }
+
+    private static void printDependencies(PrintStream out, DependencyGraph.Dependency[] deps)
+    {
+        Resource requirer = null;
+        for (int depIdx = 0; depIdx < deps.length; depIdx++)
+        {
+            if (deps[depIdx].getRequirer() != requirer)
+            {
+                requirer = deps[depIdx].getRequirer();
+                out.println("   " + getName(requirer) + " (" + requirer.getVersion() + ")");
+            }
+            out.println("      " + deps[depIdx].getRequirement().getFilter()
+                + (deps[depIdx].getRequirement().isOptional() ? " (optional)" : ""));
+        }
+        if (deps.length == 0)
+        {
+            out.println("   None.");
+        }
+    }
+
+    private static String getName(Resource resource)
+    {
+        return (resource.getPresentationName() != null)
+            ? resource.getPresentationName() : resource.getSymbolicName();
+    }
+
+    private Resource selectTarget(String targetId, String targetVersion) throws InvalidSyntaxException
+    {
+        // A bundle ID designates the installed bundle.
+        try
+        {
+            long bundleId = Long.parseLong(targetId);
+            Resource[] resources = m_repoAdmin.getLocalRepository().getResources();
+            for (int i = 0; (resources != null) && (i < resources.length); i++)
+            {
+                if ((resources[i] instanceof LocalResource)
+                    && (((LocalResource) resources[i]).getBundle().getBundleId() == bundleId))
+                {
+                    return resources[i];
+                }
+            }
+            return null;
+        }
+        catch (NumberFormatException ex)
+        {
+            // It was not a number, so ignore.
+        }
+        return selectNewestVersion(searchRepository(targetId, targetVersion));
+    }
+
     private Resource[] searchRepository(String targetId, String targetVersion) throws InvalidSyntaxException
     {
         // Try to see if the targetId is a bundle ID.
@@ -891,6 +1042,115 @@ public class ObrCommandImpl implements Command
         }
     }
 
+    private ParsedCommand parseDependents(String commandLine)
+        throws IOException, InvalidSyntaxException
+    {
+        // Create a stream tokenizer for the command line string,
+        // since the syntax for dependents is more sophisticated.
+        StringReader sr = new StringReader(commandLine);
+        StreamTokenizer tokenizer = new StreamTokenizer(sr);
+        tokenizer.resetSyntax();
+        tokenizer.quoteChar('\'');
+        tokenizer.quoteChar('\"');
+        tokenizer.whitespaceChars('\u0000', '\u0020');
+        tokenizer.wordChars('A', 'Z');
+        tokenizer.wordChars('a', 'z');
+        tokenizer.wordChars('0', '9');
+        tokenizer.wordChars('\u00A0', '\u00FF');
+        tokenizer.wordChars('.', '.');
+        tokenizer.wordChars('-', '-');
+        tokenizer.wordChars('_', '_');
+
+        // Ignore the invoking command name and the OBR command.
+        int type = tokenizer.nextToken();
+        type = tokenizer.nextToken();
+
+        int EOF = 1;
+        int SWITCH = 2;
+        int TARGET = 4;
+        int VERSION = 8;
+        int VERSION_VALUE = 16;
+
+        // Construct a dependents record.
+        ParsedCommand pc = new ParsedCommand();
+        String currentTargetName = null;
+
+        // The state machine starts by expecting either a
+        // SWITCH or a TARGET.
+        int expecting = (SWITCH | TARGET);
+        while (true)
+        {
+            // Get the next token type.
+            type = tokenizer.nextToken();
+            switch (type)
+            {
+                // EOF received.
+                case StreamTokenizer.TT_EOF:
+                    // Error if we weren't expecting EOF.
+                    if ((expecting & EOF) == 0)
+                    {
+                        throw new InvalidSyntaxException(
+                            "Expecting more arguments.", null);
+                    }
+                    // Add current target if there is one.
+                    if (currentTargetName != null)
+                    {
+                        pc.addTarget(currentTargetName, null);
+                    }
+                    // Return cleanly.
+                    return pc;
+
+                // WORD or quoted WORD received.
+                case StreamTokenizer.TT_WORD:
+                case '\'':
+                case '\"':
+                    // If we are expecting a command SWITCH and the token
+                    // equals a command SWITCH, then record it.
+                    if (((expecting & SWITCH) > 0) && tokenizer.sval.equals(TRANSITIVE_SWITCH))
+                    {
+                        pc.setTransitive(true);
+                        expecting = (TARGET);
+                    }
+                    // If we are expecting a target, the record it.
+                    else if ((expecting & TARGET) > 0)
+                    {
+                        // Add current target if there is one.
+                        if (currentTargetName != null)
+                        {
+                            pc.addTarget(currentTargetName, null);
+                        }
+                        // Set the new target as the current target.
+                        currentTargetName = tokenizer.sval;
+                        expecting = (EOF | TARGET | VERSION);
+                    }
+                    else if ((expecting & VERSION_VALUE) > 0)
+                    {
+                        pc.addTarget(currentTargetName, tokenizer.sval);
+                        currentTargetName = null;
+                        expecting = (EOF | TARGET);
+                    }
+                    else
+                    {
+                        throw new InvalidSyntaxException(
+                            "Not expecting '" + tokenizer.sval + "'.", null);
+                    }
+                    break;
+
+                // Version separator character received.
+                case ';':
+                    // Error if we weren't expecting the version separator.
+                    if ((expecting & VERSION) == 0)
+                    {
+                        throw new InvalidSyntaxException(
+                            "Not expecting version.", null);
+                    }
+                    // Otherwise, we will only expect a version value next.
+                    expecting = (VERSION_VALUE);
+                    break;
+            }
+        }
+    }
+
     private ParsedCommand parseSource(String commandLine)
         throws IOException, InvalidSyntaxException
     {
@@ -1173,6 +1433,45 @@ public class ObrCommandImpl implements Command
                 "specified local directory.");
             out.println("");
         }
+        else if (command.equals(DEPENDENTS_CMD))
+        {
+            out.println("");
+            out.println("obr " + DEPENDENTS_CMD
+                + " [" + TRANSITIVE_SWITCH
+                + "] <bundle-name>|<bundle-symbolic-name>|<bundle-id>[;<version>] ...");
+            out.println("");
+            out.println(
+                "This command displays the resources of the repositories, including\n" +
+                "the locally installed bundles, which have a requirement that the\n" +
+                "specified bundles can satisfy, along with these requirements. Use\n" +
+                "the \"" + TRANSITIVE_SWITCH + "\" switch to list all resources depending directly or\n" +
+                "indirectly on the specified bundles instead. A bundle identifier\n" +
+                "designates the installed bundle, otherwise the most recent version\n" +
+                "is used unless a precise version is specified, such as:\n" +
+                "\n" +
+                "    obr dependents \"Bundle Repository\";1.0.0");
+            out.println("");
+        }
+        else if (command.equals(IMPACT_CMD))
+        {
+            out.println("");
+            out.println("obr " + IMPACT_CMD
+                + " <bundle-name>|<bundle-symbolic-name>|<bundle-id>[;<version>] [<new-version>]");
+            out.println("");
+            out.println(
+                "This command displays the requirements which could no longer be\n" +
+                "satisfied if the specified bundle was updated to the specified\n" +
+                "version of the repositories, or removed if no new version is\n" +
+                "specified. Resources left with an unsatisfied mandatory requirement\n" +
+                "break in turn, so indirect breakages are displayed too. For example:\n" +
+                "\n" +
+                "    obr impact \"Bundle Repository\";1.0.0 2.0.0\n" +
+                "\n" +
+                "The above example lists the requirements satisfied by version\n" +
+                "\"1.0.0\" of the bundle named \"Bundle Repository\" which version\n" +
+                "\"2.0.0\" would not satisfy.");
+            out.println("");
+        }
         else
         {
             out.println("obr " + HELP_CMD
@@ -1182,7 +1481,8 @@ public class ObrCommandImpl implements Command
                 + " | " + LIST_CMD
                 + " | " + INFO_CMD
                 + " | " + DEPLOY_CMD + " | " + START_CMD
-                + " | " + SOURCE_CMD + " | " + JAVADOC_CMD + "]");
+                + " | " + SOURCE_CMD + " | " + JAVADOC_CMD
+                + " | " + DEPENDENTS_CMD + " | " + IMPACT_CMD + "]");
             out.println("obr " + ADDURL_CMD + " [<repository-file-url> ...]");
             out.println("obr " + REFRESHURL_CMD + " [<repository-file-url> ...]");
             out.println("obr " + REMOVEURL_CMD + " [<repository-file-url> ...]");
@@ -1200,6 +1500,11 @@ public class ObrCommandImpl implements Command
             out.println("obr " + JAVADOC_CMD
                 + " [" + EXTRACT_SWITCH
                 + "] <local-dir> <bundle-name>[;<version>] ...");
+            out.println("obr " + DEPENDENTS_CMD
+                + " [" + TRANSITIVE_SWITCH
+                + "] <bundle-name>|<bundle-symbolic-name>|<bundle-id>[;<version>] ...");
+            out.println("obr " + IMPACT_CMD
+                + " <bundle-name>|<bundle-symbolic-name>|<bundle-id>[;<version>] [<new-version>]");
         }
     }
 
@@ -1254,6 +1559,7 @@ public class ObrCommandImpl implements Command
         private boolean m_isCheck = false;
         private boolean m_isExtract = false;
         private boolean m_isVerbose = false;
+        private boolean m_isTransitive = false;
         private String m_tokens = null;
         private String m_dir = null;
         private String[][] m_targets = new String[0][];
@@ -1298,6 +1604,16 @@ public class ObrCommandImpl implements Command
             m_isVerbose = b;
         }
 
+        public boolean isTransitive()
+        {
+            return m_isTransitive;
+        }
+
+        public void setTransitive(boolean b)
+        {
+            m_isTransitive = b;
+        }
+
         public String getTokens()
         {
             return m_tokens;
@@ -51,9 +51,11 @@ public class RepositoryAdminImpl implements RepositoryAdmin
     private final Logger m_logger;
     private final SystemRepositoryImpl m_system;
     private final LocalRepositoryImpl m_local;
+    private final RepositoryCache m_cache;
     private final DataModelHelper m_helper = new DataModelHelperImpl();
     private Map m_repoMap = new HashMap();
     private boolean m_initialized = false;
+    private DependencyGraph m_graph = null;
 
     // Reusable comparator for sorting resources by name.
     private Comparator m_nameComparator = new ResourceComparator();
@@ -62,9 +64,15 @@ public class RepositoryAdminImpl implements RepositoryAdmin
     public static final String EXTERN_REPOSITORY_TAG = "extern-repositories";
 
     public RepositoryAdminImpl(BundleContext context, Logger logger)
+    {
+        this(context, logger, null);
+    }
+
+    public RepositoryAdminImpl(BundleContext context, Logger logger, RepositoryCache cache)
     {
         m_context = context;
         m_logger = logger;
+        m_cache = cache;
         m_system = new SystemRepositoryImpl(context, logger);
         m_local = new LocalRepositoryImpl(context, logger);
     }
@@ -112,7 +120,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
             {
                 public Object run() throws Exception
                 {
-                    return m_helper.repository(url);
+                    return (m_cache != null) ? m_cache.repository(url) : m_helper.repository(url);
                 }
             });
             m_repoMap.put(url.toExternalForm(), repository);
@@ -167,11 +175,7 @@ public class RepositoryAdminImpl implements RepositoryAdmin
     {
         initialize();
 
-        List repositories = new ArrayList();
-        repositories.add(m_system);
-        repositories.add(m_local);
-        repositories.addAll(m_repoMap.values());
-        return resolver((Repository[]) repositories.toArray(new Repository[repositories.size()]));
+        return resolver(getAllRepositories());
     }
 
     public synchronized Resolver resolver(Repository[] repositories)
@@ -257,6 +261,31 @@ public class RepositoryAdminImpl implements RepositoryAdmin
         return resources;
     }
 
+    /**
+     * Returns the dependency graph of the system, local and remote
+     * repositories, which is rebuilt when one of them has changed.
+     */
+    public synchronized DependencyGraph getDependencyGraph()
+    {
+        initialize();
+
+        Repository[] repositories = getAllRepositories();
+        if ((m_graph == null) || !m_graph.isCurrent(repositories))
+        {
+            m_graph = new DependencyGraph(repositories);
+        }
+        return m_graph;
+    }
+
+    private Repository[] getAllRepositories()
+    {
+        List repositories = new ArrayList();
+        repositories.add(m_system);
+        repositories.add(m_local);
+        repositories.addAll(m_repoMap.values());
+        return (Repository[]) repositories.toArray(new Repository[repositories.size()]);
+    }
+
     private void initialize()
     {
         if (m_initialized)
@@ -0,0 +1,775 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Property;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.log.Logger;
+import org.apache.felix.utils.version.VersionTable;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+
+/**
+ * Keeps a binary snapshot of each parsed repository, so that adding or
+ * refreshing a repository which did not change since it was last parsed
+ * does not need to parse its XML again.
+ * <p>
+ * A snapshot is keyed by the repository URL and the last modification time
+ * reported by the URL connection; repositories without modification time
+ * are always parsed. HTTP repositories are queried with an
+ * <code>If-Modified-Since</code> header, so that unchanged repositories are
+ * not even downloaded.
+ * <p>
+ * All the strings of a snapshot are stored once in a string table, so that
+ * the names and values shared by many capabilities and requirements are also
+ * shared in memory once loaded. Only the resource properties are decoded when
+ * a snapshot is loaded, the capabilities and requirements of a resource are
+ * decoded the first time they are asked for.
+ */
+public class RepositoryCache
+{
+    public static final String REPOSITORY_CACHE_PROP = "obr.repository.cache";
+
+    private static final int MAGIC = 0x4f425243; // "OBRC"
+    private static final int FORMAT = 1;
+
+    // value tags
+    private static final int NULL_VALUE = 0;
+    private static final int STRING_VALUE = 1;
+    private static final int VERSION_VALUE = 2;
+    private static final int LONG_VALUE = 3;
+    private static final int DOUBLE_VALUE = 4;
+    private static final int LIST_VALUE = 5;
+    private static final int SET_VALUE = 6;
+    private static final int URI_VALUE = 7;
+    private static final int URL_VALUE = 8;
+
+    // property kinds
+    private static final int TYPED_PROPERTY = 0;
+    private static final int CONVERTED_PROPERTY = 1;
+
+    // requirement flags
+    private static final int EXTEND = 1;
+    private static final int MULTIPLE = 2;
+    private static final int OPTIONAL = 4;
+
+    private final File m_dir;
+    private final Logger m_logger;
+    private final DataModelHelperImpl m_helper = new DataModelHelperImpl();
+
+    public RepositoryCache(File dir, Logger logger)
+    {
+        m_dir = dir;
+        m_logger = logger;
+    }
+
+    /**
+     * Creates the cache in the data area of the bundle, unless it has been
+     * disabled by setting the <code>obr.repository.cache</code> property to
+     * <code>false</code> or the framework has no file system support.
+     */
+    public static RepositoryCache create(BundleContext context, Logger logger)
+    {
+        if ("false".equalsIgnoreCase(context.getProperty(REPOSITORY_CACHE_PROP)))
+        {
+            return null;
+        }
+        File dir = context.getDataFile("repositories");
+        return (dir != null) ? new RepositoryCache(dir, logger) : null;
+    }
+
+    /**
+     * Returns the repository at the given URL, from its snapshot if it did
+     * not change since, by parsing it otherwise.
+     */
+    public RepositoryImpl repository(URL url) throws Exception
+    {
+        File file = getFile(url);
+        long cached = readLastModified(file, url);
+
+        URLConnection conn = url.openConnection();
+        FileUtil.setProxyAuth(conn);
+        if (cached > 0)
+        {
+            conn.setIfModifiedSince(cached);
+        }
+        long lastModified = conn.getLastModified();
+        boolean notModified = (conn instanceof HttpURLConnection)
+            && (((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED);
+
+        if ((cached > 0) && (notModified || (lastModified == cached)))
+        {
+            close(conn);
+            try
+            {
+                return read(file, url);
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(Logger.LOG_WARNING, "Ignoring invalid repository cache " + file, ex);
+                file.delete();
+                return m_helper.repository(url, FileUtil.openURL(url));
+            }
+        }
+
+        RepositoryImpl repository = m_helper.repository(url, FileUtil.openURL(conn));
+        if (lastModified > 0)
+        {
+            try
+            {
+                write(file, url, lastModified, repository);
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(Logger.LOG_DEBUG, "Unable to cache repository " + url, ex);
+                file.delete();
+            }
+        }
+        return repository;
+    }
+
+    private File getFile(URL url)
+    {
+        // collisions are detected by the URL stored in the snapshot
+        return new File(m_dir, Integer.toHexString(url.toExternalForm().hashCode()) + ".bin");
+    }
+
+    private static void close(URLConnection conn)
+    {
+        try
+        {
+            conn.getInputStream().close();
+        }
+        catch (IOException ex)
+        {
+            // Not much we can do.
+        }
+    }
+
+    /**
+     * Returns the modification time of the repository snapshot stored in
+     * the given file, or <code>-1</code> if there is no valid snapshot of the
+     * given URL.
+     */
+    long readLastModified(File file, URL url)
+    {
+        if (!file.isFile())
+        {
+            return -1;
+        }
+        try
+        {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try
+            {
+                if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT))
+                {
+                    return -1;
+                }
+                int length = 0;
+                for (int shift = 0;; shift += 7)
+                {
+                    int b = in.readUnsignedByte();
+                    length |= (b & 0x7f) << shift;
+                    if ((b & 0x80) == 0)
+                    {
+                        break;
+                    }
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                if (!new String(bytes, "UTF-8").equals(url.toExternalForm()))
+                {
+                    return -1;
+                }
+                return in.readLong();
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the repository snapshot stored in the given file.
+     */
+    RepositoryImpl read(File file, URL url) throws IOException
+    {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            in.readFully(data);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        Decoder decoder = new Decoder(data, null);
+        if ((decoder.readInt() != MAGIC) || (decoder.readInt() != FORMAT))
+        {
+            throw new IOException("Not a repository cache");
+        }
+        decoder.readUTF8(); // URL
+        decoder.readLong(); // source modification time
+
+        String[] strings = new String[decoder.readVarInt()];
+        for (int i = 0; i < strings.length; i++)
+        {
+            strings[i] = decoder.readUTF8();
+        }
+        int pos = decoder.m_pos;
+        decoder = new Decoder(data, strings);
+        decoder.m_pos = pos;
+
+        RepositoryImpl repository = new RepositoryImpl();
+        repository.setURI(url.toExternalForm());
+        repository.setName(decoder.readString());
+        repository.setLastModified(decoder.readLong());
+        for (int i = decoder.readVarInt(); i > 0; i--)
+        {
+            Referral referral = new Referral();
+            referral.setDepth(String.valueOf(decoder.readVarInt()));
+            referral.setUrl(decoder.readString());
+            try
+            {
+                repository.addReferral(referral);
+            }
+            catch (Exception ex)
+            {
+                // Never thrown.
+            }
+        }
+
+        for (int i = decoder.readVarInt(); i > 0; i--)
+        {
+            CachedResourceImpl resource = new CachedResourceImpl();
+            for (int j = decoder.readVarInt(); j > 0; j--)
+            {
+                resource.putConverted(decoder.readString(), decoder.readValue());
+            }
+            int length = decoder.readVarInt();
+            resource.m_decoder = new Decoder(data, strings);
+            resource.m_decoder.m_pos = decoder.m_pos;
+            decoder.m_pos += length;
+            repository.addResource(resource);
+        }
+        return repository;
+    }
+
+    /**
+     * Writes a snapshot of the given repository to the given file.
+     */
+    void write(File file, URL url, long lastModified, RepositoryImpl repository) throws IOException
+    {
+        Encoder body = new Encoder();
+        body.writeString(repository.getName());
+        body.writeLong(repository.getLastModified());
+        Referral[] referrals = repository.getReferrals();
+        body.writeVarInt((referrals != null) ? referrals.length : 0);
+        for (int i = 0; (referrals != null) && (i < referrals.length); i++)
+        {
+            body.writeVarInt(referrals[i].getDepth());
+            body.writeString(referrals[i].getUrl());
+        }
+
+        Resource[] resources = repository.getResources();
+        body.writeVarInt(resources.length);
+        Encoder block = new Encoder(body.m_strings);
+        for (Resource resource : resources)
+        {
+            Map properties = resource.getProperties();
+            body.writeVarInt(properties.size());
+            for (Object o : properties.entrySet())
+            {
+                Map.Entry entry = (Map.Entry) o;
+                body.writeString((String) entry.getKey());
+                body.writeValue(entry.getValue());
+            }
+
+            block.reset();
+            writeCapabilities(block, resource.getCapabilities());
+            writeRequirements(block, resource.getRequirements());
+            body.writeVarInt(block.size());
+            block.writeTo(body);
+        }
+
+        Encoder header = new Encoder();
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT);
+        header.writeUTF8(url.toExternalForm());
+        header.writeLong(lastModified);
+        String[] strings = body.getStrings();
+        header.writeVarInt(strings.length);
+        for (String s : strings)
+        {
+            header.writeUTF8(s);
+        }
+
+        m_dir.mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try
+        {
+            header.writeTo(out);
+            body.writeTo(out);
+        }
+        finally
+        {
+            out.close();
+        }
+        file.delete();
+        if (!tmp.renameTo(file))
+        {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp + " to " + file);
+        }
+    }
+
+    private static void writeCapabilities(Encoder out, Capability[] caps)
+    {
+        out.writeVarInt((caps != null) ? caps.length : 0);
+        for (int i = 0; (caps != null) && (i < caps.length); i++)
+        {
+            out.writeString(caps[i].getName());
+            Property[] props = caps[i].getProperties();
+            out.writeVarInt(props.length);
+            for (Property prop : props)
+            {
+                out.writeString(prop.getName());
+                if (prop instanceof PropertyImpl)
+                {
+                    out.writeVarInt(TYPED_PROPERTY);
+                    out.writeString(prop.getType());
+                    out.writeString(prop.getValue());
+                }
+                else
+                {
+                    out.writeVarInt(CONVERTED_PROPERTY);
+                    out.writeValue(prop.getConvertedValue());
+                }
+            }
+            out.writeStrings(caps[i].getDirectives());
+        }
+    }
+
+    private static void writeRequirements(Encoder out, Requirement[] reqs)
+    {
+        out.writeVarInt((reqs != null) ? reqs.length : 0);
+        for (int i = 0; (reqs != null) && (i < reqs.length); i++)
+        {
+            out.writeString(reqs[i].getName());
+            out.writeString(reqs[i].getFilter());
+            out.writeVarInt((reqs[i].isExtend() ? EXTEND : 0)
+                | (reqs[i].isMultiple() ? MULTIPLE : 0)
+                | (reqs[i].isOptional() ? OPTIONAL : 0));
+            out.writeString(reqs[i].getComment());
+            Map<String, Object> attributes = reqs[i].getAttributes();
+            out.writeVarInt(attributes.size());
+            for (Map.Entry<String, Object> entry : attributes.entrySet())
+            {
+                out.writeString(entry.getKey());
+                out.writeValue(entry.getValue());
+            }
+            out.writeStrings(reqs[i].getDirectives());
+        }
+    }
+
+    private static void readCapabilities(Decoder in, ResourceImpl resource)
+    {
+        for (int i = in.readVarInt(); i > 0; i--)
+        {
+            CapabilityImpl cap = new CapabilityImpl(in.readString());
+            for (int j = in.readVarInt(); j > 0; j--)
+            {
+                String name = in.readString();
+                if (in.readVarInt() == TYPED_PROPERTY)
+                {
+                    String type = in.readString();
+                    cap.addProperty(new PropertyImpl(name, type, in.readString()));
+                }
+                else
+                {
+                    cap.addProperty(new FelixPropertyAdapter(name, in.readValue()));
+                }
+            }
+            for (Map.Entry<String, String> entry : in.readStrings().entrySet())
+            {
+                cap.addDirective(entry.getKey(), entry.getValue());
+            }
+            resource.addCapability(cap);
+        }
+    }
+
+    private static void readRequirements(Decoder in, ResourceImpl resource)
+    {
+        for (int i = in.readVarInt(); i > 0; i--)
+        {
+            RequirementImpl req = new RequirementImpl(in.readString());
+            req.setFilter(in.readString());
+            int flags = in.readVarInt();
+            req.setExtend((flags & EXTEND) != 0);
+            req.setMultiple((flags & MULTIPLE) != 0);
+            req.setOptional((flags & OPTIONAL) != 0);
+            req.addText(in.readString());
+            int count = in.readVarInt();
+            if (count > 0)
+            {
+                Map<String, Object> attributes = new HashMap<String, Object>();
+                for (; count > 0; count--)
+                {
+                    attributes.put(in.readString(), in.readValue());
+                }
+                req.setAttributes(attributes);
+            }
+            Map<String, String> directives = in.readStrings();
+            if (!directives.isEmpty())
+            {
+                req.setDirectives(directives);
+            }
+            resource.addRequire(req);
+        }
+    }
+
+    /**
+     * A resource read from a snapshot, which decodes its capabilities and
+     * requirements when they are first needed.
+     */
+    static class CachedResourceImpl extends ResourceImpl
+    {
+        private Decoder m_decoder;
+
+        public Capability[] getCapabilities()
+        {
+            decode();
+            return super.getCapabilities();
+        }
+
+        public Requirement[] getRequirements()
+        {
+            decode();
+            return super.getRequirements();
+        }
+
+        private synchronized void decode()
+        {
+            if (m_decoder != null)
+            {
+                readCapabilities(m_decoder, this);
+                readRequirements(m_decoder, this);
+                m_decoder = null;
+            }
+        }
+    }
+
+    /**
+     * Writes variable length integers and indexes into a shared string table.
+     */
+    private static final class Encoder extends ByteArrayOutputStream
+    {
+        private final Map<String, Integer> m_strings;
+
+        Encoder()
+        {
+            this(new HashMap<String, Integer>());
+        }
+
+        Encoder(Map<String, Integer> strings)
+        {
+            super(256);
+            m_strings = strings;
+        }
+
+        String[] getStrings()
+        {
+            String[] strings = new String[m_strings.size()];
+            for (Map.Entry<String, Integer> entry : m_strings.entrySet())
+            {
+                strings[entry.getValue()] = entry.getKey();
+            }
+            return strings;
+        }
+
+        void writeInt(int v)
+        {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        void writeLong(long v)
+        {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        void writeVarInt(int v)
+        {
+            while ((v & ~0x7f) != 0)
+            {
+                write((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            write(v);
+        }
+
+        void writeUTF8(String s)
+        {
+            try
+            {
+                byte[] bytes = s.getBytes("UTF-8");
+                writeVarInt(bytes.length);
+                write(bytes, 0, bytes.length);
+            }
+            catch (UnsupportedEncodingException ex)
+            {
+                throw new IllegalStateException(ex.toString());
+            }
+        }
+
+        /**
+         * Writes the index of the string in the table, 0 being null.
+         */
+        void writeString(String s)
+        {
+            if (s == null)
+            {
+                writeVarInt(0);
+                return;
+            }
+            Integer index = m_strings.get(s);
+            if (index == null)
+            {
+                index = m_strings.size();
+                m_strings.put(s, index);
+            }
+            writeVarInt(index + 1);
+        }
+
+        void writeStrings(Map<String, String> map)
+        {
+            writeVarInt(map.size());
+            for (Map.Entry<String, String> entry : map.entrySet())
+            {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+
+        void writeValue(Object value)
+        {
+            if (value == null)
+            {
+                writeVarInt(NULL_VALUE);
+            }
+            else if (value instanceof String)
+            {
+                writeVarInt(STRING_VALUE);
+                writeString((String) value);
+            }
+            else if (value instanceof Version)
+            {
+                writeVarInt(VERSION_VALUE);
+                writeString(value.toString());
+            }
+            else if (value instanceof Long)
+            {
+                writeVarInt(LONG_VALUE);
+                writeLong((Long) value);
+            }
+            else if (value instanceof Double)
+            {
+                writeVarInt(DOUBLE_VALUE);
+                writeLong(Double.doubleToLongBits((Double) value));
+            }
+            else if ((value instanceof List) || (value instanceof Set))
+            {
+                writeVarInt((value instanceof List) ? LIST_VALUE : SET_VALUE);
+                writeVarInt(((Collection) value).size());
+                for (Object o : (Collection) value)
+                {
+                    writeValue(o);
+                }
+            }
+            else if (value instanceof URI)
+            {
+                writeVarInt(URI_VALUE);
+                writeString(value.toString());
+            }
+            else if (value instanceof URL)
+            {
+                writeVarInt(URL_VALUE);
+                writeString(value.toString());
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unsupported value type: " + value.getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Reads what the {@link Encoder} wrote.
+     */
+    private static final class Decoder
+    {
+        private final byte[] m_data;
+        private final String[] m_strings;
+        private int m_pos;
+
+        Decoder(byte[] data, String[] strings)
+        {
+            m_data = data;
+            m_strings = strings;
+        }
+
+        private int read()
+        {
+            if (m_pos >= m_data.length)
+            {
+                throw new IllegalStateException(new EOFException().toString());
+            }
+            return m_data[m_pos++] & 0xff;
+        }
+
+        int readInt()
+        {
+            return (read() << 24) | (read() << 16) | (read() << 8) | read();
+        }
+
+        long readLong()
+        {
+            return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+        }
+
+        int readVarInt()
+        {
+            int v = 0;
+            for (int shift = 0;; shift += 7)
+            {
+                int b = read();
+                v |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0)
+                {
+                    return v;
+                }
+            }
+        }
+
+        String readUTF8() throws IOException
+        {
+            int length = readVarInt();
+            if (m_pos + length > m_data.length)
+            {
+                throw new EOFException();
+            }
+            String s = new String(m_data, m_pos, length, "UTF-8");
+            m_pos += length;
+            return s;
+        }
+
+        String readString()
+        {
+            int index = readVarInt();
+            return (index == 0) ? null : m_strings[index - 1];
+        }
+
+        Map<String, String> readStrings()
+        {
+            int count = readVarInt();
+            Map<String, String> map = new HashMap<String, String>();
+            for (; count > 0; count--)
+            {
+                map.put(readString(), readString());
+            }
+            return map;
+        }
+
+        Object readValue()
+        {
+            int tag = readVarInt();
+            switch (tag)
+            {
+                case NULL_VALUE:
+                    return null;
+                case STRING_VALUE:
+                    return readString();
+                case VERSION_VALUE:
+                    return VersionTable.getVersion(readString(), false);
+                case LONG_VALUE:
+                    return readLong();
+                case DOUBLE_VALUE:
+                    return Double.longBitsToDouble(readLong());
+                case LIST_VALUE:
+                case SET_VALUE:
+                    int count = readVarInt();
+                    Collection<Object> c = (tag == LIST_VALUE) ? new ArrayList<Object>(count) : new HashSet<Object>();
+                    for (; count > 0; count--)
+                    {
+                        c.add(readValue());
+                    }
+                    return c;
+                case URI_VALUE:
+                    return URI.create(readString());
+                case URL_VALUE:
+                    try
+                    {
+                        return new URL(readString());
+                    }
+                    catch (IOException ex)
+                    {
+                        throw new IllegalStateException(ex.toString());
+                    }
+                default:
+                    throw new IllegalStateException("Unknown value tag " + tag);
+            }
+        }
+    }
+}
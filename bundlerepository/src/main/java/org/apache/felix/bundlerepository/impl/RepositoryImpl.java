@@ -27,12 +27,13 @@ import java.util.Set;
 import org.apache.felix.bundlerepository.Resource;
 import org.apache.felix.bundlerepository.Repository;
 
-public class RepositoryImpl implements Repository
+public class RepositoryImpl implements Repository, CapabilityIndex.IndexedRepository
 {
     private String m_name = null;
     private long m_lastmodified = System.currentTimeMillis();
     private String m_uri = null;
     private Resource[] m_resources = null;
+    private CapabilityIndex m_index = null;
     private Referral[] m_referrals = null;
     private Set m_resourceSet = new HashSet();
 
@@ -66,6 +67,19 @@ public class RepositoryImpl implements Repository
         return m_resources;
     }
 
+    public CapabilityIndex getCapabilityIndex()
+    {
+        // The index only has final fields, so it can be safely shared
+        // even if two resolvers happen to build it concurrently.
+        CapabilityIndex index = m_index;
+        if (index == null)
+        {
+            index = new CapabilityIndex(getResources());
+            m_index = index;
+        }
+        return index;
+    }
+
     public void addResource(Resource resource)
     {
         // Set resource's repository.
@@ -78,6 +92,7 @@ public class RepositoryImpl implements Repository
         m_resourceSet.remove(resource);
         m_resourceSet.add(resource);
         m_resources = null;
+        m_index = null;
     }
 
     public Referral[] getReferrals()
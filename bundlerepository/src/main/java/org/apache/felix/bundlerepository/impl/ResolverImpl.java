@@ -18,8 +18,9 @@
  */
 package org.apache.felix.bundlerepository.impl;
 
-import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.felix.bundlerepository.*;
 import org.apache.felix.utils.log.Logger;
@@ -46,6 +47,8 @@ public class ResolverImpl implements Resolver
     private boolean m_resolved = false;
     private long m_resolveTimeStamp;
     private int m_resolutionFlags;
+    private Repository[] m_searchedRepositories;
+    private CapabilityIndex[] m_indexes;
 
     public ResolverImpl(BundleContext context, Repository[] repositories, Logger logger)
     {
@@ -136,22 +139,19 @@ public class ResolverImpl implements Resolver
         return resources.toArray(new LocalResource[resources.size()]);
     }
 
-    private Resource[] getRemoteResources()
+    private Resource[] getResources()
     {
         List<Resource> resources = new ArrayList<Resource>();
-        for (Resource resource : getResources())
+        for (Repository repository : getRepositories())
         {
-            if (resource != null && !resource.isLocal())
-            {
-                resources.add(resource);
-            }
+            Collections.addAll(resources, repository.getResources());
         }
         return resources.toArray(new Resource[resources.size()]);
     }
 
-    private Resource[] getResources()
+    private Repository[] getRepositories()
     {
-        List<Resource> resources = new ArrayList<Resource>();
+        List<Repository> repositories = new ArrayList<Repository>();
         for (int repoIdx = 0; (m_repositories != null) && (repoIdx < m_repositories.length); repoIdx++)
         {
             boolean isLocal = m_repositories[repoIdx].getURI().equals(Repository.LOCAL);
@@ -162,9 +162,26 @@ public class ResolverImpl implements Resolver
             if (isSystem && (m_resolutionFlags & NO_SYSTEM_BUNDLE) != 0) {
                 continue;
             }
-            Collections.addAll(resources, m_repositories[repoIdx].getResources());
+            repositories.add(m_repositories[repoIdx]);
         }
-        return resources.toArray(new Resource[resources.size()]);
+        return repositories.toArray(new Repository[repositories.size()]);
+    }
+
+    /**
+     * Returns the capability indexes of the searched repositories, which
+     * are only built once a requirement has to be looked up.
+     */
+    private CapabilityIndex[] getIndexes()
+    {
+        if (m_indexes == null)
+        {
+            m_indexes = new CapabilityIndex[m_searchedRepositories.length];
+            for (int i = 0; i < m_indexes.length; i++)
+            {
+                m_indexes[i] = CapabilityIndex.getIndex(m_searchedRepositories[i]);
+            }
+        }
+        return m_indexes;
     }
 
     public synchronized boolean resolve()
@@ -176,7 +193,8 @@ public class ResolverImpl implements Resolver
     {
         // Find resources
         Resource[] locals = getLocalResources();
-        Resource[] remotes = getRemoteResources();
+        m_searchedRepositories = getRepositories();
+        m_indexes = null;
 
         // time of the resolution process start
         m_resolveTimeStamp = 0;
@@ -207,7 +225,7 @@ public class ResolverImpl implements Resolver
             for (Requirement req : m_addedRequirementSet) {
                 fake.addRequire(req);
             }
-            if (!resolve(fake, locals, remotes, false))
+            if (!resolve(fake, false))
             {
                 result = false;
             }
@@ -215,7 +233,7 @@ public class ResolverImpl implements Resolver
 
         // Loop through each resource in added list and resolve.
         for (Resource aM_addedSet : m_addedSet) {
-            if (!resolve(aM_addedSet, locals, remotes, false)) {
+            if (!resolve(aM_addedSet, false)) {
                 // If any resource does not resolve, then the
                 // entire result will be false.
                 result = false;
@@ -239,7 +257,7 @@ public class ResolverImpl implements Resolver
         return result;
     }
 
-    private boolean resolve(Resource resource, Resource[] locals, Resource[] remotes, boolean optional)
+    private boolean resolve(Resource resource, boolean optional)
     {
         boolean result = true;
 
@@ -279,8 +297,7 @@ public class ResolverImpl implements Resolver
                     candidate = searchResources(req, m_resolveSet);
                 }
                 if (candidate == null) {
-                    List<ResourceCapability> candidateCapabilities = searchResources(req, locals);
-                    candidateCapabilities.addAll(searchResources(req, remotes));
+                    List<ResourceCapability> candidateCapabilities = searchResources(req, getIndexes());
 
                     // Determine the best candidate available that
                     // can resolve.
@@ -288,7 +305,7 @@ public class ResolverImpl implements Resolver
                         ResourceCapability bestCapability = getBestCandidate(candidateCapabilities);
 
                         // Try to resolve the best resource.
-                        if (resolve(bestCapability.getResource(), locals, remotes, optional || req.isOptional())) {
+                        if (resolve(bestCapability.getResource(), optional || req.isOptional())) {
                             candidate = bestCapability.getResource();
                         } else {
                             candidateCapabilities.remove(bestCapability);
@@ -305,7 +322,7 @@ public class ResolverImpl implements Resolver
                 } else if (candidate != null) {
 
                     // Try to resolve the candidate.
-                    if (resolve(candidate, locals, remotes, optional || req.isOptional())) {
+                    if (resolve(candidate, optional || req.isOptional())) {
                         // The resolved succeeded; record the candidate
                         // as either optional or required.
                         if (optional || req.isOptional()) {
@@ -362,30 +379,31 @@ public class ResolverImpl implements Resolver
     }
 
     /**
-     * Searches for resources that do meet the given requirement
+     * Searches for resources that do meet the given requirement, local
+     * resources first, then remote resources, in repository order
      * @param req the the requirement that must be satisfied by resources
-     * @param resources list of resources to look at
+     * @param indexes the capability indexes of the repositories to look at
      * @return all resources meeting the given requirement
      */
-    private List<ResourceCapability> searchResources(Requirement req, Resource[] resources)
+    private List<ResourceCapability> searchResources(Requirement req, CapabilityIndex[] indexes)
     {
         List<ResourceCapability> matchingCapabilities = new ArrayList<ResourceCapability>();
+        List<ResourceCapability> remoteCapabilities = new ArrayList<ResourceCapability>();
 
-        if (resources != null) {
-            for (Resource resource : resources) {
-                checkInterrupt();
+        for (CapabilityIndex index : indexes) {
+            checkInterrupt();
+            for (ResourceCapability cap : index.search(req)) {
                 // We don't need to look at resources we've already looked at.
-                if (!m_failedSet.contains(resource)) {
-                    Capability[] caps = resource.getCapabilities();
-                    if (caps != null) {
-                        for (Capability cap : caps) {
-                            if (req.isSatisfied(cap))
-                                matchingCapabilities.add(new ResourceCapabilityImpl(resource, cap));
-                        }
+                if (!m_failedSet.contains(cap.getResource())) {
+                    if (cap.getResource().isLocal()) {
+                        matchingCapabilities.add(cap);
+                    } else {
+                        remoteCapabilities.add(cap);
                     }
                 }
             }
         }
+        matchingCapabilities.addAll(remoteCapabilities);
 
         return matchingCapabilities;
     }
@@ -516,25 +534,62 @@ public class ResolverImpl implements Resolver
         }
         Resource[] deployResources = resourceSet.toArray(new Resource[resourceSet.size()]);
 
-        // List to hold all resources to be started.
-        List<Bundle> startList = new ArrayList<Bundle>();
-
-        // Deploy each resource, which will involve either finding a locally
-        // installed resource to update or the installation of a new version
-        // of the resource to be deployed.
-        for (Resource deployResource : deployResources) {
-            // For the resource being deployed, see if there is an older
-            // version of the resource already installed that can potentially
-            // be updated.
+        // Find out which resources update a locally installed resource
+        // and which ones must be installed; for each resource being deployed,
+        // see if there is an older version of the resource already installed
+        // that can potentially be updated without breaking any of the
+        // requirements of any of the other resources being deployed.
+        Map<Resource, LocalResource> updateMap = new HashMap<Resource, LocalResource>();
+        List<Resource> fetchList = new ArrayList<Resource>();
+        for (Resource deployResource : getDeploymentOrder(deployResources)) {
             LocalResource localResource = findUpdatableLocalResource(deployResource);
-            // If a potentially updatable older version was found,
-            // then verify that updating the local resource will not
-            // break any of the requirements of any of the other
-            // resources being deployed.
             if ((localResource != null) &&
                     isResourceUpdatable(localResource, deployResource, deployResources)) {
                 // Only update if it is a different version.
                 if (!localResource.equals(deployResource)) {
+                    updateMap.put(deployResource, localResource);
+                    fetchList.add(deployResource);
+                }
+            } else {
+                fetchList.add(deployResource);
+            }
+        }
+        if (fetchList.isEmpty())
+        {
+            return;
+        }
+
+        // Fetch the content of the resources concurrently, while installing
+        // the resources already fetched in deployment order.
+        ResourceDeployer deployer = new ResourceDeployer(ResourceDeployer.getThreads(m_context), m_logger);
+        try
+        {
+            List<Future<ResourceDeployer.Content>> contents = new ArrayList<Future<ResourceDeployer.Content>>();
+            for (Resource deployResource : fetchList) {
+                contents.add(deployer.stage(deployResource));
+            }
+
+            // Map of the bundles to be started.
+            Map<Resource, Bundle> startMap = new HashMap<Resource, Bundle>();
+
+            for (int i = 0; i < fetchList.size(); i++) {
+                Resource deployResource = fetchList.get(i);
+                ResourceDeployer.Content content;
+                try {
+                    content = contents.get(i).get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException ex) {
+                    m_logger.log(
+                            Logger.LOG_ERROR,
+                            "Resolver: Download error - " + deployResource.getSymbolicName(),
+                            ex.getCause());
+                    return;
+                }
+
+                LocalResource localResource = updateMap.get(deployResource);
+                if (localResource != null) {
                     // Update the installed bundle.
                     try {
                         // stop the bundle before updating to prevent
@@ -546,14 +601,14 @@ public class ResolverImpl implements Resolver
                             localResource.getBundle().stop();
                         }
 
-                        localResource.getBundle().update(FileUtil.openURL(new URL(deployResource.getURI())));
+                        localResource.getBundle().update(content.open());
 
                         // If necessary, save the updated bundle to be
                         // started later.
                         if (doStartBundle) {
                             Bundle bundle = localResource.getBundle();
                             if (!isFragmentBundle(bundle)) {
-                                startList.add(bundle);
+                                startMap.put(deployResource, bundle);
                             }
                         }
                     } catch (Exception ex) {
@@ -562,49 +617,117 @@ public class ResolverImpl implements Resolver
                                 "Resolver: Update error - " + getBundleName(localResource.getBundle()),
                                 ex);
                         return;
+                    } finally {
+                        content.dispose();
                     }
-                }
-            } else {
-                // Install the bundle.
-                try {
-                    // Perform the install, but do not use the actual
-                    // bundle JAR URL for the bundle location, since this will
-                    // limit OBR's ability to manipulate bundle versions. Instead,
-                    // use a unique timestamp as the bundle location.
-                    URL url = new URL(deployResource.getURI());
-                    Bundle bundle = m_context.installBundle(
-                            "obr://"
-                                    + deployResource.getSymbolicName()
-                                    + "/-" + System.currentTimeMillis(),
-                            FileUtil.openURL(url));
-
-                    // If necessary, save the installed bundle to be
-                    // started later.
-                    if ((flags & START) != 0) {
-                        if (!isFragmentBundle(bundle)) {
-                            startList.add(bundle);
+                } else {
+                    // Install the bundle.
+                    try {
+                        // Perform the install, but do not use the actual
+                        // bundle JAR URL for the bundle location, since this will
+                        // limit OBR's ability to manipulate bundle versions. Instead,
+                        // use a unique timestamp as the bundle location.
+                        Bundle bundle = m_context.installBundle(
+                                "obr://"
+                                        + deployResource.getSymbolicName()
+                                        + "/-" + System.currentTimeMillis(),
+                                content.open());
+
+                        // If necessary, save the installed bundle to be
+                        // started later.
+                        if ((flags & START) != 0) {
+                            if (!isFragmentBundle(bundle)) {
+                                startMap.put(deployResource, bundle);
+                            }
                         }
+                    } catch (Exception ex) {
+                        m_logger.log(
+                                Logger.LOG_ERROR,
+                                "Resolver: Install error - " + deployResource.getSymbolicName(),
+                                ex);
+                        return;
+                    } finally {
+                        content.dispose();
                     }
-                } catch (Exception ex) {
-                    m_logger.log(
-                            Logger.LOG_ERROR,
-                            "Resolver: Install error - " + deployResource.getSymbolicName(),
-                            ex);
-                    return;
                 }
             }
+
+            // Start the bundles, the ones of a dependency level concurrently.
+            List<List<Bundle>> startLevels = new ArrayList<List<Bundle>>();
+            for (List<Resource> level : getDeploymentLevels(fetchList.toArray(new Resource[fetchList.size()]))) {
+                List<Bundle> bundles = new ArrayList<Bundle>();
+                for (Resource resource : level) {
+                    if (startMap.containsKey(resource)) {
+                        bundles.add(startMap.get(resource));
+                    }
+                }
+                if (!bundles.isEmpty()) {
+                    startLevels.add(bundles);
+                }
+            }
+            deployer.start(startLevels);
         }
+        finally
+        {
+            deployer.dispose();
+        }
+    }
+
+    /**
+     * Returns the given resources ordered such that each resource comes after
+     * the resources it has been resolved against.
+     */
+    private List<Resource> getDeploymentOrder(Resource[] resources)
+    {
+        List<Resource> order = new ArrayList<Resource>();
+        for (List<Resource> level : getDeploymentLevels(resources)) {
+            order.addAll(level);
+        }
+        return order;
+    }
 
-        for (Bundle aStartList : startList) {
-            try {
-                aStartList.start();
-            } catch (BundleException ex) {
-                m_logger.log(
-                        Logger.LOG_ERROR,
-                        "Resolver: Start error - " + aStartList.getSymbolicName(),
-                        ex);
+    /**
+     * Groups the given resources by dependency level: the resources of a level
+     * only depend on resources of the previous levels, according to the
+     * reasons recorded while resolving. Resources depending on each other
+     * end up in the same level.
+     */
+    private List<List<Resource>> getDeploymentLevels(Resource[] resources)
+    {
+        Set<Resource> remaining = new LinkedHashSet<Resource>(Arrays.asList(resources));
+        Map<Resource, Set<Resource>> dependencies = new HashMap<Resource, Set<Resource>>();
+        for (Resource resource : resources) {
+            List<Reason> reasons = m_reasonMap.get(resource);
+            for (int i = 0; (reasons != null) && (i < reasons.size()); i++) {
+                Resource requirer = reasons.get(i).getResource();
+                if ((requirer != resource) && remaining.contains(requirer)) {
+                    Set<Resource> deps = dependencies.get(requirer);
+                    if (deps == null) {
+                        deps = new HashSet<Resource>();
+                        dependencies.put(requirer, deps);
+                    }
+                    deps.add(resource);
+                }
+            }
+        }
+
+        List<List<Resource>> levels = new ArrayList<List<Resource>>();
+        while (!remaining.isEmpty()) {
+            List<Resource> level = new ArrayList<Resource>();
+            for (Resource resource : remaining) {
+                Set<Resource> deps = dependencies.get(resource);
+                if ((deps == null) || Collections.disjoint(deps, remaining)) {
+                    level.add(resource);
+                }
+            }
+            if (level.isEmpty()) {
+                // A dependency cycle, deploy the rest together.
+                level.addAll(remaining);
             }
+            remaining.removeAll(level);
+            levels.add(level);
         }
+        return levels;
     }
 
     /**
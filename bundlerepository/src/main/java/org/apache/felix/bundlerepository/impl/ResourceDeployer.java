@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.log.Logger;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+
+/**
+ * Runs the concurrent parts of a deployment for the {@link ResolverImpl}:
+ * the resource content is fetched by a bounded pool of threads while the
+ * resolver installs the resources already fetched, and the bundles of a
+ * dependency level are started together.
+ * <p>
+ * Remote content is downloaded to temporary files. Content of
+ * <code>file</code> URLs is read in place and only fetched ahead when it has
+ * to be verified. When the repository provides the SHA-256 checksum of a
+ * resource, the content is verified before it is handed to the framework.
+ */
+class ResourceDeployer
+{
+    /**
+     * Property defining the maximum number of threads used to fetch resources
+     * and start bundles. Defaults to 4, 1 deploys sequentially.
+     */
+    public static final String DEPLOY_THREADS_PROP = "obr.deploy.threads";
+
+    /**
+     * Resource property holding the SHA-256 checksum of the resource content.
+     */
+    public static final String SHA256 = "sha256";
+
+    private static final int DEFAULT_THREADS = 4;
+    private static final AtomicInteger m_threadCount = new AtomicInteger();
+
+    private final Logger m_logger;
+    private final ExecutorService m_executor;
+    private final List<Future<Content>> m_staged = new ArrayList<Future<Content>>();
+
+    ResourceDeployer(int threads, Logger logger)
+    {
+        m_logger = logger;
+        if (threads > 1)
+        {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "OBR Deployer " + m_threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            executor.allowCoreThreadTimeOut(true);
+            m_executor = executor;
+        }
+        else
+        {
+            m_executor = null;
+        }
+    }
+
+    static int getThreads(BundleContext context)
+    {
+        String threads = context.getProperty(DEPLOY_THREADS_PROP);
+        if (threads != null)
+        {
+            try
+            {
+                return Math.max(1, Integer.parseInt(threads.trim()));
+            }
+            catch (NumberFormatException ex)
+            {
+                // Use the default.
+            }
+        }
+        return DEFAULT_THREADS;
+    }
+
+    /**
+     * Starts fetching the content of the given resource. Resources are
+     * fetched in the order they are staged.
+     */
+    Future<Content> stage(final Resource resource)
+    {
+        FutureTask<Content> task = new FutureTask<Content>(new Callable<Content>()
+        {
+            public Content call() throws Exception
+            {
+                return fetch(resource);
+            }
+        });
+        synchronized (m_staged)
+        {
+            m_staged.add(task);
+        }
+        if (m_executor != null)
+        {
+            m_executor.execute(task);
+        }
+        else
+        {
+            task.run();
+        }
+        return task;
+    }
+
+    /**
+     * Starts the given bundles, level by level. The bundles of a level are
+     * started concurrently, after all the bundles of the previous levels.
+     */
+    void start(List<List<Bundle>> levels)
+    {
+        for (List<Bundle> level : levels)
+        {
+            if ((m_executor == null) || (level.size() < 2))
+            {
+                for (Bundle bundle : level)
+                {
+                    start(bundle);
+                }
+                continue;
+            }
+
+            List<Future<?>> started = new ArrayList<Future<?>>();
+            for (final Bundle bundle : level)
+            {
+                started.add(m_executor.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        start(bundle);
+                    }
+                }));
+            }
+            for (int i = 0; i < started.size(); i++)
+            {
+                try
+                {
+                    started.get(i).get();
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                catch (ExecutionException ex)
+                {
+                    // start() only logs bundle exceptions, others would
+                    // otherwise get lost with the pool thread
+                    m_logger.log(
+                        Logger.LOG_ERROR,
+                        "Resolver: Start error - " + level.get(i).getSymbolicName(),
+                        ex.getCause());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops fetching and removes the temporary files.
+     */
+    void dispose()
+    {
+        if (m_executor != null)
+        {
+            m_executor.shutdownNow();
+        }
+        List<Future<Content>> staged;
+        synchronized (m_staged)
+        {
+            staged = new ArrayList<Future<Content>>(m_staged);
+            m_staged.clear();
+        }
+        for (Future<Content> future : staged)
+        {
+            if (!future.cancel(true) && !future.isCancelled())
+            {
+                try
+                {
+                    future.get().dispose();
+                }
+                catch (Exception ex)
+                {
+                    // Nothing was staged.
+                }
+            }
+        }
+    }
+
+    private void start(Bundle bundle)
+    {
+        try
+        {
+            bundle.start();
+        }
+        catch (BundleException ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "Resolver: Start error - " + bundle.getSymbolicName(),
+                ex);
+        }
+    }
+
+    private static Content fetch(Resource resource) throws Exception
+    {
+        URL url = new URL(resource.getURI());
+        Object checksum = resource.getProperties().get(SHA256);
+        if ("file".equals(url.getProtocol()))
+        {
+            if (checksum != null)
+            {
+                InputStream is = FileUtil.openURL(url);
+                try
+                {
+                    copy(is, null, resource, checksum);
+                }
+                finally
+                {
+                    is.close();
+                }
+            }
+            return new Content(url, null);
+        }
+
+        File file = File.createTempFile("obr", ".jar");
+        try
+        {
+            InputStream is = FileUtil.openURL(url);
+            try
+            {
+                OutputStream os = new FileOutputStream(file);
+                try
+                {
+                    copy(is, os, resource, checksum);
+                }
+                finally
+                {
+                    os.close();
+                }
+            }
+            finally
+            {
+                is.close();
+            }
+            return new Content(url, file);
+        }
+        catch (Exception ex)
+        {
+            file.delete();
+            throw ex;
+        }
+    }
+
+    private static void copy(InputStream is, OutputStream os, Resource resource, Object checksum) throws Exception
+    {
+        MessageDigest md = (checksum != null) ? MessageDigest.getInstance("SHA-256") : null;
+        InputStream in = (md != null) ? new DigestInputStream(is, md) : is;
+        byte[] buffer = new byte[16384];
+        for (int len = in.read(buffer); len != -1; len = in.read(buffer))
+        {
+            if (os != null)
+            {
+                os.write(buffer, 0, len);
+            }
+            if (Thread.currentThread().isInterrupted())
+            {
+                throw new InterruptedException();
+            }
+        }
+
+        if (md != null)
+        {
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : md.digest())
+            {
+                sb.append(String.format("%02x", b));
+            }
+            if (!sb.toString().equalsIgnoreCase(checksum.toString().trim()))
+            {
+                throw new IOException("Checksum mismatch for " + resource.getURI()
+                    + ": expected " + checksum + " but was " + sb);
+            }
+        }
+    }
+
+    /**
+     * The fetched content of a resource.
+     */
+    static class Content
+    {
+        private final URL m_url;
+        private final File m_file;
+
+        Content(URL url, File file)
+        {
+            m_url = url;
+            m_file = file;
+        }
+
+        InputStream open() throws IOException
+        {
+            return (m_file != null) ? new FileInputStream(m_file) : FileUtil.openURL(m_url);
+        }
+
+        void dispose()
+        {
+            if (m_file != null)
+            {
+                m_file.delete();
+            }
+        }
+    }
+}
@@ -279,6 +279,16 @@ public class ResourceImpl implements Resource
         }
     }
 
+    /**
+     * Setter for values which are already converted, used when reading
+     * a cached repository.
+     **/
+    void putConverted(String key, Object value)
+    {
+        m_hash = 0;
+        m_map.put(key, value);
+    }
+
     private void convertURIs()
     {
         if (m_uris != null)
@@ -183,8 +183,8 @@ public class SpecXMLPullParser
         for (Map.Entry<String, Object> entry : attributes.entrySet())
         {
             if (ContentNamespace.CONTENT_NAMESPACE.equals(entry.getKey()))
-                // TODO we should really check the SHA
-                continue;
+                // The SHA-256 is checked when the resource is deployed
+                resource.put(ResourceDeployer.SHA256, entry.getValue());
             else if (ContentNamespace.CAPABILITY_URL_ATTRIBUTE.equals(entry.getKey()))
                 resource.put(Resource.URI, entry.getValue());
             else
@@ -24,12 +24,13 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
 import org.apache.felix.bundlerepository.Repository;
 
-public class SystemRepositoryImpl implements Repository
+public class SystemRepositoryImpl implements Repository, CapabilityIndex.IndexedRepository
 {
 
     private final Logger m_logger;
     private final long lastModified;
     private final LocalResourceImpl systemBundleResource;
+    private final CapabilityIndex index;
 
     public SystemRepositoryImpl(BundleContext context, Logger logger)
     {
@@ -46,6 +47,7 @@ public class SystemRepositoryImpl implements Repository
             m_logger.log(Logger.LOG_WARNING, ex.getMessage(), ex);
             throw new IllegalStateException("Unexpected error", ex);
         }
+        index = new CapabilityIndex(getResources());
     }
 
     public String getURI()
@@ -58,6 +60,11 @@ public class SystemRepositoryImpl implements Repository
         return new Resource[] { systemBundleResource };
     }
 
+    public CapabilityIndex getCapabilityIndex()
+    {
+        return index;
+    }
+
     public String getName()
     {
         return "System Repository";
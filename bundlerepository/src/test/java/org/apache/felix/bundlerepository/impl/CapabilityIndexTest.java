@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Repository;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+
+public class CapabilityIndexTest extends TestCase
+{
+    public void testGetKey()
+    {
+        assertEquals("org.foo", CapabilityIndex.getKey("(package=org.foo)", "package"));
+        assertEquals("org.foo", CapabilityIndex.getKey("(&(package=org.foo)(version>=1.0.0))", "package"));
+        assertEquals("org.foo", CapabilityIndex.getKey("(&(version>=1.0.0)(!(version>=2.0.0))(package=org.foo))", "package"));
+        assertEquals("a(b)*", CapabilityIndex.getKey("(package=a\\(b\\)\\*)", "package"));
+        assertEquals("bar", CapabilityIndex.getKey("(symbolicname=bar)", "symbolicname"));
+
+        assertNull(CapabilityIndex.getKey("(package=org.*)", "package"));
+        assertNull(CapabilityIndex.getKey("(package>=org.foo)", "package"));
+        assertNull(CapabilityIndex.getKey("(packages=org.foo)", "package"));
+        assertNull(CapabilityIndex.getKey("(|(package=org.foo)(package=org.bar))", "package"));
+        assertNull(CapabilityIndex.getKey("(&(version>=1.0.0)(!(package=org.foo)))", "package"));
+        assertNull(CapabilityIndex.getKey(null, "package"));
+    }
+
+    public void testSearchMatchesLinearScan() throws Exception
+    {
+        DataModelHelperImpl helper = new DataModelHelperImpl();
+        URL url = getClass().getResource("/repo_for_resolvertest.xml");
+        Repository repository = helper.repository(url);
+        Resource[] resources = repository.getResources();
+        CapabilityIndex index = new CapabilityIndex(resources);
+
+        List<Requirement> reqs = new ArrayList<Requirement>();
+        for (Resource resource : resources)
+        {
+            for (Requirement req : resource.getRequirements())
+            {
+                reqs.add(req);
+            }
+        }
+        reqs.add(helper.requirement("package", "(package=org.*)"));
+        reqs.add(helper.requirement("package", "(|(package=javax.sql)(package=org.xml.sax))"));
+        reqs.add(helper.requirement("bundle", "(symbolicname=dummy)"));
+        reqs.add(helper.requirement("package", "(package=does.not.exist)"));
+        assertTrue(reqs.size() > 4);
+
+        for (Requirement req : reqs)
+        {
+            List<ResourceCapability> expected = new ArrayList<ResourceCapability>();
+            for (Resource resource : resources)
+            {
+                for (Capability cap : resource.getCapabilities())
+                {
+                    if (req.isSatisfied(cap))
+                    {
+                        expected.add(new ResourceCapabilityImpl(resource, cap));
+                    }
+                }
+            }
+            List<ResourceCapability> actual = index.search(req);
+            assertEquals(req.getFilter(), expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++)
+            {
+                assertSame(expected.get(i).getResource(), actual.get(i).getResource());
+                assertSame(expected.get(i).getCapability(), actual.get(i).getCapability());
+            }
+        }
+    }
+
+    public void testUnkeyedCapabilitiesAreSearched()
+    {
+        ResourceImpl r1 = new ResourceImpl();
+        CapabilityImpl c1 = new CapabilityImpl(Capability.PACKAGE);
+        c1.addProperty(Capability.PACKAGE, "org.foo");
+        r1.addCapability(c1);
+        ResourceImpl r2 = new ResourceImpl();
+        CapabilityImpl c2 = new CapabilityImpl(Capability.PACKAGE);
+        c2.addProperty("other", "org.foo");
+        r2.addCapability(c2);
+        CapabilityImpl c3 = new CapabilityImpl(Capability.PACKAGE);
+        c3.addProperty(Capability.PACKAGE, "org.foo");
+        r2.addCapability(c3);
+
+        CapabilityIndex index = new CapabilityIndex(new Resource[] { r1, r2 });
+        List<ResourceCapability> result = index.search(new DataModelHelperImpl().requirement(
+            Capability.PACKAGE, "(|(package=org.foo)(other=org.foo))"));
+        assertEquals(3, result.size());
+        assertSame(c1, result.get(0).getCapability());
+        assertSame(c2, result.get(1).getCapability());
+        assertSame(c3, result.get(2).getCapability());
+
+        result = index.search(new DataModelHelperImpl().requirement(Capability.PACKAGE, "(package=org.foo)"));
+        assertEquals(2, result.size());
+        assertSame(c1, result.get(0).getCapability());
+        assertSame(c3, result.get(1).getCapability());
+    }
+}
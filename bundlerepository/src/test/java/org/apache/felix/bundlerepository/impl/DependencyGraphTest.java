@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Property;
+import org.apache.felix.bundlerepository.Repository;
+import org.apache.felix.bundlerepository.Resource;
+
+public class DependencyGraphTest extends TestCase
+{
+    private ResourceImpl m_api1;
+    private ResourceImpl m_api2;
+    private ResourceImpl m_impl;
+    private ResourceImpl m_app;
+    private RepositoryImpl m_repository;
+
+    protected void setUp()
+    {
+        m_api1 = createApi("1.0.0");
+        m_api2 = createApi("2.0.0");
+        m_impl = createResource("impl", "1.0.0", "org.impl");
+        addRequirement(m_impl, "(&(package=org.api)(version>=1.0.0)(!(version>=2.0.0)))", false);
+        m_app = createResource("app", "1.0.0", null);
+        addRequirement(m_app, "(package=org.impl)", false);
+        addRequirement(m_app, "(package=org.api)", true);
+        m_repository = new RepositoryImpl(new Resource[] { m_api1, m_api2, m_impl, m_app });
+    }
+
+    public void testDependents()
+    {
+        DependencyGraph graph = new DependencyGraph(new Repository[] { m_repository });
+
+        DependencyGraph.Dependency[] deps = graph.getDependents(m_api1);
+        assertEquals(2, deps.length);
+        assertSame(m_impl, deps[0].getRequirer());
+        assertSame(m_app, deps[1].getRequirer());
+        assertTrue(deps[1].getRequirement().isOptional());
+        assertEquals(2, deps[1].getProviders().length);
+
+        deps = graph.getDependents(m_api2);
+        assertEquals(1, deps.length);
+        assertSame(m_app, deps[0].getRequirer());
+
+        assertEquals(0, graph.getDependents(m_app).length);
+
+        Resource[] resources = graph.getTransitiveDependents(m_api1);
+        assertEquals(2, resources.length);
+        assertSame(m_impl, resources[0]);
+        assertSame(m_app, resources[1]);
+    }
+
+    public void testCopiesAreOneResource()
+    {
+        // the installed copy of a repository resource
+        ResourceImpl local = createApi("1.0.0");
+        DependencyGraph graph = new DependencyGraph(new Repository[] {
+            new RepositoryImpl(new Resource[] { local }), m_repository });
+
+        assertEquals(2, graph.getDependents(local).length);
+        assertEquals(2, graph.getDependents(m_api1).length);
+        assertEquals(2, graph.getImpact(local, null).length);
+    }
+
+    public void testImpact()
+    {
+        DependencyGraph graph = new DependencyGraph(new Repository[] { m_repository });
+
+        // the optional requirement of app can still use api 2.0.0 but not the
+        // mandatory requirement of impl, which breaks app in turn
+        DependencyGraph.Dependency[] deps = graph.getImpact(m_api1, null);
+        assertEquals(2, deps.length);
+        assertSame(m_impl, deps[0].getRequirer());
+        assertSame(m_app, deps[1].getRequirer());
+        assertEquals("(package=org.impl)", deps[1].getRequirement().getFilter());
+
+        assertEquals(2, graph.getImpact(m_api1, m_api2).length);
+        assertEquals(0, graph.getImpact(m_api1, createApi("1.1.0")).length);
+        assertEquals(0, graph.getImpact(m_app, null).length);
+
+        // only the optional requirement of app is satisfied by api 2.0.0 alone
+        deps = graph.getImpact(m_impl, null);
+        assertEquals(1, deps.length);
+        assertEquals(0, graph.getImpact(m_api2, null).length);
+    }
+
+    public void testIsCurrent()
+    {
+        Repository[] repositories = new Repository[] { m_repository };
+        DependencyGraph graph = new DependencyGraph(repositories);
+        assertTrue(graph.isCurrent(repositories));
+        assertFalse(graph.isCurrent(new Repository[] { m_repository, m_repository }));
+
+        m_repository.addResource(createApi("3.0.0"));
+        assertFalse(graph.isCurrent(repositories));
+    }
+
+    private static ResourceImpl createApi(String version)
+    {
+        return createResource("api", version, "org.api");
+    }
+
+    private static ResourceImpl createResource(String name, String version, String pkg)
+    {
+        ResourceImpl resource = new ResourceImpl();
+        resource.put(Resource.SYMBOLIC_NAME, name, null);
+        resource.put(Resource.VERSION, version, null);
+        if (pkg != null)
+        {
+            CapabilityImpl cap = new CapabilityImpl(Capability.PACKAGE);
+            cap.addProperty(Capability.PACKAGE, pkg);
+            cap.addProperty(Resource.VERSION, Property.VERSION, version);
+            resource.addCapability(cap);
+        }
+        return resource;
+    }
+
+    private static void addRequirement(ResourceImpl resource, String filter, boolean optional)
+    {
+        RequirementImpl req = new RequirementImpl(Capability.PACKAGE);
+        req.setFilter(filter);
+        req.setOptional(optional);
+        resource.addRequire(req);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Capability;
+import org.apache.felix.bundlerepository.Requirement;
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.log.Logger;
+import org.osgi.framework.Version;
+
+public class RepositoryCacheTest extends TestCase
+{
+    private File m_dir;
+    private RepositoryCache m_cache;
+
+    protected void setUp() throws Exception
+    {
+        m_dir = File.createTempFile("obr", ".cache");
+        m_dir.delete();
+        m_cache = new RepositoryCache(m_dir, new Logger(null)
+        {
+            public void log(int level, String message, Throwable exception)
+            {
+                // expected for the invalid cache
+            }
+        });
+    }
+
+    protected void tearDown() throws Exception
+    {
+        File[] files = m_dir.listFiles();
+        for (int i = 0; (files != null) && (i < files.length); i++)
+        {
+            files[i].delete();
+        }
+        m_dir.delete();
+    }
+
+    public void testWarmLoadSkipsParsing() throws Exception
+    {
+        File file = copy("/repo_for_resolvertest.xml");
+        URL url = file.toURI().toURL();
+
+        RepositoryImpl parsed = m_cache.repository(url);
+        assertFalse(parsed.getResources()[0] instanceof RepositoryCache.CachedResourceImpl);
+
+        RepositoryImpl cached = m_cache.repository(url);
+        assertTrue(cached.getResources()[0] instanceof RepositoryCache.CachedResourceImpl);
+        assertSameRepository(parsed, cached);
+    }
+
+    public void testReferrals() throws Exception
+    {
+        URL url = copy("/referral1_repository.xml").toURI().toURL();
+        RepositoryImpl parsed = m_cache.repository(url);
+        RepositoryImpl cached = m_cache.repository(url);
+        assertEquals(parsed.getReferrals().length, cached.getReferrals().length);
+        for (int i = 0; i < parsed.getReferrals().length; i++)
+        {
+            assertEquals(parsed.getReferrals()[i].getUrl(), cached.getReferrals()[i].getUrl());
+            assertEquals(parsed.getReferrals()[i].getDepth(), cached.getReferrals()[i].getDepth());
+        }
+        assertSameRepository(parsed, cached);
+    }
+
+    public void testModifiedRepositoryIsParsed() throws Exception
+    {
+        File file = copy("/repo_for_resolvertest.xml");
+        URL url = file.toURI().toURL();
+        m_cache.repository(url);
+
+        file.setLastModified(file.lastModified() - 10000);
+        RepositoryImpl repository = m_cache.repository(url);
+        assertFalse(repository.getResources()[0] instanceof RepositoryCache.CachedResourceImpl);
+        assertTrue(m_cache.repository(url).getResources()[0] instanceof RepositoryCache.CachedResourceImpl);
+    }
+
+    public void testInvalidCacheIsIgnored() throws Exception
+    {
+        File file = copy("/repo_for_resolvertest.xml");
+        URL url = file.toURI().toURL();
+        RepositoryImpl parsed = m_cache.repository(url);
+
+        File[] files = m_dir.listFiles();
+        assertEquals(1, files.length);
+        RandomAccessFile raf = new RandomAccessFile(files[0], "rw");
+        raf.setLength(raf.length() / 2);
+        raf.close();
+
+        assertSameRepository(parsed, m_cache.repository(url));
+    }
+
+    public void testTypedValues() throws Exception
+    {
+        ResourceImpl resource = new ResourceImpl();
+        resource.put(Resource.SYMBOLIC_NAME, "typed", null);
+        resource.put(Resource.VERSION, "1.2.3", null);
+        resource.put(Resource.SIZE, "42", null);
+        resource.addCategory("test");
+
+        CapabilityImpl cap = new CapabilityImpl("osgi.identity");
+        cap.addProperty(new FelixPropertyAdapter("version", new Version("1.2.3")));
+        cap.addProperty(new FelixPropertyAdapter("list", Arrays.asList(new Object[] { "a", "b" })));
+        cap.addProperty(new FelixPropertyAdapter("double", new Double(0.5)));
+        cap.addProperty("set", "set", "x,y");
+        cap.addDirective("effective", "active");
+        resource.addCapability(cap);
+
+        RequirementImpl req = new RequirementImpl("osgi.wiring.package");
+        req.setFilter("(&(osgi.wiring.package=org.foo)(version>=1.0.0))");
+        req.setOptional(true);
+        req.addText("comment");
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("count", new Long(3));
+        req.setAttributes(attrs);
+        Map<String, String> dirs = new HashMap<String, String>();
+        dirs.put("resolution", "optional");
+        req.setDirectives(dirs);
+        resource.addRequire(req);
+
+        RepositoryImpl repository = new RepositoryImpl();
+        repository.setName("typed");
+        repository.addResource(resource);
+
+        File file = new File(m_dir, "typed.bin");
+        URL url = new URL("http://localhost/typed.xml");
+        m_cache.write(file, url, 1000, repository);
+        assertEquals(1000, m_cache.readLastModified(file, url));
+        assertEquals(-1, m_cache.readLastModified(file, new URL("http://localhost/other.xml")));
+
+        RepositoryImpl cached = m_cache.read(file, url);
+        assertEquals("typed", cached.getName());
+        assertSameRepository(repository, cached);
+    }
+
+    private File copy(String resource) throws Exception
+    {
+        File file = File.createTempFile("repository", ".xml");
+        file.deleteOnExit();
+        InputStream in = getClass().getResourceAsStream(resource);
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) >= 0)
+            {
+                out.write(buffer, 0, len);
+            }
+        }
+        finally
+        {
+            in.close();
+            out.close();
+        }
+        return file;
+    }
+
+    private static void assertSameRepository(RepositoryImpl expected, RepositoryImpl actual)
+    {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+        Resource[] resources = expected.getResources();
+        assertEquals(resources.length, actual.getResources().length);
+        for (int i = 0; i < resources.length; i++)
+        {
+            Resource r1 = resources[i];
+            Resource r2 = actual.getResources()[i];
+            assertEquals(r1.getProperties(), r2.getProperties());
+            assertEquals(r1.getURI(), r2.getURI());
+            assertEquals(Arrays.asList(r1.getCategories()), Arrays.asList(r2.getCategories()));
+
+            assertEquals(r1.getCapabilities().length, r2.getCapabilities().length);
+            for (int j = 0; j < r1.getCapabilities().length; j++)
+            {
+                Capability c1 = r1.getCapabilities()[j];
+                Capability c2 = r2.getCapabilities()[j];
+                assertEquals(c1.getName(), c2.getName());
+                assertEquals(c1.getPropertiesAsMap(), c2.getPropertiesAsMap());
+                assertEquals(c1.getDirectives(), c2.getDirectives());
+                assertEquals(c1.getProperties().length, c2.getProperties().length);
+                for (int k = 0; k < c1.getProperties().length; k++)
+                {
+                    assertEquals(c1.getProperties()[k].getName(), c2.getProperties()[k].getName());
+                    assertEquals(c1.getProperties()[k].getType(), c2.getProperties()[k].getType());
+                    assertEquals(c1.getProperties()[k].getValue(), c2.getProperties()[k].getValue());
+                }
+            }
+
+            List<Requirement> reqs = new ArrayList<Requirement>(Arrays.asList(r1.getRequirements()));
+            assertEquals(reqs.size(), r2.getRequirements().length);
+            for (int j = 0; j < reqs.size(); j++)
+            {
+                Requirement q1 = reqs.get(j);
+                Requirement q2 = r2.getRequirements()[j];
+                assertEquals(q1, q2);
+                assertEquals(q1.isExtend(), q2.isExtend());
+                assertEquals(q1.getAttributes(), q2.getAttributes());
+                assertEquals(q1.getDirectives(), q2.getDirectives());
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.bundlerepository.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.bundlerepository.Resource;
+import org.apache.felix.utils.log.Logger;
+import org.osgi.framework.Bundle;
+
+public class ResourceDeployerTest extends TestCase
+{
+    private static final byte[] CONTENT = "bundle content".getBytes();
+
+    public void testChecksumVerified() throws Exception
+    {
+        File file = File.createTempFile("obr", ".jar");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(CONTENT);
+        out.close();
+
+        ResourceDeployer deployer = new ResourceDeployer(2, new Logger(null));
+        try
+        {
+            ResourceImpl resource = new ResourceImpl();
+            resource.put(Resource.URI, file.toURI().toString(), null);
+            resource.put(ResourceDeployer.SHA256, sha256(), null);
+            ResourceDeployer.Content content = deployer.stage(resource).get();
+            assertTrue(Arrays.equals(CONTENT, read(content.open())));
+
+            ResourceImpl corrupted = new ResourceImpl();
+            corrupted.put(Resource.URI, file.toURI().toString(), null);
+            corrupted.put(ResourceDeployer.SHA256, "0000000000000000000000000000000000000000000000000000000000000000", null);
+            try
+            {
+                deployer.stage(corrupted).get();
+                fail("Checksum mismatch not detected");
+            }
+            catch (ExecutionException ex)
+            {
+                assertTrue(ex.getCause().getMessage(), ex.getCause().getMessage().startsWith("Checksum mismatch"));
+            }
+        }
+        finally
+        {
+            deployer.dispose();
+        }
+    }
+
+    public void testStartLevels() throws Exception
+    {
+        List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        List<List<Bundle>> levels = new ArrayList<List<Bundle>>();
+        levels.add(Arrays.asList(bundle("a", started)));
+        levels.add(Arrays.asList(bundle("b", started), bundle("c", started), bundle("d", started)));
+        levels.add(Arrays.asList(bundle("e", started)));
+
+        ResourceDeployer deployer = new ResourceDeployer(4, new Logger(null));
+        try
+        {
+            deployer.start(levels);
+        }
+        finally
+        {
+            deployer.dispose();
+        }
+
+        assertEquals(5, started.size());
+        assertEquals("a", started.get(0));
+        assertEquals(Arrays.asList("b", "c", "d"), sorted(started.subList(1, 4)));
+        assertEquals("e", started.get(4));
+    }
+
+    public void testStartErrorLogged() throws Exception
+    {
+        List<String> started = Collections.synchronizedList(new ArrayList<String>());
+        List<List<Bundle>> levels = new ArrayList<List<Bundle>>();
+        levels.add(Arrays.asList(bundle("a", started), bundle("failing", started), bundle("b", started)));
+
+        final List<Throwable> logged = Collections.synchronizedList(new ArrayList<Throwable>());
+        ResourceDeployer deployer = new ResourceDeployer(4, new Logger(null)
+        {
+            public void log(int level, String message, Throwable exception)
+            {
+                if (message.endsWith("failing"))
+                {
+                    logged.add(exception);
+                }
+            }
+        });
+        try
+        {
+            deployer.start(levels);
+        }
+        finally
+        {
+            deployer.dispose();
+        }
+
+        assertEquals(Arrays.asList("a", "b"), sorted(started));
+        assertEquals(1, logged.size());
+        assertTrue(logged.get(0) instanceof IllegalStateException);
+    }
+
+    private static String sha256() throws Exception
+    {
+        java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-256");
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest(CONTENT))
+        {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static List<String> sorted(List<String> list)
+    {
+        List<String> sorted = new ArrayList<String>(list);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static byte[] read(InputStream in) throws Exception
+    {
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int len = in.read(buffer); len != -1; len = in.read(buffer))
+            {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static Bundle bundle(final String name, final List<String> started)
+    {
+        return (Bundle) Proxy.newProxyInstance(Bundle.class.getClassLoader(), new Class[] { Bundle.class },
+            new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+                {
+                    if (method.getName().equals("start"))
+                    {
+                        // give the other bundles of the level a chance to start too early
+                        Thread.sleep(20);
+                        if (name.equals("failing"))
+                        {
+                            throw new IllegalStateException("Bundle is uninstalled");
+                        }
+                        started.add(name);
+                    }
+                    else if (method.getName().equals("getSymbolicName"))
+                    {
+                        return name;
+                    }
+                    return null;
+                }
+            });
+    }
+}
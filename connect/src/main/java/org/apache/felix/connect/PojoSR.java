@@ -34,6 +34,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -296,20 +301,214 @@ public class PojoSR implements PojoServiceRegistry
             m_bundles.put(bundle.getBundleId(), bundle);
         }
 
+        // Both modes start every known bundle, not only the ones just added,
+        // so bundles stopped in the meantime are started again either way.
+        List<Bundle> bundles = new ArrayList<Bundle>(m_bundles.values());
+        Collections.sort(bundles);
+        int threads = getStartThreads();
+        if (threads > 1)
+        {
+            startBundlesParallel(bundles, threads);
+        }
+        else
+        {
+            for (Bundle bundle : bundles)
+            {
+                startBundle(bundle);
+            }
+        }
+    }
 
-        for (Bundle bundle : m_bundles.values())
+    private void startBundle(Bundle bundle)
+    {
+        try
+        {
+            bundle.start();
+        }
+        catch (Throwable e)
+        {
+            System.out.println("Unable to start bundle: " + bundle);
+            e.printStackTrace();
+        }
+    }
+
+    private int getStartThreads()
+    {
+        Object value = bundleConfig.get(PojoServiceRegistryFactory.BUNDLE_START_THREADS);
+        if (value == null)
+        {
+            value = System.getProperty(PojoServiceRegistryFactory.BUNDLE_START_THREADS);
+        }
+        if (value != null)
         {
             try
             {
-                bundle.start();
+                return Integer.parseInt(value.toString().trim());
             }
-            catch (Throwable e)
+            catch (NumberFormatException ex)
             {
-                System.out.println("Unable to start bundle: " + bundle);
-                e.printStackTrace();
+                System.out.println("Invalid value for " + PojoServiceRegistryFactory.BUNDLE_START_THREADS + ": " + value);
             }
         }
+        return 1;
+    }
 
+    /**
+     * Starts the given bundles in waves. A bundle is only started once all
+     * bundles it imports packages from (or requires) have been started;
+     * the bundles of one wave are independent of each other and are
+     * started concurrently.
+     */
+    private void startBundlesParallel(List<Bundle> bundles, int threads) throws InterruptedException
+    {
+        List<List<Bundle>> waves = computeStartWaves(bundles);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            for (List<Bundle> wave : waves)
+            {
+                List<Future<Object>> futures = new ArrayList<Future<Object>>(wave.size());
+                for (final Bundle bundle : wave)
+                {
+                    futures.add(executor.submit(new Callable<Object>()
+                    {
+                        public Object call()
+                        {
+                            startBundle(bundle);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Object> future : futures)
+                {
+                    try
+                    {
+                        future.get();
+                    }
+                    catch (ExecutionException ex)
+                    {
+                        ex.getCause().printStackTrace();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private List<List<Bundle>> computeStartWaves(List<Bundle> bundles)
+    {
+        Map<String, Bundle> exporters = new HashMap<String, Bundle>();
+        Map<String, Bundle> symbolicNames = new HashMap<String, Bundle>();
+        for (Bundle bundle : bundles)
+        {
+            Dictionary<String, String> headers = bundle.getHeaders();
+            for (String pkg : parseNames(headers.get(Constants.EXPORT_PACKAGE)))
+            {
+                if (!exporters.containsKey(pkg))
+                {
+                    exporters.put(pkg, bundle);
+                }
+            }
+            if (bundle.getSymbolicName() != null)
+            {
+                symbolicNames.put(bundle.getSymbolicName(), bundle);
+            }
+        }
+
+        Map<Bundle, Set<Bundle>> dependencies = new HashMap<Bundle, Set<Bundle>>();
+        for (Bundle bundle : bundles)
+        {
+            Dictionary<String, String> headers = bundle.getHeaders();
+            Set<Bundle> deps = new HashSet<Bundle>();
+            for (String pkg : parseNames(headers.get(Constants.IMPORT_PACKAGE)))
+            {
+                Bundle exporter = exporters.get(pkg);
+                if ((exporter != null) && (exporter != bundle))
+                {
+                    deps.add(exporter);
+                }
+            }
+            for (String sym : parseNames(headers.get(Constants.REQUIRE_BUNDLE)))
+            {
+                Bundle required = symbolicNames.get(sym);
+                if ((required != null) && (required != bundle))
+                {
+                    deps.add(required);
+                }
+            }
+            dependencies.put(bundle, deps);
+        }
+
+        List<List<Bundle>> waves = new ArrayList<List<Bundle>>();
+        Set<Bundle> started = new HashSet<Bundle>();
+        List<Bundle> pending = new ArrayList<Bundle>(bundles);
+        while (!pending.isEmpty())
+        {
+            List<Bundle> wave = new ArrayList<Bundle>();
+            for (Bundle bundle : pending)
+            {
+                if (started.containsAll(dependencies.get(bundle)))
+                {
+                    wave.add(bundle);
+                }
+            }
+            if (wave.isEmpty())
+            {
+                // Cyclic dependencies, start the rest in bundle id order.
+                for (Bundle bundle : pending)
+                {
+                    waves.add(Collections.singletonList(bundle));
+                }
+                break;
+            }
+            waves.add(wave);
+            started.addAll(wave);
+            pending.removeAll(wave);
+        }
+        return waves;
+    }
+
+    private static List<String> parseNames(String header)
+    {
+        List<String> names = new ArrayList<String>();
+        if (header == null)
+        {
+            return names;
+        }
+        boolean quoted = false;
+        boolean name = true;
+        int start = 0;
+        for (int i = 0; i <= header.length(); i++)
+        {
+            char c = (i < header.length()) ? header.charAt(i) : ',';
+            if (c == '"')
+            {
+                quoted = !quoted;
+            }
+            else if (!quoted && ((c == ';') || (c == ',')))
+            {
+                String token = header.substring(start, i).trim();
+                // Clauses are "name;name;attr=value;dir:=value", only the
+                // leading tokens without '=' are names.
+                if (name && (token.length() > 0) && (token.indexOf('=') < 0))
+                {
+                    names.add(token);
+                }
+                else
+                {
+                    name = false;
+                }
+                if (c == ',')
+                {
+                    name = true;
+                }
+                start = i + 1;
+            }
+        }
+        return names;
     }
 
     private Revision buildRevision(BundleDescriptor desc) throws IOException
@@ -18,13 +18,23 @@
  */
 package org.apache.felix.connect.launch;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
@@ -33,6 +43,23 @@ import org.apache.felix.connect.felix.framework.util.MapToDictionary;
 
 public class ClasspathScanner
 {
+    /**
+     * Location of a precomputed bundle index. The descriptors of every index
+     * visible through the class loader are used instead of parsing the
+     * <tt>META-INF/MANIFEST.MF</tt> of the bundles they list; only class
+     * path entries not covered by an index have their manifest parsed.
+     */
+    public static final String BUNDLE_INDEX = "META-INF/felix-connect/bundles.idx";
+
+    /**
+     * Set this system property to <tt>false</tt> to ignore any bundle index
+     * and always scan the manifests.
+     */
+    public static final String USE_BUNDLE_INDEX = "org.apache.felix.connect.index";
+
+    private static final int INDEX_MAGIC = 0x46434249; // "FCBI"
+    private static final int INDEX_VERSION = 1;
+
     public List<BundleDescriptor> scanForBundles() throws Exception
     {
         return scanForBundles(null, null);
@@ -58,11 +85,27 @@ public class ClasspathScanner
         loader = (loader != null) ? loader : getClass().getClassLoader();
 
         List<BundleDescriptor> bundles = new ArrayList<BundleDescriptor>();
-        byte[] bytes = new byte[1024 * 1024 * 2];
+        // Class path entries (and bundles) already described by an index.
+        Set<String> indexed = new HashSet<String>();
+        if (!"false".equalsIgnoreCase(System.getProperty(USE_BUNDLE_INDEX)))
+        {
+            scanIndexes(filter, loader, bundles, indexed);
+        }
+
+        byte[] bytes = null;
         for (Enumeration<URL> e = loader.getResources(
                 "META-INF/MANIFEST.MF"); e.hasMoreElements(); )
         {
             URL manifestURL = e.nextElement();
+            String url = getParentURL(manifestURL).toExternalForm();
+            if (indexed.contains(url))
+            {
+                continue;
+            }
+            if (bytes == null)
+            {
+                bytes = new byte[1024 * 1024 * 2];
+            }
             InputStream input = null;
             try
             {
@@ -157,7 +200,7 @@ public class ClasspathScanner
                 if ((filter == null)
                         || filter.match(new MapToDictionary<String, String>(headers)))
                 {
-                    bundles.add(new BundleDescriptor(loader, getParentURL(manifestURL).toExternalForm(), headers));
+                    bundles.add(new BundleDescriptor(loader, url, headers));
                 }
             }
             finally
@@ -172,9 +215,196 @@ public class ClasspathScanner
     }
 
     private URL getParentURL(URL url) throws Exception
+    {
+        return getParentURL(url, "META-INF/MANIFEST.MF");
+    }
+
+    private URL getParentURL(URL url, String path) throws Exception
     {
         String externalForm = url.toExternalForm();
         return new URL(externalForm.substring(0, externalForm.length()
-                - "META-INF/MANIFEST.MF".length()));
+                - path.length()));
+    }
+
+    /**
+     * Adds the descriptors of all bundle indexes visible through the given
+     * class loader to <tt>bundles</tt>. The roots of the class path entries
+     * holding an index and the urls of all indexed bundles are added to
+     * <tt>indexed</tt>, so that the manifest scan can skip them.
+     */
+    private void scanIndexes(Filter filter, ClassLoader loader,
+            List<BundleDescriptor> bundles, Set<String> indexed) throws Exception
+    {
+        Set<String> urls = new HashSet<String>();
+        for (Enumeration<URL> e = loader.getResources(BUNDLE_INDEX); e.hasMoreElements(); )
+        {
+            URL indexURL = e.nextElement();
+            indexed.add(getParentURL(indexURL, BUNDLE_INDEX).toExternalForm());
+            for (BundleDescriptor desc : readIndex(indexURL, loader))
+            {
+                // An index generated from the whole class path may list
+                // bundles that are described by another index as well.
+                if (!urls.add(desc.getUrl()))
+                {
+                    continue;
+                }
+                indexed.add(desc.getUrl());
+                if ((filter == null)
+                        || filter.match(new MapToDictionary<String, String>(desc.getHeaders())))
+                {
+                    bundles.add(desc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a bundle index previously written by
+     * {@link #writeIndex(List, OutputStream, String)}. The whole index is
+     * read in one go; relative bundle urls are resolved against the root
+     * of the class path entry containing the index.
+     */
+    public List<BundleDescriptor> readIndex(URL indexURL, ClassLoader loader)
+            throws Exception
+    {
+        byte[] bytes;
+        InputStream input = indexURL.openStream();
+        try
+        {
+            bytes = readFully(input);
+        }
+        finally
+        {
+            input.close();
+        }
+
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+        if ((data.readInt() != INDEX_MAGIC) || (data.readInt() != INDEX_VERSION))
+        {
+            throw new IOException("Not a valid bundle index: " + indexURL);
+        }
+        String root = getParentURL(indexURL, BUNDLE_INDEX).toExternalForm();
+
+        int count = data.readInt();
+        List<BundleDescriptor> bundles = new ArrayList<BundleDescriptor>(count);
+        for (int i = 0; i < count; i++)
+        {
+            String url = readString(data);
+            if (url.indexOf(':') < 0)
+            {
+                url = root + url;
+            }
+            int size = data.readInt();
+            Map<String, String> headers = new HashMap<String, String>(size * 2);
+            for (int j = 0; j < size; j++)
+            {
+                String key = readString(data);
+                headers.put(key, readString(data));
+            }
+            bundles.add(new BundleDescriptor(loader, url, headers));
+        }
+        return bundles;
+    }
+
+    /**
+     * Writes the given descriptors as a bundle index. If <tt>base</tt> is
+     * not <tt>null</tt>, bundle urls starting with it are stored relative
+     * to it, so that the index can be relocated together with the class
+     * path entry it is packaged in.
+     */
+    public void writeIndex(List<BundleDescriptor> bundles, OutputStream out, String base)
+            throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(INDEX_MAGIC);
+        data.writeInt(INDEX_VERSION);
+        data.writeInt(bundles.size());
+        for (BundleDescriptor desc : bundles)
+        {
+            String url = desc.getUrl();
+            if ((base != null) && url.startsWith(base))
+            {
+                url = url.substring(base.length());
+            }
+            writeString(data, url);
+            // Keep the header order stable so the index is reproducible.
+            Map<String, String> headers = new TreeMap<String, String>(desc.getHeaders());
+            data.writeInt(headers.size());
+            for (Map.Entry<String, String> entry : headers.entrySet())
+            {
+                writeString(data, entry.getKey());
+                writeString(data, entry.getValue());
+            }
+        }
+        data.flush();
+    }
+
+    // Headers can exceed the 64k limit of writeUTF(), so strings are
+    // written as length prefixed UTF-8 instead.
+    private static void writeString(DataOutputStream data, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes("UTF-8");
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static String readString(DataInputStream data) throws IOException
+    {
+        byte[] bytes = new byte[data.readInt()];
+        data.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException
+    {
+        byte[] bytes = new byte[64 * 1024];
+        int size = 0;
+        for (int i = input.read(bytes); i != -1; i = input.read(bytes, size, bytes.length - size))
+        {
+            size += i;
+            if (size == bytes.length)
+            {
+                byte[] tmp = new byte[size * 2];
+                System.arraycopy(bytes, 0, tmp, 0, bytes.length);
+                bytes = tmp;
+            }
+        }
+        byte[] result = new byte[size];
+        System.arraycopy(bytes, 0, result, 0, size);
+        return result;
+    }
+
+    /**
+     * Generates a bundle index at build time by scanning the current class
+     * path. Usage: <tt>ClasspathScanner &lt;index file&gt; [&lt;base url&gt; [&lt;filter&gt;]]</tt>
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if ((args == null) || (args.length < 1))
+        {
+            System.err.println("Usage: ClasspathScanner <index file> [<base url> [<filter>]]");
+            return;
+        }
+        String base = (args.length > 1) ? args[1] : null;
+        String filter = (args.length > 2) ? args[2] : null;
+
+        System.setProperty(USE_BUNDLE_INDEX, "false");
+        ClasspathScanner scanner = new ClasspathScanner();
+        List<BundleDescriptor> bundles = scanner.scanForBundles(filter);
+
+        File file = new File(args[0]);
+        if (file.getParentFile() != null)
+        {
+            file.getParentFile().mkdirs();
+        }
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            scanner.writeIndex(bundles, out, base);
+        }
+        finally
+        {
+            out.close();
+        }
     }
 }
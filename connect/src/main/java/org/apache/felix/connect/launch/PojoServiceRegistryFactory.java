@@ -25,5 +25,13 @@ public interface PojoServiceRegistryFactory
     public static final String BUNDLE_DESCRIPTORS =
             PojoServiceRegistry.class.getName().toLowerCase() + ".bundles";
 
+    /**
+     * Number of threads used to start the bundles. Bundles that do not
+     * import packages from each other are started concurrently; defaults
+     * to <tt>1</tt>, which starts them one after another.
+     */
+    public static final String BUNDLE_START_THREADS =
+            PojoServiceRegistry.class.getName().toLowerCase() + ".start.threads";
+
     public PojoServiceRegistry newPojoServiceRegistry(Map<String, Object> configuration) throws Exception;
 }
@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.connect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+
+import org.apache.felix.connect.launch.BundleDescriptor;
+import org.apache.felix.connect.launch.PojoServiceRegistryFactory;
+
+public class PojoSRTest
+{
+    private static final List<String> STARTED = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp()
+    {
+        STARTED.clear();
+    }
+
+    @Test
+    public void testParallelStartOrder() throws Exception
+    {
+        PojoSR sr = create(4);
+        sr.startBundles(Arrays.asList(
+                descriptor("consumer", "Import-Package", "org.example.api;version=\"[1,2)\""),
+                descriptor("other", null, null),
+                descriptor("provider", "Export-Package", "org.example.api;version=1.0,org.example.spi")));
+
+        assertEquals(3, STARTED.size());
+        assertTrue(STARTED.indexOf("provider") < STARTED.indexOf("consumer"));
+        assertActive(sr, "consumer", "other", "provider");
+    }
+
+    @Test
+    public void testRequireBundleOrder() throws Exception
+    {
+        PojoSR sr = create(4);
+        sr.startBundles(Arrays.asList(
+                descriptor("consumer", "Require-Bundle", "provider;bundle-version=1.0"),
+                descriptor("provider", null, null)));
+
+        assertEquals(Arrays.asList("provider", "consumer"), STARTED);
+    }
+
+    @Test
+    public void testCyclicStart() throws Exception
+    {
+        PojoSR sr = create(4);
+        Map<String, String> a = headers("a", "Export-Package", "org.example.a");
+        a.put(Constants.IMPORT_PACKAGE, "org.example.b");
+        Map<String, String> b = headers("b", "Export-Package", "org.example.b");
+        b.put(Constants.IMPORT_PACKAGE, "org.example.a");
+        sr.startBundles(Arrays.asList(descriptor(a), descriptor(b)));
+
+        assertEquals(Arrays.asList("a", "b"), STARTED);
+        assertActive(sr, "a", "b");
+    }
+
+    @Test
+    public void testSequentialStartsAllBundles() throws Exception
+    {
+        checkStartsAllBundles(1);
+    }
+
+    @Test
+    public void testParallelStartsAllBundles() throws Exception
+    {
+        checkStartsAllBundles(4);
+    }
+
+    private void checkStartsAllBundles(int threads) throws Exception
+    {
+        PojoSR sr = create(threads);
+        sr.startBundles(Collections.singletonList(descriptor("first", null, null)));
+        Bundle first = find(sr, "first");
+        first.stop();
+        assertEquals(Bundle.RESOLVED, first.getState());
+
+        // A later call starts the new bundles as well as the stopped one.
+        sr.startBundles(Collections.singletonList(descriptor("second", null, null)));
+        assertActive(sr, "first", "second");
+        assertEquals(Arrays.asList("first", "first", "second"), STARTED);
+    }
+
+    private static PojoSR create(int threads) throws Exception
+    {
+        Map<String, Object> config = new HashMap<String, Object>();
+        config.put(PojoServiceRegistryFactory.BUNDLE_START_THREADS, String.valueOf(threads));
+        return new PojoSR(config);
+    }
+
+    private static void assertActive(PojoSR sr, String... symbolicNames)
+    {
+        for (String symbolicName : symbolicNames)
+        {
+            assertEquals(symbolicName, Bundle.ACTIVE, find(sr, symbolicName).getState());
+        }
+    }
+
+    private static Bundle find(PojoSR sr, String symbolicName)
+    {
+        for (Bundle bundle : sr.getBundleContext().getBundles())
+        {
+            if (symbolicName.equals(bundle.getSymbolicName()))
+            {
+                return bundle;
+            }
+        }
+        throw new AssertionError("No bundle " + symbolicName);
+    }
+
+    private static Map<String, String> headers(String symbolicName, String key, String value)
+    {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+        headers.put(Constants.BUNDLE_VERSION, "1.0.0");
+        headers.put(Constants.BUNDLE_ACTIVATOR, RecordingActivator.class.getName());
+        if (key != null)
+        {
+            headers.put(key, value);
+        }
+        return headers;
+    }
+
+    private static BundleDescriptor descriptor(String symbolicName, String key, String value)
+    {
+        return descriptor(headers(symbolicName, key, value));
+    }
+
+    private static BundleDescriptor descriptor(Map<String, String> headers)
+    {
+        Revision revision = new Revision()
+        {
+            public long getLastModified()
+            {
+                return 0;
+            }
+
+            public URL getEntry(String entryName)
+            {
+                return null;
+            }
+
+            public Enumeration<String> getEntries()
+            {
+                return Collections.enumeration(Collections.<String>emptyList());
+            }
+        };
+        return new BundleDescriptor(PojoSRTest.class.getClassLoader(),
+                "test:" + headers.get(Constants.BUNDLE_SYMBOLICNAME), headers, revision, null);
+    }
+
+    public static class RecordingActivator implements BundleActivator
+    {
+        public void start(BundleContext context) throws Exception
+        {
+            String symbolicName = context.getBundle().getSymbolicName();
+            if ("provider".equals(symbolicName))
+            {
+                // give dependent bundles a chance to overtake
+                Thread.sleep(100);
+            }
+            STARTED.add(symbolicName);
+        }
+
+        public void stop(BundleContext context)
+        {
+        }
+    }
+}
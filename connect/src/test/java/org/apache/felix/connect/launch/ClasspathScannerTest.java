@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.connect.launch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClasspathScannerTest
+{
+    private File m_root;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        m_root = File.createTempFile("connect", ".dir");
+        m_root.delete();
+        m_root.mkdirs();
+    }
+
+    @After
+    public void tearDown()
+    {
+        delete(m_root);
+    }
+
+    @Test
+    public void testIndexRoundTrip() throws Exception
+    {
+        File entry = new File(m_root, "entry");
+        entry.mkdirs();
+        String base = entry.toURI().toURL().toExternalForm();
+        String large = repeat('x', 70000);
+
+        List<BundleDescriptor> bundles = new ArrayList<BundleDescriptor>();
+        bundles.add(new BundleDescriptor(null, base, headers("a", "Import-Package", large)));
+        bundles.add(new BundleDescriptor(null, "jar:file:/other.jar!/", headers("b", "Bundle-Name", "B ä")));
+
+        ClasspathScanner scanner = new ClasspathScanner();
+        File index = new File(entry, ClasspathScanner.BUNDLE_INDEX);
+        writeIndex(scanner, bundles, index, base);
+
+        List<BundleDescriptor> read = scanner.readIndex(index.toURI().toURL(), getClass().getClassLoader());
+        assertEquals(2, read.size());
+        assertEquals(base, read.get(0).getUrl());
+        assertEquals(bundles.get(0).getHeaders(), read.get(0).getHeaders());
+        assertEquals(large, read.get(0).getHeaders().get("Import-Package"));
+        assertEquals("jar:file:/other.jar!/", read.get(1).getUrl());
+        assertEquals(bundles.get(1).getHeaders(), read.get(1).getHeaders());
+        assertEquals(getClass().getClassLoader(), read.get(1).getClassLoader());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidIndex() throws Exception
+    {
+        File index = new File(m_root, "bundles.idx");
+        OutputStream out = new FileOutputStream(index);
+        out.write(new byte[] {0, 0, 0, 0, 0, 0, 0, 1});
+        out.close();
+        new ClasspathScanner().readIndex(index.toURI().toURL(), null);
+    }
+
+    @Test
+    public void testIndexedAndUnindexedEntries() throws Exception
+    {
+        ClasspathScanner scanner = new ClasspathScanner();
+
+        // An indexed entry; its manifest must not be parsed.
+        File indexed = new File(m_root, "indexed");
+        indexed.mkdirs();
+        String indexedURL = indexed.toURI().toURL().toExternalForm();
+        writeManifest(indexed, "Bundle-SymbolicName: indexed\r\nX-Source: manifest\r\n");
+        List<BundleDescriptor> bundles = new ArrayList<BundleDescriptor>();
+        bundles.add(new BundleDescriptor(null, indexedURL, headers("indexed", "X-Source", "index")));
+        writeIndex(scanner, bundles, new File(indexed, ClasspathScanner.BUNDLE_INDEX), indexedURL);
+
+        // Two entries without an index, one of them filtered out.
+        File plain = new File(m_root, "plain");
+        writeManifest(plain, "Bundle-SymbolicName: plain\r\nX-Source: manifest\r\n");
+        File other = new File(m_root, "other");
+        writeManifest(other, "X-Source: manifest\r\n");
+
+        ClassLoader loader = new URLClassLoader(new URL[] {
+                indexed.toURI().toURL(), plain.toURI().toURL(), other.toURI().toURL()}, null);
+
+        Map<String, BundleDescriptor> found = bySymbolicName(
+                scanner.scanForBundles("(Bundle-SymbolicName=*)", loader));
+        assertEquals(2, found.size());
+        assertEquals("index", found.get("indexed").getHeaders().get("X-Source"));
+        assertEquals(indexedURL, found.get("indexed").getUrl());
+        assertEquals("manifest", found.get("plain").getHeaders().get("X-Source"));
+        assertEquals(plain.toURI().toURL().toExternalForm(), found.get("plain").getUrl());
+
+        // Without the index every manifest is parsed.
+        System.setProperty(ClasspathScanner.USE_BUNDLE_INDEX, "false");
+        try
+        {
+            found = bySymbolicName(scanner.scanForBundles("(Bundle-SymbolicName=*)", loader));
+        }
+        finally
+        {
+            System.clearProperty(ClasspathScanner.USE_BUNDLE_INDEX);
+        }
+        assertEquals(2, found.size());
+        assertEquals("manifest", found.get("indexed").getHeaders().get("X-Source"));
+    }
+
+    @Test
+    public void testIndexListingOtherEntries() throws Exception
+    {
+        ClasspathScanner scanner = new ClasspathScanner();
+        File first = new File(m_root, "first");
+        File second = new File(m_root, "second");
+        writeManifest(second, "Bundle-SymbolicName: second\r\nX-Source: manifest\r\n");
+        String secondURL = second.toURI().toURL().toExternalForm();
+
+        // An index generated from the whole class path lists the second
+        // entry too, so its manifest is not parsed again.
+        List<BundleDescriptor> bundles = new ArrayList<BundleDescriptor>();
+        bundles.add(new BundleDescriptor(null, secondURL, headers("second", "X-Source", "index")));
+        writeIndex(scanner, bundles, new File(first, ClasspathScanner.BUNDLE_INDEX), null);
+
+        ClassLoader loader = new URLClassLoader(new URL[] {
+                first.toURI().toURL(), second.toURI().toURL()}, null);
+        List<BundleDescriptor> found = scanner.scanForBundles(loader);
+        assertEquals(1, found.size());
+        assertEquals(secondURL, found.get(0).getUrl());
+        assertEquals("index", found.get(0).getHeaders().get("X-Source"));
+    }
+
+    private static Map<String, String> headers(String symbolicName, String key, String value)
+    {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Bundle-SymbolicName", symbolicName);
+        headers.put(key, value);
+        return headers;
+    }
+
+    private static Map<String, BundleDescriptor> bySymbolicName(List<BundleDescriptor> bundles)
+    {
+        Map<String, BundleDescriptor> result = new HashMap<String, BundleDescriptor>();
+        for (BundleDescriptor desc : bundles)
+        {
+            assertTrue(result.put(desc.getHeaders().get("Bundle-SymbolicName"), desc) == null);
+        }
+        return result;
+    }
+
+    private static void writeIndex(ClasspathScanner scanner, List<BundleDescriptor> bundles, File file, String base)
+            throws IOException
+    {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            scanner.writeIndex(bundles, out, base);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static void writeManifest(File root, String headers) throws IOException
+    {
+        File file = new File(root, "META-INF/MANIFEST.MF");
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(("Manifest-Version: 1.0\r\n" + headers + "\r\n").getBytes("UTF-8"));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static String repeat(char c, int count)
+    {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++)
+        {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        for (int i = 0; (children != null) && (i < children.length); i++)
+        {
+            delete(children[i]);
+        }
+        file.delete();
+    }
+}
@@ -25,7 +25,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TimerTask;
 
 import org.osgi.framework.Bundle;
 import org.osgi.service.coordinator.Coordination;
@@ -74,7 +73,7 @@ public class CoordinationImpl implements Coordination
 
     private final Map<Class<?>, Object> variables;
 
-    private TimerTask timeoutTask;
+    private CoordinationTimer.Timeout timeoutTask;
 
     private Thread associatedThread;
 
@@ -506,22 +505,19 @@ public class CoordinationImpl implements Coordination
     {
         if (timeoutTask != null)
         {
-            owner.schedule(timeoutTask, -1);
+            timeoutTask.cancel();
             timeoutTask = null;
         }
 
         if (deadLine > System.currentTimeMillis())
         {
-            timeoutTask = new TimerTask()
+            timeoutTask = owner.schedule(new Runnable()
             {
-                @Override
                 public void run()
                 {
                     CoordinationImpl.this.timeout();
                 }
-            };
-
-            owner.schedule(timeoutTask, deadLine);
+            }, deadLine);
         }
     }
 
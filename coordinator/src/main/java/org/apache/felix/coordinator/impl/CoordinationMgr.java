@@ -20,15 +20,13 @@ package org.apache.felix.coordinator.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.framework.Bundle;
@@ -52,11 +50,21 @@ public class CoordinationMgr
 
     private final AtomicLong ctr;
 
-    private final Map<Long, CoordinationImpl> coordinations;
+    /**
+     * The number of lock stripes of the participants, must be a power of two.
+     */
+    private static final int PARTICIPANT_STRIPES = 32;
 
-    private final Map<Participant, CoordinationImpl> participants;
+    private final ConcurrentMap<Long, CoordinationImpl> coordinations;
 
-    private final Timer coordinationTimer;
+    /**
+     * Participants are locked per stripe, chosen by their identity hash
+     * code. Each stripe is its own monitor for waiting on the release of a
+     * participant.
+     */
+    private final Map<Participant, CoordinationImpl>[] participants;
+
+    private final CoordinationTimer coordinationTimer;
 
     /**
      * Wait at most 60 seconds for participant to be eligible for participation
@@ -70,23 +78,19 @@ public class CoordinationMgr
     {
         perThreadStack = new ThreadLocal<Stack<CoordinationImpl>>();
         ctr = new AtomicLong(-1);
-        coordinations = new HashMap<Long, CoordinationImpl>();
-        participants = new IdentityHashMap<Participant, CoordinationImpl>();
-        coordinationTimer = new Timer("Coordination Timer", true);
+        coordinations = new ConcurrentHashMap<Long, CoordinationImpl>();
+        participants = createParticipantStripes();
+        coordinationTimer = new CoordinationTimer("Coordination Timer");
     }
 
     void cleanUp()
     {
         // terminate coordination timeout timer
-        coordinationTimer.purge();
         coordinationTimer.cancel();
 
         // terminate all active coordinations
-        final List<CoordinationImpl> coords = new ArrayList<CoordinationImpl>();
-        synchronized ( this.coordinations ) {
-            coords.addAll(this.coordinations.values());
-            this.coordinations.clear();
-        }
+        final List<CoordinationImpl> coords = new ArrayList<CoordinationImpl>(this.coordinations.values());
+        this.coordinations.clear();
         for(final CoordinationImpl c : coords)
         {
             if ( !c.isTerminated() )
@@ -96,9 +100,13 @@ public class CoordinationMgr
         }
 
         // release all participants
-        synchronized ( this.participants )
+        for(final Map<Participant, CoordinationImpl> stripe : this.participants)
         {
-            participants.clear();
+            synchronized ( stripe )
+            {
+                stripe.clear();
+                stripe.notifyAll();
+            }
         }
 
         // cannot really clear out the thread local but we can let it go
@@ -125,20 +133,32 @@ public class CoordinationMgr
         this.participationTimeOut = participationTimeout;
     }
 
-    void schedule(final TimerTask task, final long deadLine)
+    @SuppressWarnings("unchecked")
+    private static Map<Participant, CoordinationImpl>[] createParticipantStripes()
     {
-        if (deadLine < 0)
-        {
-            task.cancel();
-        }
-        else
+        final Map<Participant, CoordinationImpl>[] stripes = new Map[PARTICIPANT_STRIPES];
+        for(int i=0;i<stripes.length;i++)
         {
-            coordinationTimer.schedule(task, new Date(deadLine));
+            stripes[i] = new IdentityHashMap<Participant, CoordinationImpl>();
         }
+        return stripes;
+    }
+
+    private Map<Participant, CoordinationImpl> getParticipantStripe(final Participant p)
+    {
+        int h = System.identityHashCode(p);
+        h ^= (h >>> 16);
+        return this.participants[h & (PARTICIPANT_STRIPES - 1)];
+    }
+
+    CoordinationTimer.Timeout schedule(final Runnable task, final long deadLine)
+    {
+        return coordinationTimer.schedule(task, deadLine);
     }
 
     void lockParticipant(final Participant p, final CoordinationImpl c)
     {
+        final Map<Participant, CoordinationImpl> participants = getParticipantStripe(p);
         synchronized (participants)
         {
             // wait for participant to be released
@@ -186,6 +206,7 @@ public class CoordinationMgr
 
     void releaseParticipant(final Participant p)
     {
+        final Map<Participant, CoordinationImpl> participants = getParticipantStripe(p);
         synchronized (participants)
         {
             participants.remove(p);
@@ -199,19 +220,13 @@ public class CoordinationMgr
     {
         final long id = ctr.incrementAndGet();
         final CreationResult result = CoordinationImpl.create(owner, id, name, timeout);
-        synchronized ( this.coordinations )
-        {
-            coordinations.put(id, result.coordination);
-        }
+        coordinations.put(id, result.coordination);
         return result;
     }
 
     void unregister(final CoordinationImpl c, final boolean removeFromThread)
     {
-        synchronized ( this.coordinations )
-        {
-            coordinations.remove(c.getId());
-        }
+        coordinations.remove(c.getId());
         if ( removeFromThread )
         {
             final Stack<CoordinationImpl> stack = this.getThreadStack(false);
@@ -263,23 +278,17 @@ public class CoordinationMgr
     Collection<Coordination> getCoordinations()
     {
         final ArrayList<Coordination> result = new ArrayList<Coordination>();
-        synchronized ( this.coordinations )
+        for(final CoordinationImpl c : this.coordinations.values() )
         {
-            for(final CoordinationImpl c : this.coordinations.values() )
-            {
-                result.add(c.getHolder());
-            }
+            result.add(c.getHolder());
         }
         return result;
     }
 
     Coordination getCoordinationById(final long id)
     {
-        synchronized ( this.coordinations )
-        {
-            final CoordinationImpl c = coordinations.get(id);
-            return (c == null || c.isTerminated()) ? null : c;
-        }
+        final CoordinationImpl c = coordinations.get(id);
+        return (c == null || c.isTerminated()) ? null : c;
     }
 
 	public Coordination getEnclosingCoordination(final CoordinationImpl c)
@@ -333,17 +342,14 @@ public class CoordinationMgr
 	 */
     public void dispose(final Bundle owner) {
         final List<CoordinationImpl> candidates = new ArrayList<CoordinationImpl>();
-        synchronized ( this.coordinations )
+        final Iterator<Map.Entry<Long, CoordinationImpl>> iter = this.coordinations.entrySet().iterator();
+        while ( iter.hasNext() )
         {
-            final Iterator<Map.Entry<Long, CoordinationImpl>> iter = this.coordinations.entrySet().iterator();
-            while ( iter.hasNext() )
+            final Map.Entry<Long, CoordinationImpl> entry = iter.next();
+            final CoordinationImpl c = entry.getValue();
+            if ( c.getBundle().getBundleId() == owner.getBundleId() )
             {
-                final Map.Entry<Long, CoordinationImpl> entry = iter.next();
-                final CoordinationImpl c = entry.getValue();
-                if ( c.getBundle().getBundleId() == owner.getBundleId() )
-                {
-                    candidates.add(c);
-                }
+                candidates.add(c);
             }
         }
         if ( candidates.size() > 0 )
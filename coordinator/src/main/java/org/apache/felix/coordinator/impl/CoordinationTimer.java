@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.coordinator.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The <code>CoordinationTimer</code> fires the coordination timeouts. It is
+ * a hashed timing wheel: timeouts are kept in a ring of buckets indexed by
+ * their deadline tick, so that scheduling and cancelling a timeout takes
+ * constant time and only locks a single bucket. A single daemon thread
+ * advances the wheel one tick at a time and sleeps while no timeout is
+ * pending.
+ * <p>
+ * Timeouts never fire before their deadline and at most one tick after it.
+ */
+public class CoordinationTimer
+{
+    /**
+     * A scheduled timeout, which can be cancelled.
+     */
+    public static final class Timeout
+    {
+        private final Runnable task;
+
+        private long tick;
+
+        private volatile Bucket bucket;
+
+        private Timeout prev;
+
+        private Timeout next;
+
+        private Timeout(final Runnable task)
+        {
+            this.task = task;
+        }
+
+        /**
+         * Cancels this timeout.
+         *
+         * @return <code>true</code> if the timeout was pending and will not fire
+         */
+        public boolean cancel()
+        {
+            final Bucket b = this.bucket;
+            return b != null && b.remove(this);
+        }
+    }
+
+    /**
+     * A bucket of the wheel, a doubly linked list of timeouts guarded by the
+     * bucket monitor.
+     */
+    private final class Bucket
+    {
+        private Timeout head;
+
+        /**
+         * @return <code>true</code> if no timeout was pending before
+         */
+        synchronized boolean add(final Timeout t)
+        {
+            t.bucket = this;
+            t.next = head;
+            if (head != null)
+            {
+                head.prev = t;
+            }
+            head = t;
+            return pending.getAndIncrement() == 0;
+        }
+
+        synchronized boolean remove(final Timeout t)
+        {
+            if (t.bucket != this)
+            {
+                return false;
+            }
+            unlink(t);
+            return true;
+        }
+
+        synchronized void expire(final long upToTick, final List<Timeout> expired)
+        {
+            Timeout t = head;
+            while (t != null)
+            {
+                final Timeout next = t.next;
+                if (t.tick <= upToTick)
+                {
+                    unlink(t);
+                    expired.add(t);
+                }
+                t = next;
+            }
+        }
+
+        synchronized void clear()
+        {
+            while (head != null)
+            {
+                unlink(head);
+            }
+        }
+
+        private void unlink(final Timeout t)
+        {
+            if (t.prev != null)
+            {
+                t.prev.next = t.next;
+            }
+            else
+            {
+                head = t.next;
+            }
+            if (t.next != null)
+            {
+                t.next.prev = t.prev;
+            }
+            t.prev = t.next = null;
+            t.bucket = null;
+            pending.decrementAndGet();
+        }
+    }
+
+    /** The duration of a tick of the wheel in milliseconds */
+    private static final long TICK_DURATION = 10;
+
+    /** The number of buckets of the wheel, must be a power of two */
+    private static final int WHEEL_SIZE = 1024;
+
+    private final Bucket[] wheel;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Object idleLock = new Object();
+
+    private final Thread worker;
+
+    /**
+     * The tick being or last processed by the worker. It is written before
+     * the buckets of the tick are processed, so a timeout added to a bucket
+     * for this or an earlier tick must be moved to a later tick.
+     */
+    private volatile long currentTick;
+
+    private volatile boolean running = true;
+
+    CoordinationTimer(final String name)
+    {
+        wheel = new Bucket[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++)
+        {
+            wheel[i] = new Bucket();
+        }
+        currentTick = System.currentTimeMillis() / TICK_DURATION - 1;
+
+        worker = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                CoordinationTimer.this.run();
+            }
+        }, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules a task to run at the given time.
+     *
+     * @param task The task to run
+     * @param deadLine The time at which to run the task, in milliseconds
+     * @return The timeout, which may be used to cancel it
+     */
+    Timeout schedule(final Runnable task, final long deadLine)
+    {
+        final Timeout t = new Timeout(task);
+        final long deadLineTick = deadLine / TICK_DURATION;
+        boolean wasIdle;
+        while (true)
+        {
+            final long tick = Math.max(deadLineTick, currentTick + 1);
+            final Bucket b = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+            synchronized (b)
+            {
+                // the worker may have passed this tick in the meantime
+                if (tick > currentTick)
+                {
+                    t.tick = tick;
+                    wasIdle = b.add(t);
+                    break;
+                }
+            }
+        }
+
+        if (wasIdle)
+        {
+            synchronized (idleLock)
+            {
+                idleLock.notifyAll();
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Stops the timer, pending timeouts are dropped.
+     */
+    void cancel()
+    {
+        running = false;
+        synchronized (idleLock)
+        {
+            idleLock.notifyAll();
+        }
+        worker.interrupt();
+        for (final Bucket b : wheel)
+        {
+            b.clear();
+        }
+    }
+
+    private void run()
+    {
+        final List<Timeout> expired = new ArrayList<Timeout>();
+        long tick = currentTick;
+        while (running)
+        {
+            try
+            {
+                final long now = System.currentTimeMillis();
+
+                // the last tick which has completely elapsed
+                final long lastTick = now / TICK_DURATION - 1;
+                if (lastTick <= tick)
+                {
+                    if (pending.get() == 0)
+                    {
+                        synchronized (idleLock)
+                        {
+                            while (running && pending.get() == 0)
+                            {
+                                idleLock.wait();
+                            }
+                        }
+                    }
+                    else
+                    {
+                        Thread.sleep((tick + 2) * TICK_DURATION - now);
+                    }
+                    continue;
+                }
+
+                if (lastTick - tick >= WHEEL_SIZE)
+                {
+                    // behind by more than a turn, sweep every bucket once
+                    currentTick = lastTick;
+                    for (final Bucket b : wheel)
+                    {
+                        b.expire(lastTick, expired);
+                    }
+                }
+                else
+                {
+                    for (long t = tick + 1; t <= lastTick; t++)
+                    {
+                        currentTick = t;
+                        wheel[(int) (t & (WHEEL_SIZE - 1))].expire(t, expired);
+                    }
+                }
+                tick = lastTick;
+
+                for (final Timeout t : expired)
+                {
+                    try
+                    {
+                        t.task.run();
+                    }
+                    catch (final RuntimeException re)
+                    {
+                        LogWrapper.getLogger().log(LogWrapper.LOG_ERROR, "Coordination timeout task failed", re);
+                    }
+                }
+                expired.clear();
+            }
+            catch (final InterruptedException ie)
+            {
+                // check running flag
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.coordinator.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.service.coordinator.Coordination;
+import org.osgi.service.coordinator.Participant;
+
+import junit.framework.TestCase;
+
+/**
+ * Throughput benchmark for short-lived coordinations, each one begun, joined
+ * by a participant and ended. The results are printed to compare runs.
+ */
+public class CoordinatorBenchmarkTest extends TestCase
+{
+    private static final int THREADS = 8;
+
+    private static final int COORDINATIONS_PER_THREAD = 20000;
+
+    private CoordinationMgr mgr;
+    private CoordinatorImpl coordinator;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        mgr = new CoordinationMgr();
+        coordinator = new CoordinatorImpl(null, mgr);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        mgr.cleanUp();
+
+        super.tearDown();
+    }
+
+    public void test_throughput_without_timeout() throws InterruptedException
+    {
+        assertEquals(THREADS * COORDINATIONS_PER_THREAD, runBenchmark("without timeout", 0));
+    }
+
+    public void test_throughput_with_timeout() throws InterruptedException
+    {
+        // every coordination schedules and cancels a timeout
+        assertEquals(THREADS * COORDINATIONS_PER_THREAD, runBenchmark("with timeout", 60 * 1000L));
+    }
+
+    private int runBenchmark(final String label, final long timeout) throws InterruptedException
+    {
+        final AtomicInteger ended = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+
+        for (int i = 0; i < THREADS; i++)
+        {
+            final Thread t = new Thread("Coordination Benchmark " + i)
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int c = 0; c < COORDINATIONS_PER_THREAD; c++)
+                        {
+                            final Coordination coordination = coordinator.begin("benchmark", timeout);
+                            coordination.addParticipant(new CountingParticipant(ended));
+                            coordination.end();
+                        }
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        // finish
+                    }
+                    finally
+                    {
+                        done.countDown();
+                    }
+                }
+            };
+            t.start();
+        }
+
+        final long startTime = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long duration = System.nanoTime() - startTime;
+
+        final long total = (long) THREADS * COORDINATIONS_PER_THREAD;
+        System.out.println("Coordinations " + label + ": " + total + " in " + (duration / 1000000) + "ms, "
+            + (total * 1000000000L / Math.max(1, duration)) + "/s");
+
+        assertTrue(coordinator.getCoordinations().isEmpty());
+        return ended.get();
+    }
+
+    static final class CountingParticipant implements Participant
+    {
+        private final AtomicInteger ended;
+
+        CountingParticipant(final AtomicInteger ended)
+        {
+            this.ended = ended;
+        }
+
+        public void ended(Coordination coordination) throws Exception
+        {
+            ended.incrementAndGet();
+        }
+
+        public void failed(Coordination coordination) throws Exception
+        {
+            fail("Unexpected failure of " + coordination.getName());
+        }
+    }
+}
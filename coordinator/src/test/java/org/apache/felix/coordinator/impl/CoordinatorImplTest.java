@@ -299,6 +299,22 @@ public class CoordinatorImplTest extends TestCase
         assertEquals(c1, p1.c);
     }
 
+    public void test_Coordination_timeout_cancelled_on_end() throws InterruptedException
+    {
+        final String name = "test";
+        final Coordination c1 = coordinator.create(name, 100);
+        final MockParticipant p1 = new MockParticipant();
+        c1.addParticipant(p1);
+        c1.end();
+
+        // wait past the original timeout
+        Thread.sleep(150);
+
+        assertTrue(p1.ended);
+        assertFalse(p1.failed);
+        assertNull(c1.getFailure());
+    }
+
     public void test_Coordination_addParticipant_timeout() throws InterruptedException
     {
         final String name1 = "test1";
@@ -30,6 +30,7 @@ import java.io.PrintWriter;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 
@@ -146,6 +147,20 @@ class ContentCopyingJarInputStream extends JarInputStream {
         if (!file.createNewFile()) {
             throw new IOException("Attempt to overwrite file: " + file);
         }
-        return new GZIPOutputStream(new FileOutputStream(file));
+        return new ContentOutputStream(file);
+    }
+
+    /**
+     * Writes the compressed copy of an entry. Bundles and most other resources are compressed already, so the copy
+     * is deflated with the fastest level, and it is written in large chunks rather than in the 512 byte chunks a
+     * plain {@link GZIPOutputStream} hands to the file.
+     */
+    private static class ContentOutputStream extends GZIPOutputStream {
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        public ContentOutputStream(File file) throws IOException {
+            super(new FileOutputStream(file), BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
     }
 }
@@ -36,12 +36,16 @@ public class DeploymentAdminConfig {
     static final String KEY_STOP_UNAFFECTED_BUNDLES = PREFIX.concat("stopUnaffectedBundles");
     /** Configuration key used to allow usage of customizers outside a DP. */
     static final String KEY_ALLOW_FOREIGN_CUSTOMIZERS = PREFIX.concat("allowForeignCustomizers");
+    /** Configuration key used to set the number of threads taking snapshots and staging bundles, 1 disables both. */
+    static final String KEY_THREADS = PREFIX.concat("threads");
 
     static final boolean DEFAULT_STOP_UNAFFECTED_BUNDLES = true;
     static final boolean DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS = false;
+    static final int DEFAULT_THREADS = 4;
 
     private final boolean m_stopUnaffectedBundles;
     private final boolean m_allowForeignCustomizers;
+    private final int m_threads;
 
     /**
      * Creates a new {@link DeploymentAdminConfig} instance with the default settings.
@@ -56,6 +60,9 @@ public class DeploymentAdminConfig {
 
         value = getFrameworkProperty(context, KEY_ALLOW_FOREIGN_CUSTOMIZERS);
         m_allowForeignCustomizers = parseBoolean(value, DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS);
+
+        value = getFrameworkProperty(context, KEY_THREADS);
+        m_threads = parseInt(value, DEFAULT_THREADS);
     }
 
     /**
@@ -74,6 +81,14 @@ public class DeploymentAdminConfig {
         return m_stopUnaffectedBundles;
     }
 
+    /**
+     * @return the number of threads used to take the snapshots of the bundle data areas concurrently and to stage
+     *         bundles while the previous ones are installed, at least 1 (meaning everything is done sequentially).
+     */
+    public int getThreads() {
+        return m_threads;
+    }
+
     private static boolean parseBoolean(String value, boolean dflt) {
         if (value == null || "".equals(value.trim())) {
             return dflt;
@@ -81,6 +96,18 @@ public class DeploymentAdminConfig {
         return Boolean.parseBoolean(value);
     }
 
+    private static int parseInt(String value, int dflt) {
+        if (value == null || "".equals(value.trim())) {
+            return dflt;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        }
+        catch (NumberFormatException e) {
+            return dflt;
+        }
+    }
+
     private static String getFrameworkProperty(BundleContext context, String key) {
         String prop = context.getProperty(key);
         if (prop == null) {
@@ -27,8 +27,8 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -76,15 +76,12 @@ public class Utils {
             }
         }
         else {
-            InputStream input = null;
-            OutputStream output = null;
+            FileInputStream input = null;
+            FileOutputStream output = null;
             try {
                 input = new FileInputStream(from);
                 output = new FileOutputStream(to);
-                byte[] buffer = new byte[4096];
-                for (int i = input.read(buffer); i > -1; i = input.read(buffer)) {
-                    output.write(buffer, 0, i);
-                }
+                transfer(input.getChannel(), output.getChannel());
             }
             catch (IOException e) {
                 return false;
@@ -101,6 +98,18 @@ public class Utils {
         return result;
     }
 
+    /**
+     * Copies the whole content of the given file channel, letting the platform move the bytes between the files
+     * directly whenever it is able to.
+     */
+    static void transfer(FileChannel input, FileChannel output) throws IOException {
+        long size = input.size();
+        long position = 0;
+        while (position < size) {
+            position += input.transferTo(position, size - position, output);
+        }
+    }
+
     public static boolean rename(File from, File to) {
         if (!from.renameTo(to)) {
             if (copy(from, to)) {
@@ -23,6 +23,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.felix.deploymentadmin.Constants;
 import org.osgi.framework.Bundle;
@@ -173,6 +176,25 @@ public abstract class Command implements Constants {
         return fragmentHost != null;
     }
 
+    /**
+     * Creates an executor running tasks on the given number of daemon threads.
+     * 
+     * @param name the name of the threads, suffixed with a counter;
+     * @param threads the number of threads, &gt; 0.
+     * @return a new executor, to be shut down by the caller.
+     */
+    static final ExecutorService newExecutor(final String name, int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int m_count = 0;
+
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + " " + (++m_count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     static final void closeSilently(Closeable resource) {
         if (resource != null) {
             try {
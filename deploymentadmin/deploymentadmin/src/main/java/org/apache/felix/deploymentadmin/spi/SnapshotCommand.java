@@ -18,13 +18,21 @@
  */
 package org.apache.felix.deploymentadmin.spi;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
@@ -40,6 +48,8 @@ import org.osgi.service.log.LogService;
 public class SnapshotCommand extends Command {
     /** The ZIP specification mandates that directory-entries end with a forward slash (on all platforms). */
     static final String FORWARD_SLASH = "/";
+    /** The size of the buffers used to read and write the archives. */
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     private final GetStorageAreaCommand m_getStorageAreaCommand;
 
@@ -53,6 +63,7 @@ public class SnapshotCommand extends Command {
 
         BundleInfo[] infos = target.getBundleInfos();
         Map storageAreas = m_getStorageAreaCommand.getStorageAreas();
+        List tasks = new ArrayList();
         for (int i = 0; i < infos.length; i++) {
             if (isCancelled()) {
                 throw new DeploymentException(CODE_CANCELLED);
@@ -66,28 +77,58 @@ public class SnapshotCommand extends Command {
                     File snapshot = context.getDataFile("snapshots");
                     snapshot.mkdirs();
                     snapshot = new File(snapshot, infos[i].getSymbolicName());
-                    try {
-                        snapshot.createNewFile();
-                        store(root, snapshot);
-                        addRollback(new RestoreSnapshotRunnable(session, snapshot, root));
-                        addCommit(new DeleteSnapshotRunnable(session, snapshot));
-                    }
-                    catch (Exception e) {
-                        session.getLog().log(LogService.LOG_WARNING, "Could not access storage area of bundle '" + symbolicName + "'!", e);
-                        snapshot.delete();
-                    }
+                    tasks.add(new StoreSnapshotTask(symbolicName, root, snapshot));
                 }
                 else {
                     session.getLog().log(LogService.LOG_WARNING, "Could not retrieve storage area of bundle '" + symbolicName + "', skipping it.");
                 }
             }
         }
+
+        // Data areas are independent of each other, so they are archived concurrently. The rollback and commit
+        // actions are still added in the order of the bundles...
+        int threads = Math.min(session.getConfiguration().getThreads(), tasks.size());
+        ExecutorService executor = (threads > 1) ? newExecutor("Deployment Admin Snapshot", threads) : null;
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                StoreSnapshotTask task = (StoreSnapshotTask) tasks.get(i);
+                if (executor != null) {
+                    executor.execute(task.m_future);
+                }
+                else {
+                    task.m_future.run();
+                }
+            }
+        }
+        finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        for (int i = 0; i < tasks.size(); i++) {
+            StoreSnapshotTask task = (StoreSnapshotTask) tasks.get(i);
+            try {
+                if (((Boolean) task.m_future.get()).booleanValue()) {
+                    addRollback(new RestoreSnapshotRunnable(session, task.m_snapshot, task.m_root));
+                    addCommit(new DeleteSnapshotRunnable(session, task.m_snapshot));
+                }
+            }
+            catch (ExecutionException e) {
+                session.getLog().log(LogService.LOG_WARNING, "Could not access storage area of bundle '" + task.m_symbolicName + "'!", e.getCause());
+                task.m_snapshot.delete();
+            }
+        }
+
+        if (isCancelled()) {
+            throw new DeploymentException(CODE_CANCELLED);
+        }
     }
 
     protected static void restore(File archiveFile, File targetDir) throws IOException {
         ZipInputStream input = null;
         try {
-            input = new ZipInputStream(new FileInputStream(archiveFile));
+            input = new ZipInputStream(new BufferedInputStream(new FileInputStream(archiveFile), BUFFER_SIZE));
 
             ZipEntry entry;
             while ((entry = input.getNextEntry()) != null) {
@@ -101,7 +142,7 @@ public class SnapshotCommand extends Command {
                 else {
                     OutputStream output = null;
                     try {
-                        output = new FileOutputStream(targetEntry);
+                        output = new BufferedOutputStream(new FileOutputStream(targetEntry), BUFFER_SIZE);
                         copy(input, output);
                     }
                     finally {
@@ -120,7 +161,7 @@ public class SnapshotCommand extends Command {
     protected static void store(File sourceDir, File archiveFile) throws IOException {
         ZipOutputStream output = null;
         try {
-            output = new ZipOutputStream(new FileOutputStream(archiveFile));
+            output = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile), BUFFER_SIZE));
             // Traverse source directory recursively, and store all entries...
             store(output, sourceDir, "");
         }
@@ -182,6 +223,33 @@ public class SnapshotCommand extends Command {
         }
     }
 
+    /**
+     * Archives the data area of a bundle, unless the command is cancelled before, in which case it yields
+     * <code>false</code>.
+     */
+    private final class StoreSnapshotTask implements Callable {
+        private final String m_symbolicName;
+        private final File m_root;
+        private final File m_snapshot;
+        private final FutureTask m_future;
+
+        private StoreSnapshotTask(String symbolicName, File root, File snapshot) {
+            m_symbolicName = symbolicName;
+            m_root = root;
+            m_snapshot = snapshot;
+            m_future = new FutureTask(this);
+        }
+
+        public Object call() throws Exception {
+            if (isCancelled()) {
+                return Boolean.FALSE;
+            }
+            m_snapshot.createNewFile();
+            store(m_root, m_snapshot);
+            return Boolean.TRUE;
+        }
+    }
+
     private static class DeleteSnapshotRunnable extends AbstractAction {
         private final DeploymentSessionImpl m_session;
         private final File m_snapshot;
@@ -18,10 +18,21 @@
  */
 package org.apache.felix.deploymentadmin.spi;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.felix.deploymentadmin.AbstractDeploymentPackage;
 import org.apache.felix.deploymentadmin.AbstractInfo;
@@ -55,8 +66,18 @@ public class UpdateCommand extends Command {
             }
         }
 
+        // With more than one thread, each bundle is staged to a temporary file and installed or updated by a
+        // single installer thread while the next one is read from the stream. The framework still sees the bundles
+        // one by one and in order of the deployment package...
+        ExecutorService installer = null;
+        if (session.getConfiguration().getThreads() > 1) {
+            installer = newExecutor("Deployment Admin Installer", 1);
+        }
+        List tasks = new ArrayList();
+        AtomicBoolean failed = new AtomicBoolean();
+        Exception failure = null;
         try {
-            while (!expectedBundles.isEmpty()) {
+            while (!expectedBundles.isEmpty() && !failed.get()) {
                 AbstractInfo entry = source.getNextEntry();
                 if (entry == null) {
                     throw new DeploymentException(CODE_OTHER_ERROR, "Expected more bundles in the stream: " + expectedBundles.keySet());
@@ -72,45 +93,97 @@ public class UpdateCommand extends Command {
                     throw new DeploymentException(CODE_OTHER_ERROR, "Resource '" + name + "' is not described in the manifest.");
                 }
 
-                String bsn = bundleInfo.getSymbolicName();
-                Version sourceVersion = bundleInfo.getVersion();
+                Bundle bundle = targetPackage.getBundle(bundleInfo.getSymbolicName());
+                if (bundle != null && bundleInfo.getVersion().equals(getVersion(bundle))) {
+                    // existing bundle, which is left as is
+                    verify(bundle, bundleInfo);
+                    continue;
+                }
 
-                Bundle bundle = targetPackage.getBundle(bsn);
-                try {
-                    if (bundle == null) {
-                        // new bundle, install it
-                        bundle = context.installBundle(BUNDLE_LOCATION_PREFIX + bsn, new BundleInputStream(source.getCurrentEntryStream()));
-                        addRollback(new UninstallBundleRunnable(bundle, log));
-                    }
-                    else {
-                        // existing bundle, update it
-                        Version currentVersion = getVersion(bundle);
-                        if (!sourceVersion.equals(currentVersion)) {
-                            bundle.update(new BundleInputStream(source.getCurrentEntryStream()));
-                            addRollback(new UpdateBundleRunnable(bundle, targetPackage, log));
-                        }
-                    }
+                InstallBundleTask task;
+                if (installer == null) {
+                    task = new InstallBundleTask(name, bundleInfo, bundle, source.getCurrentEntryStream(), null, targetPackage, context, log, failed);
+                    task.m_future.run();
                 }
-                catch (Exception be) {
-                    if (isCancelled()) {
-                        return;
-                    }
-                    throw new DeploymentException(CODE_OTHER_ERROR, "Could not install new bundle '" + name + "' (" + bsn + ")", be);
+                else {
+                    File staged = stage(source.getCurrentEntryStream());
+                    task = new InstallBundleTask(name, bundleInfo, bundle, null, staged, targetPackage, context, log, failed);
+                    installer.execute(task.m_future);
                 }
+                tasks.add(task);
+            }
+        }
+        catch (Exception e) {
+            failure = e;
+            failed.set(true);
+        }
+        finally {
+            if (installer != null) {
+                installer.shutdown();
+            }
+        }
 
-                if (!bundle.getSymbolicName().equals(bsn)) {
-                    throw new DeploymentException(CODE_BUNDLE_NAME_ERROR, "Installed/updated bundle symbolicname (" + bundle.getSymbolicName() + ") do not match what was installed/updated: " + bsn);
+        // Wait for all bundles to be installed, so their rollback actions are known...
+        for (int i = 0; i < tasks.size(); i++) {
+            InstallBundleTask task = (InstallBundleTask) tasks.get(i);
+            try {
+                task.m_future.get();
+            }
+            catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
                 }
+            }
+        }
 
-                Version targetVersion = getVersion(bundle);
-                if (!sourceVersion.equals(targetVersion)) {
-                    throw new DeploymentException(CODE_OTHER_ERROR,
-                        "Installed/updated bundle version (" + targetVersion + ") do not match what was installed/updated: " + sourceVersion + ", offending bundle = " + bsn);
-                }
+        if (failure != null) {
+            if (isCancelled()) {
+                return;
+            }
+            if (failure instanceof IOException) {
+                throw new DeploymentException(CODE_OTHER_ERROR, "Problem while reading stream", failure);
+            }
+            throw failure;
+        }
+    }
+
+    /**
+     * Copies the bundle currently read from the deployment package to a temporary file.
+     */
+    private File stage(InputStream input) throws IOException {
+        File file = File.createTempFile("deploymentadmin", ".jar");
+        OutputStream output = null;
+        try {
+            output = new FileOutputStream(file);
+            InputStream bundleInput = new BundleInputStream(input);
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = bundleInput.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
             }
         }
         catch (IOException e) {
-            throw new DeploymentException(CODE_OTHER_ERROR, "Problem while reading stream", e);
+            closeSilently(output);
+            file.delete();
+            throw e;
+        }
+        finally {
+            closeSilently(output);
+        }
+        return file;
+    }
+
+    private void verify(Bundle bundle, BundleInfoImpl bundleInfo) throws DeploymentException {
+        String bsn = bundleInfo.getSymbolicName();
+        if (!bundle.getSymbolicName().equals(bsn)) {
+            throw new DeploymentException(CODE_BUNDLE_NAME_ERROR, "Installed/updated bundle symbolicname (" + bundle.getSymbolicName() + ") do not match what was installed/updated: " + bsn);
+        }
+
+        Version sourceVersion = bundleInfo.getVersion();
+        Version targetVersion = getVersion(bundle);
+        if (!sourceVersion.equals(targetVersion)) {
+            throw new DeploymentException(CODE_OTHER_ERROR,
+                "Installed/updated bundle version (" + targetVersion + ") do not match what was installed/updated: " + sourceVersion + ", offending bundle = " + bsn);
         }
     }
 
@@ -122,6 +195,88 @@ public class UpdateCommand extends Command {
         return name.startsWith("OSGI-INF/l10n/");
     }
 
+    /**
+     * Installs a new bundle or updates an existing one, from the deployment package stream or from a staged copy,
+     * which is removed afterwards. It is skipped once the installation of a previous bundle failed. The rollback
+     * actions are added by the installing thread, in order, and only read by the command once all tasks are done.
+     */
+    private final class InstallBundleTask implements Callable {
+        private final String m_name;
+        private final BundleInfoImpl m_bundleInfo;
+        private final Bundle m_bundle;
+        private final InputStream m_input;
+        private final File m_staged;
+        private final AbstractDeploymentPackage m_targetPackage;
+        private final BundleContext m_context;
+        private final LogService m_log;
+        private final AtomicBoolean m_failed;
+        private final FutureTask m_future;
+
+        private InstallBundleTask(String name, BundleInfoImpl bundleInfo, Bundle bundle, InputStream input, File staged,
+            AbstractDeploymentPackage targetPackage, BundleContext context, LogService log, AtomicBoolean failed) {
+            m_name = name;
+            m_bundleInfo = bundleInfo;
+            m_bundle = bundle;
+            m_input = input;
+            m_staged = staged;
+            m_targetPackage = targetPackage;
+            m_context = context;
+            m_log = log;
+            m_failed = failed;
+            m_future = new FutureTask(this);
+        }
+
+        public Object call() throws Exception {
+            try {
+                if (!m_failed.get()) {
+                    install();
+                }
+                return null;
+            }
+            catch (Exception e) {
+                m_failed.set(true);
+                throw e;
+            }
+            finally {
+                if (m_staged != null) {
+                    m_staged.delete();
+                }
+            }
+        }
+
+        private void install() throws Exception {
+            String bsn = m_bundleInfo.getSymbolicName();
+            Bundle bundle = m_bundle;
+            InputStream bundleInput = null;
+            try {
+                bundleInput = new BundleInputStream((m_staged != null) ? new FileInputStream(m_staged) : m_input);
+                if (bundle == null) {
+                    // new bundle, install it
+                    bundle = m_context.installBundle(BUNDLE_LOCATION_PREFIX + bsn, bundleInput);
+                    addRollback(new UninstallBundleRunnable(bundle, m_log));
+                }
+                else {
+                    // existing bundle, update it
+                    bundle.update(bundleInput);
+                    addRollback(new UpdateBundleRunnable(bundle, m_targetPackage, m_log));
+                }
+            }
+            catch (Exception be) {
+                if (isCancelled()) {
+                    throw be;
+                }
+                throw new DeploymentException(CODE_OTHER_ERROR, "Could not install new bundle '" + m_name + "' (" + bsn + ")", be);
+            }
+            finally {
+                if (m_staged != null) {
+                    closeSilently(bundleInput);
+                }
+            }
+
+            verify(bundle, m_bundleInfo);
+        }
+    }
+
     private static class UninstallBundleRunnable extends AbstractAction {
         private final Bundle m_bundle;
         private final LogService m_log;
@@ -37,9 +37,11 @@ public class DeploymentAdminConfigTest extends TestCase {
     private static final String KEY_STOP_UNAFFECTED_BUNDLE = DeploymentAdminConfig.KEY_STOP_UNAFFECTED_BUNDLE;
     private static final String KEY_STOP_UNAFFECTED_BUNDLES = DeploymentAdminConfig.KEY_STOP_UNAFFECTED_BUNDLES;
     private static final String KEY_ALLOW_FOREIGN_CUSTOMIZERS = DeploymentAdminConfig.KEY_ALLOW_FOREIGN_CUSTOMIZERS;
+    private static final String KEY_THREADS = DeploymentAdminConfig.KEY_THREADS;
 
     private static final boolean DEFAULT_STOP_UNAFFECTED_BUNDLES = DeploymentAdminConfig.DEFAULT_STOP_UNAFFECTED_BUNDLES;
     private static final boolean DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS = DeploymentAdminConfig.DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS;
+    private static final int DEFAULT_THREADS = DeploymentAdminConfig.DEFAULT_THREADS;
 
     private final Map m_fwProperties = new HashMap();
 
@@ -51,6 +53,7 @@ public class DeploymentAdminConfigTest extends TestCase {
 
         assertEquals(DEFAULT_STOP_UNAFFECTED_BUNDLES, config.isStopUnaffectedBundles());
         assertEquals(DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS, config.isAllowForeignCustomizers());
+        assertEquals(DEFAULT_THREADS, config.getThreads());
     }
 
     /**
@@ -59,11 +62,24 @@ public class DeploymentAdminConfigTest extends TestCase {
     public void testFrameworkConfigurationOk() throws ConfigurationException {
         m_fwProperties.put(KEY_STOP_UNAFFECTED_BUNDLES, Boolean.toString(!DEFAULT_STOP_UNAFFECTED_BUNDLES));
         m_fwProperties.put(KEY_ALLOW_FOREIGN_CUSTOMIZERS, Boolean.toString(!DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS));
+        m_fwProperties.put(KEY_THREADS, "1");
 
         DeploymentAdminConfig config = createDeploymentAdminConfig();
 
         assertEquals(!DEFAULT_STOP_UNAFFECTED_BUNDLES, config.isStopUnaffectedBundles());
         assertEquals(!DEFAULT_ALLOW_FOREIGN_CUSTOMIZERS, config.isAllowForeignCustomizers());
+        assertEquals(1, config.getThreads());
+    }
+
+    /**
+     * Tests that invalid thread counts fall back to sane values.
+     */
+    public void testFrameworkConfigurationInvalidThreadsOk() throws ConfigurationException {
+        m_fwProperties.put(KEY_THREADS, "none");
+        assertEquals(DEFAULT_THREADS, createDeploymentAdminConfig().getThreads());
+
+        m_fwProperties.put(KEY_THREADS, "0");
+        assertEquals(1, createDeploymentAdminConfig().getThreads());
     }
 
     /**
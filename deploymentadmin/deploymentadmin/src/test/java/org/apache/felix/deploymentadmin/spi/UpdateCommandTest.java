@@ -0,0 +1,455 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.deploymentadmin.spi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.deploymentadmin.AbstractDeploymentPackage;
+import org.apache.felix.deploymentadmin.AbstractInfo;
+import org.apache.felix.deploymentadmin.BundleInfoImpl;
+import org.apache.felix.deploymentadmin.DeploymentAdminConfig;
+import org.apache.felix.deploymentadmin.DeploymentAdminImpl;
+import org.apache.felix.deploymentadmin.ResourceInfoImpl;
+import org.apache.felix.deploymentadmin.StreamDeploymentPackage;
+import org.apache.felix.deploymentadmin.Utils;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.service.deploymentadmin.DeploymentException;
+import org.osgi.service.log.LogService;
+
+/**
+ * Test cases for {@link UpdateCommand} and the rollback of {@link SnapshotCommand}, both with bundles installed
+ * directly from the deployment package stream and with bundles staged to temporary files.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class UpdateCommandTest extends TestCase {
+    private static final String KEY_THREADS = "org.apache.felix.deploymentadmin.threads";
+    private static final String STATE_FILE = "state";
+
+    private final List m_events = Collections.synchronizedList(new ArrayList());
+    private final List m_bundles = Collections.synchronizedList(new ArrayList());
+    private final List m_logged = Collections.synchronizedList(new ArrayList());
+    private final Set m_failing = new HashSet();
+    private final Map m_properties = new HashMap();
+    private BundleContext m_context;
+    private LogService m_log;
+    private File m_root;
+
+    protected void setUp() throws Exception {
+        m_root = File.createTempFile("deploymentadmin-", "");
+        assertTrue(m_root.delete());
+        assertTrue(m_root.mkdirs());
+        m_context = (BundleContext) proxy(BundleContext.class, new FrameworkHandler());
+        m_log = (LogService) proxy(LogService.class, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                for (int i = 0; i < args.length; i++) {
+                    if (args[i] instanceof String) {
+                        m_logged.add(args[i]);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    protected void tearDown() throws Exception {
+        Utils.delete(m_root, true /* deleteRoot */);
+    }
+
+    /**
+     * Tests that new and updated bundles are installed in the order of the deployment package.
+     */
+    public void testInstallOrderOk() throws Exception {
+        checkInstallOrder(1);
+    }
+
+    /**
+     * Tests that staged bundles are installed in the order of the deployment package.
+     */
+    public void testStagedInstallOrderOk() throws Exception {
+        checkInstallOrder(4);
+    }
+
+    /**
+     * Tests that a bundle failing to install stops the installation of the bundles after it, and that the bundles
+     * before it are rolled back in reverse order, followed by the data area of the updated bundle.
+     */
+    public void testRollbackOrderOk() throws Exception {
+        checkRollbackOrder(1);
+    }
+
+    /**
+     * Tests the rollback order when the bundles are staged while an earlier bundle is still being installed.
+     */
+    public void testStagedRollbackOrderOk() throws Exception {
+        checkRollbackOrder(4);
+    }
+
+    /**
+     * Tests that a data area that could not be archived is skipped, while the other data areas are still restored.
+     */
+    public void testRollbackWithFailedSnapshotOk() throws Exception {
+        m_properties.put(KEY_THREADS, "4");
+        installBundle("b", "1.0.0");
+        installBundle("c", "1.0.0");
+        m_failing.add("d");
+        // the snapshot of b can not be written over a directory...
+        assertTrue(new File(m_root, "snapshots/b").mkdirs());
+
+        DeploymentSessionImpl session = createSession(new String[] { "b", "2.0.0", "c", "2.0.0", "d", "1.0.0" }, new String[] { "b", "c" });
+        try {
+            session.call(false);
+            fail("Expected the installation of d to fail!");
+        }
+        catch (DeploymentException e) {
+            // expected
+        }
+
+        assertEquals(Arrays.asList(new String[] { "update b 2.0.0", "update c 2.0.0", "install d", "update c 1.0.0", "update b 1.0.0" }), m_events);
+        assertTrue(m_logged.contains("Could not access storage area of bundle 'b'!"));
+        assertEquals("1.0.0 2.0.0 1.0.0", readState("b"));
+        assertEquals("1.0.0", readState("c"));
+        assertFalse(new File(m_root, "snapshots/b").exists());
+        assertFalse(new File(m_root, "snapshots/c").exists());
+    }
+
+    private void checkInstallOrder(int threads) throws Exception {
+        m_properties.put(KEY_THREADS, Integer.toString(threads));
+        installBundle("b", "1.0.0");
+        Set staged = getStagedFiles();
+
+        createSession(new String[] { "a", "1.0.0", "b", "2.0.0", "c", "1.0.0" }, new String[] { "b" }).call(false);
+
+        assertEquals(Arrays.asList(new String[] { "install a", "update b 2.0.0", "install c" }), m_events);
+        assertEquals("1.0.0 2.0.0", readState("b"));
+        // the snapshot is deleted on commit...
+        assertFalse(new File(m_root, "snapshots/b").exists());
+        assertEquals(staged, getStagedFiles());
+    }
+
+    private void checkRollbackOrder(int threads) throws Exception {
+        m_properties.put(KEY_THREADS, Integer.toString(threads));
+        installBundle("b", "1.0.0");
+        m_failing.add("d");
+        Set staged = getStagedFiles();
+
+        DeploymentSessionImpl session = createSession(new String[] { "a", "1.0.0", "b", "2.0.0", "c", "1.0.0", "d", "1.0.0", "e", "1.0.0" }, new String[] { "b" });
+        try {
+            session.call(false);
+            fail("Expected the installation of d to fail!");
+        }
+        catch (DeploymentException e) {
+            assertTrue(e.getCause() instanceof BundleException);
+        }
+
+        assertEquals(Arrays.asList(new String[] { "install a", "update b 2.0.0", "install c", "install d", "uninstall c", "update b 1.0.0", "uninstall a" }), m_events);
+        assertEquals(1, m_bundles.size());
+        assertEquals(new Version("1.0.0"), ((Bundle) m_bundles.get(0)).getVersion());
+        assertEquals("1.0.0", readState("b"));
+        assertFalse(new File(m_root, "snapshots/b").exists());
+        assertEquals(staged, getStagedFiles());
+    }
+
+    /**
+     * Creates a session that snapshots the data areas of the target bundles and installs the source bundles.
+     *
+     * @param source the symbolic names and versions of the bundles in the source deployment package;
+     * @param target the symbolic names of the bundles in the target deployment package, all at version 1.0.0.
+     */
+    private DeploymentSessionImpl createSession(String[] source, String[] target) throws Exception {
+        DeploymentAdminImpl admin = new DeploymentAdminImpl() {
+            public BundleContext getBundleContext() {
+                return m_context;
+            }
+
+            public LogService getLog() {
+                return m_log;
+            }
+        };
+
+        Manifest sourceManifest = createManifest();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < source.length; i += 2) {
+            addBundleInfo(sourceManifest, source[i], source[i + 1]);
+        }
+        JarOutputStream output = new JarOutputStream(bytes, sourceManifest);
+        for (int i = 0; i < source.length; i += 2) {
+            output.putNextEntry(new ZipEntry("bundles/" + source[i] + ".jar"));
+            output.write(createBundle(source[i], source[i + 1]));
+            output.closeEntry();
+        }
+        output.close();
+        AbstractDeploymentPackage sourcePackage = new StreamDeploymentPackage(new JarInputStream(new ByteArrayInputStream(bytes.toByteArray())), m_context, admin);
+
+        Manifest targetManifest = createManifest();
+        for (int i = 0; i < target.length; i++) {
+            addBundleInfo(targetManifest, target[i], "1.0.0");
+        }
+        AbstractDeploymentPackage targetPackage = new TargetDeploymentPackage(targetManifest, m_context, admin);
+
+        GetStorageAreaCommand getStorageAreaCommand = new GetStorageAreaCommand();
+        List commands = new ArrayList();
+        commands.add(getStorageAreaCommand);
+        commands.add(new SnapshotCommand(getStorageAreaCommand));
+        commands.add(new UpdateCommand());
+        return new DeploymentSessionImpl(sourcePackage, targetPackage, commands, admin, new DeploymentAdminConfig(m_context));
+    }
+
+    private Manifest createManifest() {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("DeploymentPackage-SymbolicName", "dp");
+        attributes.putValue("DeploymentPackage-Version", "1.0.0");
+        return manifest;
+    }
+
+    private void addBundleInfo(Manifest manifest, String symbolicName, String version) {
+        Attributes attributes = new Attributes();
+        attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+        attributes.putValue(Constants.BUNDLE_VERSION, version);
+        manifest.getEntries().put("bundles/" + symbolicName + ".jar", attributes);
+    }
+
+    private static byte[] createBundle(String symbolicName, String version) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+        attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+        attributes.putValue(Constants.BUNDLE_VERSION, version);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new JarOutputStream(bytes, manifest).close();
+        return bytes.toByteArray();
+    }
+
+    private static Attributes readBundle(InputStream input) throws IOException {
+        Manifest manifest = new JarInputStream(input).getManifest();
+        assertNotNull("Not a bundle?!", manifest);
+        return manifest.getMainAttributes();
+    }
+
+    private Bundle installBundle(String symbolicName, String version) throws IOException {
+        BundleHandler handler = new BundleHandler(symbolicName, version);
+        Bundle bundle = (Bundle) proxy(Bundle.class, handler);
+        m_bundles.add(bundle);
+        return bundle;
+    }
+
+    private String readState(String symbolicName) throws IOException {
+        File file = new File(m_root, "data/" + symbolicName + "/" + STATE_FILE);
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream input = new FileInputStream(file);
+        try {
+            assertEquals(data.length, input.read(data));
+        }
+        finally {
+            input.close();
+        }
+        return new String(data, "UTF-8");
+    }
+
+    /**
+     * @return the names of the bundles staged by the {@link UpdateCommand} that are left in the temporary directory.
+     */
+    private static Set getStagedFiles() throws IOException {
+        File probe = File.createTempFile("deploymentadmin", ".jar");
+        assertTrue(probe.delete());
+
+        Set result = new HashSet();
+        String[] names = probe.getParentFile().list();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].startsWith("deploymentadmin") && names[i].endsWith(".jar")) {
+                result.add(names[i]);
+            }
+        }
+        return result;
+    }
+
+    private static Object proxy(Class type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(UpdateCommandTest.class.getClassLoader(), new Class[] { type }, handler);
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("equals")) {
+            return Boolean.valueOf(proxy == args[0]);
+        }
+        if (method.getName().equals("hashCode")) {
+            return new Integer(System.identityHashCode(proxy));
+        }
+        if (method.getReturnType() == boolean.class) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * Installs bundles into the list of bundles, failing for the symbolic names in the failing set.
+     */
+    private final class FrameworkHandler implements InvocationHandler {
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("getProperty")) {
+                return m_properties.get(args[0]);
+            }
+            if (name.equals("getBundles")) {
+                return m_bundles.toArray(new Bundle[m_bundles.size()]);
+            }
+            if (name.equals("getDataFile")) {
+                return new File(m_root, (String) args[0]);
+            }
+            if (name.equals("installBundle") && (args.length == 2)) {
+                Attributes attributes = readBundle((InputStream) args[1]);
+                String symbolicName = attributes.getValue(Constants.BUNDLE_SYMBOLICNAME);
+                m_events.add("install " + symbolicName);
+                if (m_failing.contains(symbolicName)) {
+                    throw new BundleException("Could not install " + symbolicName);
+                }
+                return installBundle(symbolicName, attributes.getValue(Constants.BUNDLE_VERSION));
+            }
+            return defaultValue(proxy, method, args);
+        }
+    }
+
+    /**
+     * A bundle that appends its version to a file in its data area whenever it is installed or updated.
+     */
+    private final class BundleHandler implements InvocationHandler {
+        private final String m_symbolicName;
+        private final File m_dataArea;
+        private volatile String m_version;
+
+        BundleHandler(String symbolicName, String version) throws IOException {
+            m_symbolicName = symbolicName;
+            m_dataArea = new File(m_root, "data/" + symbolicName);
+            setVersion(version);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("getSymbolicName")) {
+                return m_symbolicName;
+            }
+            if (name.equals("getVersion")) {
+                return new Version(m_version);
+            }
+            if (name.equals("getHeaders")) {
+                Hashtable headers = new Hashtable();
+                headers.put(Constants.BUNDLE_SYMBOLICNAME, m_symbolicName);
+                headers.put(Constants.BUNDLE_VERSION, m_version);
+                return headers;
+            }
+            if (name.equals("getBundleContext")) {
+                return proxy(BundleContext.class, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getDataFile")) {
+                            return new File(m_dataArea, (String) args[0]);
+                        }
+                        return defaultValue(proxy, method, args);
+                    }
+                });
+            }
+            if (name.equals("update") && (args != null)) {
+                String version = readBundle((InputStream) args[0]).getValue(Constants.BUNDLE_VERSION);
+                m_events.add("update " + m_symbolicName + " " + version);
+                setVersion(version);
+                return null;
+            }
+            if (name.equals("uninstall")) {
+                m_events.add("uninstall " + m_symbolicName);
+                m_bundles.remove(proxy);
+                return null;
+            }
+            return defaultValue(proxy, method, args);
+        }
+
+        private void setVersion(String version) throws IOException {
+            m_version = version;
+            assertTrue(m_dataArea.isDirectory() || m_dataArea.mkdirs());
+            File state = new File(m_dataArea, STATE_FILE);
+            String entry = state.exists() ? " " + version : version;
+            FileOutputStream output = new FileOutputStream(state, true /* append */);
+            try {
+                output.write(entry.getBytes("UTF-8"));
+            }
+            finally {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * The installed deployment package, which provides the streams of its bundles at version 1.0.0.
+     */
+    private static final class TargetDeploymentPackage extends AbstractDeploymentPackage {
+        TargetDeploymentPackage(Manifest manifest, BundleContext context, DeploymentAdminImpl admin) throws DeploymentException {
+            super(manifest, context, admin);
+        }
+
+        public InputStream getBundleStream(String symbolicName) throws IOException {
+            return new ByteArrayInputStream(createBundle(symbolicName, "1.0.0"));
+        }
+
+        public InputStream getCurrentEntryStream() {
+            throw new UnsupportedOperationException();
+        }
+
+        public AbstractInfo getNextEntry() {
+            throw new UnsupportedOperationException();
+        }
+
+        public BundleInfoImpl[] getOrderedBundleInfos() {
+            return getBundleInfoImpls();
+        }
+
+        public ResourceInfoImpl[] getOrderedResourceInfos() {
+            return new ResourceInfoImpl[0];
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Future;
 
 import org.apache.felix.gogo.runtime.Tokenizer.Type;
 import org.apache.felix.service.command.CommandSession;
@@ -183,22 +184,39 @@ public class Closure implements Function, Evaluate
             }
             else if (pipes.size() > 1)
             {
-                for (Pipe pipe : pipes)
+                // stages run on the processor's shared pool; each one
+                // resets the thread locals of the pool thread when done
+                ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+                for (final Pipe pipe : pipes)
                 {
-                    pipe.start();
+                    futures.add(session.executor().submit(new Runnable()
+                    {
+                        public void run()
+                        {
+                            Object[] mark = Pipe.mark();
+                            try
+                            {
+                                pipe.run();
+                            }
+                            finally
+                            {
+                                Pipe.reset(mark);
+                            }
+                        }
+                    }));
                 }
                 try
                 {
-                    for (Pipe pipe : pipes)
+                    for (Future<?> future : futures)
                     {
-                        pipe.join();
+                        future.get();
                     }
                 }
                 catch (InterruptedException e)
                 {
-                    for (Pipe pipe : pipes)
+                    for (Future<?> future : futures)
                     {
-                        pipe.interrupt();
+                        future.cancel(true);
                     }
                     throw e;
                 }
@@ -588,6 +606,25 @@ public class Closure implements Function, Evaluate
 
     public Object get(String name)
     {
+        if ("pipe".equals(name) && !session.variables.containsKey(name))
+        {
+            // result of the previous stage, when running in a pipeline,
+            // unless hidden by a variable of the same name
+            try
+            {
+                Object previous = Pipe.previousResult();
+                if (previous != Reflective.NO_MATCH)
+                {
+                    return previous;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+
         if (parms != null)
         {
             if ("args".equals(name))
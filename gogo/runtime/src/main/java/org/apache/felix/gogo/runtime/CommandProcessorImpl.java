@@ -31,6 +31,10 @@ import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.felix.gogo.api.CommandSessionListener;
 import org.apache.felix.service.command.CommandProcessor;
@@ -47,6 +51,7 @@ public class CommandProcessorImpl implements CommandProcessor
     protected final Map<String, Object> constants = new ConcurrentHashMap<String, Object>();
     protected final ThreadIO threadIO;
     protected final WeakHashMap<CommandSession, Object> sessions = new WeakHashMap<CommandSession, Object>();
+    protected final ExecutorService executor = Executors.newCachedThreadPool(new PipeThreadFactory());
     protected boolean stopped;
 
     public CommandProcessorImpl(ThreadIO tio)
@@ -54,6 +59,14 @@ public class CommandProcessorImpl implements CommandProcessor
         threadIO = tio;
     }
 
+    /**
+     * Returns the executor shared by all sessions to run pipeline stages.
+     */
+    ExecutorService executor()
+    {
+        return executor;
+    }
+
     public CommandSession createSession(InputStream in, PrintStream out, PrintStream err)
     {
         synchronized (sessions)
@@ -90,6 +103,7 @@ public class CommandProcessorImpl implements CommandProcessor
             // Just in case...
 			sessions.clear();
         }
+        executor.shutdown();
     }
 
     public void addConverter(Converter c)
@@ -366,4 +380,16 @@ public class CommandProcessorImpl implements CommandProcessor
     public Object expr(CommandSessionImpl session, CharSequence expr) {
         return new Expression(expr.toString()).eval(session.variables);
     }
+
+    private static class PipeThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "gogo-pipe-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
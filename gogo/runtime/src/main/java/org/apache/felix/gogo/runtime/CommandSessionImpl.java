@@ -32,6 +32,7 @@ import java.util.Enumeration;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.felix.service.command.CommandSession;
 import org.apache.felix.service.command.Converter;
@@ -66,6 +67,11 @@ public class CommandSessionImpl implements CommandSession, Converter
         return processor.threadIO;
     }
 
+    ExecutorService executor()
+    {
+        return processor.executor();
+    }
+
     public void close()
     {
         if (!this.closed)
@@ -18,25 +18,35 @@
  */
 package org.apache.felix.gogo.runtime;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.lang.reflect.Method;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.apache.felix.service.command.Converter;
 
-public class Pipe extends Thread
+/**
+ * A single stage of a pipeline. When connected to a following stage, the
+ * bytes written to System.out are piped to the next stage's System.in, while
+ * the result of the stage is handed over as an object through a
+ * {@link Channel}. The result is only formatted as text if the next stage
+ * actually reads its System.in beyond the piped bytes.
+ */
+public class Pipe implements Runnable
 {
     static final ThreadLocal<InputStream> tIn = new ThreadLocal<InputStream>();
     static final ThreadLocal<PrintStream> tOut = new ThreadLocal<PrintStream>();
     static final ThreadLocal<PrintStream> tErr = new ThreadLocal<PrintStream>();
+    static final ThreadLocal<Channel> tChannel = new ThreadLocal<Channel>();
     InputStream in;
     PrintStream out;
     PrintStream err;
-    PipedOutputStream pout;
+    Channel channel;
     Closure closure;
     Exception exception;
     Object result;
@@ -44,7 +54,7 @@ public class Pipe extends Thread
 
     public static Object[] mark()
     {
-        Object[] mark = { tIn.get(), tOut.get(), tErr.get() };
+        Object[] mark = { tIn.get(), tOut.get(), tErr.get(), tChannel.get() };
         return mark;
     }
 
@@ -53,11 +63,22 @@ public class Pipe extends Thread
         tIn.set((InputStream) mark[0]);
         tOut.set((PrintStream) mark[1]);
         tErr.set((PrintStream) mark[2]);
+        tChannel.set((Channel) mark[3]);
+    }
+
+    /**
+     * Returns the result of the previous stage of the pipeline the current
+     * thread is running in, waiting for that stage to complete if needed.
+     * Returns {@link Reflective#NO_MATCH} if this is not a connected stage.
+     */
+    static Object previousResult() throws InterruptedException
+    {
+        Channel channel = tChannel.get();
+        return channel == null ? Reflective.NO_MATCH : channel.result();
     }
 
     public Pipe(Closure closure, List<Token> statement)
     {
-        super("pipe-" + statement);
         this.closure = closure;
         this.statement = statement;
 
@@ -90,9 +111,9 @@ public class Pipe extends Thread
     {
         next.setOut(out);
         next.setErr(err);
-        pout = new PipedOutputStream();
-        next.setIn(new PipedInputStream(pout));
-        out = new PrintStream(pout);
+        channel = new Channel(closure.session());
+        next.setIn(channel);
+        out = new PrintStream(channel.sink());
         return next;
     }
 
@@ -101,14 +122,19 @@ public class Pipe extends Thread
         tIn.set(in);
         tOut.set(out);
         tErr.set(err);
+        tChannel.set(in instanceof Channel ? (Channel) in : null);
         closure.session().threadIO().setStreams(in, out, err);
 
+        Thread thread = Thread.currentThread();
+        String name = thread.getName();
+        thread.setName("pipe-" + statement);
         try
         {
             result = closure.executeStatement(statement);
-            if (result != null && pout != null)
+            if (result != null && channel != null)
             {
-                if (!Boolean.FALSE.equals(closure.session().get(".FormatPipe")))
+                if (Boolean.FALSE.equals(closure.session().get(".ObjectPipe"))
+                    && !Boolean.FALSE.equals(closure.session().get(".FormatPipe")))
                 {
                     out.println(closure.session().format(result, Converter.INSPECT));
                 }
@@ -122,23 +148,21 @@ public class Pipe extends Thread
         {
             out.flush();
             closure.session().threadIO().close();
+            thread.setName(name);
 
             try
             {
-                if (pout != null)
+                if (channel != null)
                 {
-                    pout.close();
+                    // must be handed over before the byte pipe is closed, so
+                    // that the reader finds it once it reaches end of stream
+                    channel.put(Boolean.FALSE.equals(closure.session().get(".ObjectPipe")) ? null : result);
+                    channel.closeWriter();
                 }
 
-                if (in instanceof PipedInputStream)
+                if (in instanceof Channel)
                 {
                     in.close();
-
-                    // avoid writer waiting when reader has given up (FELIX-2380)
-                    Method m = in.getClass().getDeclaredMethod("receivedLast",
-                        (Class<?>[]) null);
-                    m.setAccessible(true);
-                    m.invoke(in, (Object[]) null);
                 }
             }
             catch (Exception e)
@@ -147,4 +171,254 @@ public class Pipe extends Thread
             }
         }
     }
+
+    /**
+     * Connects two stages of a pipeline. Reading from a channel returns the
+     * bytes written by the previous stage, followed by the text form of its
+     * result, which is only created once it is actually read. The result
+     * itself is available through {@link #result()}.
+     * <p>
+     * The bytes are kept in a bounded buffer that is only allocated once the
+     * previous stage writes to its System.out, so stages exchanging their
+     * results as objects don't pay for a byte pipe. While the next stage waits
+     * for the result the buffer grows instead, so the previous stage never
+     * blocks on a full pipe.
+     */
+    static class Channel extends InputStream
+    {
+        private static final Object NONE = new Object();
+        private static final int SIZE = 1024;
+
+        private final CommandSessionImpl session;
+        private final BlockingQueue<Object> results = new ArrayBlockingQueue<Object>(1);
+        private final Object resultLock = new Object();
+        private Object result = NONE;
+        private InputStream formatted;
+
+        // guarded by this
+        private byte[] buffer;
+        private int head;
+        private int count;
+        private boolean unbounded;
+        private boolean writerClosed;
+        private boolean readerClosed;
+
+        Channel(CommandSessionImpl session)
+        {
+            this.session = session;
+        }
+
+        /**
+         * Returns the stream the previous stage writes its System.out to.
+         */
+        OutputStream sink()
+        {
+            return new OutputStream()
+            {
+                @Override
+                public void write(int b) throws IOException
+                {
+                    Channel.this.write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException
+                {
+                    Channel.this.write(b, off, len);
+                }
+
+                @Override
+                public void close()
+                {
+                    closeWriter();
+                }
+            };
+        }
+
+        void put(Object value) throws InterruptedException
+        {
+            results.put(value == null ? NONE : value);
+        }
+
+        Object result() throws InterruptedException
+        {
+            synchronized (resultLock)
+            {
+                if (result == NONE)
+                {
+                    synchronized (this)
+                    {
+                        // the previous stage may still be writing
+                        unbounded = true;
+                        notifyAll();
+                    }
+                    result = results.take();
+                    // keep the result for later calls and for formatting
+                    results.put(result);
+                }
+                return result == NONE ? null : result;
+            }
+        }
+
+        private synchronized void write(byte[] b, int off, int len) throws IOException
+        {
+            while (len > 0)
+            {
+                if (readerClosed || writerClosed)
+                {
+                    throw new IOException("Pipe closed");
+                }
+                if (buffer == null)
+                {
+                    buffer = new byte[SIZE];
+                }
+                if (count == buffer.length)
+                {
+                    if (unbounded)
+                    {
+                        grow();
+                    }
+                    else
+                    {
+                        await();
+                        continue;
+                    }
+                }
+                int tail = (head + count) % buffer.length;
+                int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+                System.arraycopy(b, off, buffer, tail, n);
+                count += n;
+                off += n;
+                len -= n;
+                notifyAll();
+            }
+        }
+
+        private void grow()
+        {
+            byte[] larger = new byte[buffer.length * 2];
+            int first = Math.min(count, buffer.length - head);
+            System.arraycopy(buffer, head, larger, 0, first);
+            System.arraycopy(buffer, 0, larger, first, count - first);
+            buffer = larger;
+            head = 0;
+        }
+
+        private void await() throws IOException
+        {
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        synchronized void closeWriter()
+        {
+            writerClosed = true;
+            notifyAll();
+        }
+
+        /**
+         * Reads piped bytes, returns -1 once the previous stage has closed
+         * its end and all bytes were read.
+         */
+        private synchronized int readBytes(byte[] b, int off, int len) throws IOException
+        {
+            while (count == 0)
+            {
+                if (readerClosed)
+                {
+                    throw new IOException("Pipe closed");
+                }
+                if (writerClosed)
+                {
+                    return -1;
+                }
+                await();
+            }
+            int n = Math.min(len, Math.min(count, buffer.length - head));
+            System.arraycopy(buffer, head, b, off, n);
+            head = (head + n) % buffer.length;
+            count -= n;
+            notifyAll();
+            return n;
+        }
+
+        private InputStream formatted() throws IOException
+        {
+            synchronized (resultLock)
+            {
+                if (formatted == null)
+                {
+                    byte[] text = new byte[0];
+                    try
+                    {
+                        Object value = result();
+                        if (value != null
+                            && !Boolean.FALSE.equals(session.get(".FormatPipe")))
+                        {
+                            text = (session.format(value, Converter.INSPECT)
+                                + System.getProperty("line.separator")).getBytes();
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for previous pipe");
+                    }
+                    formatted = new ByteArrayInputStream(text);
+                }
+                return formatted;
+            }
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            int n = readBytes(b, off, len);
+            return n != -1 ? n : formatted().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            synchronized (this)
+            {
+                if (count > 0 || !writerClosed)
+                {
+                    return count;
+                }
+            }
+            synchronized (resultLock)
+            {
+                return formatted == null ? 0 : formatted.available();
+            }
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            // avoid writer waiting when reader has given up (FELIX-2380)
+            readerClosed = true;
+            buffer = null;
+            count = 0;
+            notifyAll();
+        }
+    }
 }
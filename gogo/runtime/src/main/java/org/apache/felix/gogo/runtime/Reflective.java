@@ -20,6 +20,7 @@ package org.apache.felix.gogo.runtime;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -27,6 +28,8 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.felix.service.command.CommandSession;
 import org.apache.felix.service.command.Parameter;
@@ -45,6 +48,15 @@ public final class Reflective
                 "finally", "long", "strictfp", "volatile", "const", "float", "native",
                 "super", "while" }));
 
+    /**
+     * Upper bound for the number of cached resolutions, as command names come
+     * straight from user input.
+     */
+    private final static int MAX_RESOLUTIONS = 4096;
+
+    private final static ConcurrentMap<ResolutionKey, Resolution> resolutions =
+        new ConcurrentHashMap<ResolutionKey, Resolution>();
+
     /**
      * invokes the named method on the given target using the supplied args,
      * which are converted if necessary.
@@ -58,83 +70,55 @@ public final class Reflective
     public static Object invoke(CommandSession session, Object target, String name,
         List<Object> args) throws Exception
     {
-        Method[] methods = target.getClass().getMethods();
         name = name.toLowerCase();
-
-        String get = "get" + name;
-        String is = "is" + name;
-        String set = "set" + name;
-
+        Resolution resolution = resolve(target, name);
         if (KEYWORDS.contains(name))
         {
             name = "_" + name;
         }
 
-        if (target instanceof Class<?>)
-        {
-            Method[] staticMethods = ((Class<?>) target).getMethods();
-            for (Method m : staticMethods)
-            {
-                String mname = m.getName().toLowerCase();
-                if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                    || mname.equals(is) || mname.equals(MAIN))
-                {
-                    methods = staticMethods;
-                    break;
-                }
-            }
-        }
-
-        Method bestMethod = null;
+        Candidate bestMethod = null;
         Object[] bestArgs = null;
         int lowestMatch = Integer.MAX_VALUE;
-        ArrayList<Class<?>[]> possibleTypes = new ArrayList<Class<?>[]>();
 
-        for (Method m : methods)
+        for (Candidate c : resolution.candidates(args.size()))
         {
-            String mname = m.getName().toLowerCase();
-            if (mname.equals(name) || mname.equals(get) || mname.equals(set)
-                || mname.equals(is) || mname.equals(MAIN))
-            {
-                Class<?>[] types = m.getParameterTypes();
-                ArrayList<Object> xargs = new ArrayList<Object>(args);
+            ArrayList<Object> xargs = new ArrayList<Object>(args);
 
-                // pass command name as argv[0] to main, so it can handle
-                // multiple commands
-                if (mname.equals(MAIN))
-                {
-                    xargs.add(0, name);
-                }
+            // pass command name as argv[0] to main, so it can handle
+            // multiple commands
+            if (c.main)
+            {
+                xargs.add(0, name);
+            }
 
-                Object[] parms = new Object[types.length];
-                int match = coerce(session, target, m, types, parms, xargs);
+            Object[] parms = new Object[c.types.length];
+            int match = coerce(session, target, c, parms, xargs);
 
-                if (match < 0)
+            if (match >= 0)
+            {
+                if (match < lowestMatch)
                 {
-                    // coerce failed
-                    possibleTypes.add(types);
+                    lowestMatch = match;
+                    bestMethod = c;
+                    bestArgs = parms;
                 }
-                else
-                {
-                    if (match < lowestMatch)
-                    {
-                        lowestMatch = match;
-                        bestMethod = m;
-                        bestArgs = parms;
-                    }
 
-                    if (match == 0)
-                        break; // can't get better score
-                }
+                if (match == 0)
+                    break; // can't get better score
             }
         }
 
         if (bestMethod != null)
         {
-            bestMethod.setAccessible(true);
+            if (!bestMethod.accessible)
+            {
+                bestMethod.method.setAccessible(true);
+                bestMethod.accessible = true;
+            }
             try
             {
-                return bestMethod.invoke(target, bestArgs);
+                return bestMethod.method.invoke(target, bestArgs);
             }
             catch (InvocationTargetException e)
             {
@@ -148,12 +132,14 @@ public final class Reflective
         }
         else
         {
+            // every candidate failed to coerce, including the ones that were
+            // skipped for having the wrong arity
             ArrayList<String> list = new ArrayList<String>();
-            for (Class<?>[] types : possibleTypes)
+            for (Candidate c : resolution.all)
             {
                 StringBuilder buf = new StringBuilder();
                 buf.append('(');
-                for (Class<?> type : types)
+                for (Class<?> type : c.types)
                 {
                     if (buf.length() > 1)
                     {
@@ -180,54 +166,126 @@ public final class Reflective
         }
     }
 
+    /**
+     * Clears the method resolution cache. Must be called whenever classes
+     * of commands may have been replaced, e.g. when a bundle is refreshed.
+     */
+    public static void clearCache()
+    {
+        resolutions.clear();
+    }
+
+    /**
+     * Returns the cached candidate methods for the given target and
+     * (lower case) command name, looking them up on first use.
+     */
+    private static Resolution resolve(Object target, String name)
+    {
+        boolean isClass = target instanceof Class<?>;
+        Class<?> clazz = isClass ? (Class<?>) target : target.getClass();
+        ResolutionKey key = new ResolutionKey(clazz, isClass, name);
+        Resolution resolution = resolutions.get(key);
+        if (resolution == null)
+        {
+            if (resolutions.size() >= MAX_RESOLUTIONS)
+            {
+                resolutions.clear();
+            }
+            resolution = new Resolution(findCandidates(target, name));
+            Resolution previous = resolutions.putIfAbsent(key, resolution);
+            if (previous != null)
+            {
+                resolution = previous;
+            }
+        }
+        return resolution;
+    }
+
+    private static Candidate[] findCandidates(Object target, String name)
+    {
+        Method[] methods = target.getClass().getMethods();
+
+        String get = "get" + name;
+        String is = "is" + name;
+        String set = "set" + name;
+
+        if (KEYWORDS.contains(name))
+        {
+            name = "_" + name;
+        }
+
+        if (target instanceof Class<?>)
+        {
+            Method[] staticMethods = ((Class<?>) target).getMethods();
+            for (Method m : staticMethods)
+            {
+                String mname = m.getName().toLowerCase();
+                if (mname.equals(name) || mname.equals(get) || mname.equals(set)
+                    || mname.equals(is) || mname.equals(MAIN))
+                {
+                    methods = staticMethods;
+                    break;
+                }
+            }
+        }
+
+        ArrayList<Candidate> candidates = new ArrayList<Candidate>();
+        for (Method m : methods)
+        {
+            String mname = m.getName().toLowerCase();
+            if (mname.equals(name) || mname.equals(get) || mname.equals(set)
+                || mname.equals(is) || mname.equals(MAIN))
+            {
+                candidates.add(new Candidate(m, mname.equals(MAIN)));
+            }
+        }
+        return candidates.toArray(new Candidate[candidates.size()]);
+    }
+
     /**
      * transform name/value parameters into ordered argument list.
      * params: --param2, value2, --flag1, arg3
      * args: true, value2, arg3
-     * @param method
+     * @param c
      * @param params
      * @return new ordered list of args.
      */
-    private static List<Object> transformParameters(Method method, List<Object> in)
+    private static List<Object> transformParameters(Candidate c, List<Object> in)
     {
-        Annotation[][] pas = method.getParameterAnnotations();
+        if (c.parameters.length == 0)
+        {
+            return new ArrayList<Object>(in);
+        }
+
         ArrayList<Object> out = new ArrayList<Object>();
         ArrayList<Object> parms = new ArrayList<Object>(in);
 
-        for (Annotation as[] : pas)
+        for (Parameter p : c.parameters)
         {
-            for (Annotation a : as)
+            int i = -1;
+            for (String name : p.names())
             {
-                if (a instanceof Parameter)
-                {
-                    int i = -1;
-                    Parameter p = (Parameter) a;
-                    for (String name : p.names())
-                    {
-                        i = parms.indexOf(name);
-                        if (i >= 0)
-                            break;
-                    }
-
-                    if (i >= 0)
-                    {
-                        // parameter present
-                        parms.remove(i);
-                        Object value = p.presentValue();
-                        if (Parameter.UNSPECIFIED.equals(value))
-                        {
-                            if (i >= parms.size())
-                                return null; // missing parameter, so try other methods
-                            value = parms.remove(i);
-                        }
-                        out.add(value);
-                    }
-                    else
-                    {
-                        out.add(p.absentValue());
-                    }
+                i = parms.indexOf(name);
+                if (i >= 0)
+                    break;
+            }
 
+            if (i >= 0)
+            {
+                // parameter present
+                parms.remove(i);
+                Object value = p.presentValue();
+                if (Parameter.UNSPECIFIED.equals(value))
+                {
+                    if (i >= parms.size())
+                        return null; // missing parameter, so try other methods
+                    value = parms.remove(i);
                 }
+                out.add(value);
+            }
+            else
+            {
+                out.add(p.absentValue());
             }
         }
 
@@ -244,16 +302,17 @@ public final class Reflective
      *
      * @param session
      * @param target
-     * @param m
-     * @param types
+     * @param c
      * @param out
      * @param in
      * @return -1 if arguments can't be coerced; 0 if no coercion was necessary; > 0 if coercion was needed.
      */
-    private static int coerce(CommandSession session, Object target, Method m,
-        Class<?> types[], Object out[], List<Object> in)
+    private static int coerce(CommandSession session, Object target, Candidate c,
+        Object out[], List<Object> in)
     {
-        in = transformParameters(m, in);
+        Class<?>[] types = c.types;
+        Coercion[] plan = c.plan;
+        in = transformParameters(c, in);
         if (in == null)
         {
             // missing parameter argument?
@@ -263,8 +322,7 @@ public final class Reflective
         int[] convert = { 0 };
 
         // Check if the command takes a session
-        if ((types.length > 0) && types[0].isInterface()
-            && types[0].isAssignableFrom(session.getClass()))
+        if (c.session && types[0].isAssignableFrom(session.getClass()))
         {
             in.add(0, session);
         }
@@ -281,9 +339,9 @@ public final class Reflective
             }
             else
             {
-                out[i] = coerce(session, types[i], in.get(0), convert);
+                out[i] = plan[i].coerce(session, in.get(0), convert);
 
-                if (out[i] == null && types[i].isArray() && in.size() > 0)
+                if (out[i] == null && plan[i].array && in.size() > 0)
                 {
                     // don't coerce null to array FELIX-2432
                     out[i] = NO_MATCH;
@@ -298,16 +356,15 @@ public final class Reflective
             if (out[i] == NO_MATCH)
             {
                 // No match, check for varargs
-                if (types[i].isArray() && (i == types.length - 1))
+                if (c.varargs != null && (i == types.length - 1))
                 {
                     // Try to parse the remaining arguments in an array
-                    Class<?> ctype = types[i].getComponentType();
                     int asize = in.size();
-                    Object array = Array.newInstance(ctype, asize);
+                    Object array = Array.newInstance(c.varargs.type, asize);
                     int n = i;
                     while (in.size() > 0)
                     {
-                        Object t = coerce(session, ctype, in.remove(0), convert);
+                        Object t = c.varargs.coerce(session, in.remove(0), convert);
                         if (t == NO_MATCH)
                         {
                             return -1;
@@ -337,124 +394,286 @@ public final class Reflective
         return -1;
     }
 
-    /**
-     * converts given argument to specified type and increments convert[0] if any conversion was needed.
-     * @param session
-     * @param type
-     * @param arg
-     * @param convert convert[0] is incremented according to the conversion needed,
-     * to allow the "best" conversion to be determined.
-     * @return converted arg or NO_MATCH if no conversion possible.
-     */
-    private static Object coerce(CommandSession session, Class<?> type, Object arg,
-        int[] convert)
+    private static Class<?> primitiveToObject(Class<?> type)
     {
-        if (arg == null)
+        if (type == boolean.class)
         {
-            return null;
+            return Boolean.class;
         }
-
-        if (type.isAssignableFrom(arg.getClass()))
+        if (type == byte.class)
+        {
+            return Byte.class;
+        }
+        if (type == char.class)
+        {
+            return Character.class;
+        }
+        if (type == short.class)
+        {
+            return Short.class;
+        }
+        if (type == int.class)
+        {
+            return Integer.class;
+        }
+        if (type == float.class)
         {
-            return arg;
+            return Float.class;
         }
+        if (type == double.class)
+        {
+            return Double.class;
+        }
+        if (type == long.class)
+        {
+            return Long.class;
+        }
+        return null;
+    }
 
-        if (type.isArray())
+    /**
+     * The conversion plan for one parameter type: everything about the type
+     * that coercing an argument needs is looked up once, including the
+     * String constructor, which is otherwise searched for (and its absence
+     * reported with an exception) on every call.
+     */
+    private static final class Coercion
+    {
+        final Class<?> type;
+        final boolean array;
+        private final Class<?> integral;
+        private final boolean fromString;
+        private final Constructor<?> constructor;
+        private final boolean character;
+
+        Coercion(Class<?> type)
         {
-            return NO_MATCH;
+            this.type = type;
+            this.array = type.isArray();
+            this.integral = (type == short.class || type == int.class || type == long.class)
+                ? type : null;
+            this.fromString = type.isAssignableFrom(String.class);
+
+            Class<?> boxed = type.isPrimitive() ? primitiveToObject(type) : type;
+            Constructor<?> ctor = null;
+            if (boxed != null)
+            {
+                try
+                {
+                    ctor = boxed.getConstructor(String.class);
+                }
+                catch (Exception e)
+                {
+                }
+            }
+            this.constructor = ctor;
+            this.character = boxed == Character.class;
         }
 
-        if (type.isPrimitive() && arg instanceof Long)
+        /**
+         * converts given argument to the type and increments convert[0] if any conversion was needed.
+         * @param session
+         * @param arg
+         * @param convert convert[0] is incremented according to the conversion needed,
+         * to allow the "best" conversion to be determined.
+         * @return converted arg or NO_MATCH if no conversion possible.
+         */
+        Object coerce(CommandSession session, Object arg, int[] convert)
         {
-            // no-cost conversions between integer types
-            Number num = (Number) arg;
+            if (arg == null)
+            {
+                return null;
+            }
 
-            if (type == short.class)
+            if (type.isAssignableFrom(arg.getClass()))
             {
-                return num.shortValue();
+                return arg;
             }
-            if (type == int.class)
+
+            if (array)
             {
-                return num.intValue();
+                return NO_MATCH;
             }
-            if (type == long.class)
+
+            if (integral != null && arg instanceof Long)
             {
+                // no-cost conversions between integer types
+                Number num = (Number) arg;
+
+                if (integral == short.class)
+                {
+                    return num.shortValue();
+                }
+                if (integral == int.class)
+                {
+                    return num.intValue();
+                }
                 return num.longValue();
             }
-        }
 
-        // all following conversions cost 2 points
-        convert[0] += 2;
+            // all following conversions cost 2 points
+            convert[0] += 2;
 
-        Object converted = session.convert(type, arg);
-        if (converted != null)
-        {
-            return converted;
-        }
+            Object converted = session.convert(type, arg);
+            if (converted != null)
+            {
+                return converted;
+            }
 
-        String string = arg.toString();
+            String string = arg.toString();
 
-        if (type.isAssignableFrom(String.class))
-        {
-            return string;
-        }
+            if (fromString)
+            {
+                return string;
+            }
 
-        if (type.isPrimitive())
-        {
-            type = primitiveToObject(type);
-        }
+            if (constructor != null)
+            {
+                try
+                {
+                    return constructor.newInstance(string);
+                }
+                catch (Exception e)
+                {
+                }
+            }
 
-        try
-        {
-            return type.getConstructor(String.class).newInstance(string);
-        }
-        catch (Exception e)
-        {
-        }
+            if (character && string.length() == 1)
+            {
+                return string.charAt(0);
+            }
 
-        if (type == Character.class && string.length() == 1)
-        {
-            return string.charAt(0);
+            return NO_MATCH;
         }
-
-        return NO_MATCH;
     }
 
-    private static Class<?> primitiveToObject(Class<?> type)
+    /**
+     * A method that may be invoked for a command, along with everything
+     * about it that can be computed up front.
+     */
+    private static final class Candidate
     {
-        if (type == boolean.class)
-        {
-            return Boolean.class;
-        }
-        if (type == byte.class)
+        final Method method;
+        final Class<?>[] types;
+        final Coercion[] plan;
+        final Coercion varargs;
+        final Parameter[] parameters;
+        final boolean main;
+        final boolean session;
+        volatile boolean accessible;
+
+        Candidate(Method method, boolean main)
         {
-            return Byte.class;
+            this.method = method;
+            this.main = main;
+            this.types = method.getParameterTypes();
+            this.plan = new Coercion[types.length];
+            for (int i = 0; i < types.length; i++)
+            {
+                plan[i] = new Coercion(types[i]);
+            }
+            int last = types.length - 1;
+            this.varargs = (last >= 0 && types[last].isArray())
+                ? new Coercion(types[last].getComponentType()) : null;
+            // the first parameter may take the session
+            this.session = types.length > 0 && types[0].isInterface();
+
+            ArrayList<Parameter> params = new ArrayList<Parameter>();
+            for (Annotation[] as : method.getParameterAnnotations())
+            {
+                for (Annotation a : as)
+                {
+                    if (a instanceof Parameter)
+                    {
+                        params.add((Parameter) a);
+                    }
+                }
+            }
+            this.parameters = params.toArray(new Parameter[params.size()]);
         }
-        if (type == char.class)
+
+        /**
+         * Returns false if the method can't possibly accept the given number
+         * of arguments. Methods with named parameters or varargs always
+         * qualify, as their argument count is only known after coercion.
+         */
+        boolean accepts(int arity)
         {
-            return Character.class;
+            if (parameters.length > 0 || varargs != null)
+            {
+                return true;
+            }
+            int n = main ? arity + 1 : arity;
+            // the first argument may be the injected session
+            return n == types.length || (n == types.length - 1 && session);
         }
-        if (type == short.class)
+    }
+
+    /**
+     * The ranked candidates for a command name on a given class, further
+     * narrowed down by the number of arguments passed.
+     */
+    private static final class Resolution
+    {
+        final Candidate[] all;
+        final ConcurrentMap<Integer, Candidate[]> byArity =
+            new ConcurrentHashMap<Integer, Candidate[]>();
+
+        Resolution(Candidate[] all)
         {
-            return Short.class;
+            this.all = all;
         }
-        if (type == int.class)
+
+        Candidate[] candidates(int arity)
         {
-            return Integer.class;
+            Candidate[] result = byArity.get(arity);
+            if (result == null)
+            {
+                ArrayList<Candidate> list = new ArrayList<Candidate>();
+                for (Candidate c : all)
+                {
+                    if (c.accepts(arity))
+                    {
+                        list.add(c);
+                    }
+                }
+                result = list.toArray(new Candidate[list.size()]);
+                byArity.put(arity, result);
+            }
+            return result;
         }
-        if (type == float.class)
+    }
+
+    private static final class ResolutionKey
+    {
+        private final Class<?> clazz;
+        private final boolean isClass;
+        private final String name;
+
+        ResolutionKey(Class<?> clazz, boolean isClass, String name)
         {
-            return Float.class;
+            this.clazz = clazz;
+            this.isClass = isClass;
+            this.name = name;
         }
-        if (type == double.class)
+
+        @Override
+        public boolean equals(Object o)
         {
-            return Double.class;
+            if (!(o instanceof ResolutionKey))
+            {
+                return false;
+            }
+            ResolutionKey other = (ResolutionKey) o;
+            return clazz == other.clazz && isClass == other.isClass
+                && name.equals(other.name);
         }
-        if (type == long.class)
+
+        @Override
+        public int hashCode()
         {
-            return Long.class;
+            return (clazz.hashCode() * 31 + name.hashCode()) * 2 + (isClass ? 1 : 0);
         }
-        return null;
     }
 
 }
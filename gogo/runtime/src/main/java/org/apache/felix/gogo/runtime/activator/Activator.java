@@ -28,17 +28,20 @@ import java.util.concurrent.ConcurrentMap;
 import org.apache.felix.gogo.api.CommandSessionListener;
 import org.apache.felix.gogo.runtime.CommandProcessorImpl;
 import org.apache.felix.gogo.runtime.CommandProxy;
+import org.apache.felix.gogo.runtime.Reflective;
 import org.apache.felix.gogo.runtime.threadio.ThreadIOImpl;
 import org.apache.felix.service.command.CommandProcessor;
 import org.apache.felix.service.command.Converter;
 import org.apache.felix.service.threadio.ThreadIO;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.util.tracker.ServiceTracker;
 
 public class Activator implements BundleActivator
@@ -50,6 +53,7 @@ public class Activator implements BundleActivator
     private ServiceTracker listenerTracker;
     private ServiceRegistration processorRegistration;
     private ServiceRegistration threadioRegistration;
+    private SynchronousBundleListener refreshListener;
     
     public static final String CONTEXT = ".context";
 
@@ -83,6 +87,24 @@ public class Activator implements BundleActivator
 
         processorRegistration = newProcessor(threadio, context);
         
+        // cached method resolutions refer to classes which are gone once
+        // the bundle providing them is updated or refreshed
+        refreshListener = new SynchronousBundleListener()
+        {
+            public void bundleChanged(BundleEvent event)
+            {
+                switch (event.getType())
+                {
+                    case BundleEvent.UNRESOLVED:
+                    case BundleEvent.UPDATED:
+                    case BundleEvent.UNINSTALLED:
+                        Reflective.clearCache();
+                        break;
+                }
+            }
+        };
+        context.addBundleListener(refreshListener);
+
         commandTracker = trackOSGiCommands(context);
         commandTracker.open();
 
@@ -130,6 +152,8 @@ public class Activator implements BundleActivator
         commandTracker.close();
         converterTracker.close();
         listenerTracker.close();
+        context.removeBundleListener(refreshListener);
+        Reflective.clearCache();
         threadio.stop();
         processor.stop();
     }
@@ -126,6 +126,97 @@ public class TestCoercion extends BaseTestCase
         assertEquals("bundles '1'", "string", m_ctx.execute("bundles '1'"));
     }
 
+    public String arity(String a)
+    {
+        return "one";
+    }
+
+    public String arity(String a, String b)
+    {
+        return "two";
+    }
+
+    public void testCachedResolution() throws Exception
+    {
+        m_ctx.addCommand("arity", this);
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals("arity a", "one", m_ctx.execute("arity a"));
+            assertEquals("arity a b", "two", m_ctx.execute("arity a b"));
+        }
+
+        try
+        {
+            Object r = m_ctx.execute("arity a b c");
+            fail("too many args: expected IllegalArgumentException, got: " + r);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // the message still lists the overloads skipped for their arity
+            assertTrue(e.getMessage(), e.getMessage().contains("(String, String)"));
+            assertTrue(e.getMessage(), e.getMessage().contains("(String)"));
+        }
+
+        Reflective.clearCache();
+        assertEquals("arity a", "one", m_ctx.execute("arity a"));
+    }
+
+    public String fChar(char c)
+    {
+        return "char " + c;
+    }
+
+    public String fShort(short s)
+    {
+        return "short " + s;
+    }
+
+    public String fSum(String label, Integer... values)
+    {
+        int sum = 0;
+        for (Integer value : values)
+        {
+            sum += value;
+        }
+        return label + " " + sum;
+    }
+
+    public void testCoercionPlans() throws Exception
+    {
+        m_ctx.addCommand("fChar", this);
+        m_ctx.addCommand("fShort", this);
+        m_ctx.addCommand("fSum", this);
+
+        // each plan is reused for the following invocations
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals("fChar x", "char x", m_ctx.execute("fChar x"));
+            assertEquals("fShort 7", "short 7", m_ctx.execute("fShort 7"));
+            assertEquals("fShort '8'", "short 8", m_ctx.execute("fShort '8'"));
+            assertEquals("fSum total 1 '2' 3", "total 6", m_ctx.execute("fSum total 1 '2' 3"));
+            assertEquals("fSum none", "none 0", m_ctx.execute("fSum none"));
+        }
+
+        try
+        {
+            Object r = m_ctx.execute("fChar xy");
+            fail("wrong arg type: expected IllegalArgumentException, got: " + r);
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+
+        try
+        {
+            Object r = m_ctx.execute("fSum total 1 two");
+            fail("wrong vararg type: expected IllegalArgumentException, got: " + r);
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
     @Descriptor("list all installed bundles")
     public String p0(
         @Descriptor("show location") @Parameter(names = { "-l", "--location" }, presentValue = "true", absentValue = "false") boolean showLoc,
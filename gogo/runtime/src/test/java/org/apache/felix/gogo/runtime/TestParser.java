@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.regex.Pattern;
@@ -114,6 +115,74 @@ public class TestParser extends BaseTestCase
             m_ctx.execute("(echoout abc; echoout def; echoout ghi)|grep 'def|ghi'|capture"));
     }
 
+    public void testObjectPipe() throws Exception
+    {
+        m_ctx.addCommand("echo", this);
+        m_ctx.addCommand("capture", this);
+        m_ctx.addCommand("list", this);
+        m_ctx.addCommand("count", this);
+
+        // the result is handed over as is, without being formatted
+        assertEquals(3, m_ctx.execute("list a b c | count $pipe"));
+
+        // and still available as text to stages reading System.in
+        assertEquals("hello", m_ctx.execute("echo hello | capture"));
+
+        m_ctx.set(".ObjectPipe", false);
+        assertEquals("hello", m_ctx.execute("echo hello | capture"));
+        m_ctx.set(".ObjectPipe", null);
+    }
+
+    public void testObjectPipeLargeOutput() throws Exception
+    {
+        m_ctx.addCommand("chatty", this);
+        m_ctx.addCommand("count", this);
+
+        // the first stage fills the byte pipe before returning its result
+        assertEquals(5000, m_ctx.execute("chatty 5000 | count $pipe"));
+    }
+
+    public void testObjectPipeVariable() throws Exception
+    {
+        m_ctx.addCommand("list", this);
+        m_ctx.addCommand("count", this);
+
+        // a variable named pipe is not hidden by the previous result
+        m_ctx.set("pipe", Arrays.asList("x"));
+        assertEquals(1, m_ctx.execute("list a b c | count $pipe"));
+        m_ctx.set("pipe", null);
+    }
+
+    public void testObjectPipeReaderGivesUp() throws Exception
+    {
+        m_ctx.addCommand("chatty", this);
+        m_ctx.addCommand("echo", this);
+
+        // the first stage must not block once the next one has completed
+        assertEquals("done", m_ctx.execute("chatty 5000 | echo done"));
+    }
+
+    public List<Object> chatty(int lines)
+    {
+        List<Object> result = new ArrayList<Object>();
+        for (int i = 0; i < lines; i++)
+        {
+            System.out.println("line " + i);
+            result.add(i);
+        }
+        return result;
+    }
+
+    public List<Object> list(Object args[])
+    {
+        return Arrays.asList(args);
+    }
+
+    public int count(List<Object> list)
+    {
+        return list.size();
+    }
+
     public void testAssignment() throws Exception
     {
         m_ctx.addCommand("echo", this);
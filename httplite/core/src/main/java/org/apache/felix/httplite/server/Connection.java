@@ -21,6 +21,7 @@ package org.apache.felix.httplite.server;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 
@@ -136,6 +137,26 @@ public class Connection
         }
     }
 
+    /**
+     * Constructs a connection for a request that has already been read from
+     * the socket, as done by the {@link NioConnector}.
+     * @param socket The client socket.
+     * @param is The input stream providing the request.
+     * @param os The output stream to write the response to, which must be buffered.
+     * @param requestLimit The maximum number of consecutive requests.
+     * @param resolver resolves a request URI to a client or servlet registration via the HTTP Service.
+     * @param logger logger instance.
+     */
+    public Connection(final Socket socket, final InputStream is, final OutputStream os, final int requestLimit, final ServiceRegistrationResolver resolver, final Logger logger)
+    {
+        m_socket = socket;
+        m_resolver = resolver;
+        m_logger = logger;
+        m_requestLimit = requestLimit;
+        m_is = new ConcreteServletInputStream(is);
+        m_os = os;
+    }
+
     /**
      * Performs the actual servicing of the connection and its subsequent requests.
      * This method will be called by threads in the thread pool. This method
@@ -175,6 +196,9 @@ public class Connection
                 }
                 m_requestCount++;
 
+                // Only HTTP/1.1 clients understand chunked responses.
+                response.setChunkingAllowed(request.getProtocol().equals(HttpConstants.HTTP11_VERSION));
+
                 // Keep track of whether we have failed or not,
                 // because we still want to read the bytes to clear
                 // the input stream so we can service more requests.
@@ -0,0 +1,734 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.apache.felix.httplite.osgi.Logger;
+import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
+import org.apache.felix.httplite.servlet.BufferPool;
+import org.apache.felix.httplite.servlet.FileTransfer;
+
+/**
+ * This class implements a non-blocking connector for the web server. A single
+ * selector thread accepts connections and reads the requests into pooled
+ * buffers. Only once a request, including its body, has been read completely
+ * it is handed to the thread pool as a {@link Connection}, so clients that
+ * are slow or idle do not hold a thread of the pool.
+ * <p>
+ * This class needs <tt>java.nio</tt>, which is not available on all the
+ * platforms the web server runs on; the {@link Server} falls back to its
+ * blocking connector if this class cannot be loaded.
+**/
+public class NioConnector
+{
+    /**
+     * Default maximum size of a request body.
+     */
+    public static final int DEFAULT_CONTENT_LIMIT = 16 * 1024 * 1024;
+    /**
+     * Size of the pooled request buffers.
+     */
+    private static final int BUFFER_SIZE = 4096;
+    /**
+     * Maximum size of the request line and headers.
+     */
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+    /**
+     * Maximum time the selector waits before checking for idle connections.
+     */
+    private static final int SELECT_TIMEOUT = 1000;
+    private static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes();
+    private static final byte[] TOO_LARGE_RESPONSE =
+        "HTTP/1.1 413 Request Entity Too Large\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes();
+
+    private final ServerSocketChannel m_serverChannel;
+    private final Selector m_selector;
+    private final ByteBuffer m_readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final BufferPool m_bufferPool;
+    private final ThreadPool m_threadPool;
+    private final int m_connectionTimeout;
+    private final int m_connectionRequestLimit;
+    private final int m_contentLimit;
+    private final ServiceRegistrationResolver m_resolver;
+    private final Logger m_logger;
+    private long m_lastExpiry;
+
+    /**
+     * Opens a non-blocking connector on the specified address and port.
+     * @param bindAddr The address of the interface to bind to, or <tt>null</tt> for all interfaces.
+     * @param port The port to listen on.
+     * @param timeout The inactivity timeout of connections in milliseconds.
+     * @param requestLimit The maximum number of consecutive requests per connection.
+     * @param contentLimit The maximum size of a request body in bytes.
+     * @param threadPool The thread pool processing the complete requests.
+     * @param resolver Resolves request URIs to servlet or resource registrations.
+     * @param logger Logger instance.
+     * @throws java.io.IOException If the connector could not be opened.
+    **/
+    public NioConnector(final InetAddress bindAddr, final int port, final int timeout,
+        final int requestLimit, final int contentLimit, final ThreadPool threadPool,
+        final ServiceRegistrationResolver resolver, final Logger logger) throws IOException
+    {
+        m_connectionTimeout = timeout;
+        m_connectionRequestLimit = requestLimit;
+        m_contentLimit = contentLimit;
+        m_threadPool = threadPool;
+        m_resolver = resolver;
+        m_logger = logger;
+        m_bufferPool = new BufferPool(BUFFER_SIZE, 64);
+
+        m_serverChannel = ServerSocketChannel.open();
+        try
+        {
+            m_serverChannel.socket().bind(new InetSocketAddress(bindAddr, port));
+            m_serverChannel.configureBlocking(false);
+            m_selector = Selector.open();
+            m_serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (IOException ex)
+        {
+            m_serverChannel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Closes the connector, which causes {@link #run()} to return. Requests
+     * that have been handed to the thread pool are still processed.
+    **/
+    public void close()
+    {
+        try
+        {
+            m_serverChannel.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing server channel.", ex);
+        }
+        m_selector.wakeup();
+    }
+
+    /**
+     * This method is the main loop of the connector, accepting connections and
+     * reading requests until the connector is closed. This is only ever called
+     * by the server thread.
+    **/
+    public void run()
+    {
+        m_logger.log(Logger.LOG_DEBUG, "Waiting for connections.");
+
+        try
+        {
+            while (m_serverChannel.isOpen())
+            {
+                m_selector.select(SELECT_TIMEOUT);
+
+                Iterator keys = m_selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = (SelectionKey) keys.next();
+                    keys.remove();
+
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+                    try
+                    {
+                        if (key.isAcceptable())
+                        {
+                            acceptConnections();
+                        }
+                        else if (key.isReadable())
+                        {
+                            readRequest(key);
+                        }
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        // Only this connection is affected, keep serving the others.
+                        m_logger.log(Logger.LOG_ERROR, "Error processing connection.", ex);
+                        closeKey(key);
+                    }
+                    catch (Error ex)
+                    {
+                        m_logger.log(Logger.LOG_ERROR, "Error processing connection.", ex);
+                        closeKey(key);
+                    }
+                }
+
+                expireConnections();
+            }
+        }
+        catch (ClosedSelectorException ex)
+        {
+            // Only happens when we are closed.
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "The selector terminated with an exception.", ex);
+        }
+        finally
+        {
+            closeAll();
+        }
+    }
+
+    /**
+     * Accepts all pending connections and registers them for reading.
+    **/
+    private void acceptConnections()
+    {
+        while (true)
+        {
+            SocketChannel channel = null;
+            try
+            {
+                channel = m_serverChannel.accept();
+                if (channel == null)
+                {
+                    return;
+                }
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.register(m_selector, SelectionKey.OP_READ, new PendingRequest());
+                m_logger.log(Logger.LOG_DEBUG, "Accepted a new connection.");
+            }
+            catch (IOException ex)
+            {
+                if (m_serverChannel.isOpen())
+                {
+                    m_logger.log(Logger.LOG_ERROR, "Error accepting connection.", ex);
+                }
+                if (channel != null)
+                {
+                    closeChannel(channel);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads the available bytes of a request and hands the request to the
+     * thread pool once it is complete.
+     * @param key The key of the connection to read from.
+    **/
+    private void readRequest(final SelectionKey key)
+    {
+        SocketChannel channel = (SocketChannel) key.channel();
+        PendingRequest request = (PendingRequest) key.attachment();
+
+        try
+        {
+            m_readBuffer.clear();
+            int count = channel.read(m_readBuffer);
+            if (count < 0)
+            {
+                close(key);
+                return;
+            }
+            m_readBuffer.flip();
+            request.append(m_readBuffer);
+
+            if (!request.parse())
+            {
+                if (request.m_headerEnd < 0 && request.m_length > MAX_HEADER_SIZE)
+                {
+                    m_logger.log(Logger.LOG_ERROR, "Request header too large, closing connection.");
+                    close(key);
+                }
+                else if (request.m_headerEnd >= 0 && request.m_contentLength > m_contentLimit)
+                {
+                    // The body is buffered in memory, so refuse it before
+                    // growing the buffer.
+                    m_logger.log(Logger.LOG_ERROR, "Request body too large, closing connection.");
+                    channel.write(ByteBuffer.wrap(TOO_LARGE_RESPONSE));
+                    close(key);
+                }
+                else if (request.m_expectContinue)
+                {
+                    // The client waits for us before sending the body.
+                    request.m_expectContinue = false;
+                    channel.write(ByteBuffer.wrap(CONTINUE_RESPONSE));
+                }
+                return;
+            }
+
+            // From now on the connection belongs to the thread pool.
+            key.interestOps(0);
+            key.attach(null);
+
+            Connection connection = new Connection(channel.socket(), new RequestInputStream(
+                request.m_buffer, request.m_length), new ChannelOutputStream(channel),
+                m_connectionRequestLimit, m_resolver, m_logger);
+            request.m_buffer = null;
+            m_threadPool.addConnection(connection);
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_DEBUG, "Error reading request: " + ex.getMessage());
+            close(key);
+        }
+        catch (IllegalStateException ex)
+        {
+            // The thread pool is stopping.
+            close(key);
+        }
+    }
+
+    /**
+     * Closes connections which have been inactive for longer than the
+     * connection timeout before having sent a complete request.
+    **/
+    private void expireConnections()
+    {
+        long now = System.currentTimeMillis();
+        if ((m_connectionTimeout <= 0) || (now - m_lastExpiry < SELECT_TIMEOUT))
+        {
+            return;
+        }
+        m_lastExpiry = now;
+
+        Iterator keys = new ArrayList(m_selector.keys()).iterator();
+        while (keys.hasNext())
+        {
+            SelectionKey key = (SelectionKey) keys.next();
+            PendingRequest request = (PendingRequest) key.attachment();
+            if ((request != null) && (now - request.m_lastActivity > m_connectionTimeout))
+            {
+                m_logger.log(Logger.LOG_INFO, "Connection closed due to inactivity.");
+                close(key);
+            }
+        }
+    }
+
+    /**
+     * Closes all connections which have not been handed to the thread pool.
+    **/
+    private void closeAll()
+    {
+        try
+        {
+            Iterator keys = new ArrayList(m_selector.keys()).iterator();
+            while (keys.hasNext())
+            {
+                SelectionKey key = (SelectionKey) keys.next();
+                if (key.attachment() instanceof PendingRequest)
+                {
+                    close(key);
+                }
+            }
+            m_selector.close();
+        }
+        catch (ClosedSelectorException ex)
+        {
+            // Already closed.
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing selector.", ex);
+        }
+    }
+
+    /**
+     * Closes the connection of a key after an unexpected error. The server
+     * channel is left open, so the connector keeps accepting connections.
+    **/
+    private void closeKey(final SelectionKey key)
+    {
+        if (key.channel() == m_serverChannel)
+        {
+            return;
+        }
+        try
+        {
+            close(key);
+        }
+        catch (RuntimeException ex)
+        {
+            // Nothing left to clean up.
+        }
+    }
+
+    private void close(final SelectionKey key)
+    {
+        PendingRequest request = (PendingRequest) key.attachment();
+        if (request != null)
+        {
+            m_bufferPool.release(request.m_buffer);
+            request.m_buffer = null;
+        }
+        key.cancel();
+        closeChannel((SocketChannel) key.channel());
+    }
+
+    private void closeChannel(final SocketChannel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException ex)
+        {
+            m_logger.log(Logger.LOG_ERROR, "Error closing socket.", ex);
+        }
+    }
+
+    /**
+     * The part of a request read so far.
+    **/
+    private final class PendingRequest
+    {
+        private byte[] m_buffer;
+        private int m_length;
+        private int m_scanned;
+        private int m_headerEnd = -1;
+        private int m_contentLength;
+        private boolean m_expectContinue;
+        private long m_lastActivity = System.currentTimeMillis();
+
+        /**
+         * Appends the given bytes, growing the buffer if needed.
+        **/
+        void append(final ByteBuffer bytes)
+        {
+            m_lastActivity = System.currentTimeMillis();
+            if (m_buffer == null)
+            {
+                m_buffer = m_bufferPool.acquire();
+            }
+            int count = bytes.remaining();
+            if (m_length + count > m_buffer.length)
+            {
+                int size = Math.max(m_buffer.length * 2, m_length + count);
+                if (m_headerEnd >= 0)
+                {
+                    size = Math.max(size, m_headerEnd + m_contentLength);
+                }
+                byte[] buffer = new byte[size];
+                System.arraycopy(m_buffer, 0, buffer, 0, m_length);
+                m_bufferPool.release(m_buffer);
+                m_buffer = buffer;
+            }
+            bytes.get(m_buffer, m_length, count);
+            m_length += count;
+        }
+
+        /**
+         * Looks for the end of the headers and, once found, checks whether
+         * the body has been read as well.
+         * @return <tt>true</tt> if the request is complete.
+        **/
+        boolean parse()
+        {
+            if (m_headerEnd < 0)
+            {
+                for (int i = Math.max(m_scanned, 1); i < m_length; i++)
+                {
+                    if ((m_buffer[i] == '\n')
+                        && ((m_buffer[i - 1] == '\n')
+                            || ((i > 1) && (m_buffer[i - 1] == '\r') && (m_buffer[i - 2] == '\n'))))
+                    {
+                        m_headerEnd = i + 1;
+                        parseHeaders();
+                        break;
+                    }
+                }
+                m_scanned = m_length;
+                if (m_headerEnd < 0)
+                {
+                    return false;
+                }
+            }
+            if (m_contentLength > m_contentLimit)
+            {
+                return false;
+            }
+            return m_length - m_headerEnd >= m_contentLength;
+        }
+
+        /**
+         * Scans the header lines for the ones determining whether the request
+         * has a body, without creating any strings.
+        **/
+        private void parseHeaders()
+        {
+            int lineStart = 0;
+            for (int i = 0; i < m_headerEnd; i++)
+            {
+                if (m_buffer[i] == '\n')
+                {
+                    int value = matchHeader(lineStart, i, "content-length:");
+                    if (value > 0)
+                    {
+                        m_contentLength = parseInt(value, i);
+                    }
+                    value = matchHeader(lineStart, i, "expect:");
+                    if (value > 0)
+                    {
+                        m_expectContinue = matchHeader(value, i, "100-continue") > 0;
+                    }
+                    lineStart = i + 1;
+                }
+            }
+        }
+
+        /**
+         * Matches the start of a region, ignoring case and leading blanks.
+         * @return The index after the match, or -1 if the region does not match.
+        **/
+        private int matchHeader(int start, final int end, final String name)
+        {
+            while ((start < end) && (m_buffer[start] == ' '))
+            {
+                start++;
+            }
+            if (end - start < name.length())
+            {
+                return -1;
+            }
+            for (int i = 0; i < name.length(); i++)
+            {
+                if (Character.toLowerCase((char) m_buffer[start + i]) != name.charAt(i))
+                {
+                    return -1;
+                }
+            }
+            return start + name.length();
+        }
+
+        private int parseInt(int start, final int end)
+        {
+            while ((start < end) && (m_buffer[start] == ' '))
+            {
+                start++;
+            }
+            long result = 0;
+            for (int i = start; (i < end) && (m_buffer[i] >= '0') && (m_buffer[i] <= '9'); i++)
+            {
+                result = result * 10 + (m_buffer[i] - '0');
+                if (result > Integer.MAX_VALUE - MAX_HEADER_SIZE)
+                {
+                    return Integer.MAX_VALUE - MAX_HEADER_SIZE;
+                }
+            }
+            return (int) result;
+        }
+    }
+
+    /**
+     * Input stream over a complete request, returning its buffer to the pool
+     * when closed.
+    **/
+    private final class RequestInputStream extends ByteArrayInputStream
+    {
+        RequestInputStream(final byte[] buffer, final int length)
+        {
+            super(buffer, 0, length);
+        }
+
+        public void close() throws IOException
+        {
+            byte[] buffer;
+            synchronized (this)
+            {
+                buffer = buf;
+                buf = new byte[0];
+                pos = count = 0;
+            }
+            m_bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * Buffered output stream writing to a non-blocking channel, waiting for the
+     * channel to become writable on a private selector when the socket buffer is
+     * full. Files are sent with <tt>FileChannel.transferTo()</tt>.
+    **/
+    private final class ChannelOutputStream extends OutputStream implements FileTransfer
+    {
+        private final SocketChannel m_channel;
+        private Selector m_writeSelector;
+        private byte[] m_buffer;
+        private int m_count = 0;
+
+        ChannelOutputStream(final SocketChannel channel)
+        {
+            m_channel = channel;
+            m_buffer = m_bufferPool.acquire();
+        }
+
+        public void write(final int b) throws IOException
+        {
+            if (m_count == m_buffer.length)
+            {
+                flushBuffer();
+            }
+            m_buffer[m_count++] = (byte) b;
+        }
+
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (len >= m_buffer.length)
+            {
+                // Large writes bypass the buffer.
+                flushBuffer();
+                writeFully(ByteBuffer.wrap(b, off, len));
+                return;
+            }
+            if (len > m_buffer.length - m_count)
+            {
+                flushBuffer();
+            }
+            System.arraycopy(b, off, m_buffer, m_count, len);
+            m_count += len;
+        }
+
+        public void flush() throws IOException
+        {
+            flushBuffer();
+        }
+
+        public void transferFile(final File file, long position, long count)
+            throws IOException
+        {
+            flushBuffer();
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try
+            {
+                FileChannel fileChannel = raf.getChannel();
+                while (count > 0)
+                {
+                    long written = fileChannel.transferTo(position, count, m_channel);
+                    if (written == 0)
+                    {
+                        if (position >= fileChannel.size())
+                        {
+                            throw new EOFException("File truncated while sending: " + file);
+                        }
+                        awaitWritable();
+                    }
+                    position += written;
+                    count -= written;
+                }
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+
+        public void close() throws IOException
+        {
+            try
+            {
+                if (m_buffer != null)
+                {
+                    flushBuffer();
+                }
+            }
+            finally
+            {
+                try
+                {
+                    if (m_writeSelector != null)
+                    {
+                        m_writeSelector.close();
+                    }
+                    m_channel.close();
+                }
+                finally
+                {
+                    m_bufferPool.release(m_buffer);
+                    m_buffer = null;
+                    // Let the selector thread release the socket right away.
+                    m_selector.wakeup();
+                }
+            }
+        }
+
+        private void flushBuffer() throws IOException
+        {
+            if (m_buffer == null)
+            {
+                throw new IOException("Stream closed.");
+            }
+            if (m_count > 0)
+            {
+                writeFully(ByteBuffer.wrap(m_buffer, 0, m_count));
+                m_count = 0;
+            }
+        }
+
+        private void writeFully(final ByteBuffer bytes) throws IOException
+        {
+            while (bytes.hasRemaining())
+            {
+                if (m_channel.write(bytes) == 0)
+                {
+                    awaitWritable();
+                }
+            }
+        }
+
+        private void awaitWritable() throws IOException
+        {
+            if (m_writeSelector == null)
+            {
+                m_writeSelector = Selector.open();
+                m_channel.register(m_writeSelector, SelectionKey.OP_WRITE);
+            }
+            long start = System.currentTimeMillis();
+            while (m_writeSelector.select(m_connectionTimeout) == 0)
+            {
+                if (Thread.currentThread().isInterrupted())
+                {
+                    throw new InterruptedIOException("Interrupted while writing response.");
+                }
+                if ((m_connectionTimeout > 0)
+                    && (System.currentTimeMillis() - start >= m_connectionTimeout))
+                {
+                    throw new SocketTimeoutException("Timeout while writing response.");
+                }
+            }
+            m_writeSelector.selectedKeys().clear();
+        }
+    }
+}
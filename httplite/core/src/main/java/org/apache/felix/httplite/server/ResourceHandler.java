@@ -18,9 +18,11 @@
  */
 package org.apache.felix.httplite.server;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -42,6 +44,7 @@ public class ResourceHandler implements ServiceRegistrationHandler
 {
 
     private static final String INDEX_HTML = "index.html";
+    private static final String FILE_PROTOCOL = "file";
 	private final HttpServletRequestImpl m_request;
     private final HttpServletResponseImpl m_response;
 
@@ -111,11 +114,45 @@ public class ResourceHandler implements ServiceRegistrationHandler
             	return;
             }
 
-            InputStream inputStream = resource.openStream();
             m_response.setContentType(m_httpContext.getMimeType(resourceName));
 
-            m_response.writeToOutputStream(inputStream, close);
+            File file = getFile(resource);
+            if (file != null)
+            {
+                m_response.writeFile(file, close);
+                return;
+            }
+
+            URLConnection connection = resource.openConnection();
+            int length = connection.getContentLength();
+            if (length >= 0)
+            {
+                m_response.setContentLength(length);
+            }
+
+            m_response.writeToOutputStream(connection.getInputStream(), close);
+        }
+    }
+
+    /**
+     * @param resource URL of a resource
+     * @return the file of a resource in the file system, or <tt>null</tt>
+     *         if the resource is not a plain file.
+     */
+    private File getFile(final URL resource)
+    {
+        if (!FILE_PROTOCOL.equals(resource.getProtocol()))
+        {
+            return null;
+        }
+
+        //Deprecated method decode() intentionally used for Java 1.3 compatibility.
+        File file = new File(URLDecoder.decode(resource.getFile()));
+        if (!file.isFile())
+        {
+            return null;
         }
+        return file;
     }
 
     /**
@@ -73,6 +73,14 @@ public class Server
      * The address of the host interface to bind http to. The default is to bind to all interfaces.
      */
     public static final String CONFIG_PROPERTY_HTTP_HOST = "org.apache.felix.http.host"; 
+    /**
+     * Flag to enable the non-blocking connector. The default is true; the blocking connector is used if false or if non-blocking I/O is not available.
+     */
+    public static final String CONFIG_PROPERTY_NIO_ENABLE = "org.apache.felix.http.nio.enable";
+    /**
+     * Maximum request body size accepted by the non-blocking connector, in bytes.
+     */
+    public static final String CONFIG_PROPERTY_NIO_CONTENTLIMIT_PROP = "org.apache.felix.http.nio.contentlimit";
 
     /**
      * Default HTTP port to listen on.
@@ -105,7 +113,10 @@ public class Server
 
     private Thread m_serverThread;
     private ServerSocket m_serverSocket;
+    private NioConnector m_connector;
     private final ThreadPool m_threadPool;
+    private final boolean m_nioEnabled;
+    private final int m_nioContentLimit;
 
     private final int m_connectionTimeout;
     private final int m_connectionRequestLimit;
@@ -142,6 +153,14 @@ public class Server
      *       connections after which the connection is closed; the default value
      *       is 10000 milliseconds.
      *   </li>
+     *   <li><tt>org.apache.felix.http.nio.enable</tt> - whether connections are served by a
+     *       non-blocking connector, which only uses a thread of the thread pool once a request
+     *       has been read completely; the default value is true.
+     *   </li>
+     *   <li><tt>org.apache.felix.http.nio.contentlimit</tt> - the maximum size of a request body
+     *       the non-blocking connector buffers; larger requests are rejected with status 413.
+     *       The default value is 16777216 bytes.
+     *   </li>
      * </ul>
      * The configuration properties cannot be changed after construction. The
      * web server is not active until it is started.
@@ -167,6 +186,10 @@ public class Server
             : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_TIMEOUT_PROP));
         m_connectionRequestLimit = (configMap.get(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP) == null) ? Connection.DEFAULT_CONNECTION_REQUESTLIMIT
             : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_CONNECTION_REQUESTLIMIT_PROP));
+        m_nioEnabled = (configMap.get(Server.CONFIG_PROPERTY_NIO_ENABLE) == null) ? true
+            : Boolean.valueOf((String) configMap.get(Server.CONFIG_PROPERTY_NIO_ENABLE)).booleanValue();
+        m_nioContentLimit = (configMap.get(Server.CONFIG_PROPERTY_NIO_CONTENTLIMIT_PROP) == null) ? NioConnector.DEFAULT_CONTENT_LIMIT
+            : Integer.parseInt((String) configMap.get(Server.CONFIG_PROPERTY_NIO_CONTENTLIMIT_PROP));
     }
 
     /**
@@ -268,22 +291,33 @@ public class Server
         m_resolver = resolver;
         if (m_state == INACTIVE_STATE)
         {
-            // If inactive, then create server socket, server thread, and
-            // set state to active.
-            if (m_bindAddr == null)
-            {
-                m_serverSocket = new ServerSocket(m_port);
-            }
-            else
+            // If inactive, then create the non-blocking connector or the
+            // server socket, server thread, and set state to active.
+            m_connector = m_nioEnabled ? createConnector() : null;
+            if (m_connector == null)
             {
-                m_serverSocket = new ServerSocket(m_port, 0, m_bindAddr);
+                if (m_bindAddr == null)
+                {
+                    m_serverSocket = new ServerSocket(m_port);
+                }
+                else
+                {
+                    m_serverSocket = new ServerSocket(m_port, 0, m_bindAddr);
+                }
             }
 
             m_serverThread = new Thread(new Runnable()
             {
 				public void run()
                 {
-                    acceptConnections();
+                    if (m_connector != null)
+                    {
+                        runConnector();
+                    }
+                    else
+                    {
+                        acceptConnections();
+                    }
                 }
             }, "HttpServer");
             m_state = ACTIVE_STATE;
@@ -330,14 +364,21 @@ public class Server
                 }
                 gate = m_shutdownGate;
 
-                // Close the server socket, which will cause the server thread
-                // to exit its accept() loop.
-                try
+                // Close the connector or server socket, which will cause the
+                // server thread to exit its select() or accept() loop.
+                if (m_connector != null)
                 {
-                    m_serverSocket.close();
+                    m_connector.close();
                 }
-                catch (IOException ex)
+                else
                 {
+                    try
+                    {
+                        m_serverSocket.close();
+                    }
+                    catch (IOException ex)
+                    {
+                    }
                 }
             }
         }
@@ -349,6 +390,41 @@ public class Server
         }
     }
 
+    /**
+     * Creates the non-blocking connector, if non-blocking I/O is available.
+     * @return The connector, or <tt>null</tt> if non-blocking I/O is not available.
+     * @throws java.io.IOException If the connector could not be opened.
+    **/
+    private NioConnector createConnector() throws IOException
+    {
+        try
+        {
+            return new NioConnector(m_bindAddr, m_port, m_connectionTimeout,
+                m_connectionRequestLimit, m_nioContentLimit, m_threadPool, m_resolver, m_logger);
+        }
+        catch (LinkageError ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Non-blocking I/O is not available, using blocking connector.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * This method is the main server loop when using the non-blocking
+     * connector. This is only ever called by the server thread.
+    **/
+    private void runConnector()
+    {
+        // Start the thread pool.
+        m_threadPool.start();
+
+        m_connector.run();
+
+        // Shutdown the server.
+        shutdown();
+    }
+
     /**
      * This method is the main server loop for accepting connection. This is
      * only ever called by the server thread.
@@ -431,6 +507,7 @@ public class Server
             // gate and set the state to inactive.
             m_shutdownGate.open();
             m_shutdownGate = null;
+            m_connector = null;
             m_state = INACTIVE_STATE;
         }
         m_logger.log(Logger.LOG_DEBUG, "Shutdown complete.");
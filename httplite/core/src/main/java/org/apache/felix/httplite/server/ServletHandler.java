@@ -80,9 +80,6 @@ public class ServletHandler implements ServiceRegistrationHandler
             m_servletElement.getServlet().service(m_request, m_response);
         }
 
-        if (!m_response.isCommitted())
-        {
-            m_response.flushBuffer();
-        }
+        m_response.complete();
     }
 }
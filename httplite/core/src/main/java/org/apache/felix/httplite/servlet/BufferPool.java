@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.servlet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simple pool of equally sized byte arrays, used to read requests into and
+ * to buffer responses. Buffers of another size are never pooled, so a buffer
+ * that had to grow for an exceptionally large request is left to the garbage
+ * collector.
+**/
+public class BufferPool
+{
+    private final int m_bufferSize;
+    private final int m_limit;
+    private final List m_buffers = new ArrayList();
+
+    /**
+     * Constructs a buffer pool.
+     * @param bufferSize The size of the pooled buffers.
+     * @param limit The maximum number of buffers kept in the pool.
+    **/
+    public BufferPool(final int bufferSize, final int limit)
+    {
+        m_bufferSize = bufferSize;
+        m_limit = limit;
+    }
+
+    /**
+     * Returns the size of the pooled buffers.
+     * @return The size of the pooled buffers.
+    **/
+    public int getBufferSize()
+    {
+        return m_bufferSize;
+    }
+
+    /**
+     * Takes a buffer from the pool, or creates one if the pool is empty.
+     * @return A buffer of the pooled size.
+    **/
+    public synchronized byte[] acquire()
+    {
+        if (m_buffers.isEmpty())
+        {
+            return new byte[m_bufferSize];
+        }
+        return (byte[]) m_buffers.remove(m_buffers.size() - 1);
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     * @param buffer The buffer to return; can be <tt>null</tt>.
+    **/
+    public synchronized void release(final byte[] buffer)
+    {
+        if ((buffer != null) && (buffer.length == m_bufferSize)
+            && (m_buffers.size() < m_limit))
+        {
+            m_buffers.add(buffer);
+        }
+    }
+}
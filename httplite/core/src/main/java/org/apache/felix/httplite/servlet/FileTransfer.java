@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.servlet;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Implemented by connection output streams which can send the content of a
+ * file straight from the file system, like <tt>FileChannel.transferTo()</tt>
+ * does, instead of copying it through the Java heap.
+**/
+public interface FileTransfer
+{
+    /**
+     * Writes a range of a file to the connection, after any output that is
+     * still buffered.
+     * @param file The file to send.
+     * @param position The position of the first byte to send.
+     * @param count The number of bytes to send.
+     * @throws java.io.IOException If any I/O error occurs.
+    **/
+    void transferFile(File file, long position, long count) throws IOException;
+}
@@ -51,6 +51,10 @@ public class HttpConstants
      * Connection header
      */
     public static final String HEADER_CONNECTION = "Connection";
+    /**
+     * Transfer-Encoding header
+     */
+    public static final String HEADER_TRANSFER_ENCODING = "Transfer-Encoding";
 
     /**
      * For building HTML error messages, this value is the default start of the html document for error message responses.
@@ -108,6 +112,10 @@ public class HttpConstants
      * Close value for Connection header.
      */
     public static final String CLOSE_CONNECTION = "close";
+    /**
+     * Chunked value for Transfer-Encoding header.
+     */
+    public static final String CHUNKED_TRANSFER_ENCODING = "chunked";
     /**
      * Date format for HTTP
      */
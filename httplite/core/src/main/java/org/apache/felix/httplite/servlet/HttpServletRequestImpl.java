@@ -22,7 +22,6 @@ package org.apache.felix.httplite.servlet;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -62,13 +61,29 @@ import org.apache.felix.httplite.osgi.ServiceRegistrationResolver;
 public class HttpServletRequestImpl implements HttpServletRequest
 {
     /**
-     * HTTP Method
+     * Initial size of the buffer holding the request line and header lines.
      */
-    private String m_method;
+    private static final int INITIAL_HEADER_BUFFER_SIZE = 512;
+    /**
+     * Requests with a larger request line and header lines are rejected.
+     */
+    private static final int MAX_HEADER_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Number of offsets recorded per header: start and end of name and value.
+     */
+    private static final int HEADER_OFFSETS = 4;
     /**
-     * Host info of URI
+     * Methods and versions which are returned as shared constants.
      */
-    private String m_uriHost;
+    private static final String[] KNOWN_TOKENS =
+        { HttpConstants.GET_REQUEST, HttpConstants.POST_REQUEST, HttpConstants.HEAD_REQUEST,
+            HttpConstants.PUT_REQUEST, HttpConstants.DELETE_REQUEST, HttpConstants.OPTIONS_REQUEST.toString(),
+            HttpConstants.HTTP11_VERSION, HttpConstants.HTTP10_VERSION };
+
+    /**
+     * HTTP Method
+     */
+    private String m_method;
     /**
      * URI of HTTP request
      */
@@ -78,9 +93,24 @@ public class HttpServletRequestImpl implements HttpServletRequest
      */
     private String m_version;
     /**
-     * Headers in HTTP request
+     * Raw request line and header lines, without line terminators. Header
+     * values are only turned into strings when asked for.
      */
-    private final Map m_headers = new HashMap();
+    private byte[] m_headerBytes = new byte[INITIAL_HEADER_BUFFER_SIZE];
+    private int m_headerBytesLength;
+    /**
+     * Offsets of the headers in m_headerBytes, see HEADER_OFFSETS.
+     */
+    private int[] m_headerOffsets = new int[HEADER_OFFSETS * 16];
+    private int m_headerCount;
+    /**
+     * Header values already turned into strings, by header index.
+     */
+    private String[] m_headerValues = new String[16];
+    /**
+     * Headers in HTTP request, built on demand.
+     */
+    private Map m_headers;
     private final Socket m_socket;
     private Cookie[] m_cookies;
     //TODO: Make locale static and perhaps global to the service.
@@ -192,27 +222,57 @@ public class HttpServletRequestImpl implements HttpServletRequest
      **/
     public void parseRequestLine( final ConcreteServletInputStream is ) throws IOException
     {
-        String requestLine = is.readLine();
-        if ( requestLine == null )
+        m_headerBytesLength = 0;
+        m_headerCount = 0;
+        m_headers = null;
+        m_parameters = null;
+        m_cookies = null;
+        m_queryString = null;
+        m_requestBody = null;
+
+        int start = readLine( is );
+        if ( start < 0 )
         {
             throw new IOException( "Unexpected end of file when reading request line." );
         }
-        StringTokenizer st = new StringTokenizer( requestLine, " " );
-        if ( st.countTokens() != 3 )
+        int end = m_headerBytesLength;
+
+        // Split in method, URI and version at spaces.
+        int[] tokens = new int[6];
+        int count = 0;
+        for ( int i = start; i < end; )
         {
-            throw new IOException( "Malformed HTTP request: " + requestLine );
+            if ( m_headerBytes[i] == ' ' )
+            {
+                i++;
+                continue;
+            }
+            int tokenEnd = indexOf( ' ', i, end );
+            if ( count < 3 )
+            {
+                tokens[count * 2] = i;
+                tokens[count * 2 + 1] = tokenEnd;
+            }
+            count++;
+            i = tokenEnd;
+        }
+        if ( count != 3 )
+        {
+            throw new IOException( "Malformed HTTP request: " + toString( start, end ) );
         }
-        m_method = st.nextToken();
-        m_uri = st.nextToken();
-        m_version = st.nextToken();
+
+        m_method = toToken( tokens[0], tokens[1] );
+        m_version = toToken( tokens[4], tokens[5] );
 
         // If the URI has query string, parse it.
-        int qsIdx = m_uri.indexOf( "?" );
-        if ( qsIdx > 0 )
+        int uriEnd = tokens[3];
+        int qsIdx = indexOf( '?', tokens[2], uriEnd );
+        if ( qsIdx > tokens[2] && qsIdx < uriEnd )
         {
-            m_queryString = m_uri.substring( qsIdx + 1 );
-            m_uri = m_uri.substring( 0, qsIdx );
+            m_queryString = toString( qsIdx + 1, uriEnd );
+            uriEnd = qsIdx;
         }
+        m_uri = toString( tokens[2], uriEnd );
 
         // If path contains multiple successive path separators (a//b/c a/b////c, etc.), strip them.
         if ( m_uri.indexOf( "//" ) > -1 )
@@ -264,9 +324,10 @@ public class HttpServletRequestImpl implements HttpServletRequest
      * This method parses the HTTP header lines from the specified input stream
      * and stores the results.
      * 
-     * The map m_headers is populated with two types of values, Strings if the
-     * header occurs once or a List in the case that the same header is
-     * specified multiple times.
+     * Only the offsets of the header names and values are recorded, the map
+     * m_headers is built when the header names are asked for. It is
+     * populated with two types of values, Strings if the header occurs once
+     * or a List in the case that the same header is specified multiple times.
      * 
      * @param is
      *            The input stream from which to read the HTTP header lines.
@@ -275,48 +336,246 @@ public class HttpServletRequestImpl implements HttpServletRequest
      **/
     public void parseHeader( final ConcreteServletInputStream is ) throws IOException
     {
-        for ( String s = is.readLine(); ( s != null ) && ( s.length() != 0 ); s = is.readLine() )
+        for ( int start = readLine( is ); ( start >= 0 ) && ( start != m_headerBytesLength ); start = readLine( is ) )
         {
-            int idx = s.indexOf( ":" );
-            if ( idx > 0 )
+            int end = m_headerBytesLength;
+            int idx = indexOf( ':', start, end );
+            if ( idx > start && idx < end )
             {
-                String header = s.substring( 0, idx ).trim();
-                String value = s.substring( idx + 1 ).trim();
-
-                String key = header.toLowerCase();
-
-                if ( !m_headers.containsKey( key ) )
+                if ( m_headerCount * HEADER_OFFSETS == m_headerOffsets.length )
                 {
-                    m_headers.put( key, value );
+                    int[] offsets = new int[m_headerOffsets.length * 2];
+                    System.arraycopy( m_headerOffsets, 0, offsets, 0, m_headerOffsets.length );
+                    m_headerOffsets = offsets;
+                    m_headerValues = new String[m_headerValues.length * 2];
                 }
-                else
-                {
-                    Object originalValue = m_headers.get( key );
+                int i = m_headerCount * HEADER_OFFSETS;
+                m_headerOffsets[i] = skipWhitespace( start, idx );
+                m_headerOffsets[i + 1] = trimWhitespace( start, idx );
+                m_headerOffsets[i + 2] = skipWhitespace( idx + 1, end );
+                m_headerOffsets[i + 3] = trimWhitespace( idx + 1, end );
+                m_headerValues[m_headerCount] = null;
+                m_headerCount++;
+            }
+        }
+    }
 
-                    if ( originalValue instanceof String )
-                    {
-                        List headerList = new ArrayList();
-                        headerList.add( originalValue );
-                        headerList.add( value );
-                        m_headers.put( key, headerList );
-                    }
-                    else if ( originalValue instanceof List )
-                    {
-                        ( ( List ) originalValue ).add( value );
-                    }
-                    else
+
+    /**
+     * Appends the next line of the input stream to m_headerBytes, without its
+     * line terminator. A line is leniently defined as anything ending in '\n'
+     * or '\r\n'.
+     * 
+     * @param is input stream
+     * @return offset of the line in m_headerBytes, or -1 at end of file.
+     * @throws IOException on I/O error, or if the header is too large.
+     */
+    private int readLine( final InputStream is ) throws IOException
+    {
+        int start = m_headerBytesLength;
+        int bytesRead = 0;
+        for ( int b = is.read(); b >= 0; b = is.read() )
+        {
+            bytesRead++;
+            if ( b == '\n' )
+            {
+                break;
+            }
+            else if ( b != '\r' )
+            {
+                if ( m_headerBytesLength == m_headerBytes.length )
+                {
+                    if ( m_headerBytes.length >= MAX_HEADER_BUFFER_SIZE )
                     {
-                        throw new RuntimeException( "Unexpected type in m_headers: "
-                            + originalValue.getClass().getName() );
+                        throw new IOException( "Request header exceeds " + MAX_HEADER_BUFFER_SIZE + " bytes." );
                     }
+                    byte[] bytes = new byte[m_headerBytes.length * 2];
+                    System.arraycopy( m_headerBytes, 0, bytes, 0, m_headerBytesLength );
+                    m_headerBytes = bytes;
                 }
+                m_headerBytes[m_headerBytesLength++] = ( byte ) b;
             }
         }
+        if ( bytesRead == 0 )
+        {
+            return -1;
+        }
+        return start;
+    }
+
+
+    /**
+     * @return index of the first occurrence of a character in the given
+     *         range of m_headerBytes, or end if not found.
+     */
+    private int indexOf( final char c, int start, final int end )
+    {
+        while ( start < end && m_headerBytes[start] != c )
+        {
+            start++;
+        }
+        return start;
+    }
 
-        if ( m_headers.containsKey( "Host" ) )
+
+    /**
+     * @return index of the first non whitespace character in the given range
+     *         of m_headerBytes, or end.
+     */
+    private int skipWhitespace( int start, final int end )
+    {
+        while ( start < end && ( m_headerBytes[start] & 0xff ) <= ' ' )
         {
-            m_uriHost = m_headers.get( "Host" ).toString();
+            start++;
         }
+        return start;
+    }
+
+
+    /**
+     * @return end of the given range of m_headerBytes without trailing
+     *         whitespace.
+     */
+    private int trimWhitespace( final int start, int end )
+    {
+        while ( end > start && ( m_headerBytes[end - 1] & 0xff ) <= ' ' )
+        {
+            end--;
+        }
+        return end;
+    }
+
+
+    /**
+     * @return the given range of m_headerBytes as a string.
+     */
+    private String toString( final int start, final int end )
+    {
+        //Deprecated constructor intentionally used, it decodes ISO-8859-1 without charset lookup.
+        return new String( m_headerBytes, 0, start, end - start );
+    }
+
+
+    /**
+     * @return the given range of m_headerBytes as a shared constant if it
+     *         is a known method or version, as a new string otherwise.
+     */
+    private String toToken( final int start, final int end )
+    {
+        for ( int i = 0; i < KNOWN_TOKENS.length; i++ )
+        {
+            if ( regionMatches( KNOWN_TOKENS[i], start, end, false ) )
+            {
+                return KNOWN_TOKENS[i];
+            }
+        }
+        return toString( start, end );
+    }
+
+
+    /**
+     * @return true if the given range of m_headerBytes equals a string.
+     */
+    private boolean regionMatches( final String s, final int start, final int end, final boolean ignoreCase )
+    {
+        if ( s.length() != end - start )
+        {
+            return false;
+        }
+        for ( int i = 0; i < s.length(); i++ )
+        {
+            int c = m_headerBytes[start + i] & 0xff;
+            int expected = s.charAt( i );
+            if ( c != expected && !( ignoreCase && toLowerCase( c ) == toLowerCase( expected ) ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @return ASCII lower case of a character.
+     */
+    private static int toLowerCase( final int c )
+    {
+        if ( c >= 'A' && c <= 'Z' )
+        {
+            return c + ( 'a' - 'A' );
+        }
+        return c;
+    }
+
+
+    /**
+     * @param name header name, case insensitive
+     * @param from header index to start from
+     * @return index of the next header with the given name, or -1.
+     */
+    private int indexOfHeader( final String name, final int from )
+    {
+        for ( int i = from; i < m_headerCount; i++ )
+        {
+            int offset = i * HEADER_OFFSETS;
+            if ( regionMatches( name, m_headerOffsets[offset], m_headerOffsets[offset + 1], true ) )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * @param index header index
+     * @return value of the header as a string.
+     */
+    private String getHeaderValue( final int index )
+    {
+        if ( m_headerValues[index] == null )
+        {
+            int offset = index * HEADER_OFFSETS;
+            m_headerValues[index] = toString( m_headerOffsets[offset + 2], m_headerOffsets[offset + 3] );
+        }
+        return m_headerValues[index];
+    }
+
+
+    /**
+     * @return map of the lower case header names to their values.
+     */
+    private Map getHeaderMap()
+    {
+        if ( m_headers == null )
+        {
+            Map headers = new HashMap();
+            for ( int i = 0; i < m_headerCount; i++ )
+            {
+                int offset = i * HEADER_OFFSETS;
+                String key = toString( m_headerOffsets[offset], m_headerOffsets[offset + 1] ).toLowerCase();
+                String value = getHeaderValue( i );
+
+                Object originalValue = headers.get( key );
+                if ( originalValue == null )
+                {
+                    headers.put( key, value );
+                }
+                else if ( originalValue instanceof String )
+                {
+                    List headerList = new ArrayList();
+                    headerList.add( originalValue );
+                    headerList.add( value );
+                    headers.put( key, headerList );
+                }
+                else
+                {
+                    ( ( List ) originalValue ).add( value );
+                }
+            }
+            m_headers = headers;
+        }
+        return m_headers;
     }
 
 
@@ -335,33 +594,20 @@ public class HttpServletRequestImpl implements HttpServletRequest
 
         if ( length > 0 )
         {
-            ByteArrayOutputStream baos = null;
-
             byte[] buf = new byte[length];
-            int left = length;
+            int read = 0;
 
-            do
+            while ( read < length )
             {
-                left = left - is.read( buf );
-                if ( left > 0 )
+                int n = is.read( buf, read, length - read );
+                if ( n < 0 )
                 {
-                    if ( baos == null )
-                    {
-                        baos = new ByteArrayOutputStream( length );
-                    }
-                    baos.write( buf );
+                    throw new IOException( "Unexpected end of file when reading request body." );
                 }
+                read += n;
             }
-            while ( left > 0 );
 
-            if ( baos != null )
-            {
-                m_requestBody = baos.toByteArray();
-            }
-            else
-            {
-                m_requestBody = buf;
-            }
+            m_requestBody = buf;
         }
         else
         {
@@ -394,20 +640,25 @@ public class HttpServletRequestImpl implements HttpServletRequest
 
     public String getHeader( final String header )
     {
-        Object value = m_headers.get( header.toLowerCase() );
+        int index = indexOfHeader( header, 0 );
 
-        if ( value == null )
+        if ( index < 0 )
         {
             return null;
         }
 
-        return value.toString();
+        if ( indexOfHeader( header, index + 1 ) >= 0 )
+        {
+            return getHeaderMap().get( header.toLowerCase() ).toString();
+        }
+
+        return getHeaderValue( index );
     }
 
 
     public Enumeration getHeaders( final String name )
     {
-        Object v = m_headers.get( name );
+        Object v = getHeaderMap().get( name.toLowerCase() );
 
         if ( v == null )
         {
@@ -431,12 +682,12 @@ public class HttpServletRequestImpl implements HttpServletRequest
 
     public Enumeration getHeaderNames()
     {
-        if ( m_headers.isEmpty() )
+        if ( m_headerCount == 0 )
         {
             return HttpConstants.EMPTY_ENUMERATION;
         }
 
-        return Collections.enumeration( m_headers.keySet() );
+        return Collections.enumeration( getHeaderMap().keySet() );
     }
 
 
@@ -486,15 +737,30 @@ public class HttpServletRequestImpl implements HttpServletRequest
 
     public int getContentLength()
     {
-        int len = 0;
+        int index = indexOfHeader( HttpConstants.HEADER_CONTENT_LENGTH, 0 );
 
-        try
+        if ( index < 0 )
         {
-            len = Integer.parseInt( getHeader( "Content-Length" ) );
+            return 0;
         }
-        catch ( NumberFormatException e )
+
+        // Parsed in place, invalid values are intentionally ignored.
+        int offset = index * HEADER_OFFSETS;
+        int start = m_headerOffsets[offset + 2];
+        int end = m_headerOffsets[offset + 3];
+        if ( start == end || end - start > 9 )
         {
-            // Ignore this exception intentionally.
+            return 0;
+        }
+        int len = 0;
+        for ( int i = start; i < end; i++ )
+        {
+            int digit = m_headerBytes[i] - '0';
+            if ( digit < 0 || digit > 9 )
+            {
+                return 0;
+            }
+            len = len * 10 + digit;
         }
 
         return len;
@@ -940,9 +1206,12 @@ public class HttpServletRequestImpl implements HttpServletRequest
     public StringBuffer getRequestURL()
     {
         StringBuffer sb = new StringBuffer();
-        if ( m_uriHost != null )
+        String host = getHeader( HttpConstants.HOST_HEADER );
+        if ( host != null )
         {
-            sb.append( m_uriHost );
+            sb.append( HttpConstants.HTTP_SCHEME );
+            sb.append( "://" );
+            sb.append( host );
         }
         sb.append( m_uri );
 
@@ -1064,17 +1333,28 @@ public class HttpServletRequestImpl implements HttpServletRequest
      */
     private void parseParameterString( final String queryString, final Map params ) throws UnsupportedEncodingException
     {
-        String[] parameters = splitString( queryString, "&" );
-        
-        for ( Iterator i = Arrays.asList( parameters ).iterator(); i.hasNext(); )
+        int length = queryString.length();
+        for ( int start = 0; start < length; )
         {
-            String[] nva = splitString( i.next().toString(), "=" );
+            int end = queryString.indexOf( '&', start );
+            if ( end < 0 )
+            {
+                end = length;
+            }
 
-            if ( nva.length == 2 )
+            int idx = queryString.indexOf( '=', start );
+            if ( idx > start && idx < end )
             {
-                //Deprecated method decode() intentionally used for Java 1.3 compatibility.
-                params.put( URLDecoder.decode( nva[0].trim() ), nva[1].trim() );
+                String name = queryString.substring( start, idx ).trim();
+                String value = queryString.substring( idx + 1, end ).trim();
+                if ( name.length() > 0 && value.length() > 0 )
+                {
+                    //Deprecated method decode() intentionally used for Java 1.3 compatibility.
+                    params.put( URLDecoder.decode( name ), value );
+                }
             }
+
+            start = end + 1;
         }
     }
 
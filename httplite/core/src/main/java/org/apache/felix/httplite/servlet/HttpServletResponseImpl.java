@@ -18,12 +18,12 @@
  */
 package org.apache.felix.httplite.servlet;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.URLEncoder;
@@ -48,11 +48,35 @@ import javax.servlet.http.HttpServletResponse;
 public class HttpServletResponseImpl implements HttpServletResponse
 {
     private static final int COPY_BUFFER_SIZE = 1024 * 4;
+    /**
+     * Size classes of the pooled response buffers. A response starts with the
+     * smallest buffer fitting the typical response size and moves up a class
+     * whenever the buffer fills, until the buffer size limit is reached.
+     */
+    private static final int[] BUFFER_SIZES = { 1024, 1024 * 4, 1024 * 16, 1024 * 64 };
+    private static final BufferPool[] BUFFER_POOLS = new BufferPool[BUFFER_SIZES.length];
+    private static final int DEFAULT_BUFFER_SIZE = BUFFER_SIZES[BUFFER_SIZES.length - 1];
+    private static final byte[] CHUNK_DELIMITER = HttpConstants.HEADER_DELEMITER.getBytes();
+    private static final byte[] LAST_CHUNK = ("0" + HttpConstants.HEADER_TERMINATOR).getBytes();
+
+    static
+    {
+        for (int i = 0; i < BUFFER_SIZES.length; i++)
+        {
+            BUFFER_POOLS[i] = new BufferPool(BUFFER_SIZES[i], 16);
+        }
+    }
+
+    /**
+     * Moving average of the size of the responses sent by the server, used to
+     * pick the initial buffer of a response.
+     */
+    private static int s_typicalResponseSize = BUFFER_SIZES[0];
 
     private final SimpleDateFormat m_dateFormat;
     private final OutputStream m_out;
-    private int m_bufferSize = COPY_BUFFER_SIZE;
-    private ByteArrayOutputStream m_buffer;
+    private int m_bufferSize = DEFAULT_BUFFER_SIZE;
+    private final ResponseBuffer m_buffer = new ResponseBuffer();
     private final Map m_headers = new HashMap();
     private String m_characterEncoding = "UTF-8";
     //TODO: Make locale static and perhaps global to the service.
@@ -66,6 +90,13 @@ public class HttpServletResponseImpl implements HttpServletResponse
     private int m_statusCode = HttpURLConnection.HTTP_OK;
     private String m_customStatusMessage = null;
     private boolean m_headersWritten = false;
+    private boolean m_chunkingAllowed = false;
+    /**
+     * Set when the headers were committed before the content was complete, so
+     * the content is streamed after them.
+     */
+    private boolean m_streaming = false;
+    private boolean m_chunked = false;
 
     /**
      * Constructs an HTTP response for the specified server and request.
@@ -78,6 +109,16 @@ public class HttpServletResponseImpl implements HttpServletResponse
         m_dateFormat.setTimeZone(TimeZone.getTimeZone(HttpConstants.HTTP_TIMEZONE));
     }
 
+    /**
+     * Sets whether the client understands chunked transfer encoding, which is
+     * used for responses larger than the buffer if no content length is set.
+     * @param allowed true for HTTP/1.1 clients.
+     */
+    public void setChunkingAllowed(final boolean allowed)
+    {
+        m_chunkingAllowed = allowed;
+    }
+
     /**
      * Write HTTP headers to output stream.
      * 
@@ -91,12 +132,6 @@ public class HttpServletResponseImpl implements HttpServletResponse
             throw new IllegalStateException("Headers have already been written.");
         }
 
-        if (!m_headers.containsKey(HttpConstants.HEADER_CONTENT_LENGTH)
-            && m_buffer != null)
-        {
-            setContentLength(m_buffer.size());
-        }
-
         m_out.write(buildResponse(m_statusCode, m_headers, m_customStatusMessage, null));
         
         if (m_cookies != null)
@@ -111,9 +146,9 @@ public class HttpServletResponseImpl implements HttpServletResponse
                     m_out.write( ';' );
                 }
             }
+            m_out.write(HttpConstants.HEADER_DELEMITER.getBytes());
         }
         m_out.write(HttpConstants.HEADER_DELEMITER.getBytes());
-        m_out.flush();
 
         if (close)
         {
@@ -134,36 +169,67 @@ public class HttpServletResponseImpl implements HttpServletResponse
     public void writeToOutputStream(final InputStream inputStream, final boolean close)
         throws IOException
     {
-        InputStream bufferedInput = new BufferedInputStream(inputStream);
-
-        if (!m_headers.containsKey(HttpConstants.HEADER_CONTENT_LENGTH))
+        try
         {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            copy(bufferedInput, baos);
-            byte[] outputBuffer = baos.toByteArray();
+            if (!m_headers.containsKey(HttpConstants.HEADER_CONTENT_LENGTH))
+            {
+                // Buffered like servlet output, so small content gets a length
+                // and larger content is chunked.
+                copy(inputStream, m_buffer);
+                complete();
+                return;
+            }
+
+            if (!m_headersWritten)
+            {
+                writeHeaders(close);
+            }
+
+            copy(inputStream, m_out);
 
-            setContentLength(outputBuffer.length);
-            bufferedInput = new ByteArrayInputStream(outputBuffer);
+            m_out.flush();
+        }
+        finally
+        {
+            inputStream.close();
         }
+    }
+
+    /**
+     * Send the content of a file, without copying it through the heap if the
+     * connection supports it.
+     * @param file file to send
+     * @param close if connection should be closed
+     * @throws IOException on I/O error
+     */
+    public void writeFile(final File file, final boolean close) throws IOException
+    {
+        long length = file.length();
+        setHeader(HttpConstants.HEADER_CONTENT_LENGTH, Long.toString(length));
 
         if (!m_headersWritten)
         {
             writeHeaders(close);
         }
 
-        try
+        if (m_out instanceof FileTransfer)
         {
-            copy(bufferedInput, m_out);
-
-            m_out.flush();
+            ((FileTransfer) m_out).transferFile(file, 0, length);
         }
-        finally
+        else
         {
-            if (bufferedInput != null)
+            InputStream inputStream = new FileInputStream(file);
+            try
+            {
+                copy(inputStream, m_out);
+            }
+            finally
             {
-                bufferedInput.close();
+                inputStream.close();
             }
         }
+
+        m_out.flush();
     }
 
     /**
@@ -184,6 +250,268 @@ public class HttpServletResponseImpl implements HttpServletResponse
         }
     }
 
+    /**
+     * Completes the response after it has been handled: sends the headers if
+     * they have not been committed yet, with the content length of the
+     * buffered content, then the buffered content and the final chunk of a
+     * chunked response.
+     * @throws IOException on I/O error
+     */
+    public synchronized void complete() throws IOException
+    {
+        try
+        {
+            flushWriter();
+
+            if (!m_headersWritten)
+            {
+                if (!m_headers.containsKey(HttpConstants.HEADER_CONTENT_LENGTH))
+                {
+                    setContentLength(m_buffer.size());
+                }
+                writeHeaders(true);
+                m_buffer.writeContent();
+            }
+            else if (m_streaming)
+            {
+                m_buffer.writeContent();
+                if (m_chunked)
+                {
+                    m_out.write(LAST_CHUNK);
+                }
+            }
+            m_out.flush();
+        }
+        finally
+        {
+            m_streaming = false;
+            m_chunked = false;
+            m_buffer.release();
+        }
+    }
+
+    /**
+     * Commits the headers before the content is complete, so that the content
+     * can be streamed after them.
+     * @throws IOException on I/O error
+     */
+    private void startStreaming() throws IOException
+    {
+        if (!m_headers.containsKey(HttpConstants.HEADER_CONTENT_LENGTH))
+        {
+            if (m_chunkingAllowed)
+            {
+                setHeader(HttpConstants.HEADER_TRANSFER_ENCODING, HttpConstants.CHUNKED_TRANSFER_ENCODING);
+                m_chunked = true;
+            }
+            else
+            {
+                // The end of the content is marked by closing the connection.
+                setConnectionType(HttpConstants.CLOSE_CONNECTION);
+            }
+        }
+        writeHeaders(true);
+        m_streaming = true;
+    }
+
+    /**
+     * Flushes the writer, if any, to the response buffer.
+     */
+    private void flushWriter()
+    {
+        if (m_printWriter != null)
+        {
+            m_printWriter.flush();
+        }
+    }
+
+    /**
+     * @return size of the pooled buffer fitting the typical response size.
+     */
+    private static synchronized int getTypicalResponseSize()
+    {
+        return s_typicalResponseSize;
+    }
+
+    /**
+     * @param size size of a response just completed.
+     */
+    private static synchronized void recordResponseSize(final int size)
+    {
+        s_typicalResponseSize += (size - s_typicalResponseSize) / 8;
+    }
+
+    /**
+     * Buffer of the response content. It starts with a pooled buffer
+     * matching the typical response size, grows through the pooled size
+     * classes up to the response buffer size and, once full, commits the
+     * headers and streams the content, in chunks if the content length is not
+     * known. Flushing this stream does not commit the response, so that
+     * content flushed by a writer still gets a content length.
+     */
+    private final class ResponseBuffer extends OutputStream
+    {
+        private byte[] m_bytes;
+        private int m_count = 0;
+        private int m_total = 0;
+
+        public void write(final int b) throws IOException
+        {
+            if ((m_bytes == null) || (m_count == m_bytes.length))
+            {
+                makeRoom(1);
+            }
+            m_bytes[m_count++] = (byte) b;
+            m_total++;
+        }
+
+        public void write(final byte[] b, int off, int len) throws IOException
+        {
+            m_total += len;
+            while (len > 0)
+            {
+                if (m_streaming && (m_bytes != null) && (len >= m_bytes.length))
+                {
+                    // Large writes bypass the buffer once streaming.
+                    writeContent();
+                    writeContent(b, off, len);
+                    return;
+                }
+                if ((m_bytes == null) || (m_count == m_bytes.length))
+                {
+                    makeRoom(len);
+                }
+                int n = Math.min(len, m_bytes.length - m_count);
+                System.arraycopy(b, off, m_bytes, m_count, n);
+                m_count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * @return number of bytes buffered.
+         */
+        int size()
+        {
+            return m_count;
+        }
+
+        /**
+         * Discards the buffered content.
+         */
+        void reset()
+        {
+            m_count = 0;
+            m_total = 0;
+        }
+
+        /**
+         * Writes the buffered content to the connection.
+         * @throws IOException on I/O error
+         */
+        void writeContent() throws IOException
+        {
+            if (m_count > 0)
+            {
+                writeContent(m_bytes, 0, m_count);
+                m_count = 0;
+            }
+        }
+
+        /**
+         * Returns the buffer to its pool.
+         */
+        void release()
+        {
+            if (m_bytes != null)
+            {
+                recordResponseSize(m_total);
+                releaseBuffer(m_bytes);
+                m_bytes = null;
+            }
+            reset();
+        }
+
+        /**
+         * Makes room for at least one byte, by taking a first buffer, growing
+         * the buffer or writing its content to the connection.
+         * @param needed bytes which are about to be written
+         * @throws IOException on I/O error
+         */
+        private void makeRoom(final int needed) throws IOException
+        {
+            if (m_bytes == null)
+            {
+                m_bytes = acquireBuffer(Math.max(needed, getTypicalResponseSize()));
+            }
+            else if (!m_streaming && (m_bytes.length < m_bufferSize))
+            {
+                byte[] bytes = acquireBuffer(Math.max(m_count + needed, m_bytes.length * 2));
+                System.arraycopy(m_bytes, 0, bytes, 0, m_count);
+                releaseBuffer(m_bytes);
+                m_bytes = bytes;
+            }
+            else
+            {
+                if (!m_streaming)
+                {
+                    startStreaming();
+                }
+                writeContent();
+            }
+        }
+
+        /**
+         * @param size wanted buffer size
+         * @return the smallest pooled buffer of at least the given size, up to
+         *         the response buffer size.
+         */
+        private byte[] acquireBuffer(final int size)
+        {
+            int wanted = Math.min(size, m_bufferSize);
+            for (int i = 0; i < BUFFER_SIZES.length; i++)
+            {
+                if ((BUFFER_SIZES[i] >= wanted) && (BUFFER_SIZES[i] <= m_bufferSize))
+                {
+                    return BUFFER_POOLS[i].acquire();
+                }
+            }
+            return new byte[Math.max(wanted, 1)];
+        }
+
+        private void releaseBuffer(final byte[] bytes)
+        {
+            for (int i = 0; i < BUFFER_SIZES.length; i++)
+            {
+                if (BUFFER_SIZES[i] == bytes.length)
+                {
+                    BUFFER_POOLS[i].release(bytes);
+                }
+            }
+        }
+
+        /**
+         * Writes content to the connection, as a chunk if the response is
+         * chunked.
+         */
+        private void writeContent(final byte[] b, final int off, final int len)
+            throws IOException
+        {
+            if (m_chunked)
+            {
+                m_out.write(Integer.toHexString(len).getBytes());
+                m_out.write(CHUNK_DELIMITER);
+                m_out.write(b, off, len);
+                m_out.write(CHUNK_DELIMITER);
+            }
+            else
+            {
+                m_out.write(b, off, len);
+            }
+        }
+    }
+
     /**
      * Static utility method to send a continue response.
      * @throws java.io.IOException If any I/O error occurs.
@@ -257,26 +585,18 @@ public class HttpServletResponseImpl implements HttpServletResponse
      */
     synchronized public void flushBuffer() throws IOException
     {
-        if (m_getOutputStreamCalled)
-        {
-            m_servletOutputStream.flush();
-        }
-        else if (m_getWriterCalled)
-        {
-            m_printWriter.flush();
-        }
+        flushWriter();
 
         if (!m_headersWritten)
         {
-            writeHeaders(true);
+            startStreaming();
         }
 
-        if (m_buffer != null)
+        if (m_streaming)
         {
-            byte[] content = m_buffer.toByteArray();
-            copy(new ByteArrayInputStream(content), m_out);
-            m_out.flush();
+            m_buffer.writeContent();
         }
+        m_out.flush();
     }
 
     /* (non-Javadoc)
@@ -284,11 +604,6 @@ public class HttpServletResponseImpl implements HttpServletResponse
      */
     public int getBufferSize()
     {
-        if (m_buffer != null)
-        {
-            return m_buffer.size();
-        }
-
         return m_bufferSize;
     }
 
@@ -336,7 +651,6 @@ public class HttpServletResponseImpl implements HttpServletResponse
 
         if (m_servletOutputStream == null)
         {
-            m_buffer = new ByteArrayOutputStream(m_bufferSize);
             m_servletOutputStream = new ServletOutputStreamImpl(m_buffer);
         }
         return m_servletOutputStream;
@@ -355,8 +669,7 @@ public class HttpServletResponseImpl implements HttpServletResponse
 
         if (m_printWriter == null)
         {
-            m_buffer = new ByteArrayOutputStream(m_bufferSize);
-            m_printWriter = new PrintWriter(m_buffer);
+            m_printWriter = new PrintWriter(new OutputStreamWriter(m_buffer, m_characterEncoding));
         }
 
         return m_printWriter;
@@ -411,12 +724,12 @@ public class HttpServletResponseImpl implements HttpServletResponse
      */
     public void setBufferSize(final int arg0)
     {
-        if (isCommitted())
+        if (isCommitted() || (m_buffer.size() > 0))
         {
-            throw new IllegalStateException("Response has already been committed.");
+            throw new IllegalStateException("Content has already been written.");
         }
 
-        m_bufferSize = arg0;
+        m_bufferSize = Math.max(arg0, BUFFER_SIZES[0]);
     }
 
     /* (non-Javadoc)
@@ -528,6 +841,7 @@ public class HttpServletResponseImpl implements HttpServletResponse
             throw new IllegalStateException(
                 "Response has already been committed, unable to send error.");
 
+        m_headersWritten = true;
         m_out.write(buildResponse(sc, msg));
         m_out.flush();
     }
@@ -552,6 +866,7 @@ public class HttpServletResponseImpl implements HttpServletResponse
 
         Map map = new HashMap();
         map.put("Location", location);
+        m_headersWritten = true;
         m_out.write(buildResponse(307, map, null, null));
         m_out.flush();
     }
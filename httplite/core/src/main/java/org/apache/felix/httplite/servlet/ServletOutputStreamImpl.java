@@ -47,4 +47,12 @@ public class ServletOutputStreamImpl extends ServletOutputStream
     {
         m_outputStream.write(i);
     }
+
+    /* (non-Javadoc)
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        m_outputStream.write(b, off, len);
+    }
 }
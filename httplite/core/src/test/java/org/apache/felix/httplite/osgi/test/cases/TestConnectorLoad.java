@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.osgi.test.cases;
+
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+
+import javax.servlet.ServletException;
+
+import org.apache.felix.httplite.osgi.Activator;
+import org.apache.felix.httplite.osgi.test.AbstractHttpliteTestCase;
+import org.apache.felix.httplite.osgi.test.BasicTestingServlet;
+import org.apache.felix.httplite.server.Server;
+import org.osgi.service.http.HttpService;
+import org.osgi.service.http.NamespaceException;
+
+
+/**
+ * Load tests for the blocking and non-blocking connectors, using local clients.
+ * The results are printed to compare both connectors.
+ *
+ */
+public class TestConnectorLoad extends AbstractHttpliteTestCase
+{
+    private static final int THREAD_LIMIT = 4;
+    private static final int CLIENTS = 16;
+    private static final int REQUESTS = 50;
+    private static final int IDLE_CLIENTS = 3 * THREAD_LIMIT;
+
+
+    /**
+     * Test that the non-blocking connector serves many concurrent clients.
+     * @throws Exception
+     */
+    public void testNioConnectorLoad() throws Exception
+    {
+        restart( true );
+
+        assertEquals( 0, runLoad( "NIO" ) );
+    }
+
+
+    /**
+     * Test that the blocking connector serves many concurrent clients.
+     * @throws Exception
+     */
+    public void testBlockingConnectorLoad() throws Exception
+    {
+        restart( false );
+
+        assertEquals( 0, runLoad( "blocking" ) );
+    }
+
+
+    /**
+     * Test that clients which do not send a request do not prevent the
+     * non-blocking connector from serving other clients.
+     * @throws Exception
+     */
+    public void testIdleClientsDoNotHoldThreads() throws Exception
+    {
+        restart( true );
+        registerServlet();
+
+        Socket[] idle = new Socket[IDLE_CLIENTS];
+        try
+        {
+            for ( int i = 0; i < idle.length; i++ )
+            {
+                idle[i] = new Socket( "localhost", DEFAULT_PORT );
+            }
+
+            long start = System.currentTimeMillis();
+            for ( int i = 0; i < THREAD_LIMIT * 2; i++ )
+            {
+                HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/load", "GET" );
+                client.setReadTimeout( 5000 );
+                assertEquals( 200, client.getResponseCode() );
+                readInputAsString( client.getInputStream() );
+            }
+            // Far less than the connection timeout the idle clients would hold a thread for.
+            assertTrue( System.currentTimeMillis() - start < 5000 );
+        }
+        finally
+        {
+            for ( int i = 0; i < idle.length; i++ )
+            {
+                if ( idle[i] != null )
+                {
+                    idle[i].close();
+                }
+            }
+        }
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        System.getProperties().remove( Server.CONFIG_PROPERTY_NIO_ENABLE );
+        System.getProperties().remove( Server.CONFIG_PROPERTY_THREADPOOL_LIMIT_PROP );
+        super.tearDown();
+    }
+
+
+    /**
+     * Restarts the HTTP service with the given connector and a small thread pool.
+     */
+    private void restart( boolean nio ) throws Exception
+    {
+        activator.stop( registry.getBundleContext() );
+
+        System.setProperty( Server.CONFIG_PROPERTY_NIO_ENABLE, Boolean.toString( nio ) );
+        System.setProperty( Server.CONFIG_PROPERTY_THREADPOOL_LIMIT_PROP, Integer.toString( THREAD_LIMIT ) );
+
+        activator = new Activator();
+        activator.start( registry.getBundleContext() );
+    }
+
+
+    private void registerServlet() throws ServletException, NamespaceException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        httpService.registerServlet( "/load", new BasicTestingServlet( "load test response", true ), null, null );
+    }
+
+
+    /**
+     * Runs the clients concurrently and prints the throughput.
+     * @return the number of failed requests
+     */
+    private int runLoad( String name ) throws Exception
+    {
+        registerServlet();
+
+        final int[] failures = new int[1];
+        Thread[] clients = new Thread[CLIENTS];
+        for ( int i = 0; i < clients.length; i++ )
+        {
+            clients[i] = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    for ( int r = 0; r < REQUESTS; r++ )
+                    {
+                        try
+                        {
+                            HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/load", "GET" );
+                            client.setReadTimeout( 10000 );
+                            if ( client.getResponseCode() != 200
+                                || readInputAsString( client.getInputStream() ).indexOf( "load test response" ) < 0 )
+                            {
+                                throw new IOException( "Unexpected response " + client.getResponseCode() );
+                            }
+                        }
+                        catch ( IOException e )
+                        {
+                            synchronized ( failures )
+                            {
+                                failures[0]++;
+                            }
+                        }
+                    }
+                }
+            } );
+        }
+
+        long start = System.currentTimeMillis();
+        for ( int i = 0; i < clients.length; i++ )
+        {
+            clients[i].start();
+        }
+        for ( int i = 0; i < clients.length; i++ )
+        {
+            clients[i].join();
+        }
+        long time = System.currentTimeMillis() - start;
+
+        System.out.println( name + " connector: " + ( CLIENTS * REQUESTS ) + " requests in " + time + "ms, "
+            + failures[0] + " failed." );
+        return failures[0];
+    }
+}
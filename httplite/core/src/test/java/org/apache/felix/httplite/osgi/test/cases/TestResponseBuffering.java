@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.httplite.osgi.test.cases;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.felix.httplite.osgi.test.AbstractHttpliteTestCase;
+import org.osgi.service.http.HttpContext;
+import org.osgi.service.http.HttpService;
+import org.osgi.service.http.NamespaceException;
+
+
+/**
+ * Tests for response buffering, chunked responses and file resources.
+ *
+ */
+public class TestResponseBuffering extends AbstractHttpliteTestCase
+{
+    private static final int LARGE_RESPONSE_SIZE = 1024 * 1024;
+
+
+    /**
+     * Test that a response fitting in the buffer is sent with a content length.
+     * @throws ServletException
+     * @throws NamespaceException
+     * @throws IOException
+     */
+    public void testSmallResponseHasContentLength() throws ServletException, NamespaceException, IOException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        httpService.registerServlet( "/test", new ContentServlet( createContent( 3000 ) ), null, null );
+
+        HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/test", "GET" );
+        client.connect();
+
+        assertEquals( 200, client.getResponseCode() );
+        assertEquals( "3000", client.getHeaderField( "Content-Length" ) );
+        assertNull( client.getHeaderField( "Transfer-Encoding" ) );
+        assertTrue( Arrays.equals( createContent( 3000 ), readInputAsByteArray( client.getInputStream() ) ) );
+    }
+
+
+    /**
+     * Test that a response larger than the buffer is chunked.
+     * @throws ServletException
+     * @throws NamespaceException
+     * @throws IOException
+     */
+    public void testLargeResponseIsChunked() throws ServletException, NamespaceException, IOException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        byte[] content = createContent( LARGE_RESPONSE_SIZE );
+        httpService.registerServlet( "/test", new ContentServlet( content ), null, null );
+
+        HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/test", "GET" );
+        client.connect();
+
+        assertEquals( 200, client.getResponseCode() );
+        assertEquals( "chunked", client.getHeaderField( "Transfer-Encoding" ) );
+        assertTrue( Arrays.equals( content, readInputAsByteArray( client.getInputStream() ) ) );
+    }
+
+
+    /**
+     * Test that content written after flushBuffer() is sent.
+     * @throws ServletException
+     * @throws NamespaceException
+     * @throws IOException
+     */
+    public void testFlushBuffer() throws ServletException, NamespaceException, IOException
+    {
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        httpService.registerServlet( "/test", new HttpServlet()
+        {
+            protected void doGet( HttpServletRequest req, HttpServletResponse resp ) throws IOException
+            {
+                resp.getWriter().print( "first," );
+                resp.flushBuffer();
+                resp.getWriter().print( "second" );
+            }
+        }, null, null );
+
+        HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/test", "GET" );
+        client.connect();
+
+        assertEquals( 200, client.getResponseCode() );
+        assertEquals( "first,second", readInputAsString( client.getInputStream() ) );
+    }
+
+
+    /**
+     * Test that a resource in the file system is sent completely.
+     * @throws NamespaceException
+     * @throws IOException
+     */
+    public void testFileResource() throws NamespaceException, IOException
+    {
+        final File file = File.createTempFile( "httplite", ".bin" );
+        file.deleteOnExit();
+        byte[] content = createContent( LARGE_RESPONSE_SIZE + 7 );
+        OutputStream out = new FileOutputStream( file );
+        try
+        {
+            out.write( content );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        HttpService httpService = getHTTPService( registry.getBundleContext() );
+        httpService.registerResources( "/files", "/files", new HttpContext()
+        {
+            public boolean handleSecurity( HttpServletRequest request, HttpServletResponse response )
+            {
+                return true;
+            }
+
+
+            public URL getResource( String name )
+            {
+                try
+                {
+                    return name.endsWith( "/content.bin" ) ? file.toURL() : null;
+                }
+                catch ( MalformedURLException e )
+                {
+                    return null;
+                }
+            }
+
+
+            public String getMimeType( String name )
+            {
+                return "application/octet-stream";
+            }
+        } );
+
+        HttpURLConnection client = getConnection( DEFAULT_BASE_URL + "/files/content.bin", "GET" );
+        client.connect();
+
+        assertEquals( 200, client.getResponseCode() );
+        assertEquals( Integer.toString( content.length ), client.getHeaderField( "Content-Length" ) );
+        assertTrue( Arrays.equals( content, readInputAsByteArray( client.getInputStream() ) ) );
+    }
+
+
+    private static byte[] createContent( int size )
+    {
+        byte[] content = new byte[size];
+        for ( int i = 0; i < size; ++i )
+        {
+            content[i] = ( byte ) ( 'a' + i % 26 );
+        }
+        return content;
+    }
+
+    /**
+     * Servlet writing fixed content in small pieces.
+     */
+    private static class ContentServlet extends HttpServlet
+    {
+        private final byte[] m_content;
+
+
+        ContentServlet( byte[] content )
+        {
+            m_content = content;
+        }
+
+
+        protected void doGet( HttpServletRequest req, HttpServletResponse resp ) throws IOException
+        {
+            OutputStream out = resp.getOutputStream();
+            for ( int i = 0; i < m_content.length; i += 1000 )
+            {
+                out.write( m_content, i, Math.min( 1000, m_content.length - i ) );
+            }
+        }
+    }
+}
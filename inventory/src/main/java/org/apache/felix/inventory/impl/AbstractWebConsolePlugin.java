@@ -139,7 +139,15 @@ public abstract class AbstractWebConsolePlugin extends HttpServlet
             response.setContentType(type);
 
             final ZipConfigurationWriter pw = ZipConfigurationWriter.create(response.getOutputStream());
-            printConfigurationInventory(pw, null, handler);
+            if (handler == null)
+            {
+                pw.printInventory(this.inventoryPrinterManager.getHandlers(null),
+                    this.inventoryPrinterManager.getPrinterThreads());
+            }
+            else
+            {
+                printConfigurationInventory(pw, null, handler);
+            }
             pw.finish();
         }
         else if (request.getPathInfo().endsWith(".nfo"))
@@ -37,6 +37,7 @@ import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.log.LogService;
 import org.osgi.util.tracker.ServiceTracker;
 import org.osgi.util.tracker.ServiceTrackerCustomizer;
 
@@ -48,6 +49,13 @@ import org.osgi.util.tracker.ServiceTrackerCustomizer;
 public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
 {
 
+    /**
+     * Framework property setting the number of inventory printers run
+     * concurrently when creating a ZIP file with the output of all printers.
+     * By default the printers are run one after the other.
+     */
+    public static final String PROP_PRINTER_THREADS = "felix.inventory.printer.threads";
+
     /** Bundle Context . */
     private final BundleContext bundleContext;
 
@@ -66,6 +74,9 @@ public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
     /** Registration for the web console. */
     private final ServiceRegistration pluginRegistration;
 
+    /** Number of printers run concurrently, see {@link #PROP_PRINTER_THREADS}. */
+    private final int printerThreads;
+
     /**
      * Create the inventory printer manager
      *
@@ -76,6 +87,7 @@ public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
     public InventoryPrinterManagerImpl(final BundleContext btx) throws InvalidSyntaxException
     {
         this.bundleContext = btx;
+        this.printerThreads = getIntProperty(btx, PROP_PRINTER_THREADS, 1);
         this.cfgPrinterTracker = new ServiceTracker(this.bundleContext, InventoryPrinter.SERVICE, this);
         this.cfgPrinterTracker.open();
 
@@ -97,6 +109,35 @@ public class InventoryPrinterManagerImpl implements ServiceTrackerCustomizer
         }, props);
     }
 
+    private static int getIntProperty(final BundleContext btx, final String name, final int defaultValue)
+    {
+        final String value = btx.getProperty(name);
+        if (value != null)
+        {
+            try
+            {
+                return Integer.parseInt(value.trim());
+            }
+            catch (NumberFormatException nfe)
+            {
+                Activator.log(null, LogService.LOG_WARNING, "Ignoring invalid value " + value + " of " + name, null);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns the number of printers to run concurrently when writing the
+     * output of all printers to a ZIP file.
+     *
+     * @return The number of printers run concurrently, 1 to run them in
+     *         sequence.
+     */
+    public int getPrinterThreads()
+    {
+        return this.printerThreads;
+    }
+
     /**
      * Dispose this service
      */
@@ -26,7 +26,7 @@ package org.apache.felix.inventory.impl.helper;
  * <li>Arrays are always expected to be inside an object</li>
  * <li>At most one level of object nesting is supported</li>
  * <li>Strings are not escaped</li>
- * <li>Only string values are supported</li>
+ * <li>Only string and number values are supported</li>
  * </ol>
  */
 class SimpleJson
@@ -98,6 +98,20 @@ class SimpleJson
         return this;
     }
 
+    SimpleJson value(final long value)
+    {
+        if (this.mode == 'i')
+        {
+            this.mode = 'a';
+        }
+        else if (mode == 'a')
+        {
+            this.index.append(',');
+        }
+        this.index.append(value);
+        return this;
+    }
+
     public String toString()
     {
         return this.index.toString();
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.inventory.impl.helper;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The <code>SpoolOutputStream</code> buffers the written data in memory
+ * until the threshold is reached and spills it to a temporary file
+ * afterwards. Once closed, the data can be copied to another stream with
+ * {@link #writeTo(OutputStream)}. The temporary file is removed by
+ * {@link #dispose()}.
+ */
+class SpoolOutputStream extends OutputStream
+{
+
+    private final int threshold;
+
+    private ByteArrayOutputStream memory;
+
+    private File file;
+
+    private OutputStream out;
+
+    private int size;
+
+    SpoolOutputStream(final int threshold)
+    {
+        this.threshold = threshold;
+        this.memory = new ByteArrayOutputStream();
+        this.out = this.memory;
+    }
+
+    public void write(final int b) throws IOException
+    {
+        this.spill(1);
+        this.out.write(b);
+        this.size++;
+    }
+
+    public void write(final byte[] b, final int off, final int len) throws IOException
+    {
+        this.spill(len);
+        this.out.write(b, off, len);
+        this.size += len;
+    }
+
+    public void flush() throws IOException
+    {
+        this.out.flush();
+    }
+
+    public void close() throws IOException
+    {
+        this.out.close();
+    }
+
+    /**
+     * Copies the data written so far to the given stream. The spool must have
+     * been closed before.
+     */
+    void writeTo(final OutputStream dest) throws IOException
+    {
+        if (this.file == null)
+        {
+            this.memory.writeTo(dest);
+        }
+        else
+        {
+            final InputStream in = new FileInputStream(this.file);
+            try
+            {
+                final byte[] buf = new byte[8192];
+                int rd;
+                while ((rd = in.read(buf)) >= 0)
+                {
+                    dest.write(buf, 0, rd);
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Releases the buffered data and removes the temporary file, if any.
+     */
+    void dispose()
+    {
+        this.memory = null;
+        if (this.file != null)
+        {
+            try
+            {
+                this.out.close();
+            }
+            catch (IOException ignore)
+            {
+                // we just remove the file
+            }
+            this.file.delete();
+            this.file = null;
+        }
+    }
+
+    private void spill(final int len) throws IOException
+    {
+        if (this.file == null && this.size + len > this.threshold)
+        {
+            this.file = File.createTempFile("inventory", ".spool");
+            this.out = new BufferedOutputStream(new FileOutputStream(this.file));
+            this.memory.writeTo(this.out);
+            this.memory = null;
+        }
+    }
+}
@@ -19,8 +19,10 @@
 package org.apache.felix.inventory.impl.helper;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.MessageFormat;
 import java.util.Date;
@@ -30,17 +32,29 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.felix.inventory.Format;
+import org.apache.felix.inventory.impl.Activator;
 import org.apache.felix.inventory.impl.InventoryPrinterHandler;
+import org.osgi.service.log.LogService;
 
 /**
  * The ZIP configuration writer creates a zip with
  * - txt output of a inventory printers (if supported)
  * - json output of a inventory printers (if supported)
  * - attachments from a inventory printer (if supported)
+ * - the time spent in each inventory printer (in the index)
+ *
+ * The printers may be run concurrently by
+ * {@link #printInventory(InventoryPrinterHandler[], int)}.
  */
 public class ZipConfigurationWriter extends ConfigurationWriter
 {
 
+    /**
+     * The amount of printer output kept in memory before it is spooled to a
+     * temporary file when running printers concurrently.
+     */
+    private static final int SPOOL_THRESHOLD = 256 * 1024;
+
     private final ZipConfigurationWriter.ConfigZipOutputStream zip;
 
     private int entryCounter;
@@ -88,23 +102,29 @@ public class ZipConfigurationWriter extends ConfigurationWriter
         this.zip.handler(handler);
 
         // print the plain text output
+        long textTime = -1;
         if (handler.supports(Format.TEXT))
         {
             final ZipEntry entry = new ZipEntry(baseName.concat(".txt"));
             entry.setTime(System.currentTimeMillis());
             this.zip.putNextEntry(entry, Format.TEXT);
+            textTime = System.currentTimeMillis();
             handler.print(this, Format.TEXT, true);
+            textTime = System.currentTimeMillis() - textTime;
             this.flush();
             this.zip.closeEntry();
         }
 
         // print the JSON format output
+        long jsonTime = -1;
         if (handler.supports(Format.JSON))
         {
             final ZipEntry entry = new ZipEntry("json/" + baseName + ".json");
             entry.setTime(System.currentTimeMillis());
             this.zip.putNextEntry(entry, Format.JSON);
+            jsonTime = System.currentTimeMillis();
             handler.print(this, Format.JSON, true);
+            jsonTime = System.currentTimeMillis() - jsonTime;
             this.flush();
             this.zip.closeEntry();
         }
@@ -114,6 +134,103 @@ public class ZipConfigurationWriter extends ConfigurationWriter
         handler.addAttachments(this.zip, baseName.concat("/"));
         this.zip.endAttachements();
 
+        this.zip.times(textTime, jsonTime);
+        this.zip.endHandler();
+    }
+
+    /**
+     * Writes the output of all handlers like
+     * {@link #printInventory(Format, InventoryPrinterHandler)} but runs up to
+     * {@code threads} handlers concurrently. The output of each handler is
+     * spooled and written to the ZIP file as soon as the handler has
+     * finished, the attachments are added at that time. The entry names are
+     * the same as if the handlers were called in sequence.
+     *
+     * @param handlers The handlers to be called to generate the output
+     * @param threads The maximum number of handlers run concurrently, a
+     *            value of 1 or less prints the handlers in sequence
+     *
+     * @throws IOException if an error occurrs writing to the ZIP file.
+     */
+    public void printInventory(final InventoryPrinterHandler[] handlers, final int threads) throws IOException
+    {
+        if (threads <= 1 || handlers.length <= 1)
+        {
+            for (int i = 0; i < handlers.length; i++)
+            {
+                this.printInventory(null, handlers[i]);
+            }
+            return;
+        }
+
+        final PrintTask[] tasks = new PrintTask[handlers.length];
+        for (int i = 0; i < handlers.length; i++)
+        {
+            tasks[i] = new PrintTask(handlers[i], getBaseName(handlers[i]));
+        }
+        final PrintQueue queue = new PrintQueue(tasks);
+        final int count = Math.min(threads, tasks.length);
+        for (int i = 0; i < count; i++)
+        {
+            final Thread worker = new Thread(queue, "Inventory Printer " + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        try
+        {
+            PrintTask task;
+            while ((task = queue.awaitFinished()) != null)
+            {
+                try
+                {
+                    this.writeTask(task);
+                }
+                finally
+                {
+                    task.dispose();
+                }
+            }
+        }
+        finally
+        {
+            queue.cancel();
+        }
+    }
+
+    private void writeTask(final PrintTask task) throws IOException
+    {
+        final InventoryPrinterHandler handler = task.handler;
+        this.zip.handler(handler);
+
+        if (task.text != null)
+        {
+            final ZipEntry entry = new ZipEntry(task.baseName.concat(".txt"));
+            entry.setTime(System.currentTimeMillis());
+            this.zip.putNextEntry(entry, Format.TEXT);
+            task.text.writeTo(this.zip);
+            this.zip.closeEntry();
+        }
+
+        if (task.json != null)
+        {
+            final ZipEntry entry = new ZipEntry("json/" + task.baseName + ".json");
+            entry.setTime(System.currentTimeMillis());
+            this.zip.putNextEntry(entry, Format.JSON);
+            task.json.writeTo(this.zip);
+            this.zip.closeEntry();
+        }
+
+        // attachements are written straight to the ZIP file
+        this.zip.attachements();
+        handler.addAttachments(this.zip, task.baseName.concat("/"));
+        this.zip.endAttachements();
+
+        this.zip.times(task.textTime, task.jsonTime);
+        if (task.failure != null)
+        {
+            this.zip.failure(task.failure);
+        }
         this.zip.endHandler();
     }
 
@@ -139,6 +256,222 @@ public class ZipConfigurationWriter extends ConfigurationWriter
             { new Integer(this.entryCounter), name });
     }
 
+    /**
+     * The output of a single handler, spooled by a worker thread.
+     */
+    private static class PrintTask
+    {
+
+        final InventoryPrinterHandler handler;
+
+        final String baseName;
+
+        SpoolOutputStream text;
+
+        SpoolOutputStream json;
+
+        long textTime = -1;
+
+        long jsonTime = -1;
+
+        // set if the handler failed outside of printing
+        Throwable failure;
+
+        PrintTask(final InventoryPrinterHandler handler, final String baseName)
+        {
+            this.handler = handler;
+            this.baseName = baseName;
+        }
+
+        void run()
+        {
+            if (this.handler.supports(Format.TEXT))
+            {
+                final long start = System.currentTimeMillis();
+                this.text = this.print(Format.TEXT);
+                this.textTime = System.currentTimeMillis() - start;
+            }
+            if (this.handler.supports(Format.JSON))
+            {
+                final long start = System.currentTimeMillis();
+                this.json = this.print(Format.JSON);
+                this.jsonTime = System.currentTimeMillis() - start;
+            }
+        }
+
+        private SpoolOutputStream print(final Format format)
+        {
+            final SpoolOutputStream spool = new SpoolOutputStream(SPOOL_THRESHOLD);
+            PrintWriter pw = null;
+            try
+            {
+                pw = new PrintWriter(new OutputStreamWriter(spool, "UTF-8"));
+                this.handler.print(pw, format, true);
+            }
+            catch (Throwable t)
+            {
+                // keep the other printers going, the failure ends up in the entry
+                Activator.log(null, LogService.LOG_ERROR, "Inventory printer " + this.handler.getName()
+                    + " failed to print " + format, t);
+                if (pw != null)
+                {
+                    pw.println();
+                    t.printStackTrace(pw);
+                }
+            }
+            finally
+            {
+                if (pw != null)
+                {
+                    pw.close();
+                    if (pw.checkError())
+                    {
+                        Activator.log(null, LogService.LOG_WARNING, "Output of inventory printer "
+                            + this.handler.getName() + " in format " + format + " may be incomplete", null);
+                    }
+                }
+            }
+            return spool;
+        }
+
+        void failed(final Throwable t)
+        {
+            // keep the other printers going, the output so far is still written
+            Activator.log(null, LogService.LOG_ERROR, "Inventory printer " + this.handler.getName() + " failed", t);
+            this.failure = t;
+        }
+
+        void dispose()
+        {
+            if (this.text != null)
+            {
+                this.text.dispose();
+            }
+            if (this.json != null)
+            {
+                this.json.dispose();
+            }
+        }
+    }
+
+    /**
+     * Hands the tasks out to the worker threads and the finished tasks to
+     * the thread writing the ZIP file.
+     */
+    private static class PrintQueue implements Runnable
+    {
+
+        private final PrintTask[] tasks;
+
+        private final boolean[] finished;
+
+        private final boolean[] written;
+
+        // the next task to be started
+        private int next;
+
+        // the number of tasks handed out by awaitFinished
+        private int writtenCount;
+
+        // set if the ZIP file is not written any more
+        private boolean cancelled;
+
+        PrintQueue(final PrintTask[] tasks)
+        {
+            this.tasks = tasks;
+            this.finished = new boolean[tasks.length];
+            this.written = new boolean[tasks.length];
+        }
+
+        public void run()
+        {
+            int index;
+            while ((index = this.take()) >= 0)
+            {
+                try
+                {
+                    this.tasks[index].run();
+                }
+                catch (Throwable t)
+                {
+                    this.tasks[index].failed(t);
+                }
+                finally
+                {
+                    // the writer waits for every task, even a failed one
+                    this.done(index);
+                }
+            }
+        }
+
+        private synchronized int take()
+        {
+            if (this.cancelled || this.next == this.tasks.length)
+            {
+                return -1;
+            }
+            return this.next++;
+        }
+
+        private synchronized void done(final int index)
+        {
+            this.finished[index] = true;
+            if (this.cancelled)
+            {
+                this.tasks[index].dispose();
+            }
+            this.notifyAll();
+        }
+
+        /**
+         * Waits for a task to finish and returns it. Tasks are returned in
+         * the order they finish, {@code null} is returned once all tasks have
+         * been returned.
+         */
+        synchronized PrintTask awaitFinished() throws InterruptedIOException
+        {
+            while (this.writtenCount < this.tasks.length)
+            {
+                for (int i = 0; i < this.tasks.length; i++)
+                {
+                    if (this.finished[i] && !this.written[i])
+                    {
+                        this.written[i] = true;
+                        this.writtenCount++;
+                        return this.tasks[i];
+                    }
+                }
+                try
+                {
+                    this.wait();
+                }
+                catch (InterruptedException ie)
+                {
+                    throw new InterruptedIOException("Interrupted while waiting for inventory printers");
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Stops handing out tasks and releases the output of finished tasks
+         * which have not been written. Tasks still running release their
+         * output when done.
+         */
+        synchronized void cancel()
+        {
+            this.cancelled = true;
+            for (int i = 0; i < this.tasks.length; i++)
+            {
+                if (this.finished[i] && !this.written[i])
+                {
+                    this.written[i] = true;
+                    this.tasks[i].dispose();
+                }
+            }
+        }
+    }
+
     private static class ConfigZipOutputStream extends ZipOutputStream
     {
 
@@ -172,6 +505,28 @@ public class ZipConfigurationWriter extends ConfigurationWriter
             this.json.key("title").value(handler.getTitle());
         }
 
+        void times(final long text, final long json)
+        {
+            // milliseconds spent in the printer per format
+            this.json.key("millis");
+            this.json.object();
+            if (text >= 0)
+            {
+                this.json.key("text").value(text);
+            }
+            if (json >= 0)
+            {
+                this.json.key("json").value(json);
+            }
+            this.json.endObject();
+        }
+
+        void failure(final Throwable t)
+        {
+            // the class name only, as strings are not escaped
+            this.json.key("failure").value(t.getClass().getName());
+        }
+
         void endHandler()
         {
             this.json.endObject();
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.inventory.impl.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.inventory.Format;
+import org.apache.felix.inventory.impl.InventoryPrinterHandler;
+
+public class ZipConfigurationWriterTest extends TestCase
+{
+
+    public void test_parallel_same_entries()
+    {
+        final InventoryPrinterHandler[] handlers = new InventoryPrinterHandler[]
+            { new Handler("slow", 200, 10), new Handler("large", 0, 100000), new Handler("small", 0, 1),
+                new Handler("text only", 0, 10) };
+
+        final Map sequential = read(write(handlers, 1));
+        final Map parallel = read(write(handlers, 3));
+
+        TestCase.assertEquals(sequential.keySet(), parallel.keySet());
+        TestCase.assertTrue(sequential.containsKey("000_slow.txt"));
+        TestCase.assertTrue(sequential.containsKey("json/001_large.json"));
+        TestCase.assertTrue(sequential.containsKey("001_large/attachment.txt"));
+        TestCase.assertFalse(sequential.containsKey("json/003_text_only.json"));
+
+        final Iterator names = sequential.keySet().iterator();
+        while (names.hasNext())
+        {
+            final String name = (String) names.next();
+            if (!name.equals("index.json"))
+            {
+                TestCase.assertEquals(name, sequential.get(name), parallel.get(name));
+            }
+        }
+
+        final String index = (String) parallel.get("index.json");
+        TestCase.assertTrue(index, index.indexOf("\"millis\":{\"text\":") > 0);
+        TestCase.assertTrue(index, index.indexOf("\"millis\":{\"text\":\"") < 0);
+    }
+
+    public void test_parallel_failing_handler()
+    {
+        final InventoryPrinterHandler[] handlers = new InventoryPrinterHandler[]
+            { new Handler("small", 0, 1), new Handler("failing", 0, 1), new Handler("slow", 100, 1) };
+
+        // must not wait for the failing handler forever
+        final Map parallel = read(write(handlers, 2));
+        TestCase.assertTrue(parallel.containsKey("000_small.txt"));
+        TestCase.assertTrue(parallel.containsKey("002_slow.txt"));
+        TestCase.assertFalse(parallel.containsKey("001_failing.txt"));
+
+        final String index = (String) parallel.get("index.json");
+        TestCase.assertTrue(index, index.indexOf("\"failure\":\"java.lang.IllegalStateException\"") > 0);
+    }
+
+    public void test_spool_spills()
+        throws IOException
+    {
+        final SpoolOutputStream spool = new SpoolOutputStream(4);
+        spool.write("0123".getBytes());
+        spool.write('4');
+        spool.write("56789".getBytes());
+        spool.close();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        spool.writeTo(out);
+        spool.dispose();
+        TestCase.assertEquals("0123456789", out.toString());
+    }
+
+    private byte[] write(final InventoryPrinterHandler[] handlers, final int threads)
+    {
+        try
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final ZipConfigurationWriter writer = ZipConfigurationWriter.create(out);
+            writer.printInventory(handlers, threads);
+            writer.finish();
+            return out.toByteArray();
+        }
+        catch (IOException ioe)
+        {
+            throw new RuntimeException(ioe.toString());
+        }
+    }
+
+    private Map read(final byte[] zip)
+    {
+        try
+        {
+            final Map entries = new HashMap();
+            final ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip));
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null)
+            {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buf = new byte[1024];
+                int rd;
+                while ((rd = in.read(buf)) >= 0)
+                {
+                    out.write(buf, 0, rd);
+                }
+                entries.put(entry.getName(), out.toString("UTF-8"));
+            }
+            return entries;
+        }
+        catch (IOException ioe)
+        {
+            throw new RuntimeException(ioe.toString());
+        }
+    }
+
+    private static class Handler implements InventoryPrinterHandler
+    {
+
+        private final String name;
+
+        private final long delay;
+
+        private final int lines;
+
+        Handler(final String name, final long delay, final int lines)
+        {
+            this.name = name;
+            this.delay = delay;
+            this.lines = lines;
+        }
+
+        public String getName()
+        {
+            return this.name;
+        }
+
+        public String getTitle()
+        {
+            return this.name;
+        }
+
+        public Format[] getFormats()
+        {
+            return this.name.startsWith("text") ? new Format[]
+                { Format.TEXT } : new Format[]
+                { Format.TEXT, Format.JSON };
+        }
+
+        public boolean supports(final Format format)
+        {
+            if (this.name.equals("failing"))
+            {
+                throw new IllegalStateException("not available");
+            }
+            return format == Format.TEXT || (format == Format.JSON && !this.name.startsWith("text"));
+        }
+
+        public void print(final PrintWriter printWriter, final Format format, final boolean isZip)
+        {
+            try
+            {
+                Thread.sleep(this.delay);
+            }
+            catch (InterruptedException ie)
+            {
+                // ignore
+            }
+            for (int i = 0; i < this.lines; i++)
+            {
+                printWriter.println(this.name + " " + format + " line " + i + " \u00e4");
+            }
+        }
+
+        public void addAttachments(final ZipOutputStream zos, final String namePrefix) throws IOException
+        {
+            if (this.name.equals("large"))
+            {
+                zos.putNextEntry(new ZipEntry(namePrefix + "attachment.txt"));
+                zos.write(this.name.getBytes());
+                zos.closeEntry();
+            }
+        }
+    }
+}
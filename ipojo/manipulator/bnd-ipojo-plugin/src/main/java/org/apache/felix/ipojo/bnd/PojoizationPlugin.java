@@ -135,6 +135,8 @@ public class PojoizationPlugin implements Plugin, AnalyzerPlugin {
         if (m_useLocalSchemas) {
             pojoization.setUseLocalXSD();
         }
+        // Bnd Jars are not safe for concurrent reads
+        pojoization.setThreads(1);
 
         pojoization.pojoization(store, cache, createVisitor(store, reporter), classLoader);
     }
@@ -20,14 +20,29 @@
 package org.apache.felix.ipojo.manipulator;
 
 import org.apache.felix.ipojo.manipulation.Manipulator;
+import org.apache.felix.ipojo.metadata.Element;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A {@code ManipulationEngine} is responsible to drive the component's
  * classes manipulation.
+ * <p/>
+ * Units are analyzed and manipulated concurrently on a pool of {@link #setThreads(int)} workers,
+ * the {@link ResourceStore} must support concurrent reads. The manipulation results are then
+ * given to the {@link ManipulationVisitor} from the calling thread, in the order the units were
+ * added, so the output does not depend on the scheduling.
  *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
@@ -57,6 +72,11 @@ public class ManipulationEngine {
      */
     private ManipulationVisitor m_manipulationVisitor;
 
+    /**
+     * Number of threads manipulating the units, {@literal 1} to manipulate them in the calling thread.
+     */
+    private int m_threads = Runtime.getRuntime().availableProcessors();
+
     public ManipulationEngine(ClassLoader classLoader) {
         m_classLoader = classLoader;
     }
@@ -89,6 +109,19 @@ public class ManipulationEngine {
         m_store = store;
     }
 
+    /**
+     * Sets the number of threads used to manipulate the classes.
+     * Defaults to the number of available processors.
+     * @param threads number of worker threads, a value lower than {@literal 1} selects the default
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            m_threads = Runtime.getRuntime().availableProcessors();
+        } else {
+            m_threads = threads;
+        }
+    }
+
     /**
      * Manipulates classes of all the given component's.
      */
@@ -97,89 +130,200 @@ public class ManipulationEngine {
         // Iterates over the list of discovered components
         // Note that this list includes components from metadata.xml AND from annotations
 
-        for (ManipulationUnit info : m_manipulationUnits) {
+        int threads = Math.min(m_threads, m_manipulationUnits.size());
+        if (threads <= 1) {
+            for (ManipulationUnit info : m_manipulationUnits) {
+                if (!visit(manipulate(info))) {
+                    return;
+                }
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ManipulatorThreadFactory());
+        try {
+            List<Future<ManipulatedUnit>> futures = new ArrayList<Future<ManipulatedUnit>>(m_manipulationUnits.size());
+            for (final ManipulationUnit info : m_manipulationUnits) {
+                futures.add(executor.submit(new Callable<ManipulatedUnit>() {
+                    public ManipulatedUnit call() throws Exception {
+                        return manipulate(info);
+                    }
+                }));
+            }
 
-            byte[] bytecode;
+            // Results are consumed in submission order, errors are reported
+            // exactly as a sequential manipulation would do
+            for (Future<ManipulatedUnit> future : futures) {
+                if (!visit(get(future))) {
+                    return;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ManipulatedUnit get(Future<ManipulatedUnit> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Manipulation interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Analyzes and manipulates the class of the given unit and its inner classes.
+     * This method does not report anything, so it can be called from any thread.
+     * @param info the unit to manipulate
+     * @return the manipulated bytecode, or the error that stopped the manipulation
+     */
+    private ManipulatedUnit manipulate(ManipulationUnit info) {
+        ManipulatedUnit unit = new ManipulatedUnit(info);
+
+        byte[] bytecode;
+        try {
+            bytecode = m_store.read(info.getResourcePath());
+        } catch (IOException e) {
+            return unit.failed("Cannot find bytecode for class '" + info.getClassName() + "': no bytecode found.");
+        }
+
+        // Manipulation preparation
+        Manipulator manipulator = new Manipulator(m_classLoader);
+        try {
+            manipulator.prepare(bytecode);
+        } catch (IOException e) {
+            return unit.failed("Cannot analyze the class " + info.getClassName() + " : " + e.getMessage());
+        }
+
+        // Inner class preparation
+        // The bytecode is kept, so inner classes are read only once
+        Map<String, byte[]> inners = new LinkedHashMap<String, byte[]>();
+        for (String inner : manipulator.getInnerClasses()) {
+            // Get the bytecode and start manipulation
+            String resourcePath = inner + ".class";
+            byte[] innerClassBytecode;
             try {
-                bytecode = m_store.read(info.getResourcePath());
+                innerClassBytecode = m_store.read(resourcePath);
+                manipulator.prepareInnerClass(inner, innerClassBytecode);
             } catch (IOException e) {
-                m_reporter.error("Cannot find bytecode for class '" + info.getClassName() + "': no bytecode found.");
-                return;
+                return unit.failed("Cannot find or analyze inner class '" + resourcePath + "'");
             }
+            inners.put(inner, innerClassBytecode);
+        }
 
-            // Is the visitor interested in this component ?
-            ManipulationResultVisitor result = m_manipulationVisitor.visitManipulationResult(info.getComponentMetadata());
-
-            if (result != null) {
-                // Should always be the case
+        // Now manipulate the classes.
+        try {
+            unit.m_resources.put(info.getResourcePath(), manipulator.manipulate(bytecode));
+        } catch (IOException e) {
+            return unit.failed("Cannot manipulate the class " + info.getClassName() + " : " + e.getMessage());
+        }
 
-                // Manipulation preparation
-                Manipulator manipulator = new Manipulator(m_classLoader);
-                try {
-                    manipulator.prepare(bytecode);
-                } catch (IOException e) {
-                    m_reporter.error("Cannot analyze the class " + info.getClassName() + " : " + e.getMessage());
-                    return;
-                }
+        // Manipulate inner classes
+        for (Map.Entry<String, byte[]> inner : inners.entrySet()) {
+            String resourcePath = inner.getKey() + ".class";
 
-                // Inner class preparation
-                for (String inner : manipulator.getInnerClasses()) {
-                    // Get the bytecode and start manipulation
-                    String resourcePath = inner + ".class";
-                    String outerClassInternalName = info.getClassName().replace('.', '/');
-                    byte[] innerClassBytecode;
-                    try {
-                        innerClassBytecode = m_store.read(resourcePath);
-                        manipulator.prepareInnerClass(inner, innerClassBytecode);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot find or analyze inner class '" + resourcePath + "'");
-                        return;
-                    }
-                }
+            // Notice that (for performance reason) re-use the class version information
+            // discovered in the main class instead of re-parsing the inner class to find
+            // its own class version
+            try {
+                byte[] manipulated = manipulator.manipulateInnerClass(inner.getKey(), inner.getValue());
+                unit.m_resources.put(resourcePath, manipulated);
+            } catch (IOException e) {
+                return unit.failed("Cannot manipulate inner class '" + resourcePath + "'");
+            }
+        }
 
-                // Now manipulate the classes.
-                try {
-                    byte[] out = manipulator.manipulate(bytecode);
-                    // Call the visitor
-                    result.visitManipulatedResource(info.getResourcePath(), out);
-                } catch (IOException e) {
-                    m_reporter.error("Cannot manipulate the class " + info.getClassName() + " : " + e.getMessage());
-                    return;
-                }
+        // Compute manipulation metadata
+        unit.m_structure = manipulator.getManipulationMetadata();
+        return unit;
+    }
 
-                // Visit inner classes
-                for (String inner : manipulator.getInnerClasses()) {
-                    // Get the bytecode and start manipulation
-                    String resourcePath = inner + ".class";
-                    String outerClassInternalName = info.getClassName().replace('.', '/');
-                    byte[] innerClassBytecode;
-                    try {
-                        innerClassBytecode = m_store.read(resourcePath);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot find inner class '" + resourcePath + "'");
-                        return;
-                    }
+    /**
+     * Gives the manipulation result of a unit to the visitor.
+     * @param unit the manipulated unit
+     * @return {@literal false} if the manipulation failed and no other unit should be visited
+     */
+    private boolean visit(ManipulatedUnit unit) {
+        if (unit.m_error != null) {
+            m_reporter.error(unit.m_error);
+            return false;
+        }
 
-                    // Manipulate inner class
-                    // Notice that (for performance reason) re-use the class version information
-                    // discovered in the main class instead of re-parsing the inner class to find
-                    // its own class version
-                    try {
-                        byte[] manipulated = manipulator.manipulateInnerClass(inner, innerClassBytecode);
-                        // Propagate manipulated resource
-                        result.visitManipulatedResource(resourcePath, manipulated);
-                    } catch (IOException e) {
-                        m_reporter.error("Cannot manipulate inner class '" + resourcePath + "'");
-                        return;
-                    }
-                }
+        // Is the visitor interested in this component ?
+        ManipulationResultVisitor result = m_manipulationVisitor.visitManipulationResult(unit.m_info.getComponentMetadata());
 
-                // Compute manipulation metadata
-                result.visitClassStructure(manipulator.getManipulationMetadata());
+        if (result != null) {
+            // Should always be the case
 
-                // All resources have been manipulated for this component
-                result.visitEnd();
+            // Propagate manipulated resources (main class first, then inner classes)
+            for (Map.Entry<String, byte[]> resource : unit.m_resources.entrySet()) {
+                result.visitManipulatedResource(resource.getKey(), resource.getValue());
             }
+
+            result.visitClassStructure(unit.m_structure);
+
+            // All resources have been manipulated for this component
+            result.visitEnd();
+        }
+        return true;
+    }
+
+    /**
+     * Outcome of the manipulation of a single unit.
+     */
+    private static class ManipulatedUnit {
+
+        /**
+         * The manipulated unit.
+         */
+        private final ManipulationUnit m_info;
+
+        /**
+         * Manipulated resources, in visit order.
+         */
+        private final Map<String, byte[]> m_resources = new LinkedHashMap<String, byte[]>();
+
+        /**
+         * Manipulation metadata.
+         */
+        private Element m_structure;
+
+        /**
+         * Error stopping the manipulation, {@literal null} on success.
+         */
+        private String m_error;
+
+        ManipulatedUnit(ManipulationUnit info) {
+            m_info = info;
+        }
+
+        ManipulatedUnit failed(String error) {
+            m_error = error;
+            return this;
+        }
+    }
+
+    /**
+     * Creates daemon manipulation threads, so a failing build never hangs on the pool.
+     */
+    private static class ManipulatorThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger m_count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "iPOJO Manipulator " + m_count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 }
@@ -63,6 +63,12 @@ public class Pojoization {
      */
     private boolean m_useLocalXSD = false;
 
+    /**
+     * Number of threads manipulating the classes.
+     * {@literal 0} (default) uses one thread per available processor.
+     */
+    private int m_threads;
+
     /**
      * Reporter for error reporting.
      */
@@ -103,6 +109,16 @@ public class Pojoization {
         m_useLocalXSD = true;
     }
 
+    /**
+     * Sets the number of threads used to manipulate the classes.
+     * The output does not depend on this value.
+     *
+     * @param threads number of threads, {@literal 0} to use one thread per available processor.
+     */
+    public void setThreads(int threads) {
+        m_threads = threads;
+    }
+
     /**
      * @return all the errors (fatal) reported by the manipulation process.
      */
@@ -345,6 +361,7 @@ public class Pojoization {
         engine.setResourceStore(store);
         engine.setReporter(m_reporter);
         engine.setManipulationVisitor(visitor);
+        engine.setThreads(m_threads);
 
         try {
 
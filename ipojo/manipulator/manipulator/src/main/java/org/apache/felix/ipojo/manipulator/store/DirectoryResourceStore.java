@@ -38,6 +38,8 @@ import org.apache.felix.ipojo.metadata.Element;
 /**
  * A {@link DirectoryResourceStore} knows how to read and write
  * resources from (to respectively) a File directory.
+ * <p/>
+ * Resources can be read and written concurrently.
  *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
@@ -140,7 +142,7 @@ public class DirectoryResourceStore implements ResourceStore {
 
     }
 
-    public void writeMetadata(Element metadata) {
+    public synchronized void writeMetadata(Element metadata) {
         m_manifestBuilder.addMetada(Collections.singletonList(metadata));
         m_manifestBuilder.addReferredPackage(Metadatas.findReferredPackages(metadata));
     }
@@ -151,8 +153,10 @@ public class DirectoryResourceStore implements ResourceStore {
         File resource = new File(m_target, m_mapper.internalize(resourcePath));
 
         // Create intermediate directories if needed
-        if (!resource.getParentFile().exists()) {
-            resource.getParentFile().mkdirs();
+        // mkdirs() may fail when another thread is creating the same directories, so check again
+        File parent = resource.getParentFile();
+        if (!parent.exists() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Cannot create directory '" + parent + "'");
         }
 
         FileOutputStream fos = new FileOutputStream(resource);
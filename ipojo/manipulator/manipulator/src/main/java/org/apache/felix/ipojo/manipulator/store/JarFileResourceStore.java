@@ -31,7 +31,7 @@ import java.net.URL;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
@@ -41,6 +41,9 @@ import java.util.zip.ZipEntry;
 /**
  * A {@link JarFileResourceStore} knows how to read and write
  * resources from (to respectively) a Jar File.
+ * <p/>
+ * Resources can be read and written concurrently, written resources are
+ * kept sorted so the resulting Jar File does not depend on the write order.
  *
  * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
  */
@@ -59,7 +62,7 @@ public class JarFileResourceStore implements ResourceStore {
     /**
      * Modified resources.
      */
-    private Map<String, byte[]> m_content;
+    private final Map<String, byte[]> m_content;
 
     /**
      * Resource Mapper.
@@ -97,7 +100,7 @@ public class JarFileResourceStore implements ResourceStore {
         } else {
             m_manifest = new Manifest();
         }
-        m_content = new TreeMap<String, byte[]>();
+        m_content = new ConcurrentSkipListMap<String, byte[]>();
     }
 
     public void setResourceMapper(ResourceMapper mapper) {
@@ -171,7 +174,7 @@ public class JarFileResourceStore implements ResourceStore {
         // Nothing to do
     }
 
-    public void writeMetadata(Element metadata) {
+    public synchronized void writeMetadata(Element metadata) {
         m_manifestBuilder.addMetada(Collections.singletonList(metadata));
         m_manifestBuilder.addReferredPackage(Metadatas.findReferredPackages(metadata));
     }
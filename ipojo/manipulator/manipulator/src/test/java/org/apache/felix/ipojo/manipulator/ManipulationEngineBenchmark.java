@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.manipulator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.apache.felix.ipojo.manipulator.render.MetadataRenderer;
+import org.apache.felix.ipojo.manipulator.reporter.SystemReporter;
+import org.apache.felix.ipojo.manipulator.store.JarFileResourceStore;
+import org.apache.felix.ipojo.manipulator.store.builder.DefaultManifestBuilder;
+import org.apache.felix.ipojo.manipulator.util.Streams;
+import org.apache.felix.ipojo.manipulator.visitor.writer.ManipulatedResourcesWriter;
+import org.apache.felix.ipojo.metadata.Attribute;
+import org.apache.felix.ipojo.metadata.Element;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Measures the manipulation of a synthetic bundle with the sequential and the parallel engine,
+ * and checks that both produce the same bundle.
+ * This is not a unit test (it is not run by the build), launch it with:
+ * <pre>
+ * java -cp ... org.apache.felix.ipojo.manipulator.ManipulationEngineBenchmark [classes] [threads]
+ * </pre>
+ */
+public class ManipulationEngineBenchmark implements Opcodes {
+
+    private static final int FIELDS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int classes = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        File in = File.createTempFile("ipojo-benchmark", ".jar");
+        File sequential = File.createTempFile("ipojo-benchmark-1", ".jar");
+        File parallel = File.createTempFile("ipojo-benchmark-" + threads, ".jar");
+        try {
+            createBundle(in, classes);
+
+            // Warm up
+            manipulate(in, sequential, classes, threads);
+
+            long t0 = System.nanoTime();
+            manipulate(in, sequential, classes, 1);
+            long t1 = System.nanoTime();
+            manipulate(in, parallel, classes, threads);
+            long t2 = System.nanoTime();
+
+            System.out.println("Manipulated " + classes + " classes: "
+                    + (t1 - t0) / 1000000 + " ms with 1 thread, "
+                    + (t2 - t1) / 1000000 + " ms with " + threads + " threads");
+            if (!sameContent(sequential, parallel)) {
+                throw new IllegalStateException("Parallel manipulation produced a different bundle");
+            }
+        } finally {
+            in.delete();
+            sequential.delete();
+            parallel.delete();
+        }
+    }
+
+    private static void manipulate(File in, File out, int classes, int threads) throws IOException {
+        JarFileResourceStore store = new JarFileResourceStore(new JarFile(in), out);
+        DefaultManifestBuilder builder = new DefaultManifestBuilder();
+        builder.setMetadataRenderer(new MetadataRenderer());
+        store.setManifestBuilder(builder);
+
+        SystemReporter reporter = new SystemReporter();
+        ManipulatedResourcesWriter writer = new ManipulatedResourcesWriter();
+        writer.setReporter(reporter);
+        writer.setResourceStore(store);
+
+        ManipulationEngine engine = new ManipulationEngine(ManipulationEngineBenchmark.class.getClassLoader());
+        engine.setResourceStore(store);
+        engine.setReporter(reporter);
+        engine.setManipulationVisitor(writer);
+        engine.setThreads(threads);
+        for (int i = 0; i < classes; i++) {
+            Element component = new Element("component", "");
+            component.addAttribute(new Attribute("classname", getClassName(i).replace('/', '.')));
+            engine.addManipulationUnit(new ManipulationUnit(getClassName(i) + ".class", component));
+        }
+        engine.generate();
+        writer.visitEnd();
+
+        if (!reporter.getErrors().isEmpty()) {
+            throw new IllegalStateException(reporter.getErrors().toString());
+        }
+    }
+
+    private static String getClassName(int index) {
+        return "bench/p" + (index % 50) + "/Component" + index;
+    }
+
+    private static void createBundle(File file, int classes) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue("Bundle-SymbolicName", "bench");
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(file), manifest);
+        try {
+            for (int i = 0; i < classes; i++) {
+                jos.putNextEntry(new JarEntry(getClassName(i) + ".class"));
+                jos.write(createClass(getClassName(i)));
+                jos.closeEntry();
+            }
+        } finally {
+            jos.close();
+        }
+    }
+
+    /**
+     * Generates a class with a few fields, a constructor and accessors, similar to a simple component.
+     */
+    private static byte[] createClass(String name) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_6, ACC_PUBLIC + ACC_SUPER, name, null, "java/lang/Object", null);
+        for (int i = 0; i < FIELDS; i++) {
+            cw.visitField(ACC_PRIVATE, "m_field" + i, "Ljava/lang/String;", null, null).visitEnd();
+        }
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        for (int i = 0; i < FIELDS; i++) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitLdcInsn("value" + i);
+            mv.visitFieldInsn(PUTFIELD, name, "m_field" + i, "Ljava/lang/String;");
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (int i = 0; i < FIELDS; i++) {
+            mv = cw.visitMethod(ACC_PUBLIC, "getField" + i, "()Ljava/lang/String;", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, name, "m_field" + i, "Ljava/lang/String;");
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+
+            mv = cw.visitMethod(ACC_PUBLIC, "setField" + i, "(Ljava/lang/String;)V", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitFieldInsn(PUTFIELD, name, "m_field" + i, "Ljava/lang/String;");
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static boolean sameContent(File first, File second) throws IOException {
+        JarFile a = new JarFile(first);
+        JarFile b = new JarFile(second);
+        try {
+            // The manifest (read as any other entry, it is larger than what JarFile accepts)
+            // must be identical too
+            List<JarEntry> entries = Collections.list(a.entries());
+            List<JarEntry> others = Collections.list(b.entries());
+            if (entries.size() != others.size()) {
+                return false;
+            }
+            for (int i = 0; i < entries.size(); i++) {
+                JarEntry entry = entries.get(i);
+                if (!entry.getName().equals(others.get(i).getName())) {
+                    return false;
+                }
+                byte[] content = Streams.readBytes(a.getInputStream(entry));
+                if (!Arrays.equals(content, Streams.readBytes(b.getInputStream(others.get(i))))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+}
@@ -21,10 +21,16 @@ package org.apache.felix.ipojo.manipulator;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.TestCase;
 import org.apache.felix.ipojo.manipulator.util.Streams;
 import org.apache.felix.ipojo.manipulator.util.Strings;
+import org.apache.felix.ipojo.manipulator.visitor.ManipulationAdapter;
+import org.apache.felix.ipojo.manipulator.visitor.ManipulationResultAdapter;
+import org.apache.felix.ipojo.metadata.Attribute;
 import org.apache.felix.ipojo.metadata.Element;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -105,9 +111,89 @@ public class ManipulationEngineTestCase extends TestCase {
 
     }
 
+    public void testParallelManipulationKeepsUnitsOrder() throws Exception {
+        List<String> sequential = manipulate(1);
+        List<String> parallel = manipulate(4);
+
+        // ClusterDaemon: class + structure, PojoWithInner: class + inner class + structure
+        assertEquals(10 * 2 + 10 * 3, sequential.size());
+        assertEquals(sequential, parallel);
+    }
+
+    /**
+     * Manipulates a list of units and records the visited results.
+     */
+    private List<String> manipulate(int threads) {
+        final List<String> visited = new ArrayList<String>();
+        ManipulationVisitor recorder = new ManipulationAdapter(null) {
+            @Override
+            public ManipulationResultVisitor visitManipulationResult(final Element metadata) {
+                final String id = metadata.getAttribute("id");
+                return new ManipulationResultAdapter(null) {
+                    @Override
+                    public void visitClassStructure(Element structure) {
+                        visited.add(id + " structure");
+                    }
+
+                    @Override
+                    public void visitManipulatedResource(String type, byte[] resource) {
+                        visited.add(id + " " + type + " " + Arrays.hashCode(resource));
+                    }
+
+                    @Override
+                    public void visitEnd() {
+                    }
+                };
+            }
+        };
+
+        ManipulationEngine engine = new ManipulationEngine(this.getClass().getClassLoader());
+        engine.setReporter(reporter);
+        engine.setResourceStore(new ClassLoaderResourceStore());
+        engine.setManipulationVisitor(recorder);
+        engine.setThreads(threads);
+        for (int i = 0; i < 20; i++) {
+            Class<?> type = (i % 2 == 0) ? ClusterDaemon.class : PojoWithInner.class;
+            Element metadata = new Element("component", "");
+            metadata.addAttribute(new Attribute("id", String.valueOf(i)));
+            engine.addManipulationUnit(new ManipulationUnit(Strings.asResourcePath(type.getName()), metadata));
+        }
+        engine.generate();
+        return visited;
+    }
+
     private byte[] from(Class<?> type) throws IOException {
         ClassLoader loader = type.getClassLoader();
         InputStream is = loader.getResourceAsStream(Strings.asResourcePath(type.getName()));
         return Streams.readBytes(is);
     }
+
+    /**
+     * Read-only store loading the bytecode from the test classloader.
+     */
+    private static class ClassLoaderResourceStore implements ResourceStore {
+
+        public byte[] read(String path) throws IOException {
+            InputStream is = getClass().getClassLoader().getResourceAsStream(path);
+            if (is == null) {
+                throw new IOException("Class not found " + path);
+            }
+            return Streams.readBytes(is);
+        }
+
+        public void accept(ResourceVisitor visitor) {
+        }
+
+        public void open() throws IOException {
+        }
+
+        public void writeMetadata(Element metadata) {
+        }
+
+        public void write(String resourcePath, byte[] resource) throws IOException {
+        }
+
+        public void close() throws IOException {
+        }
+    }
 }
@@ -124,6 +124,13 @@ public class ManipulatorMojo extends AbstractMojo {
      */
     private boolean m_ignoreEmbeddedXSD;
 
+    /**
+     * Number of threads manipulating the classes, 0 to use one thread per available processor.
+     *
+     * @parameter alias="threads" expression="${ipojo.threads}" default-value="0"
+     */
+    private int m_threads;
+
     private boolean isXML() {
         return m_metadata != null && (m_metadata.indexOf('<') > -1);
     }
@@ -258,6 +265,7 @@ public class ManipulatorMojo extends AbstractMojo {
         if (!m_ignoreEmbeddedXSD) {
             pojo.setUseLocalXSD();
         }
+        pojo.setThreads(m_threads);
 
         // Executes the pojoization.
         if (is == null) {
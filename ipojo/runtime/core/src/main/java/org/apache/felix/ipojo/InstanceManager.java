@@ -29,6 +29,7 @@ import org.osgi.framework.BundleContext;
 
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class defines the container of primitive instances. It manages content initialization
@@ -138,11 +139,19 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
     private List m_stateQueue = new ArrayList();
 
     /**
-     * The map of [field, value], storing POJO managed
-     * field value.
+     * The map of [field, value], storing the value of
+     * fields set without being monitored by any interceptor.
+     * Monitored fields are stored in {@link #m_slots}.
      */
     private Map m_fields = new HashMap();
 
+    /**
+     * The slots of the fields monitored by interceptors.
+     * The slots are immutable, registering a field publishes new ones,
+     * so readers don't need to hold the instance lock.
+     */
+    private volatile FieldSlots m_slots = new FieldSlots();
+
     /**
      * The Map storing the Method objects by ids.
      * [id=>{@link Method}].
@@ -366,9 +375,13 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      * @return the field value, <code>null</code> is returned if the value is managed and not already set.
      */
     public synchronized Object getFieldValue(String fieldName, Object pojo) {
-        Object setByContainer = null;
+        Object setByContainer;
 
-        if (m_fields != null) {
+        FieldSlots slots = m_slots;
+        int slot = slots.getSlot(fieldName);
+        if (slot != -1) {
+            setByContainer = slots.m_values[slot].get();
+        } else {
             setByContainer = m_fields.get(fieldName);
         }
 
@@ -1079,6 +1092,40 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
                 m_fieldRegistration.put(field.getFieldName(), newList);
             }
         }
+        registerSlot(field.getFieldName());
+    }
+
+    /**
+     * Assigns a slot to the given monitored field, or updates the interceptor
+     * list of its slot if it already has one.
+     * Registrations happen during the configuration, so the slots are
+     * just copied and published again.
+     *
+     * @param fieldName the monitored field
+     */
+    private synchronized void registerSlot(String fieldName) {
+        FieldInterceptor[] list = (FieldInterceptor[]) m_fieldRegistration.get(fieldName);
+        FieldSlots slots = m_slots;
+        int slot = slots.getSlot(fieldName);
+        if (slot != -1) {
+            m_slots = slots.withInterceptors(slot, list);
+        } else {
+            // The field may have been set before being monitored.
+            m_slots = slots.withField(fieldName, list, m_fields.remove(fieldName));
+        }
+    }
+
+    /**
+     * Gets the slot of a field monitored by interceptors.
+     * The slot can be given to {@link #onGet(Object, int)} and
+     * {@link #onSet(Object, int, Object)} to access the field value
+     * without looking up the field by name.
+     *
+     * @param fieldName the field name
+     * @return the slot of the field, <code>-1</code> if the field is not monitored.
+     */
+    public int getFieldSlot(String fieldName) {
+        return m_slots.getSlot(fieldName);
     }
 
     /**
@@ -1180,16 +1227,42 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      * @return the value decided by the last asked handler (throws a warning if two fields decide two different values)
      */
     public Object onGet(Object pojo, String fieldName) {
-        Object initialValue = null;
-        synchronized (this) { // Stack confinement.
-            initialValue = m_fields.get(fieldName);
+        FieldSlots slots = m_slots;
+        int slot = slots.getSlot(fieldName);
+        if (slot == -1) {
+            synchronized (this) {
+                // The field may have got a slot in the meantime.
+                slots = m_slots;
+                slot = slots.getSlot(fieldName);
+                if (slot == -1) {
+                    // Not monitored, no interceptor to ask.
+                    return m_fields.get(fieldName);
+                }
+            }
         }
+        return onGet(pojo, slots, slot);
+    }
+
+    /**
+     * Same as {@link #onGet(Object, String)} but for a field identified by its slot.
+     * This method doesn't lock the instance.
+     *
+     * @param pojo the pojo object on which the field was get
+     * @param slot the slot of the field, as returned by {@link #getFieldSlot(String)}
+     * @return the value decided by the last asked handler (throws a warning if two fields decide two different values)
+     */
+    public Object onGet(Object pojo, int slot) {
+        return onGet(pojo, m_slots, slot);
+    }
+
+    private Object onGet(Object pojo, FieldSlots slots, int slot) {
+        String fieldName = slots.m_names[slot];
+        Object initialValue = slots.m_values[slot].get();
         Object result = initialValue;
         boolean hasChanged = false;
         // Get the list of registered handlers
-        FieldInterceptor[] list = (FieldInterceptor[]) m_fieldRegistration.get(fieldName); // Immutable list.
+        FieldInterceptor[] list = slots.m_interceptors[slot]; // Immutable list.
         for (int i = 0; list != null && i < list.length; i++) {
-            // Call onGet outside of a synchronized block.
             Object handlerResult = list[i].onGet(pojo, fieldName, initialValue);
             if (handlerResult == initialValue) {
                 continue; // Non-binding case (default implementation).
@@ -1211,10 +1284,7 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
         if (hasChanged) {
             // A change occurs => notify the change
             //TODO consider just changing the reference, however multiple thread can be an issue
-            synchronized (this) {
-                m_fields.put(fieldName, result);
-            }
-            // Call onset outside of a synchronized block.
+            slots.m_values[slot].set(result);
             for (int i = 0; list != null && i < list.length; i++) {
                 list[i].onSet(pojo, fieldName, result);
             }
@@ -1388,18 +1458,43 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
      * @param objectValue the new value of the field
      */
     public void onSet(final Object pojo, final String fieldName, final Object objectValue) {
-        synchronized (this) {
-            // First, store the new value.
-            // This must be done in a synchronized block to avoid
-            // concurrent modification
-            m_fields.put(fieldName, objectValue);
+        FieldSlots slots = m_slots;
+        int slot = slots.getSlot(fieldName);
+        if (slot == -1) {
+            synchronized (this) {
+                // The field may have got a slot in the meantime, its value
+                // would not be taken from the map anymore.
+                slots = m_slots;
+                slot = slots.getSlot(fieldName);
+                if (slot == -1) {
+                    // Not monitored, just store the new value.
+                    m_fields.put(fieldName, objectValue);
+                    return;
+                }
+            }
         }
+        onSet(pojo, slots, slot, objectValue);
+    }
+
+    /**
+     * Same as {@link #onSet(Object, String, Object)} but for a field identified by its slot.
+     * This method doesn't lock the instance.
+     *
+     * @param pojo        the pojo object on which the field was set
+     * @param slot        the slot of the field, as returned by {@link #getFieldSlot(String)}
+     * @param objectValue the new value of the field
+     */
+    public void onSet(final Object pojo, final int slot, final Object objectValue) {
+        onSet(pojo, m_slots, slot, objectValue);
+    }
+
+    private void onSet(final Object pojo, final FieldSlots slots, final int slot, final Object objectValue) {
+        slots.m_values[slot].set(objectValue);
         // The registrations cannot be modified, so we can directly access
         // the interceptor list.
-        FieldInterceptor[] list = (FieldInterceptor[]) m_fieldRegistration
-                .get(fieldName);
+        FieldInterceptor[] list = slots.m_interceptors[slot];
+        String fieldName = slots.m_names[slot];
         for (int i = 0; list != null && i < list.length; i++) {
-            // The callback must be call outside the synchronization block.
             list[i].onSet(pojo, fieldName, objectValue);
         }
     }
@@ -1575,4 +1670,67 @@ public class InstanceManager implements ComponentInstance, InstanceStateListener
     public BundleContext getInstanceContext() {
         return m_instanceContext;
     }
+
+    /**
+     * The slots of the fields monitored by interceptors: the map
+     * [field, slot] and the field names, interceptor lists and values
+     * indexed by slot. Instances are never modified once published.
+     * Each value is held by its own reference, shared by all the slots
+     * created from one another, so a value set through slots that were
+     * just replaced is not lost.
+     */
+    private static final class FieldSlots {
+        /**
+         * The map [field, slot].
+         */
+        private final Map m_slots;
+        private final String[] m_names;
+        private final FieldInterceptor[][] m_interceptors;
+        private final AtomicReference[] m_values;
+
+        FieldSlots() {
+            this(new HashMap(), new String[0], new FieldInterceptor[0][], new AtomicReference[0]);
+        }
+
+        private FieldSlots(Map slots, String[] names, FieldInterceptor[][] interceptors, AtomicReference[] values) {
+            m_slots = slots;
+            m_names = names;
+            m_interceptors = interceptors;
+            m_values = values;
+        }
+
+        int getSlot(String fieldName) {
+            Integer slot = (Integer) m_slots.get(fieldName);
+            return slot == null ? -1 : slot.intValue();
+        }
+
+        /**
+         * Creates the slots with a new interceptor list for the given slot.
+         * The values are shared.
+         */
+        FieldSlots withInterceptors(int slot, FieldInterceptor[] list) {
+            FieldInterceptor[][] interceptors = (FieldInterceptor[][]) m_interceptors.clone();
+            interceptors[slot] = list;
+            return new FieldSlots(m_slots, m_names, interceptors, m_values);
+        }
+
+        /**
+         * Creates the slots with an additional slot for the given field.
+         */
+        FieldSlots withField(String fieldName, FieldInterceptor[] list, Object value) {
+            int size = m_names.length;
+            String[] names = new String[size + 1];
+            System.arraycopy(m_names, 0, names, 0, size);
+            names[size] = fieldName;
+            FieldInterceptor[][] interceptors = new FieldInterceptor[size + 1][];
+            System.arraycopy(m_interceptors, 0, interceptors, 0, size);
+            interceptors[size] = list;
+            AtomicReference[] values = new AtomicReference[size + 1];
+            System.arraycopy(m_values, 0, values, 0, size);
+            values[size] = new AtomicReference(value);
+            Map slots = new HashMap(m_slots);
+            slots.put(fieldName, new Integer(size));
+            return new FieldSlots(slots, names, interceptors, values);
+        }
+    }
 }
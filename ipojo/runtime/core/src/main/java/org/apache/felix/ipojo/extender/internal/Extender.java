@@ -30,6 +30,7 @@ import org.apache.felix.ipojo.extender.internal.queue.ExecutorQueueService;
 import org.apache.felix.ipojo.extender.internal.queue.GroupThreadFactory;
 import org.apache.felix.ipojo.extender.internal.queue.NamingThreadFactory;
 import org.apache.felix.ipojo.extender.internal.queue.PrefixedThreadFactory;
+import org.apache.felix.ipojo.extender.internal.queue.Statistic;
 import org.apache.felix.ipojo.extender.internal.queue.SynchronousQueueService;
 import org.apache.felix.ipojo.extender.internal.queue.debug.ReplayQueueEventProxy;
 import org.apache.felix.ipojo.extender.internal.queue.pref.HeaderPreferenceSelection;
@@ -102,6 +103,11 @@ public class Extender implements BundleActivator {
 
     private LifecycleQueueService m_queueService;
 
+    /**
+     * Cache of the component metadata parsed from the bundle headers.
+     */
+    private ComponentsMetadataCache m_metadataCache;
+
     /**
      * Track ACTIVE bundles.
      */
@@ -146,13 +152,18 @@ public class Extender implements BundleActivator {
             context.registerService(QueueEventProxy.class, proxy, null);
         }
 
+        // The synchronous queue is used in both modes, its statistics also count the metadata cache hits
+        SynchronousQueueService sync = new SynchronousQueueService(context);
+
         BundleProcessor extensionBundleProcessor = new ExtensionBundleProcessor(m_logger);
-        BundleProcessor componentsProcessor = new ComponentsBundleProcessor(m_logger);
+        m_metadataCache = new ComponentsMetadataCache(context, m_logger, sync.getStatistic());
+        m_metadataCache.start();
+        BundleProcessor componentsProcessor = new ComponentsBundleProcessor(m_logger, m_metadataCache);
         BundleProcessor configurationProcessor = new ConfigurationProcessor(m_logger);
         if (SYNCHRONOUS_PROCESSING_ENABLED) {
             m_queueService = new EnforcedQueueService(
                     new HeaderPreferenceSelection(),
-                    new SynchronousQueueService(context),
+                    sync,
                     Preference.SYNC,
                     m_logger);
 
@@ -166,8 +177,7 @@ public class Extender implements BundleActivator {
             threadFactory = new NamingThreadFactory(threadFactory);
             threadFactory = new PrefixedThreadFactory(threadFactory, "[iPOJO] ");
 
-            // Create the queue services
-            SynchronousQueueService sync = new SynchronousQueueService(context);
+            // Create the asynchronous queue service
             ExecutorQueueService async = new ExecutorQueueService(context,
                                                                   Integer.getInteger(ExecutorQueueService.THREADPOOL_SIZE_PROPERTY,
                                                                                      1), // default to 1 if no system property is set
@@ -249,6 +259,10 @@ public class Extender implements BundleActivator {
         m_linker.stop();
         m_queueService.stop();
 
+        Statistic statistic = m_metadataCache.getStatistic();
+        m_logger.log(Logger.INFO, "Component metadata cache: " + statistic.getCacheHitCounter().get() + " hit(s), "
+                + statistic.getCacheMissCounter().get() + " miss(es)");
+
         m_logger.log(Logger.INFO, "iPOJO Main Extender stopped");
         m_context = null;
     }
@@ -66,13 +66,29 @@ public class ComponentsBundleProcessor implements BundleProcessor {
      */
     private final Map<Bundle, ComponentsAndInstances> m_registry = new HashMap<Bundle, ComponentsAndInstances>();
 
+    /**
+     * The cache of parsed metadata, {@literal null} if disabled.
+     */
+    private final ComponentsMetadataCache m_cache;
+
     /**
      * Creates the component bundle processor.
      *
      * @param logger the logger.
      */
     public ComponentsBundleProcessor(Log logger) {
+        this(logger, null);
+    }
+
+    /**
+     * Creates the component bundle processor using a metadata cache.
+     *
+     * @param logger the logger.
+     * @param cache  the cache of parsed metadata, {@literal null} to always parse the header.
+     */
+    public ComponentsBundleProcessor(Log logger, ComponentsMetadataCache cache) {
         m_logger = logger;
+        m_cache = cache;
     }
 
     /**
@@ -133,6 +149,8 @@ public class ComponentsBundleProcessor implements BundleProcessor {
      * Parses the internal metadata (from the manifest
      * (in the iPOJO-Components property)). This methods
      * creates factories and add instances to the instance creator.
+     * The header is only parsed if the metadata cache holds no valid entry
+     * for the bundle.
      *
      * @param bundle     the owner bundle.
      * @param components The iPOJO Header String.
@@ -141,7 +159,19 @@ public class ComponentsBundleProcessor implements BundleProcessor {
      */
     private void parse(Bundle bundle, String components) throws IOException, ParseException {
         ManifestMetadataParser parser = new ManifestMetadataParser();
-        parser.parseHeader(components);
+        Element root = null;
+        if (m_cache != null) {
+            root = m_cache.get(bundle, components);
+        }
+        if (root == null) {
+            parser.parseHeader(components);
+            if (m_cache != null) {
+                // Store before the declarations get a chance to modify the tree
+                m_cache.put(bundle, components, parser.getMetadata());
+            }
+        } else {
+            parser.setMetadata(root);
+        }
 
         // Get the component type declaration
         Element[] metadata = parser.getComponentsMetadata();
@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.extender.internal.processor;
+
+import org.apache.felix.ipojo.extender.internal.queue.Statistic;
+import org.apache.felix.ipojo.metadata.Attribute;
+import org.apache.felix.ipojo.metadata.Element;
+import org.apache.felix.ipojo.util.Log;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Persistent cache of the component metadata parsed from the {@code iPOJO-Components} header.
+ * <p/>
+ * Each bundle gets a binary file in the iPOJO bundle data area holding the {@link Element} tree
+ * parsed from its header. An entry is only used if the bundle id, the bundle last modification
+ * date and the header (length and hash) match, otherwise it is discarded and the header is
+ * parsed again. Hits and misses are counted in the given {@link Statistic}.
+ * <p/>
+ * Entries are independent files, so bundles can be looked up concurrently.
+ */
+public class ComponentsMetadataCache {
+
+    /**
+     * Name of the cache directory in the iPOJO bundle data area.
+     */
+    public static final String CACHE_DIRECTORY = "metadata-cache";
+
+    /**
+     * File marker ('iPJC').
+     */
+    private static final int MAGIC = 0x69504a43;
+
+    /**
+     * Version of the binary format, to be increased on any format change.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * String length marker of a {@literal null} string.
+     */
+    private static final int NULL_STRING = -1;
+
+    /**
+     * String length marker of a string written with {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static final int UTF_STRING = -2;
+
+    /**
+     * Longest string always fitting the 64KB limit of {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static final int MAX_UTF_CHARS = 65535 / 3;
+
+    /**
+     * Suffix of the cache files.
+     */
+    private static final String SUFFIX = ".bin";
+
+    /**
+     * The iPOJO bundle context.
+     */
+    private final BundleContext m_context;
+
+    /**
+     * The logger.
+     */
+    private final Log m_logger;
+
+    /**
+     * The statistics updated on lookup.
+     */
+    private final Statistic m_statistic;
+
+    /**
+     * The cache directory, {@literal null} if the framework has no file system support.
+     */
+    private File m_directory;
+
+    /**
+     * Creates the metadata cache.
+     *
+     * @param context   the iPOJO bundle context
+     * @param logger    the logger
+     * @param statistic the statistics updated on lookup
+     */
+    public ComponentsMetadataCache(BundleContext context, Log logger, Statistic statistic) {
+        m_context = context;
+        m_logger = logger;
+        m_statistic = statistic;
+    }
+
+    /**
+     * Opens the cache directory and removes the entries of bundles that are no longer installed.
+     */
+    public void start() {
+        File directory = m_context.getDataFile(CACHE_DIRECTORY);
+        if (directory == null) {
+            m_logger.log(Log.DEBUG, "No data area available, component metadata will not be cached");
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            m_logger.log(Log.WARNING, "Cannot create the component metadata cache directory " + directory);
+            return;
+        }
+
+        File[] files = directory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            long id = getBundleId(files[i]);
+            if (id == -1 || m_context.getBundle(id) == null) {
+                files[i].delete();
+            }
+        }
+        m_directory = directory;
+    }
+
+    /**
+     * @return the statistics updated on lookup.
+     */
+    public Statistic getStatistic() {
+        return m_statistic;
+    }
+
+    /**
+     * Gets the cached metadata of the given bundle.
+     *
+     * @param bundle the bundle
+     * @param header the current {@code iPOJO-Components} header of the bundle
+     * @return the cached root element, {@literal null} if there is no valid entry
+     */
+    public Element get(Bundle bundle, String header) {
+        if (m_directory == null) {
+            return null;
+        }
+        File file = getFile(bundle);
+        if (!file.isFile()) {
+            m_statistic.getCacheMissCounter().incrementAndGet();
+            return null;
+        }
+
+        Element root = null;
+        DataInputStream in = null;
+        try {
+            // Load the whole entry at once, decoding from memory is much cheaper
+            byte[] data = new byte[(int) file.length()];
+            in = new DataInputStream(new FileInputStream(file));
+            in.readFully(data);
+            in.close();
+            in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() == MAGIC
+                    && in.readInt() == FORMAT_VERSION
+                    && in.readLong() == bundle.getBundleId()
+                    && in.readLong() == bundle.getLastModified()
+                    && in.readInt() == header.length()
+                    && in.readInt() == header.hashCode()) {
+                root = readElement(in);
+            }
+        } catch (IOException e) {
+            m_logger.log(Log.DEBUG, "Cannot read the cached metadata of bundle " + bundle.getBundleId(), e);
+        } finally {
+            close(in);
+        }
+
+        if (root == null) {
+            m_statistic.getCacheMissCounter().incrementAndGet();
+            m_logger.log(Log.DEBUG, "Discarding stale cached metadata of bundle " + bundle.getBundleId());
+            file.delete();
+        } else {
+            m_statistic.getCacheHitCounter().incrementAndGet();
+        }
+        return root;
+    }
+
+    /**
+     * Stores the parsed metadata of the given bundle.
+     * The entry is written to a temporary file first, so concurrent readers never see a partial entry.
+     *
+     * @param bundle the bundle
+     * @param header the {@code iPOJO-Components} header the metadata were parsed from
+     * @param root   the parsed root element
+     */
+    public void put(Bundle bundle, String header, Element root) {
+        if (m_directory == null) {
+            return;
+        }
+        File file = getFile(bundle);
+        File tmp = new File(m_directory, bundle.getBundleId() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(bundle.getBundleId());
+            out.writeLong(bundle.getLastModified());
+            out.writeInt(header.length());
+            out.writeInt(header.hashCode());
+            writeElement(out, root);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                // Some platforms do not replace existing files on rename
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Cannot rename " + tmp + " to " + file);
+                }
+            }
+        } catch (IOException e) {
+            m_logger.log(Log.WARNING, "Cannot cache the metadata of bundle " + bundle.getBundleId(), e);
+            tmp.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    private File getFile(Bundle bundle) {
+        return new File(m_directory, bundle.getBundleId() + SUFFIX);
+    }
+
+    private static long getBundleId(File file) {
+        String name = file.getName();
+        if (!name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void writeElement(DataOutputStream out, Element element) throws IOException {
+        writeString(out, element.getName());
+        writeString(out, element.getNameSpace());
+        Attribute[] attributes = element.getAttributes();
+        out.writeInt(attributes.length);
+        for (Attribute attribute : attributes) {
+            writeString(out, attribute.getName());
+            writeString(out, attribute.getNameSpace());
+            writeString(out, attribute.getValue());
+        }
+        Element[] elements = element.getElements();
+        out.writeInt(elements.length);
+        for (Element child : elements) {
+            writeElement(out, child);
+        }
+    }
+
+    private static Element readElement(DataInputStream in) throws IOException {
+        Element element = new Element(readString(in), readString(in));
+        int attributes = in.readInt();
+        for (int i = 0; i < attributes; i++) {
+            element.addAttribute(new Attribute(readString(in), readString(in), readString(in)));
+        }
+        int elements = in.readInt();
+        for (int i = 0; i < elements; i++) {
+            element.addElement(readElement(in));
+        }
+        return element;
+    }
+
+    /**
+     * Writes a nullable string. Short strings use the modified UTF-8 encoding of
+     * {@link DataOutputStream#writeUTF(String)}, which is limited to 64KB, so larger
+     * attribute values are written as UTF-8 bytes.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_STRING);
+        } else if (value.length() <= MAX_UTF_CHARS) {
+            out.writeInt(UTF_STRING);
+            out.writeUTF(value);
+        } else {
+            byte[] bytes = value.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_STRING) {
+            return null;
+        }
+        if (length == UTF_STRING) {
+            return in.readUTF();
+        }
+        if (length < 0) {
+            throw new IOException("Corrupted metadata cache entry");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+}
@@ -45,6 +45,16 @@ public class Statistic {
      */
     private final AtomicInteger m_currents = new AtomicInteger(0);
 
+    /**
+     * The number of component metadata trees loaded from the cache.
+     */
+    private final AtomicInteger m_cacheHits = new AtomicInteger(0);
+
+    /**
+     * The number of component metadata trees parsed because the cache was missing or stale.
+     */
+    private final AtomicInteger m_cacheMisses = new AtomicInteger(0);
+
     /**
      * @return the number of completed jobs.
      */
@@ -66,5 +76,18 @@ public class Statistic {
         return m_currents;
     }
 
+    /**
+     * @return the number of metadata cache hits.
+     */
+    public AtomicInteger getCacheHitCounter() {
+        return m_cacheHits;
+    }
+
+    /**
+     * @return the number of metadata cache misses.
+     */
+    public AtomicInteger getCacheMissCounter() {
+        return m_cacheMisses;
+    }
 
 }
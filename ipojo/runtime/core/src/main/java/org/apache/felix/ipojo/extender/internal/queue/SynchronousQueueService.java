@@ -52,6 +52,13 @@ public class SynchronousQueueService extends AbstractQueueService implements Lif
         return properties;
     }
 
+    /**
+     * @return the statistics populated by this queue service.
+     */
+    public Statistic getStatistic() {
+        return m_statistic;
+    }
+
     public int getFinished() {
         return m_statistic.getFinishedCounter().get();
     }
@@ -420,6 +420,30 @@ public class ManifestMetadataParser {
         parseElements(header.trim());
     }
 
+    /**
+     * Initializes the {@link ManifestMetadataParser#m_elements} list with
+     * an already parsed <code>iPOJO</code> root element, such as one
+     * returned by {@link ManifestMetadataParser#getMetadata()}. Component type
+     * declarations and instance configurations can then be retrieved without
+     * parsing the header again.
+     * @param root the <code>iPOJO</code> root element
+     */
+    public void setMetadata(Element root) {
+        m_elements = new Element[] { root };
+    }
+
+    /**
+     * Gets the <code>iPOJO</code> root element resulting of the parsing.
+     * @return the root element
+     * @throws ParseException if the parsing did not result in a single root element
+     */
+    public Element getMetadata() throws ParseException {
+        if (m_elements.length != 1) {
+            throw new ParseException("Error in parsing, root element not found");
+        }
+        return m_elements[0];
+    }
+
     /**
      * Parses the metadata from the string given in argument.
      * This methods creates a new {@link ManifestMetadataParser} object
@@ -20,6 +20,7 @@ package org.apache.felix.ipojo;
 
 import org.apache.felix.ipojo.metadata.Attribute;
 import org.apache.felix.ipojo.metadata.Element;
+import org.apache.felix.ipojo.parser.FieldMetadata;
 import org.apache.felix.ipojo.parser.MethodMetadata;
 import org.junit.Test;
 import org.osgi.framework.Bundle;
@@ -125,6 +126,92 @@ public class InstanceManagerTest {
         assertThat(error.get()).isEqualTo(0);
     }
 
+    @Test
+    public void testFieldSlots() {
+        ComponentFactory factory = mock(ComponentFactory.class);
+        when(factory.getClassName()).thenReturn(MyComponent.class.getName());
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getHeaders()).thenReturn(new Hashtable<String, String>());
+        BundleContext context = mock(BundleContext.class);
+        when(context.getBundle()).thenReturn(bundle);
+        InstanceManager manager = new InstanceManager(factory, context, new HandlerManager[0]);
+
+        final AtomicInteger sets = new AtomicInteger();
+        FieldInterceptor injector = new FieldInterceptor() {
+            public void onSet(Object pojo, String fieldName, Object value) {
+                sets.incrementAndGet();
+            }
+
+            public Object onGet(Object pojo, String fieldName, Object value) {
+                return "injected";
+            }
+        };
+
+        // Values set before the field is monitored are kept.
+        manager.onSet(null, "bar", "initial");
+        manager.register(new FieldMetadata("foo", "java.lang.String"), injector);
+        manager.register(new FieldMetadata("bar", "java.lang.String"), injector);
+        manager.register(new FieldMetadata("foo", "java.lang.String"), injector);
+
+        int foo = manager.getFieldSlot("foo");
+        int bar = manager.getFieldSlot("bar");
+        assertThat(foo).isNotEqualTo(bar);
+        assertThat(manager.getFieldSlot("baz")).isEqualTo(-1);
+        assertThat(manager.getFieldValue("bar")).isEqualTo("initial");
+
+        assertThat(manager.onGet(null, foo)).isEqualTo("injected");
+        assertThat(manager.onGet(null, "foo")).isEqualTo("injected");
+        assertThat(manager.getFieldValue("foo")).isEqualTo("injected");
+        // The interceptor is only notified when the injected value changes.
+        assertThat(sets.get()).isEqualTo(1);
+
+        manager.onSet(null, bar, "other");
+        assertThat(sets.get()).isEqualTo(2);
+        assertThat(manager.getFieldValue("bar")).isEqualTo("other");
+
+        // Fields not monitored are just stored.
+        manager.onSet(null, "baz", "value");
+        assertThat(manager.onGet(null, "baz")).isEqualTo("value");
+        assertThat(sets.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFieldSlotsSetWhileRegistering() {
+        ComponentFactory factory = mock(ComponentFactory.class);
+        when(factory.getClassName()).thenReturn(MyComponent.class.getName());
+        Bundle bundle = mock(Bundle.class);
+        when(bundle.getHeaders()).thenReturn(new Hashtable<String, String>());
+        BundleContext context = mock(BundleContext.class);
+        when(context.getBundle()).thenReturn(bundle);
+        final InstanceManager manager = new InstanceManager(factory, context, new HandlerManager[0]);
+
+        final FieldInterceptor other = new FieldInterceptor() {
+            public void onSet(Object pojo, String fieldName, Object value) {
+            }
+
+            public Object onGet(Object pojo, String fieldName, Object value) {
+                return value;
+            }
+        };
+        // Registers another field, so the slots are replaced, before the
+        // injected value is stored.
+        FieldInterceptor injector = new FieldInterceptor() {
+            public void onSet(Object pojo, String fieldName, Object value) {
+            }
+
+            public Object onGet(Object pojo, String fieldName, Object value) {
+                manager.register(new FieldMetadata("bar" + value, "java.lang.String"), other);
+                return "injected";
+            }
+        };
+        manager.register(new FieldMetadata("foo", "java.lang.String"), injector);
+
+        assertThat(manager.onGet(null, "foo")).isEqualTo("injected");
+        assertThat(manager.getFieldSlot("barnull")).isNotEqualTo(-1);
+        // The value stored through the replaced slots is not lost.
+        assertThat(manager.getFieldValue("foo")).isEqualTo("injected");
+    }
+
     private class Caller implements Runnable {
 
         private final CountDownLatch startSignal;
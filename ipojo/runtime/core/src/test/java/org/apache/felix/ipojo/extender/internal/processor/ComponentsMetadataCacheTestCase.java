@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.ipojo.extender.internal.processor;
+
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+
+import org.apache.felix.ipojo.extender.internal.queue.Statistic;
+import org.apache.felix.ipojo.metadata.Element;
+import org.apache.felix.ipojo.parser.ManifestMetadataParser;
+import org.apache.felix.ipojo.util.Log;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the behavior of the component metadata cache.
+ */
+public class ComponentsMetadataCacheTestCase extends TestCase {
+
+    private static final String HEADER = "component { $classname=\"org.example.Foo\" $name=\"foo\" "
+            + "provides { $specifications=\"{org.example.Service}\" } "
+            + "manipulation { field { $name=\"m_value\" $type=\"java.lang.String\" } } } "
+            + "instance { $component=\"foo\" property { $name=\"p\" $value=\"v\" } }";
+
+    @Mock
+    private BundleContext m_context;
+
+    @Mock
+    private Bundle m_bundle;
+
+    @Mock
+    private Log m_logger;
+
+    private File m_directory;
+
+    private Statistic m_statistic;
+
+    private ComponentsMetadataCache m_cache;
+
+    @Override
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        m_directory = File.createTempFile("ipojo", "cache");
+        m_directory.delete();
+        when(m_context.getDataFile(ComponentsMetadataCache.CACHE_DIRECTORY)).thenReturn(m_directory);
+        when(m_context.getBundle(42)).thenReturn(m_bundle);
+        when(m_bundle.getBundleId()).thenReturn(42L);
+        when(m_bundle.getLastModified()).thenReturn(1000L);
+
+        m_statistic = new Statistic();
+        m_cache = new ComponentsMetadataCache(m_context, m_logger, m_statistic);
+        m_cache.start();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        File[] files = m_directory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        m_directory.delete();
+    }
+
+    public void testCachedTreeIsIdenticalToParsedTree() throws Exception {
+        Element parsed = ManifestMetadataParser.parseHeaderMetadata(HEADER);
+        assertNull(m_cache.get(m_bundle, HEADER));
+        m_cache.put(m_bundle, HEADER, parsed);
+
+        Element cached = m_cache.get(m_bundle, HEADER);
+        assertNotNull(cached);
+        assertEquals(parsed.toXMLString(), cached.toXMLString());
+        assertEquals(1, m_statistic.getCacheHitCounter().get());
+        assertEquals(1, m_statistic.getCacheMissCounter().get());
+
+        ManifestMetadataParser parser = new ManifestMetadataParser();
+        parser.setMetadata(cached);
+        assertEquals(1, parser.getComponentsMetadata().length);
+        assertEquals("foo", parser.getInstances()[0].get("component"));
+    }
+
+    public void testUpdatedBundleInvalidatesEntry() throws Exception {
+        m_cache.put(m_bundle, HEADER, ManifestMetadataParser.parseHeaderMetadata(HEADER));
+
+        when(m_bundle.getLastModified()).thenReturn(2000L);
+        assertNull(m_cache.get(m_bundle, HEADER));
+        assertEquals(1, m_statistic.getCacheMissCounter().get());
+        // Stale entries are removed
+        assertFalse(new File(m_directory, "42.bin").exists());
+    }
+
+    public void testChangedHeaderInvalidatesEntry() throws Exception {
+        m_cache.put(m_bundle, HEADER, ManifestMetadataParser.parseHeaderMetadata(HEADER));
+
+        assertNull(m_cache.get(m_bundle, HEADER + " "));
+        assertEquals(0, m_statistic.getCacheHitCounter().get());
+    }
+
+    public void testEntriesOfUninstalledBundlesArePurgedOnStart() throws Exception {
+        m_cache.put(m_bundle, HEADER, ManifestMetadataParser.parseHeaderMetadata(HEADER));
+        assertTrue(new File(m_directory, "42.bin").exists());
+
+        when(m_context.getBundle(42)).thenReturn(null);
+        new ComponentsMetadataCache(m_context, m_logger, new Statistic()).start();
+        assertFalse(new File(m_directory, "42.bin").exists());
+    }
+}
@@ -25,6 +25,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.TreeSet;
 
@@ -58,6 +59,10 @@ public class DefaultMetaTypeProvider implements MetaTypeProvider
     private List /* <Designate> */ designates;
     private String[] locales;
 
+    // localized object class definitions by locale and OCD ID
+    private final Map /* <String, Map<String, LocalizedObjectClassDefinition>> */ localizedDefinitions = new HashMap();
+    private long localizedLastModified;
+
 
     public DefaultMetaTypeProvider( Bundle bundle, MetaData metadata )
     {
@@ -173,8 +178,38 @@ public class DefaultMetaTypeProvider implements MetaTypeProvider
             return null;
         }
 
-        Resources resources = BundleResources.getResources( bundle, localePrefix, locale );
-        return new LocalizedObjectClassDefinition( bundle, ocd, resources );
+        // the same default as applied by BundleResources
+        if ( locale == null )
+        {
+            locale = Locale.getDefault().toString();
+        }
+
+        synchronized ( localizedDefinitions )
+        {
+            // drop the localized definitions if the bundle has been modified
+            final long lastModified = bundle.getLastModified();
+            if ( lastModified != localizedLastModified || bundle.getState() == Bundle.UNINSTALLED )
+            {
+                localizedDefinitions.clear();
+                localizedLastModified = lastModified;
+            }
+
+            Map byId = ( Map ) localizedDefinitions.get( locale );
+            if ( byId == null )
+            {
+                byId = new HashMap();
+                localizedDefinitions.put( locale, byId );
+            }
+
+            LocalizedObjectClassDefinition localized = ( LocalizedObjectClassDefinition ) byId.get( ocdRef );
+            if ( localized == null )
+            {
+                Resources resources = BundleResources.getResources( bundle, localePrefix, locale );
+                localized = new LocalizedObjectClassDefinition( bundle, ocd, resources );
+                byId.put( ocdRef, localized );
+            }
+            return localized;
+        }
     }
 
     public Designate getDesignate(String pid)
@@ -73,6 +73,12 @@ public class Activator implements BundleActivator
      */
     private ServiceTracker logService;
 
+    /**
+     * The <code>MetaTypeService</code> registered by this bundle, disposed
+     * of when the bundle is stopped to persist its cache.
+     */
+    private MetaTypeServiceImpl metaTypeService;
+
     /*
      * Set the static INSTANCE field to this new instance
      */
@@ -104,13 +110,14 @@ public class Activator implements BundleActivator
         props.put( Constants.SERVICE_PID, "org.apache.felix.metatype.MetaTypeService" );
         props.put( Constants.SERVICE_DESCRIPTION, "MetaTypeService Specification 1.2 Implementation" );
         props.put( Constants.SERVICE_VENDOR, "Apache Software Foundation" );
-        MetaTypeService metaTypeService = new MetaTypeServiceImpl( context );
+        metaTypeService = new MetaTypeServiceImpl( context );
         context.registerService( MetaTypeService.class.getName(), metaTypeService, props );
     }
 
 
     /**
-     * Stops this bundle by just unregistering as a service listener.
+     * Stops this bundle by disposing of the <code>MetaTypeService</code>, which
+     * persists its meta data cache, and unregistering as a service listener.
      * <p>
      * The framework will take care of ungetting the <code>LogService</code> and
      * unregistering the <code>MetaTypeService</code> registered by the
@@ -120,6 +127,12 @@ public class Activator implements BundleActivator
      */
     public void stop( BundleContext context )
     {
+        if ( metaTypeService != null )
+        {
+            metaTypeService.dispose();
+            metaTypeService = null;
+        }
+
         logService.close();
 
         // make sure the static BundleResources cache does not block the class laoder
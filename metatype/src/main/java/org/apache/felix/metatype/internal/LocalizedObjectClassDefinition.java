@@ -48,6 +48,14 @@ public class LocalizedObjectClassDefinition extends LocalizedBase implements Obj
 
     private OCD ocd;
 
+    // marks a filter for which no attribute definitions exist
+    private static final AttributeDefinition[] NONE = new AttributeDefinition[0];
+
+    // localized attribute definitions by filter, built on first request
+    private volatile AttributeDefinition[] allAttributes;
+    private volatile AttributeDefinition[] requiredAttributes;
+    private volatile AttributeDefinition[] optionalAttributes;
+
 
     /**
      * Creates and instance of this localizing facade.
@@ -72,25 +80,58 @@ public class LocalizedObjectClassDefinition extends LocalizedBase implements Obj
      */
     public AttributeDefinition[] getAttributeDefinitions( int filter )
     {
-        if ( ocd.getAttributeDefinitions() == null )
+        AttributeDefinition[] result;
+        if ( filter == ObjectClassDefinition.REQUIRED )
+        {
+            result = requiredAttributes;
+            if ( result == null )
+            {
+                requiredAttributes = result = createAttributeDefinitions( filter );
+            }
+        }
+        else if ( filter == ObjectClassDefinition.OPTIONAL )
+        {
+            result = optionalAttributes;
+            if ( result == null )
+            {
+                optionalAttributes = result = createAttributeDefinitions( filter );
+            }
+        }
+        else if ( filter == ObjectClassDefinition.ALL )
+        {
+            result = allAttributes;
+            if ( result == null )
+            {
+                allAttributes = result = createAttributeDefinitions( filter );
+            }
+        }
+        else
         {
             return null;
         }
 
+        // copy to prevent callers from modifying the shared definitions
+        return ( result == NONE ) ? null : ( AttributeDefinition[] ) result.clone();
+    }
+
+
+    private AttributeDefinition[] createAttributeDefinitions( int filter )
+    {
+        if ( ocd.getAttributeDefinitions() == null )
+        {
+            return NONE;
+        }
+
         Iterator adhIter = ocd.getAttributeDefinitions().values().iterator();
         if ( filter == ObjectClassDefinition.OPTIONAL || filter == ObjectClassDefinition.REQUIRED )
         {
             boolean required = ( filter == ObjectClassDefinition.REQUIRED );
             adhIter = new RequiredFilterIterator( adhIter, required );
         }
-        else if ( filter != ObjectClassDefinition.ALL )
-        {
-            return null;
-        }
 
         if ( !adhIter.hasNext() )
         {
-            return null;
+            return NONE;
         }
 
         List result = new ArrayList();
@@ -0,0 +1,865 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.metatype.internal;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.felix.metatype.AD;
+import org.apache.felix.metatype.Attribute;
+import org.apache.felix.metatype.Designate;
+import org.apache.felix.metatype.DesignateObject;
+import org.apache.felix.metatype.MetaData;
+import org.apache.felix.metatype.OCD;
+import org.apache.felix.metatype.OptionalAttributes;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogService;
+import org.osgi.service.metatype.AttributeDefinition;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+
+/**
+ * The <code>MetaDataCache</code> class keeps the {@link MetaData} parsed from
+ * the meta type documents of bundles, keyed by bundle ID and the revision of
+ * the bundle, which consists of the last modification time of the bundle and
+ * the IDs and last modification times of its attached fragments, as fragments
+ * may contribute documents. Entries are kept regardless of the bundle state and are written to a data file of the metatype bundle on
+ * {@link #save()}, such that documents of unchanged bundles need not be parsed
+ * again after a restart.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+class MetaDataCache
+{
+
+    /**
+     * Marker returned by {@link #get(Bundle)} for a bundle known to not have
+     * any meta type documents.
+     */
+    static final MetaData[] NO_DOCUMENTS = new MetaData[0];
+
+    /** The name of the data file holding the persisted cache */
+    static final String CACHE_FILE = "metatype.cache";
+
+    // "FMTC", identifies the cache file
+    private static final int MAGIC = 0x464D5443;
+
+    // incremented whenever the layout of the cache file changes
+    private static final int VERSION = 2;
+
+    // the attribute definition type names as understood by AD.setType
+    private static final String[] TYPE_NAMES = new String[AttributeDefinition.PASSWORD + 1];
+    static
+    {
+        TYPE_NAMES[AttributeDefinition.STRING] = "String";
+        TYPE_NAMES[AttributeDefinition.LONG] = "Long";
+        TYPE_NAMES[AttributeDefinition.INTEGER] = "Integer";
+        TYPE_NAMES[AttributeDefinition.SHORT] = "Short";
+        TYPE_NAMES[AttributeDefinition.CHARACTER] = "Character";
+        TYPE_NAMES[AttributeDefinition.BYTE] = "Byte";
+        TYPE_NAMES[AttributeDefinition.DOUBLE] = "Double";
+        TYPE_NAMES[AttributeDefinition.FLOAT] = "Float";
+        TYPE_NAMES[AttributeDefinition.BOOLEAN] = "Boolean";
+        TYPE_NAMES[AttributeDefinition.PASSWORD] = "Password";
+    }
+
+    private final BundleContext bundleContext;
+
+    private final Map /* <Long, Entry> */ entries;
+
+    private volatile boolean loaded;
+
+    private volatile boolean modified;
+
+
+    MetaDataCache( BundleContext bundleContext )
+    {
+        this.bundleContext = bundleContext;
+        this.entries = new ConcurrentHashMap();
+    }
+
+
+    /**
+     * Returns the meta data cached for the given bundle, {@link #NO_DOCUMENTS}
+     * if the bundle is known to have no meta type documents or
+     * <code>null</code> if the bundle is not cached or the bundle or its
+     * fragments have been modified since it was cached.
+     */
+    MetaData[] get( final Bundle bundle )
+    {
+        ensureLoaded();
+
+        final Long key = new Long( bundle.getBundleId() );
+        final Entry entry = ( Entry ) this.entries.get( key );
+        if ( entry == null )
+        {
+            return null;
+        }
+        if ( !Arrays.equals( entry.revision, getRevision( bundle ) ) )
+        {
+            this.entries.remove( key );
+            this.modified = true;
+            return null;
+        }
+        return entry.metaData;
+    }
+
+
+    /**
+     * Caches the meta data parsed from the documents of the given bundle. Use
+     * {@link #NO_DOCUMENTS} to record that the bundle has no documents.
+     */
+    void put( final Bundle bundle, final MetaData[] metaData )
+    {
+        ensureLoaded();
+
+        this.entries.put( new Long( bundle.getBundleId() ), new Entry( getRevision( bundle ), metaData ) );
+        this.modified = true;
+    }
+
+
+    /**
+     * Removes the cached meta data of the bundle with the given ID.
+     */
+    void remove( final long bundleId )
+    {
+        if ( this.entries.remove( new Long( bundleId ) ) != null )
+        {
+            this.modified = true;
+        }
+    }
+
+
+    /**
+     * Writes the cache to the data file if it has been modified. Entries of
+     * bundles which have since been uninstalled or updated are dropped.
+     */
+    void save()
+    {
+        if ( !this.modified )
+        {
+            return;
+        }
+
+        final File file = this.bundleContext.getDataFile( CACHE_FILE );
+        if ( file == null )
+        {
+            return;
+        }
+
+        final File tmp = new File( file.getPath() + ".tmp" );
+        DataOutputStream out = null;
+        try
+        {
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+            write( out );
+            out.close();
+            out = null;
+
+            if ( ( !file.exists() || file.delete() ) && tmp.renameTo( file ) )
+            {
+                this.modified = false;
+            }
+            else
+            {
+                Activator.log( LogService.LOG_WARNING, "save: Cannot replace meta type cache file " + file );
+                tmp.delete();
+            }
+        }
+        catch ( IOException ioe )
+        {
+            Activator.log( LogService.LOG_WARNING, "save: Error writing meta type cache file " + tmp, ioe );
+            tmp.delete();
+        }
+        finally
+        {
+            if ( out != null )
+            {
+                try
+                {
+                    out.close();
+                }
+                catch ( IOException ignore )
+                {
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Drops all cached entries from memory.
+     */
+    void clear()
+    {
+        this.entries.clear();
+    }
+
+
+    /**
+     * Returns the revision of the given bundle: its last modification time
+     * followed by the ID and last modification time of each attached fragment
+     * in the order of the fragment IDs. Fragments are only known while the
+     * bundle is resolved and the PackageAdmin service is available.
+     */
+    long[] getRevision( final Bundle bundle )
+    {
+        final Bundle[] fragments = getFragments( bundle );
+        if ( fragments == null || fragments.length == 0 )
+        {
+            return new long[]
+                { bundle.getLastModified() };
+        }
+
+        Arrays.sort( fragments, new Comparator()
+        {
+            public int compare( Object o1, Object o2 )
+            {
+                final long id1 = ( ( Bundle ) o1 ).getBundleId();
+                final long id2 = ( ( Bundle ) o2 ).getBundleId();
+                return ( id1 < id2 ) ? -1 : ( ( id1 == id2 ) ? 0 : 1 );
+            }
+        } );
+
+        final long[] revision = new long[1 + 2 * fragments.length];
+        revision[0] = bundle.getLastModified();
+        for ( int i = 0; i < fragments.length; i++ )
+        {
+            revision[1 + 2 * i] = fragments[i].getBundleId();
+            revision[2 + 2 * i] = fragments[i].getLastModified();
+        }
+        return revision;
+    }
+
+
+    /**
+     * Returns the fragments attached to the given bundle as reported by the
+     * PackageAdmin service, which unlike the bundle wiring is available on
+     * all framework versions supported by this bundle.
+     */
+    private Bundle[] getFragments( final Bundle bundle )
+    {
+        final ServiceReference reference = this.bundleContext.getServiceReference( PackageAdmin.class.getName() );
+        final PackageAdmin packageAdmin = ( reference == null ) ? null : ( PackageAdmin ) this.bundleContext
+            .getService( reference );
+        if ( packageAdmin == null )
+        {
+            return null;
+        }
+        try
+        {
+            return packageAdmin.getFragments( bundle );
+        }
+        finally
+        {
+            this.bundleContext.ungetService( reference );
+        }
+    }
+
+
+    //---------- reading the cache file ---------------------------------------
+
+    private void ensureLoaded()
+    {
+        if ( !this.loaded )
+        {
+            synchronized ( this )
+            {
+                if ( !this.loaded )
+                {
+                    load();
+                    this.loaded = true;
+                }
+            }
+        }
+    }
+
+
+    private void load()
+    {
+        final File file = this.bundleContext.getDataFile( CACHE_FILE );
+        if ( file == null || !file.isFile() )
+        {
+            return;
+        }
+
+        boolean damaged = false;
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+            {
+                Activator.log( LogService.LOG_INFO, "load: Ignoring incompatible meta type cache file " + file );
+                return;
+            }
+
+            final int count = readLength( in );
+            for ( int i = 0; i < count; i++ )
+            {
+                final long bundleId = in.readLong();
+                final long[] revision = new long[readLength( in )];
+                for ( int r = 0; r < revision.length; r++ )
+                {
+                    revision[r] = in.readLong();
+                }
+                final Bundle bundle = this.bundleContext.getBundle( bundleId );
+
+                final MetaData[] metaData;
+                final int docCount = readLength( in );
+                if ( docCount < 0 )
+                {
+                    metaData = NO_DOCUMENTS;
+                }
+                else
+                {
+                    metaData = new MetaData[docCount];
+                    for ( int d = 0; d < docCount; d++ )
+                    {
+                        metaData[d] = readMetaData( in, bundle );
+                    }
+                }
+
+                // only keep entries for bundles which have not changed since
+                if ( bundle != null && bundle.getState() != Bundle.UNINSTALLED
+                    && Arrays.equals( revision, getRevision( bundle ) ) )
+                {
+                    this.entries.put( new Long( bundleId ), new Entry( revision, metaData ) );
+                }
+                else
+                {
+                    this.modified = true;
+                }
+            }
+        }
+        catch ( IOException ioe )
+        {
+            Activator.log( LogService.LOG_WARNING, "load: Error reading meta type cache file " + file, ioe );
+            damaged = true;
+        }
+        catch ( RuntimeException re )
+        {
+            // damaged contents may also be rejected by the meta data setters
+            Activator.log( LogService.LOG_WARNING, "load: Invalid meta type cache file " + file, re );
+            damaged = true;
+        }
+        finally
+        {
+            if ( in != null )
+            {
+                try
+                {
+                    in.close();
+                }
+                catch ( IOException ignore )
+                {
+                }
+            }
+        }
+
+        // a damaged cache is not fatal, the documents are just parsed again
+        if ( damaged )
+        {
+            this.entries.clear();
+            this.modified = true;
+            if ( !file.delete() )
+            {
+                Activator.log( LogService.LOG_WARNING, "load: Cannot delete damaged meta type cache file " + file );
+            }
+        }
+    }
+
+
+    private MetaData readMetaData( final DataInputStream in, final Bundle bundle ) throws IOException
+    {
+        final MetaData md = new MetaData();
+        md.setSource( toSource( bundle, readString( in ), readString( in ) ) );
+        md.setNamespace( readString( in ) );
+        md.setLocalePrefix( readString( in ) );
+        readOptionalAttributes( in, md );
+
+        final int ocdCount = readLength( in );
+        for ( int i = 0; i < ocdCount; i++ )
+        {
+            md.addObjectClassDefinition( readOCD( in ) );
+        }
+
+        final int designateCount = readLength( in );
+        for ( int i = 0; i < designateCount; i++ )
+        {
+            md.addDesignate( readDesignate( in ) );
+        }
+
+        return md;
+    }
+
+
+    private OCD readOCD( final DataInputStream in ) throws IOException
+    {
+        final OCD ocd = new OCD();
+        ocd.setId( readString( in ) );
+        ocd.setName( readString( in ) );
+        ocd.setDescription( readString( in ) );
+        readOptionalAttributes( in, ocd );
+
+        final int iconCount = readLength( in );
+        for ( int i = 0; i < iconCount; i++ )
+        {
+            final Integer size = new Integer( in.readInt() );
+            ocd.addIcon( size, readString( in ) );
+        }
+
+        final int adCount = readLength( in );
+        for ( int i = 0; i < adCount; i++ )
+        {
+            ocd.addAttributeDefinition( readAD( in ) );
+        }
+
+        return ocd;
+    }
+
+
+    private AD readAD( final DataInputStream in ) throws IOException
+    {
+        final CachedAD ad = new CachedAD();
+        ad.setID( readString( in ) );
+        ad.setName( readString( in ) );
+        ad.setDescription( readString( in ) );
+
+        final int type = in.readInt();
+        ad.setType( ( type >= 0 && type < TYPE_NAMES.length ) ? TYPE_NAMES[type] : null );
+        ad.setCardinality( in.readInt() );
+        ad.setRequired( in.readBoolean() );
+        ad.setMin( readString( in ) );
+        ad.setMax( readString( in ) );
+
+        final String[] optionValues = readStrings( in );
+        final String[] optionLabels = readStrings( in );
+        if ( optionValues != null && optionLabels != null )
+        {
+            final Map options = new LinkedHashMap();
+            for ( int i = 0; i < optionValues.length && i < optionLabels.length; i++ )
+            {
+                options.put( optionValues[i], optionLabels[i] );
+            }
+            ad.setOptions( options );
+        }
+
+        // must be set last as the values are validated against the above
+        ad.setDefaultValue( readStrings( in ) );
+        readOptionalAttributes( in, ad );
+
+        return ad;
+    }
+
+
+    private Designate readDesignate( final DataInputStream in ) throws IOException
+    {
+        final Designate designate = new Designate();
+        designate.setPid( readString( in ) );
+        designate.setFactoryPid( readString( in ) );
+        designate.setBundleLocation( readString( in ) );
+        designate.setOptional( in.readBoolean() );
+        designate.setMerge( in.readBoolean() );
+        readOptionalAttributes( in, designate );
+
+        if ( in.readBoolean() )
+        {
+            final DesignateObject object = new DesignateObject();
+            object.setOcdRef( readString( in ) );
+            readOptionalAttributes( in, object );
+
+            final int attrCount = readLength( in );
+            for ( int i = 0; i < attrCount; i++ )
+            {
+                final Attribute attr = new Attribute();
+                attr.setAdRef( readString( in ) );
+                attr.addContent( readStrings( in ) );
+                readOptionalAttributes( in, attr );
+                object.addAttribute( attr );
+            }
+
+            designate.setObject( object );
+        }
+
+        return designate;
+    }
+
+
+    private void readOptionalAttributes( final DataInputStream in, final OptionalAttributes target )
+        throws IOException
+    {
+        final int count = readLength( in );
+        for ( int i = 0; i < count; i++ )
+        {
+            target.addOptionalAttribute( readString( in ), readString( in ) );
+        }
+    }
+
+
+    private String[] readStrings( final DataInputStream in ) throws IOException
+    {
+        final int length = readLength( in );
+        if ( length < 0 )
+        {
+            return null;
+        }
+        final String[] strings = new String[length];
+        for ( int i = 0; i < length; i++ )
+        {
+            strings[i] = readString( in );
+        }
+        return strings;
+    }
+
+
+    private String readString( final DataInputStream in ) throws IOException
+    {
+        final int length = readLength( in );
+        if ( length < 0 )
+        {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        return new String( bytes, "UTF-8" );
+    }
+
+
+    /**
+     * Reads a length or count, which may be negative to mark a missing value.
+     * Each element counted takes at least one byte of the file, such that a
+     * damaged length is detected before allocating memory for the elements.
+     */
+    private int readLength( final DataInputStream in ) throws IOException
+    {
+        final int length = in.readInt();
+        if ( length > in.available() )
+        {
+            throw new IOException( "Invalid length " + length );
+        }
+        return length;
+    }
+
+
+    /**
+     * Recreates the source URL of a document. The URL is preferably
+     * resolved from the bundle again as bundle entry URLs need not be stable
+     * across framework restarts.
+     */
+    private URL toSource( final Bundle bundle, final String path, final String url )
+    {
+        if ( bundle != null && path != null )
+        {
+            final URL entry = bundle.getEntry( path );
+            if ( entry != null )
+            {
+                return entry;
+            }
+        }
+        if ( url != null )
+        {
+            try
+            {
+                return new URL( url );
+            }
+            catch ( MalformedURLException mue )
+            {
+                // not resolvable any more, icons may only be found in the bundle
+            }
+        }
+        return null;
+    }
+
+
+    //---------- writing the cache file ---------------------------------------
+
+    private void write( final DataOutputStream out ) throws IOException
+    {
+        // collect the entries still valid
+        final Map valid = new LinkedHashMap();
+        for ( Iterator ei = this.entries.entrySet().iterator(); ei.hasNext(); )
+        {
+            final Map.Entry e = ( Map.Entry ) ei.next();
+            final Entry entry = ( Entry ) e.getValue();
+            final Bundle bundle = this.bundleContext.getBundle( ( ( Long ) e.getKey() ).longValue() );
+            if ( bundle != null && bundle.getState() != Bundle.UNINSTALLED
+                && Arrays.equals( entry.revision, getRevision( bundle ) ) )
+            {
+                valid.put( e.getKey(), entry );
+            }
+        }
+
+        out.writeInt( MAGIC );
+        out.writeInt( VERSION );
+        out.writeInt( valid.size() );
+        for ( Iterator ei = valid.entrySet().iterator(); ei.hasNext(); )
+        {
+            final Map.Entry e = ( Map.Entry ) ei.next();
+            final Entry entry = ( Entry ) e.getValue();
+            out.writeLong( ( ( Long ) e.getKey() ).longValue() );
+            out.writeInt( entry.revision.length );
+            for ( int r = 0; r < entry.revision.length; r++ )
+            {
+                out.writeLong( entry.revision[r] );
+            }
+            if ( entry.metaData == NO_DOCUMENTS )
+            {
+                out.writeInt( -1 );
+            }
+            else
+            {
+                out.writeInt( entry.metaData.length );
+                for ( int i = 0; i < entry.metaData.length; i++ )
+                {
+                    writeMetaData( out, entry.metaData[i] );
+                }
+            }
+        }
+    }
+
+
+    private void writeMetaData( final DataOutputStream out, final MetaData md ) throws IOException
+    {
+        final URL source = md.getSource();
+        writeString( out, ( source == null ) ? null : source.getPath() );
+        writeString( out, ( source == null ) ? null : source.toExternalForm() );
+        writeString( out, md.getNamespace() );
+        writeString( out, md.getLocalePrefix() );
+        writeOptionalAttributes( out, md );
+
+        final Map ocds = md.getObjectClassDefinitions();
+        if ( ocds == null )
+        {
+            out.writeInt( 0 );
+        }
+        else
+        {
+            out.writeInt( ocds.size() );
+            for ( Iterator oi = ocds.values().iterator(); oi.hasNext(); )
+            {
+                writeOCD( out, ( OCD ) oi.next() );
+            }
+        }
+
+        final List designates = md.getDesignates();
+        if ( designates == null )
+        {
+            out.writeInt( 0 );
+        }
+        else
+        {
+            out.writeInt( designates.size() );
+            for ( Iterator di = designates.iterator(); di.hasNext(); )
+            {
+                writeDesignate( out, ( Designate ) di.next() );
+            }
+        }
+    }
+
+
+    private void writeOCD( final DataOutputStream out, final OCD ocd ) throws IOException
+    {
+        writeString( out, ocd.getID() );
+        writeString( out, ocd.getName() );
+        writeString( out, ocd.getDescription() );
+        writeOptionalAttributes( out, ocd );
+
+        final Map icons = ocd.getIcons();
+        if ( icons == null )
+        {
+            out.writeInt( 0 );
+        }
+        else
+        {
+            out.writeInt( icons.size() );
+            for ( Iterator ii = icons.entrySet().iterator(); ii.hasNext(); )
+            {
+                final Map.Entry icon = ( Map.Entry ) ii.next();
+                out.writeInt( ( ( Integer ) icon.getKey() ).intValue() );
+                writeString( out, ( String ) icon.getValue() );
+            }
+        }
+
+        final Map ads = ocd.getAttributeDefinitions();
+        if ( ads == null )
+        {
+            out.writeInt( 0 );
+        }
+        else
+        {
+            out.writeInt( ads.size() );
+            for ( Iterator ai = ads.values().iterator(); ai.hasNext(); )
+            {
+                writeAD( out, ( AD ) ai.next() );
+            }
+        }
+    }
+
+
+    private void writeAD( final DataOutputStream out, final AD ad ) throws IOException
+    {
+        writeString( out, ad.getID() );
+        writeString( out, ad.getName() );
+        writeString( out, ad.getDescription() );
+        out.writeInt( ad.getType() );
+        out.writeInt( ad.getCardinality() );
+        out.writeBoolean( ad.isRequired() );
+        writeString( out, ad.getMin() );
+        writeString( out, ad.getMax() );
+        writeStrings( out, ad.getOptionValues() );
+        writeStrings( out, ad.getOptionLabels() );
+        writeStrings( out, ad.getDefaultValue() );
+        writeOptionalAttributes( out, ad );
+    }
+
+
+    private void writeDesignate( final DataOutputStream out, final Designate designate ) throws IOException
+    {
+        writeString( out, designate.getPid() );
+        writeString( out, designate.getFactoryPid() );
+        writeString( out, designate.getBundleLocation() );
+        out.writeBoolean( designate.isOptional() );
+        out.writeBoolean( designate.isMerge() );
+        writeOptionalAttributes( out, designate );
+
+        final DesignateObject object = designate.getObject();
+        out.writeBoolean( object != null );
+        if ( object != null )
+        {
+            writeString( out, object.getOcdRef() );
+            writeOptionalAttributes( out, object );
+
+            final List attrs = object.getAttributes();
+            if ( attrs == null )
+            {
+                out.writeInt( 0 );
+            }
+            else
+            {
+                out.writeInt( attrs.size() );
+                for ( Iterator ai = attrs.iterator(); ai.hasNext(); )
+                {
+                    final Attribute attr = ( Attribute ) ai.next();
+                    writeString( out, attr.getAdRef() );
+                    writeStrings( out, attr.getContent() );
+                    writeOptionalAttributes( out, attr );
+                }
+            }
+        }
+    }
+
+
+    private void writeOptionalAttributes( final DataOutputStream out, final OptionalAttributes source )
+        throws IOException
+    {
+        final Map attrs = source.getOptionalAttributes();
+        if ( attrs == null )
+        {
+            out.writeInt( 0 );
+        }
+        else
+        {
+            out.writeInt( attrs.size() );
+            for ( Iterator ai = attrs.entrySet().iterator(); ai.hasNext(); )
+            {
+                final Map.Entry attr = ( Map.Entry ) ai.next();
+                writeString( out, ( String ) attr.getKey() );
+                writeString( out, ( String ) attr.getValue() );
+            }
+        }
+    }
+
+
+    private void writeStrings( final DataOutputStream out, final String[] strings ) throws IOException
+    {
+        if ( strings == null )
+        {
+            out.writeInt( -1 );
+        }
+        else
+        {
+            out.writeInt( strings.length );
+            for ( int i = 0; i < strings.length; i++ )
+            {
+                writeString( out, strings[i] );
+            }
+        }
+    }
+
+
+    private void writeString( final DataOutputStream out, final String string ) throws IOException
+    {
+        if ( string == null )
+        {
+            out.writeInt( -1 );
+        }
+        else
+        {
+            // not using writeUTF as descriptions may exceed its 64K limit
+            final byte[] bytes = string.getBytes( "UTF-8" );
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+    }
+
+    private static class Entry
+    {
+        final long[] revision;
+
+        final MetaData[] metaData;
+
+
+        Entry( final long[] revision, final MetaData[] metaData )
+        {
+            this.revision = revision;
+            this.metaData = metaData;
+        }
+    }
+
+    /**
+     * Gives access to setting the already split and validated default value
+     * of an attribute definition.
+     */
+    private static class CachedAD extends AD
+    {
+        void setDefaultValue( final String[] values )
+        {
+            setDefaultValue( values, Math.abs( getCardinality() ) );
+        }
+    }
+}
@@ -22,7 +22,9 @@ package org.apache.felix.metatype.internal;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -52,6 +54,8 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
 
     private final Map bundleMetaTypeInformation;
 
+    private final MetaDataCache metaDataCache;
+
     private final ManagedServiceTracker managedServiceTracker;
 
     private final MetaTypeProviderTracker providerTracker;
@@ -65,6 +69,7 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
     MetaTypeServiceImpl( BundleContext bundleContext )
     {
         this.bundleMetaTypeInformation = new ConcurrentHashMap();
+        this.metaDataCache = new MetaDataCache( bundleContext );
 
         bundleContext.addBundleListener( this );
 
@@ -90,23 +95,35 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
         this.providerTracker.close();
         this.managedServiceTracker.close();
         this.bundleMetaTypeInformation.clear();
+        this.metaDataCache.save();
+        this.metaDataCache.clear();
     }
 
 
     public void bundleChanged( BundleEvent event )
     {
-        if ( event.getType() == BundleEvent.STOPPING )
+        switch ( event.getType() )
         {
-            SoftReference mtir = ( SoftReference ) this.bundleMetaTypeInformation.remove( new Long( event.getBundle()
-                .getBundleId() ) );
-            if ( mtir != null )
-            {
-                MetaTypeInformationImpl mti = ( MetaTypeInformationImpl ) mtir.get();
-                if ( mti != null )
+            case BundleEvent.UPDATED:
+            case BundleEvent.RESOLVED:
+            case BundleEvent.UNRESOLVED:
+            case BundleEvent.UNINSTALLED:
+                // the documents may have changed, e.g. by (de)attaching fragments
+                this.metaDataCache.remove( event.getBundle().getBundleId() );
+                // fall through
+
+            case BundleEvent.STOPPING:
+                SoftReference mtir = ( SoftReference ) this.bundleMetaTypeInformation.remove( new Long( event
+                    .getBundle().getBundleId() ) );
+                if ( mtir != null )
                 {
-                    mti.dispose();
+                    MetaTypeInformationImpl mti = ( MetaTypeInformationImpl ) mtir.get();
+                    if ( mti != null )
+                    {
+                        mti.dispose();
+                    }
                 }
-            }
+                break;
         }
     }
 
@@ -118,6 +135,12 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
      * <p>
      * According to the specification, the services of the bundle are ignored
      * if at least one meta type document exists.
+     * <p>
+     * The information is cached regardless of the bundle state until the bundle
+     * is resolved, stopped, unresolved, updated or uninstalled. The documents
+     * parsed are additionally kept in the {@link MetaDataCache} until the
+     * bundle is resolved, unresolved, updated or uninstalled or until the
+     * bundle or one of its attached fragments is modified.
      *
      * @param bundle The <code>Bundle</code> for which a
      *      <code>MetaTypeInformation</code> is to be returned.
@@ -139,21 +162,11 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
                 mti = new ServiceMetaTypeInformation( bundle );
             }
 
-            MetaTypeInformationImpl impl = null;
-            if ( bundle.getState() == Bundle.ACTIVE || bundle.getState() == Bundle.STARTING || bundle.getState() == Bundle.RESOLVED )
+            // an uninstalled bundle will not send any more events evicting it
+            if ( bundle.getState() != Bundle.UNINSTALLED )
             {
                 putMetaTypeInformationInternal( bundle, mti );
             }
-            else
-            {
-                impl = mti;
-                mti = null;
-            }
-
-            if ( impl != null )
-            {
-                impl.dispose();
-            }
         }
 
         return mti;
@@ -161,17 +174,42 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
 
 
     private MetaTypeInformationImpl fromDocuments( Bundle bundle )
+    {
+        MetaData[] metaData = this.metaDataCache.get( bundle );
+        if ( metaData == null )
+        {
+            metaData = readDocuments( bundle );
+        }
+
+        // return nothing if there are no descriptors
+        if ( metaData == MetaDataCache.NO_DOCUMENTS )
+        {
+            return null;
+        }
+
+        MetaTypeInformationImpl cmti = new MetaTypeInformationImpl( bundle );
+        for ( int i = 0; i < metaData.length; i++ )
+        {
+            cmti.addMetaData( metaData[i] );
+        }
+        return cmti;
+    }
+
+
+    private MetaData[] readDocuments( Bundle bundle )
     {
         MetaDataReader reader = new MetaDataReader();
 
-        // get the descriptors, return nothing if none
+        // get the descriptors
         Enumeration docs = bundle.findEntries( METATYPE_DOCUMENTS_LOCATION, "*.xml", false );
         if ( docs == null || !docs.hasMoreElements() )
         {
-            return null;
+            this.metaDataCache.put( bundle, MetaDataCache.NO_DOCUMENTS );
+            return MetaDataCache.NO_DOCUMENTS;
         }
 
-        MetaTypeInformationImpl cmti = new MetaTypeInformationImpl( bundle );
+        boolean complete = true;
+        List metaDataList = new ArrayList();
         while ( docs.hasMoreElements() )
         {
             URL doc = ( URL ) docs.nextElement();
@@ -180,15 +218,24 @@ class MetaTypeServiceImpl implements MetaTypeService, SynchronousBundleListener
                 MetaData metaData = reader.parse( doc );
                 if ( metaData != null )
                 {
-                    cmti.addMetaData( metaData );
+                    metaDataList.add( metaData );
                 }
             }
             catch ( IOException ioe )
             {
                 Activator.log( LogService.LOG_ERROR, "fromDocuments: Error accessing document " + doc, ioe );
+                complete = false;
             }
         }
-        return cmti;
+
+        MetaData[] metaData = ( MetaData[] ) metaDataList.toArray( new MetaData[metaDataList.size()] );
+
+        // do not cache a failure to access a document, which may be temporary
+        if ( complete )
+        {
+            this.metaDataCache.put( bundle, metaData );
+        }
+        return metaData;
     }
 
     //-- register and unregister MetaTypeProvider services
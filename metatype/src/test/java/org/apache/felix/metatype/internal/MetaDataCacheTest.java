@@ -0,0 +1,370 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.metatype.internal;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.metatype.AD;
+import org.apache.felix.metatype.Attribute;
+import org.apache.felix.metatype.Designate;
+import org.apache.felix.metatype.MetaData;
+import org.apache.felix.metatype.MetaDataReader;
+import org.apache.felix.metatype.MockBundleContext;
+import org.apache.felix.metatype.OCD;
+import org.osgi.framework.Bundle;
+import org.osgi.service.metatype.AttributeDefinition;
+import org.osgi.service.metatype.ObjectClassDefinition;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+
+/**
+ * The <code>MetaDataCacheTest</code> class tests the {@link MetaDataCache}.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class MetaDataCacheTest extends TestCase
+{
+
+    private static final String DOCUMENT = "<metatype:MetaData xmlns:metatype=\"http://www.osgi.org/xmlns/metatype/v1.2.0\" localization=\"OSGI-INF/l10n/test\">"
+        + "<OCD id=\"ocd\" name=\"%ocd.name\" description=\"OCD description\">"
+        + "<Icon resource=\"icon16.png\" size=\"16\"/>"
+        + "<AD id=\"port\" name=\"Port\" type=\"Integer\" cardinality=\"0\" min=\"1\" max=\"65535\" default=\"8080\"/>"
+        + "<AD id=\"hosts\" name=\"Hosts\" type=\"String\" cardinality=\"-5\" required=\"false\" default=\"a\\, b, c\"/>"
+        + "<AD id=\"mode\" type=\"String\" default=\"fast\"><Option value=\"fast\" label=\"%fast\"/><Option value=\"safe\" label=\"Safe\"/></AD>"
+        + "</OCD>"
+        + "<Designate pid=\"test.pid\" bundle=\"*\" optional=\"true\">"
+        + "<Object ocdref=\"ocd\"><Attribute adref=\"port\" content=\"8081\"/></Object>"
+        + "</Designate>"
+        + "</metatype:MetaData>";
+
+    private File dataDir;
+
+    private TestBundleContext bundleContext;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        dataDir = File.createTempFile( "metatype", ".dir" );
+        dataDir.delete();
+        dataDir.mkdirs();
+
+        bundleContext = new TestBundleContext( 10, "org.apache.felix.metatype.Mock", dataDir );
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        File[] files = dataDir.listFiles();
+        for ( int i = 0; files != null && i < files.length; i++ )
+        {
+            files[i].delete();
+        }
+        dataDir.delete();
+
+        super.tearDown();
+    }
+
+
+    public void testMissing()
+    {
+        MetaDataCache cache = new MetaDataCache( bundleContext );
+        assertNull( cache.get( bundleContext.getBundle() ) );
+    }
+
+
+    public void testNoDocuments()
+    {
+        MetaDataCache cache = new MetaDataCache( bundleContext );
+        cache.put( bundleContext.getBundle(), MetaDataCache.NO_DOCUMENTS );
+        cache.save();
+
+        MetaDataCache restored = new MetaDataCache( bundleContext );
+        assertSame( MetaDataCache.NO_DOCUMENTS, restored.get( bundleContext.getBundle() ) );
+    }
+
+
+    public void testRoundTrip() throws IOException
+    {
+        MetaData md = new MetaDataReader().parse( new ByteArrayInputStream( DOCUMENT.getBytes( "UTF-8" ) ) );
+        URL source = getClass().getResource( "MetaDataCacheTest.class" );
+        md.setSource( source );
+
+        MetaDataCache cache = new MetaDataCache( bundleContext );
+        cache.put( bundleContext.getBundle(), new MetaData[]
+            { md } );
+        cache.save();
+        assertTrue( new File( dataDir, MetaDataCache.CACHE_FILE ).isFile() );
+
+        MetaData[] restored = new MetaDataCache( bundleContext ).get( bundleContext.getBundle() );
+        assertNotNull( restored );
+        assertEquals( 1, restored.length );
+
+        MetaData rmd = restored[0];
+        assertEquals( source, rmd.getSource() );
+        assertEquals( md.getNamespace(), rmd.getNamespace() );
+        assertEquals( "OSGI-INF/l10n/test", rmd.getLocalePrefix() );
+
+        OCD ocd = ( OCD ) rmd.getObjectClassDefinitions().get( "ocd" );
+        assertNotNull( ocd );
+        assertSame( rmd, ocd.getMetadata() );
+        assertEquals( "%ocd.name", ocd.getName() );
+        assertEquals( "OCD description", ocd.getDescription() );
+        assertEquals( "icon16.png", ocd.getIcons().get( new Integer( 16 ) ) );
+        assertEquals( 3, ocd.getAttributeDefinitions().size() );
+
+        AD port = ( AD ) ocd.getAttributeDefinitions().get( "port" );
+        assertEquals( AttributeDefinition.INTEGER, port.getType() );
+        assertEquals( "1", port.getMin() );
+        assertEquals( "65535", port.getMax() );
+        assertTrue( port.isRequired() );
+        assertEquals( 1, port.getDefaultValue().length );
+        assertEquals( "8080", port.getDefaultValue()[0] );
+
+        AD hosts = ( AD ) ocd.getAttributeDefinitions().get( "hosts" );
+        assertEquals( -5, hosts.getCardinality() );
+        assertFalse( hosts.isRequired() );
+        assertEquals( 2, hosts.getDefaultValue().length );
+        assertEquals( "a, b", hosts.getDefaultValue()[0] );
+        assertEquals( "c", hosts.getDefaultValue()[1] );
+
+        AD mode = ( AD ) ocd.getAttributeDefinitions().get( "mode" );
+        assertEquals( AttributeDefinition.STRING, mode.getType() );
+        assertEquals( 2, mode.getOptionValues().length );
+        assertEquals( "fast", mode.getOptionValues()[0] );
+        assertEquals( "%fast", mode.getOptionLabels()[0] );
+        assertEquals( "safe", mode.getOptionValues()[1] );
+        assertEquals( "fast", mode.getDefaultValue()[0] );
+
+        assertEquals( 1, rmd.getDesignates().size() );
+        Designate designate = ( Designate ) rmd.getDesignates().get( 0 );
+        assertEquals( "test.pid", designate.getPid() );
+        assertNull( designate.getFactoryPid() );
+        assertEquals( "*", designate.getBundleLocation() );
+        assertTrue( designate.isOptional() );
+        assertEquals( "ocd", designate.getObject().getOcdRef() );
+        Attribute attr = ( Attribute ) designate.getObject().getAttributes().get( 0 );
+        assertEquals( "port", attr.getAdRef() );
+        assertEquals( "8081", attr.getContent()[0] );
+    }
+
+
+    public void testRemove()
+    {
+        MetaDataCache cache = new MetaDataCache( bundleContext );
+        cache.put( bundleContext.getBundle(), MetaDataCache.NO_DOCUMENTS );
+        cache.save();
+
+        cache.remove( bundleContext.getBundle().getBundleId() );
+        assertNull( cache.get( bundleContext.getBundle() ) );
+
+        cache.save();
+        assertNull( new MetaDataCache( bundleContext ).get( bundleContext.getBundle() ) );
+    }
+
+
+    public void testFragments()
+    {
+        Bundle fragment = createBundle( 11, 5, null );
+        bundleContext.bundle = createBundle( 10, 0, new Bundle[]
+            { createBundle( 12, 5, null ), fragment } );
+
+        MetaDataCache cache = new MetaDataCache( bundleContext );
+        cache.put( bundleContext.getBundle(), MetaDataCache.NO_DOCUMENTS );
+        cache.save();
+        assertSame( MetaDataCache.NO_DOCUMENTS, cache.get( bundleContext.getBundle() ) );
+
+        // the order of the fragments does not matter
+        bundleContext.bundle = createBundle( 10, 0, new Bundle[]
+            { fragment, createBundle( 12, 5, null ) } );
+        assertSame( MetaDataCache.NO_DOCUMENTS, new MetaDataCache( bundleContext ).get( bundleContext.getBundle() ) );
+
+        // an updated fragment may provide other documents
+        bundleContext.bundle = createBundle( 10, 0, new Bundle[]
+            { fragment, createBundle( 12, 6, null ) } );
+        assertNull( new MetaDataCache( bundleContext ).get( bundleContext.getBundle() ) );
+
+        // as may a detached one
+        bundleContext.bundle = createBundle( 10, 0, new Bundle[]
+            { fragment } );
+        assertNull( cache.get( bundleContext.getBundle() ) );
+    }
+
+
+    public void testDamagedFile() throws IOException
+    {
+        File file = new File( dataDir, MetaDataCache.CACHE_FILE );
+        FileOutputStream out = new FileOutputStream( file );
+        out.write( new byte[]
+            { 0x46, 0x4D, 0x54, 0x43, 0, 0, 0, 2, 0, 0, 0, 1, 0 } );
+        out.close();
+
+        MetaDataCache cache = new MetaDataCache( bundleContext );
+        assertNull( cache.get( bundleContext.getBundle() ) );
+        assertFalse( file.exists() );
+
+        // a fresh entry replaces the damaged file
+        cache.put( bundleContext.getBundle(), MetaDataCache.NO_DOCUMENTS );
+        cache.save();
+        assertSame( MetaDataCache.NO_DOCUMENTS, new MetaDataCache( bundleContext ).get( bundleContext.getBundle() ) );
+    }
+
+
+    public void testInvalidLength() throws IOException
+    {
+        File file = new File( dataDir, MetaDataCache.CACHE_FILE );
+        DataOutputStream out = new DataOutputStream( new FileOutputStream( file ) );
+        out.writeInt( 0x464D5443 );
+        out.writeInt( 2 );
+        out.writeInt( 1 );
+        out.writeLong( bundleContext.getBundle().getBundleId() );
+        out.writeInt( 1 );
+        out.writeLong( bundleContext.getBundle().getLastModified() );
+        out.writeInt( 1 );
+        // the length of the source path
+        out.writeInt( Integer.MAX_VALUE );
+        out.close();
+
+        MetaDataCache cache = new MetaDataCache( bundleContext );
+        assertNull( cache.get( bundleContext.getBundle() ) );
+        assertFalse( file.exists() );
+    }
+
+
+    public void testDefaultMetaTypeProviderReusesLocalizedDefinitions() throws IOException
+    {
+        MetaData md = new MetaDataReader().parse( new ByteArrayInputStream( DOCUMENT.getBytes( "UTF-8" ) ) );
+        Bundle bundle = bundleContext.getBundle();
+
+        MetaTypeInformationImpl mti = new MetaTypeInformationImpl( bundle );
+        mti.addMetaData( md );
+
+        assertSame( mti.getObjectClassDefinition( "test.pid", "en" ), mti.getObjectClassDefinition( "test.pid", "en" ) );
+        assertNotSame( mti.getObjectClassDefinition( "test.pid", "en" ), mti.getObjectClassDefinition( "test.pid", "de" ) );
+
+        AttributeDefinition[] ads = mti.getObjectClassDefinition( "test.pid", "en" ).getAttributeDefinitions( ObjectClassDefinition.REQUIRED );
+        assertEquals( 2, ads.length );
+        ads[0] = null;
+        assertNotNull( mti.getObjectClassDefinition( "test.pid", "en" ).getAttributeDefinitions( ObjectClassDefinition.REQUIRED )[0] );
+    }
+
+    /**
+     * Creates a bundle with the given fragments attached, which are
+     * only available through the PackageAdmin service.
+     */
+    private Bundle createBundle( final long bundleId, final long lastModified, final Bundle[] fragments )
+    {
+        if ( fragments != null )
+        {
+            bundleContext.fragments.put( new Long( bundleId ), fragments );
+            bundleContext.registerPackageAdmin();
+        }
+
+        return ( Bundle ) Proxy.newProxyInstance( MetaDataCacheTest.class.getClassLoader(), new Class[]
+            { Bundle.class }, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                if ( method.getName().equals( "getBundleId" ) )
+                {
+                    return new Long( bundleId );
+                }
+                if ( method.getName().equals( "getLastModified" ) )
+                {
+                    return new Long( lastModified );
+                }
+                if ( method.getName().equals( "getState" ) )
+                {
+                    return new Integer( Bundle.ACTIVE );
+                }
+                return null;
+            }
+        } );
+    }
+
+    private static class TestBundleContext extends MockBundleContext
+    {
+        private final File dataDir;
+
+        /** the bundle returned instead of the mock bundle if set */
+        Bundle bundle;
+
+        /** the fragments reported by the PackageAdmin service by host bundle ID */
+        final Map fragments = new HashMap();
+
+        private boolean packageAdminRegistered;
+
+
+        TestBundleContext( long bundleId, String bundleSymbolicName, File dataDir )
+        {
+            super( bundleId, bundleSymbolicName );
+            this.dataDir = dataDir;
+        }
+
+
+        public Bundle getBundle()
+        {
+            return ( bundle != null ) ? bundle : super.getBundle();
+        }
+
+
+        public File getDataFile( String name )
+        {
+            return new File( dataDir, name );
+        }
+
+
+        void registerPackageAdmin()
+        {
+            if ( packageAdminRegistered )
+            {
+                return;
+            }
+            registerService( PackageAdmin.class.getName(), Proxy.newProxyInstance( MetaDataCacheTest.class
+                .getClassLoader(), new Class[]
+                { PackageAdmin.class }, new InvocationHandler()
+            {
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    if ( method.getName().equals( "getFragments" ) )
+                    {
+                        return fragments.get( new Long( ( ( Bundle ) args[0] ).getBundleId() ) );
+                    }
+                    return null;
+                }
+            } ), new Hashtable() );
+            packageAdminRegistered = true;
+        }
+    }
+}
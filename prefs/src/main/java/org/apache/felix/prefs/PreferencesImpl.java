@@ -61,16 +61,30 @@ public class PreferencesImpl implements Preferences {
     /** The change set keeps track of all changes. */
     protected final ChangeSet changeSet = new ChangeSet();
 
+    /** The loader for the properties and children, null once loaded. */
+    protected NodeLoader loader;
+
     /**
      * Construct the root node of the tree.
      * @param d The unique description.
      * @param storeManager The backing store.
      */
     public PreferencesImpl(PreferencesDescription d, BackingStoreManager storeManager) {
+        this(d, storeManager, null);
+    }
+
+    /**
+     * Construct the root node of a tree which is loaded on access.
+     * @param d The unique description.
+     * @param storeManager The backing store.
+     * @param loader The loader for the root node.
+     */
+    public PreferencesImpl(PreferencesDescription d, BackingStoreManager storeManager, NodeLoader loader) {
         this.parent = null;
         this.name = "";
         this.description = d;
         this.storeManager = storeManager;
+        this.loader = loader;
     }
 
     /**
@@ -79,10 +93,49 @@ public class PreferencesImpl implements Preferences {
      * @param name The node name
      */
     public PreferencesImpl(PreferencesImpl p, String name) {
+        this(p, name, null);
+    }
+
+    /**
+     * Construct a child node which is loaded on access.
+     * @param p The parent node.
+     * @param name The node name
+     * @param loader The loader for the node.
+     */
+    protected PreferencesImpl(PreferencesImpl p, String name, NodeLoader loader) {
         this.parent = p;
         this.name = name;
         this.description = p.description;
         this.storeManager = p.storeManager;
+        this.loader = loader;
+    }
+
+    /**
+     * Has the content of this node been loaded?
+     * Nodes which have not been loaded yet have no changes.
+     */
+    public synchronized boolean isLoaded() {
+        return this.loader == null;
+    }
+
+    /**
+     * Load the properties and children of this node, if this
+     * has not been done yet. The change set is not updated.
+     */
+    protected synchronized void ensureLoaded() {
+        if ( this.loader != null ) {
+            final NodeLoader l = this.loader;
+            this.loader = null;
+            this.properties.putAll(l.loadProperties());
+            final Iterator i = l.loadChildren().entrySet().iterator();
+            while ( i.hasNext() ) {
+                final Map.Entry entry = (Map.Entry)i.next();
+                final String childName = (String)entry.getKey();
+                if ( !this.children.containsKey(childName) ) {
+                    this.children.put(childName, new PreferencesImpl(this, childName, (NodeLoader)entry.getValue()));
+                }
+            }
+        }
     }
 
     /**
@@ -116,6 +169,7 @@ public class PreferencesImpl implements Preferences {
      * @return A collection containing the children.
      */
     public Collection getChildren() {
+        this.ensureLoaded();
         return this.children.values();
     }
 
@@ -123,6 +177,7 @@ public class PreferencesImpl implements Preferences {
      * Return the properties set.
      */
     public Map getProperties() {
+        this.ensureLoaded();
         return this.properties;
     }
 
@@ -173,6 +228,7 @@ public class PreferencesImpl implements Preferences {
         this.checkValue(value);
 
         this.checkValidity();
+        this.ensureLoaded();
 
         this.properties.put(key, value);
         this.changeSet.propertyChanged(key);
@@ -183,6 +239,7 @@ public class PreferencesImpl implements Preferences {
      */
     public synchronized String get(String key, String def) {
         this.checkValidity();
+        this.ensureLoaded();
         String value = (String) this.properties.get(key);
         if ( value == null ) {
             value = def;
@@ -196,6 +253,7 @@ public class PreferencesImpl implements Preferences {
     public synchronized void remove(String key) {
         this.checkKey(key);
         this.checkValidity();
+        this.ensureLoaded();
 
         this.properties.remove(key);
         this.changeSet.propertyRemoved(key);
@@ -206,6 +264,7 @@ public class PreferencesImpl implements Preferences {
      */
     public synchronized void clear() throws BackingStoreException {
         this.checkValidity();
+        this.ensureLoaded();
 
         final Iterator i = this.properties.keySet().iterator();
         while ( i.hasNext() ) {
@@ -364,6 +423,7 @@ public class PreferencesImpl implements Preferences {
      */
     public synchronized String[] keys() throws BackingStoreException {
         this.sync();
+        this.ensureLoaded();
         final Set keys = this.properties.keySet();
         return (String[])keys.toArray(new String[keys.size()]);
     }
@@ -373,6 +433,7 @@ public class PreferencesImpl implements Preferences {
      */
     public synchronized String[] childrenNames() throws BackingStoreException {
         this.sync();
+        this.ensureLoaded();
         final Set names = this.children.keySet();
         return (String[])names.toArray(new String[names.size()]);
     }
@@ -448,6 +509,7 @@ public class PreferencesImpl implements Preferences {
         }
         synchronized ( this ) {
             this.checkValidity();
+            this.ensureLoaded();
 
             String subPath = null;
             int pos = path.indexOf('/');
@@ -532,6 +594,7 @@ public class PreferencesImpl implements Preferences {
         if ( this.valid ) {
             Collection c = null;
             synchronized ( this ) {
+                this.ensureLoaded();
                 this.valid = false;
                 this.properties.clear();
                 c = new ArrayList(this.children.values());
@@ -546,6 +609,7 @@ public class PreferencesImpl implements Preferences {
     }
 
     protected synchronized void removeChild(PreferencesImpl child) {
+        this.ensureLoaded();
         this.children.remove(child.name());
         this.changeSet.childRemoved(child.name());
     }
@@ -594,6 +658,8 @@ public class PreferencesImpl implements Preferences {
      * @param impl
      */
     public void update(PreferencesImpl impl) {
+        this.ensureLoaded();
+        impl.ensureLoaded();
         final Iterator i = impl.properties.entrySet().iterator();
         while ( i.hasNext() ) {
             final Map.Entry entry = (Map.Entry)i.next();
@@ -614,11 +680,46 @@ public class PreferencesImpl implements Preferences {
         }
     }
 
+    /**
+     * Update from a node loader of the backing store.
+     * Like {@link #update(PreferencesImpl)}, stored properties which are not
+     * set in this node are added and stored children which are missing are
+     * added. Nodes which have not been loaded yet are left untouched, as they
+     * will be loaded from the backing store on access.
+     * @param stored The loader for the stored version of this node.
+     */
+    public synchronized void update(NodeLoader stored) {
+        if ( this.loader != null ) {
+            return;
+        }
+        final Iterator i = stored.loadProperties().entrySet().iterator();
+        while ( i.hasNext() ) {
+            final Map.Entry entry = (Map.Entry)i.next();
+            if ( !this.properties.containsKey(entry.getKey()) ) {
+                this.properties.put(entry.getKey(), entry.getValue());
+            }
+        }
+        final Iterator cI = stored.loadChildren().entrySet().iterator();
+        while ( cI.hasNext() ) {
+            final Map.Entry entry = (Map.Entry)cI.next();
+            final String childName = (String)entry.getKey();
+            final NodeLoader childLoader = (NodeLoader)entry.getValue();
+            final PreferencesImpl child = (PreferencesImpl)this.children.get(childName);
+            if ( child == null ) {
+                this.children.put(childName, new PreferencesImpl(this, childName, childLoader));
+            } else {
+                child.update(childLoader);
+            }
+        }
+    }
+
     /***
      * Apply the changes done to the passed preferences object.
      * @param prefs
      */
     public void applyChanges(PreferencesImpl prefs) {
+        this.ensureLoaded();
+        prefs.ensureLoaded();
         final ChangeSet changeSet = prefs.getChangeSet();
         if ( changeSet.hasChanges ) {
             this.changeSet.importChanges(prefs.changeSet);
@@ -0,0 +1,1024 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.prefs.impl;
+
+import java.io.*;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import org.apache.felix.prefs.*;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.prefs.BackingStoreException;
+
+/**
+ * This implementation of the backing store keeps a journal for each
+ * preferences tree in the bundle data area.
+ *
+ * A journal starts with a header and is followed by frames of change records
+ * in a compact binary format. A frame is prefixed with its length and a
+ * checksum, so an incomplete frame at the end of a journal (e.g. after a crash)
+ * is detected and dropped. Storing a preferences tree only appends the changes
+ * to the journal and syncs it to the disk; once the journal has grown enough it
+ * is compacted by writing the current state of the tree to a new journal.
+ * Journals are only kept open while they are written.
+ *
+ * The journals are read into an in-memory image of the trees. The preferences
+ * nodes are created from this image on access.
+ *
+ * Preferences written by the {@link DataFileBackingStoreImpl} are migrated
+ * when they are loaded for the first time. The migrated file is kept with the
+ * {@link #MIGRATED_EXTENSION} once the journal has been verified.
+ */
+public class JournaledBackingStoreImpl implements BackingStore {
+
+    /** The magic number at the start of each journal. */
+    protected static final int MAGIC = 0x46504A4C;
+
+    /** The version of the journal format. */
+    protected static final int VERSION = 1;
+
+    /** The file extension for journals. */
+    protected static final String EXTENSION = ".journal";
+
+    /** The extension appended to data files once they have been migrated. */
+    protected static final String MIGRATED_EXTENSION = ".migrated";
+
+    /** Record: a node is created (id, parent id, name). */
+    protected static final byte RECORD_NODE = 1;
+
+    /** Record: a node and its children are removed (id). */
+    protected static final byte RECORD_REMOVE_NODE = 2;
+
+    /** Record: a property is set (id, key, value). */
+    protected static final byte RECORD_PUT = 3;
+
+    /** Record: a property is removed (id, key). */
+    protected static final byte RECORD_REMOVE = 4;
+
+    /** Journals smaller than this are never compacted. */
+    protected static final long COMPACTION_THRESHOLD = 32 * 1024;
+
+    /** Frames written during compaction are split at this size. */
+    protected static final int COMPACTION_FRAME_SIZE = 64 * 1024;
+
+    /** The bundle context. */
+    protected final BundleContext bundleContext;
+
+    /** The root directory (or null if not available) */
+    protected final File rootDirectory;
+
+    /** The store used to read preferences written by previous versions. */
+    protected final DataFileBackingStoreImpl legacyStore;
+
+    /** The trees read so far, indexed by the journal file name. */
+    protected final Map trees = new HashMap();
+
+    public JournaledBackingStoreImpl(BundleContext context) {
+        this(context, context.getDataFile(""));
+    }
+
+    public JournaledBackingStoreImpl(BundleContext context, File rootDirectory) {
+        this.bundleContext = context;
+        this.rootDirectory = rootDirectory;
+        this.legacyStore = new DataFileBackingStoreImpl(context, rootDirectory);
+    }
+
+    /**
+     * This method is invoked to check if the backing store is accessible right now.
+     * @throws BackingStoreException
+     */
+    protected void checkAccess() throws BackingStoreException {
+        if ( this.rootDirectory == null ) {
+            throw new BackingStoreException("Saving of data files to the bundle context is currently not supported.");
+        }
+    }
+
+    /**
+     * Drop the images of all trees.
+     */
+    public void close() {
+        synchronized ( this.trees ) {
+            this.trees.clear();
+        }
+    }
+
+    /**
+     * @see org.apache.felix.prefs.BackingStore#store(org.apache.felix.prefs.PreferencesImpl)
+     */
+    public void store(PreferencesImpl prefs) throws BackingStoreException {
+        final String[] path = getPath(prefs.absolutePath());
+        final List changes = new ArrayList();
+        this.collectChanges(prefs, path, changes);
+        // do we need to store at all?
+        if ( changes.isEmpty() ) {
+            return;
+        }
+        this.checkAccess();
+        final Tree tree = this.getTree(prefs.getDescription(), true);
+        synchronized ( tree ) {
+            try {
+                final RecordWriter writer = new RecordWriter();
+                tree.getOrCreateNode(path, writer);
+                final Iterator i = changes.iterator();
+                while ( i.hasNext() ) {
+                    final Change change = (Change) i.next();
+                    change.apply(tree, writer);
+                }
+                if ( writer.size() > 0 ) {
+                    this.append(tree, writer.toByteArray());
+                }
+            } catch (IOException ioe) {
+                // the image might be ahead of the journal now, so read it again next time
+                this.discard(tree);
+                throw new BackingStoreException("Unable to store preferences.", ioe);
+            }
+        }
+    }
+
+    /**
+     * Collect the changes of the node and all its loaded children.
+     * Nodes which have not been loaded yet can't have any changes.
+     */
+    protected void collectChanges(PreferencesImpl prefs, String[] path, List changes) {
+        final List children;
+        synchronized ( prefs ) {
+            if ( !prefs.isLoaded() ) {
+                return;
+            }
+            final ChangeSet changeSet = prefs.getChangeSet();
+            if ( changeSet.hasChanges() ) {
+                Iterator i = changeSet.getRemovedChildren().iterator();
+                while ( i.hasNext() ) {
+                    changes.add(new Change(RECORD_REMOVE_NODE, getChildPath(path, (String) i.next()), null, null));
+                }
+                i = changeSet.getAddedChildren().iterator();
+                while ( i.hasNext() ) {
+                    changes.add(new Change(RECORD_NODE, getChildPath(path, (String) i.next()), null, null));
+                }
+                i = changeSet.getRemovedProperties().iterator();
+                while ( i.hasNext() ) {
+                    changes.add(new Change(RECORD_REMOVE, path, (String) i.next(), null));
+                }
+                final Map properties = prefs.getProperties();
+                i = changeSet.getChangedProperties().iterator();
+                while ( i.hasNext() ) {
+                    final String key = (String) i.next();
+                    final String value = (String) properties.get(key);
+                    if ( value != null ) {
+                        changes.add(new Change(RECORD_PUT, path, key, value));
+                    }
+                }
+            }
+            children = new ArrayList(prefs.getChildren());
+        }
+        final Iterator i = children.iterator();
+        while ( i.hasNext() ) {
+            final PreferencesImpl child = (PreferencesImpl) i.next();
+            this.collectChanges(child, getChildPath(path, child.name()), changes);
+        }
+    }
+
+    /**
+     * @see org.apache.felix.prefs.BackingStore#update(org.apache.felix.prefs.PreferencesImpl)
+     */
+    public void update(PreferencesImpl prefs) throws BackingStoreException {
+        final Tree tree = this.getTree(prefs.getDescription(), false);
+        if ( tree != null ) {
+            final Node node;
+            synchronized ( tree ) {
+                node = tree.getNode(getPath(prefs.absolutePath()));
+            }
+            if ( node != null ) {
+                prefs.update(node);
+            }
+        }
+    }
+
+    /**
+     * @see org.apache.felix.prefs.BackingStore#availableBundles()
+     */
+    public Long[] availableBundles() {
+        // If the root directory is not available, then we do nothing!
+        try {
+            this.checkAccess();
+        } catch (BackingStoreException ignore) {
+            return new Long[0];
+        }
+        final Set bundleIds = new HashSet();
+        final Iterator i = this.getDescriptions().iterator();
+        while ( i.hasNext() ) {
+            bundleIds.add(((PreferencesDescription) i.next()).getBundleId());
+        }
+        return (Long[])bundleIds.toArray(new Long[bundleIds.size()]);
+    }
+
+    /**
+     * @see org.apache.felix.prefs.BackingStore#remove(java.lang.Long)
+     */
+    public void remove(Long bundleId) throws BackingStoreException {
+        this.checkAccess();
+        synchronized ( this.trees ) {
+            final Iterator i = this.trees.values().iterator();
+            while ( i.hasNext() ) {
+                final Tree tree = (Tree) i.next();
+                if ( tree.description.getBundleId().equals(bundleId) ) {
+                    i.remove();
+                }
+            }
+        }
+        final File[] children = listFiles(this.rootDirectory);
+        for( int i=0; i<children.length; i++ ) {
+            PreferencesDescription desc = this.getDescription(children[i]);
+            final String name = children[i].getName();
+            if ( desc == null && name.endsWith(MIGRATED_EXTENSION) ) {
+                desc = this.legacyStore.getDescription(new File(name.substring(0, name.length() - MIGRATED_EXTENSION.length())));
+            }
+            if ( desc != null && desc.getBundleId().equals(bundleId) ) {
+                deleteFile(children[i]);
+            }
+        }
+        this.legacyStore.remove(bundleId);
+    }
+
+    /**
+     * @see org.apache.felix.prefs.BackingStore#load(org.apache.felix.prefs.BackingStoreManager, org.apache.felix.prefs.PreferencesDescription)
+     */
+    public PreferencesImpl load(BackingStoreManager manager, PreferencesDescription desc) throws BackingStoreException {
+        this.checkAccess();
+        final Tree tree = this.getTree(desc, false);
+        if ( tree == null ) {
+            return null;
+        }
+        return new PreferencesImpl(desc, manager, tree.root);
+    }
+
+    /**
+     * @see org.apache.felix.prefs.BackingStore#loadAll(org.apache.felix.prefs.BackingStoreManager, java.lang.Long)
+     */
+    public PreferencesImpl[] loadAll(BackingStoreManager manager, Long bundleId) throws BackingStoreException {
+        this.checkAccess();
+        final List list = new ArrayList();
+        final Iterator i = this.getDescriptions().iterator();
+        while ( i.hasNext() ) {
+            final PreferencesDescription desc = (PreferencesDescription) i.next();
+            if ( desc.getBundleId().equals(bundleId) ) {
+                final PreferencesImpl root = this.load(manager, desc);
+                if ( root != null ) {
+                    list.add(root);
+                }
+            }
+        }
+        return (PreferencesImpl[])list.toArray(new PreferencesImpl[list.size()]);
+    }
+
+    /**
+     * Get the descriptions of all trees in the store, including the ones
+     * which have not been migrated yet.
+     */
+    protected Set getDescriptions() {
+        final Set descriptions = new HashSet();
+        final File[] children = listFiles(this.rootDirectory);
+        for( int i=0; i<children.length; i++ ) {
+            PreferencesDescription desc = this.getDescription(children[i]);
+            if ( desc == null ) {
+                desc = this.legacyStore.getDescription(children[i]);
+            }
+            if ( desc != null ) {
+                descriptions.add(desc);
+            }
+        }
+        return descriptions;
+    }
+
+    protected PreferencesDescription getDescription(File file) {
+        final String fileName = file.getName();
+        // parse the file name to get: bundle id, user|system identifer
+        if ( fileName.startsWith("P") && fileName.endsWith(EXTENSION) ) {
+            final String name = fileName.substring(1, fileName.length() - EXTENSION.length());
+            final String key;
+            final String identifier;
+            int pos = name.indexOf("_");
+            if ( pos != -1 ) {
+                identifier = name.substring(pos+1);
+                key = name.substring(0, pos);
+            } else {
+                key = name;
+                identifier = null;
+            }
+            try {
+                return new PreferencesDescription(Long.valueOf(key), identifier);
+            } catch (NumberFormatException ignore) {
+                // not one of our files
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the journal of the preferences tree.
+     */
+    protected File getFile(PreferencesDescription desc) {
+        final StringBuffer buffer = new StringBuffer("P");
+        buffer.append(desc.getBundleId());
+        if ( desc.getIdentifier() != null ) {
+            buffer.append('_');
+            buffer.append(desc.getIdentifier());
+        }
+        buffer.append(EXTENSION);
+        return new File(this.rootDirectory, buffer.toString());
+    }
+
+    /**
+     * Get the image of a tree, reading or migrating it if required.
+     * @param desc The description of the tree.
+     * @param create Whether an empty tree should be created if it does not exist yet.
+     * @return The tree or null.
+     */
+    protected Tree getTree(PreferencesDescription desc, boolean create)
+    throws BackingStoreException {
+        final File file = this.getFile(desc);
+        synchronized ( this.trees ) {
+            Tree tree = (Tree) this.trees.get(file.getName());
+            if ( tree == null ) {
+                try {
+                    if ( fileExists(file) ) {
+                        tree = new Tree(desc, file);
+                        this.read(tree);
+                    } else {
+                        tree = this.migrate(desc, file);
+                        if ( tree == null && create ) {
+                            tree = new Tree(desc, file);
+                        }
+                    }
+                } catch (IOException ioe) {
+                    throw new BackingStoreException("Unable to load preferences.", ioe);
+                }
+                if ( tree != null ) {
+                    this.trees.put(file.getName(), tree);
+                }
+            }
+            return tree;
+        }
+    }
+
+    /**
+     * Forget the image of a tree, so it is read again from the journal.
+     */
+    protected void discard(Tree tree) {
+        synchronized ( this.trees ) {
+            if ( this.trees.get(tree.file.getName()) == tree ) {
+                this.trees.remove(tree.file.getName());
+            }
+        }
+    }
+
+    /**
+     * Migrate a tree stored by the {@link DataFileBackingStoreImpl}.
+     * The data file is only renamed once the journal has been written
+     * and read again with the same contents, otherwise it is left in
+     * place and the migration is retried the next time.
+     * @return The migrated tree or null if there is no such tree.
+     */
+    protected Tree migrate(PreferencesDescription desc, File file)
+    throws BackingStoreException, IOException {
+        final File legacyFile = this.legacyStore.getFile(desc);
+        if ( !fileExists(legacyFile) ) {
+            return null;
+        }
+        // reading adds nodes using the preferences api which tries to flush them, avoid this
+        final PreferencesImpl legacy = this.legacyStore.load(new BackingStoreManager() {
+            public BackingStore getStore() throws BackingStoreException {
+                throw new BackingStoreException("Migrating preferences.");
+            }
+        }, desc);
+        final Tree tree = new Tree(desc, file);
+        this.copy(legacy, tree.root, tree);
+        synchronized ( tree ) {
+            this.compact(tree);
+        }
+        final Tree migrated = new Tree(desc, file);
+        this.read(migrated);
+        if ( !equals(tree.root, migrated.root) ) {
+            deleteFile(file);
+            throw new IOException("Verification of migrated preferences failed for " + legacyFile);
+        }
+        // if this fails the data file is just left in place, the journal takes precedence
+        renameFile(legacyFile, new File(legacyFile.getPath() + MIGRATED_EXTENSION));
+        return migrated;
+    }
+
+    /**
+     * Compare the properties and children of two nodes recursively.
+     */
+    private static boolean equals(Node node, Node other) {
+        if ( !node.properties.equals(other.properties) || !node.children.keySet().equals(other.children.keySet()) ) {
+            return false;
+        }
+        final Iterator i = node.children.entrySet().iterator();
+        while ( i.hasNext() ) {
+            final Map.Entry entry = (Map.Entry) i.next();
+            if ( !equals((Node) entry.getValue(), (Node) other.children.get(entry.getKey())) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void copy(PreferencesImpl prefs, Node node, Tree tree) {
+        node.properties.putAll(prefs.getProperties());
+        final Iterator i = prefs.getChildren().iterator();
+        while ( i.hasNext() ) {
+            final PreferencesImpl child = (PreferencesImpl) i.next();
+            this.copy(child, tree.createNode(node, child.name()), tree);
+        }
+    }
+
+    /**
+     * Read the journal into the image of the tree.
+     */
+    protected void read(final Tree tree) throws IOException {
+        final long validLength = ((Long) doPrivileged(new PrivilegedExceptionAction() {
+            public Object run() throws IOException {
+                final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(tree.file)));
+                try {
+                    final int magic;
+                    final int version;
+                    try {
+                        magic = in.readInt();
+                        version = in.readUnsignedByte();
+                    } catch (EOFException incomplete) {
+                        // the journal is written again on the next change
+                        return new Long(0);
+                    }
+                    if ( magic != MAGIC || version != VERSION ) {
+                        throw new IOException("Unsupported preferences journal " + tree.file);
+                    }
+                    long position = 5;
+                    final CRC32 crc = new CRC32();
+                    for(;;) {
+                        final int length;
+                        final int checksum;
+                        final byte[] frame;
+                        try {
+                            length = in.readInt();
+                            checksum = in.readInt();
+                            if ( length <= 0 ) {
+                                break;
+                            }
+                            frame = new byte[length];
+                            in.readFully(frame);
+                        } catch (EOFException incomplete) {
+                            break;
+                        }
+                        crc.reset();
+                        crc.update(frame);
+                        if ( (int) crc.getValue() != checksum ) {
+                            break;
+                        }
+                        tree.replay(frame);
+                        position += 8 + length;
+                    }
+                    return new Long(position);
+                } finally {
+                    in.close();
+                }
+            }
+        })).longValue();
+        tree.length = validLength;
+        tree.compactedLength = validLength;
+    }
+
+    /**
+     * Append a frame of records to the journal and sync it to the disk.
+     * Every store is a flush of the preferences, so the journal is not
+     * kept open in between.
+     */
+    protected void append(final Tree tree, final byte[] records) throws IOException {
+        doPrivileged(new PrivilegedExceptionAction() {
+            public Object run() throws IOException {
+                if ( tree.length == 0 ) {
+                    tree.length = writeJournal(tree.file, null);
+                    tree.compactedLength = tree.length;
+                }
+                final RandomAccessFile journal = new RandomAccessFile(tree.file, "rw");
+                try {
+                    if ( journal.length() != tree.length ) {
+                        // drops an incomplete frame at the end
+                        journal.setLength(tree.length);
+                    }
+                    journal.seek(tree.length);
+                    journal.write(frame(records));
+                    journal.getFD().sync();
+                } finally {
+                    journal.close();
+                }
+                tree.length += 8 + records.length;
+                return null;
+            }
+        });
+        if ( tree.length > COMPACTION_THRESHOLD && tree.length > 2 * tree.compactedLength ) {
+            this.compact(tree);
+        }
+    }
+
+    /**
+     * Write the current image of the tree as a new journal.
+     */
+    protected void compact(final Tree tree) throws IOException {
+        final List frames = new ArrayList();
+        final RecordWriter writer = new RecordWriter();
+        tree.writeSnapshot(tree.root, writer, frames);
+        if ( writer.size() > 0 ) {
+            frames.add(writer.toByteArray());
+        }
+        doPrivileged(new PrivilegedExceptionAction() {
+            public Object run() throws IOException {
+                final File tmpFile = new File(tree.file.getPath() + ".tmp");
+                tree.length = writeJournal(tmpFile, frames);
+                tree.compactedLength = tree.length;
+                if ( !tmpFile.renameTo(tree.file) ) {
+                    // some platforms do not replace existing files
+                    tree.file.delete();
+                    if ( !tmpFile.renameTo(tree.file) ) {
+                        throw new IOException("Unable to replace preferences journal " + tree.file);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Write a journal with the given frames.
+     * @return The length of the journal.
+     */
+    protected static long writeJournal(File file, List frames) throws IOException {
+        final FileOutputStream fos = new FileOutputStream(file);
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            if ( frames != null ) {
+                final Iterator i = frames.iterator();
+                while ( i.hasNext() ) {
+                    out.write(frame((byte[]) i.next()));
+                }
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+        return out.size();
+    }
+
+    /**
+     * Prefix the records with the length and the checksum.
+     */
+    protected static byte[] frame(byte[] records) {
+        final CRC32 crc = new CRC32();
+        crc.update(records);
+        final int checksum = (int) crc.getValue();
+        final byte[] frame = new byte[8 + records.length];
+        for(int i=0; i<4; i++) {
+            frame[i] = (byte) (records.length >>> (24 - 8 * i));
+            frame[4 + i] = (byte) (checksum >>> (24 - 8 * i));
+        }
+        System.arraycopy(records, 0, frame, 8, records.length);
+        return frame;
+    }
+
+    /**
+     * Split an absolute path into the node names.
+     */
+    protected static String[] getPath(String absolutePath) {
+        final StringTokenizer st = new StringTokenizer(absolutePath, "/");
+        final String[] path = new String[st.countTokens()];
+        for(int i=0; i<path.length; i++) {
+            path[i] = st.nextToken();
+        }
+        return path;
+    }
+
+    protected static String[] getChildPath(String[] path, String name) {
+        final String[] childPath = new String[path.length + 1];
+        System.arraycopy(path, 0, childPath, 0, path.length);
+        childPath[path.length] = name;
+        return childPath;
+    }
+
+    /**
+     * A change collected from the change sets of the preferences nodes.
+     */
+    protected static final class Change {
+
+        protected final byte type;
+
+        protected final String[] path;
+
+        protected final String key;
+
+        protected final String value;
+
+        public Change(byte type, String[] path, String key, String value) {
+            this.type = type;
+            this.path = path;
+            this.key = key;
+            this.value = value;
+        }
+
+        /**
+         * Apply the change to the image of the tree and write the records
+         * for it. Changes which don't change the image are not written.
+         */
+        public void apply(Tree tree, RecordWriter writer) throws IOException {
+            switch ( this.type ) {
+                case RECORD_NODE:
+                    tree.getOrCreateNode(this.path, writer);
+                    break;
+                case RECORD_REMOVE_NODE:
+                    final Node removed = tree.getNode(this.path);
+                    if ( removed != null ) {
+                        tree.removeNode(removed);
+                        writer.writeByte(RECORD_REMOVE_NODE);
+                        writer.writeVarInt(removed.id);
+                    }
+                    break;
+                case RECORD_PUT:
+                    final Node node = tree.getOrCreateNode(this.path, writer);
+                    synchronized ( node ) {
+                        if ( this.value.equals(node.properties.get(this.key)) ) {
+                            return;
+                        }
+                        node.properties.put(this.key, this.value);
+                    }
+                    writer.writeByte(RECORD_PUT);
+                    writer.writeVarInt(node.id);
+                    writer.writeString(this.key);
+                    writer.writeString(this.value);
+                    break;
+                case RECORD_REMOVE:
+                    final Node current = tree.getNode(this.path);
+                    if ( current != null ) {
+                        synchronized ( current ) {
+                            if ( current.properties.remove(this.key) == null ) {
+                                return;
+                            }
+                        }
+                        writer.writeByte(RECORD_REMOVE);
+                        writer.writeVarInt(current.id);
+                        writer.writeString(this.key);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The in-memory image of a preferences tree.
+     * All methods must be called while holding the lock of the tree.
+     */
+    protected static final class Tree {
+
+        protected final PreferencesDescription description;
+
+        protected final File file;
+
+        protected final Node root = new Node(0, null, "");
+
+        /** All nodes indexed by their id. */
+        protected final Map nodes = new HashMap();
+
+        protected int nextId = 1;
+
+        /** The length of the valid part of the journal. */
+        protected long length;
+
+        /** The length of the journal after the last compaction. */
+        protected long compactedLength;
+
+        public Tree(PreferencesDescription description, File file) {
+            this.description = description;
+            this.file = file;
+            this.nodes.put(new Integer(0), this.root);
+        }
+
+        public Node getNode(String[] path) {
+            Node node = this.root;
+            for(int i=0; node != null && i<path.length; i++) {
+                node = (Node) node.children.get(path[i]);
+            }
+            return node;
+        }
+
+        /**
+         * Get the node, creating missing nodes and writing the records for them.
+         */
+        public Node getOrCreateNode(String[] path, RecordWriter writer) throws IOException {
+            Node node = this.root;
+            for(int i=0; i<path.length; i++) {
+                Node child = (Node) node.children.get(path[i]);
+                if ( child == null ) {
+                    child = this.createNode(node, path[i]);
+                    writer.writeByte(RECORD_NODE);
+                    writer.writeVarInt(child.id);
+                    writer.writeVarInt(node.id);
+                    writer.writeString(child.name);
+                }
+                node = child;
+            }
+            return node;
+        }
+
+        public Node createNode(Node parent, String name) {
+            return this.addNode(this.nextId++, parent, name);
+        }
+
+        private Node addNode(int id, Node parent, String name) {
+            final Node node = new Node(id, parent, name);
+            this.nodes.put(new Integer(id), node);
+            synchronized ( parent ) {
+                parent.children.put(name, node);
+            }
+            return node;
+        }
+
+        public void removeNode(Node node) {
+            synchronized ( node.parent ) {
+                node.parent.children.remove(node.name);
+            }
+            this.discardNode(node);
+        }
+
+        private void discardNode(Node node) {
+            final List children;
+            synchronized ( node ) {
+                children = new ArrayList(node.children.values());
+                node.children.clear();
+                node.properties.clear();
+            }
+            this.nodes.remove(new Integer(node.id));
+            final Iterator i = children.iterator();
+            while ( i.hasNext() ) {
+                this.discardNode((Node) i.next());
+            }
+        }
+
+        private Node getNode(int id) throws IOException {
+            final Node node = (Node) this.nodes.get(new Integer(id));
+            if ( node == null ) {
+                throw new IOException("Corrupt preferences journal " + this.file + ": unknown node " + id);
+            }
+            return node;
+        }
+
+        /**
+         * Apply the records of a frame read from the journal.
+         */
+        public void replay(byte[] frame) throws IOException {
+            final RecordReader reader = new RecordReader(frame);
+            while ( reader.available() > 0 ) {
+                final int type = reader.readByte();
+                switch ( type ) {
+                    case RECORD_NODE:
+                        final int id = reader.readVarInt();
+                        final Node parent = this.getNode(reader.readVarInt());
+                        this.addNode(id, parent, reader.readString());
+                        if ( id >= this.nextId ) {
+                            this.nextId = id + 1;
+                        }
+                        break;
+                    case RECORD_REMOVE_NODE:
+                        this.removeNode(this.getNode(reader.readVarInt()));
+                        break;
+                    case RECORD_PUT:
+                        final Node node = this.getNode(reader.readVarInt());
+                        final String key = reader.readString();
+                        node.properties.put(key, reader.readString());
+                        break;
+                    case RECORD_REMOVE:
+                        this.getNode(reader.readVarInt()).properties.remove(reader.readString());
+                        break;
+                    default:
+                        throw new IOException("Corrupt preferences journal " + this.file + ": unknown record " + type);
+                }
+            }
+        }
+
+        /**
+         * Write the records recreating the node and its children.
+         */
+        public void writeSnapshot(Node node, RecordWriter writer, List frames) throws IOException {
+            final List children;
+            synchronized ( node ) {
+                if ( node != this.root ) {
+                    writer.writeByte(RECORD_NODE);
+                    writer.writeVarInt(node.id);
+                    writer.writeVarInt(node.parent.id);
+                    writer.writeString(node.name);
+                }
+                final Iterator i = node.properties.entrySet().iterator();
+                while ( i.hasNext() ) {
+                    final Map.Entry entry = (Map.Entry) i.next();
+                    writer.writeByte(RECORD_PUT);
+                    writer.writeVarInt(node.id);
+                    writer.writeString((String) entry.getKey());
+                    writer.writeString((String) entry.getValue());
+                }
+                children = new ArrayList(node.children.values());
+            }
+            if ( writer.size() >= COMPACTION_FRAME_SIZE ) {
+                frames.add(writer.toByteArray());
+                writer.reset();
+            }
+            final Iterator i = children.iterator();
+            while ( i.hasNext() ) {
+                this.writeSnapshot((Node) i.next(), writer, frames);
+            }
+        }
+    }
+
+    /**
+     * A node of the in-memory image. The node is used as the loader
+     * for the preferences node with the same path.
+     */
+    protected static final class Node implements NodeLoader {
+
+        protected final int id;
+
+        protected final Node parent;
+
+        protected final String name;
+
+        protected final Map properties = new HashMap();
+
+        protected final Map children = new HashMap();
+
+        public Node(int id, Node parent, String name) {
+            this.id = id;
+            this.parent = parent;
+            this.name = name;
+        }
+
+        /**
+         * @see org.apache.felix.prefs.NodeLoader#loadProperties()
+         */
+        public synchronized Map loadProperties() {
+            return new HashMap(this.properties);
+        }
+
+        /**
+         * @see org.apache.felix.prefs.NodeLoader#loadChildren()
+         */
+        public synchronized Map loadChildren() {
+            return new HashMap(this.children);
+        }
+    }
+
+    /**
+     * Writes records using variable length integers and
+     * length prefixed UTF-8 strings.
+     */
+    protected static final class RecordWriter extends ByteArrayOutputStream {
+
+        public void writeByte(int value) {
+            this.write(value);
+        }
+
+        public void writeVarInt(int value) {
+            while ( (value & ~0x7F) != 0 ) {
+                this.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.write(value);
+        }
+
+        public void writeString(String value) throws IOException {
+            final byte[] bytes = value.getBytes("UTF-8");
+            this.writeVarInt(bytes.length);
+            this.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Reads the records written by the {@link RecordWriter}.
+     */
+    protected static final class RecordReader {
+
+        private final byte[] buffer;
+
+        private int position;
+
+        public RecordReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        public int available() {
+            return this.buffer.length - this.position;
+        }
+
+        public int readByte() throws IOException {
+            if ( this.position >= this.buffer.length ) {
+                throw new EOFException("Truncated preferences record.");
+            }
+            return this.buffer[this.position++] & 0xFF;
+        }
+
+        public int readVarInt() throws IOException {
+            int value = 0;
+            for(int shift = 0; shift < 32; shift += 7) {
+                final int b = this.readByte();
+                value |= (b & 0x7F) << shift;
+                if ( (b & 0x80) == 0 ) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed preferences record.");
+        }
+
+        public String readString() throws IOException {
+            final int length = this.readVarInt();
+            if ( length < 0 || length > this.available() ) {
+                throw new EOFException("Truncated preferences record.");
+            }
+            final String value = new String(this.buffer, this.position, length, "UTF-8");
+            this.position += length;
+            return value;
+        }
+    }
+
+    // few utility methods to access File APIs from a privileged block
+
+    private static Object doPrivileged(PrivilegedExceptionAction action) throws IOException {
+        try {
+            return AccessController.doPrivileged(action);
+        } catch (PrivilegedActionException e) {
+            throw (IOException) e.getException();
+        }
+    }
+
+    private static File[] listFiles(final File file) {
+        try {
+            final File[] files = (File[]) doPrivileged(new PrivilegedExceptionAction() {
+                public Object run() {
+                    return file.listFiles();
+                }
+            });
+            return files == null ? new File[0] : files;
+        } catch (IOException ignore) {
+            return new File[0];
+        }
+    }
+
+    private static boolean fileExists(final File file) throws IOException {
+        return ((Boolean) doPrivileged(new PrivilegedExceptionAction() {
+            public Object run() {
+                return (file.exists() ? Boolean.TRUE : Boolean.FALSE);
+            }
+        })).booleanValue();
+    }
+
+    private static void renameFile(final File file, final File target) {
+        try {
+            doPrivileged(new PrivilegedExceptionAction() {
+                public Object run() {
+                    target.delete();
+                    return (file.renameTo(target) ? Boolean.TRUE : Boolean.FALSE);
+                }
+            });
+        } catch (IOException ignore) {
+            // ignore
+        }
+    }
+
+    private static void deleteFile(final File file) {
+        try {
+            doPrivileged(new PrivilegedExceptionAction() {
+                public Object run() {
+                    return (file.delete() ? Boolean.TRUE : Boolean.FALSE);
+                }
+            });
+        } catch (IOException ignore) {
+            // ignore
+        }
+    }
+}
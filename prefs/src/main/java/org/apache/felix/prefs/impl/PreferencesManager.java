@@ -119,6 +119,9 @@ public class PreferencesManager
             this.storeTracker.close();
             this.storeTracker = null;
         }
+        if (this.defaultStore instanceof JournaledBackingStoreImpl) {
+            ((JournaledBackingStoreImpl) this.defaultStore).close();
+        }
         this.defaultStore = null;
 
         // stop tracking log service
@@ -211,7 +214,7 @@ public class PreferencesManager
 	            if (this.defaultStore == null) {
 	                synchronized (this) {
 	                    if (this.defaultStore == null) {
-	                        this.defaultStore = new DataFileBackingStoreImpl(this.context);
+	                        this.defaultStore = new JournaledBackingStoreImpl(this.context);
 	                        this.cleanupStore(this.defaultStore);
 	                    }
 	                }
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.prefs.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.felix.prefs.BackingStore;
+import org.apache.felix.prefs.BackingStoreManager;
+import org.apache.felix.prefs.PreferencesDescription;
+import org.apache.felix.prefs.PreferencesImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.service.prefs.BackingStoreException;
+
+public class JournaledBackingStoreImplTest {
+
+    private static final PreferencesDescription DESC = new PreferencesDescription(new Long(5), "user");
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+        this.root = File.createTempFile("prefs", ".dir");
+        this.root.delete();
+        this.root.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = this.root.listFiles();
+        for(int i=0; files != null && i<files.length; i++) {
+            files[i].delete();
+        }
+        this.root.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws BackingStoreException {
+        final JournaledBackingStoreImpl store = new JournaledBackingStoreImpl(null, this.root);
+        final PreferencesImpl prefs = this.create(store);
+        prefs.put("top", "1");
+        prefs.node("a/b").put("key", "value");
+        prefs.node("a/b").put("gone", "x");
+        prefs.node("c").put("other", "2");
+        prefs.flush();
+        prefs.node("a/b").remove("gone");
+        prefs.node("c").removeNode();
+        prefs.flush();
+        store.close();
+
+        final PreferencesImpl loaded = this.load(new JournaledBackingStoreImpl(null, this.root));
+        assertEquals("1", loaded.get("top", null));
+        assertEquals("value", loaded.node("a/b").get("key", null));
+        assertNull(loaded.node("a/b").get("gone", null));
+        assertFalse(loaded.nodeExists("c"));
+    }
+
+    @Test
+    public void testCompaction() throws BackingStoreException {
+        final JournaledBackingStoreImpl store = new JournaledBackingStoreImpl(null, this.root);
+        final PreferencesImpl prefs = this.create(store);
+        final File journal = store.getFile(DESC);
+        long maxLength = 0;
+        for(int i=0; i<2000; i++) {
+            prefs.put("counter", "value number " + i);
+            prefs.node("child").put("static", "unchanged");
+            prefs.flush();
+            maxLength = Math.max(maxLength, journal.length());
+        }
+        // without compaction the journal would be well beyond 40K
+        assertTrue(maxLength <= JournaledBackingStoreImpl.COMPACTION_THRESHOLD + 64);
+        assertTrue(journal.length() < JournaledBackingStoreImpl.COMPACTION_THRESHOLD);
+        assertFalse(new File(journal.getPath() + ".tmp").exists());
+
+        final PreferencesImpl loaded = this.load(new JournaledBackingStoreImpl(null, this.root));
+        assertEquals("value number 1999", loaded.get("counter", null));
+        assertEquals("unchanged", loaded.node("child").get("static", null));
+    }
+
+    @Test
+    public void testTruncatedFrame() throws Exception {
+        final File journal = this.writeTwoFrames();
+        final RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+        this.checkLastFrameDropped();
+    }
+
+    @Test
+    public void testDamagedFrame() throws Exception {
+        final File journal = this.writeTwoFrames();
+        final RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+        raf.seek(raf.length() - 2);
+        final int b = raf.read();
+        raf.seek(raf.length() - 2);
+        raf.write(b ^ 0xFF);
+        raf.close();
+        this.checkLastFrameDropped();
+    }
+
+    @Test
+    public void testMigration() throws BackingStoreException {
+        final DataFileBackingStoreImpl legacy = new DataFileBackingStoreImpl(null, this.root);
+        final PreferencesImpl old = this.create(legacy);
+        old.put("top", "1");
+        old.node("a/b").put("key", "value");
+        old.flush();
+        final File legacyFile = legacy.getFile(DESC);
+        assertTrue(legacyFile.exists());
+
+        final JournaledBackingStoreImpl store = new JournaledBackingStoreImpl(null, this.root);
+        assertEquals(1, store.availableBundles().length);
+        final PreferencesImpl migrated = this.load(store);
+        assertEquals("1", migrated.get("top", null));
+        assertEquals("value", migrated.node("a/b").get("key", null));
+
+        // the data file is kept next to the verified journal
+        assertTrue(store.getFile(DESC).exists());
+        assertFalse(legacyFile.exists());
+        final File kept = new File(legacyFile.getPath() + JournaledBackingStoreImpl.MIGRATED_EXTENSION);
+        assertTrue(kept.exists());
+        assertEquals(1, store.availableBundles().length);
+
+        // a new store reads the journal
+        final PreferencesImpl loaded = this.load(new JournaledBackingStoreImpl(null, this.root));
+        assertEquals("value", loaded.node("a/b").get("key", null));
+
+        // uninstalling the bundle removes both
+        store.remove(DESC.getBundleId());
+        assertFalse(store.getFile(DESC).exists());
+        assertFalse(kept.exists());
+    }
+
+    private File writeTwoFrames() throws BackingStoreException {
+        final JournaledBackingStoreImpl store = new JournaledBackingStoreImpl(null, this.root);
+        final PreferencesImpl prefs = this.create(store);
+        prefs.put("first", "1");
+        prefs.flush();
+        prefs.put("second", "2");
+        prefs.flush();
+        store.close();
+        return store.getFile(DESC);
+    }
+
+    private void checkLastFrameDropped() throws BackingStoreException {
+        final JournaledBackingStoreImpl store = new JournaledBackingStoreImpl(null, this.root);
+        final PreferencesImpl loaded = this.load(store);
+        assertEquals("1", loaded.get("first", null));
+        assertNull(loaded.get("second", null));
+
+        // appending after the damaged frame replaces it
+        loaded.put("third", "3");
+        loaded.flush();
+        final PreferencesImpl reloaded = this.load(new JournaledBackingStoreImpl(null, this.root));
+        assertEquals("1", reloaded.get("first", null));
+        assertNull(reloaded.get("second", null));
+        assertEquals("3", reloaded.get("third", null));
+    }
+
+    private PreferencesImpl create(BackingStore store) {
+        return new PreferencesImpl(DESC, new Manager(store));
+    }
+
+    private PreferencesImpl load(BackingStore store) throws BackingStoreException {
+        final PreferencesImpl prefs = store.load(new Manager(store), DESC);
+        assertNotNull(prefs);
+        return prefs;
+    }
+
+    private static final class Manager implements BackingStoreManager {
+
+        private final BackingStore store;
+
+        public Manager(BackingStore store) {
+            this.store = store;
+        }
+
+        public BackingStore getStore() {
+            return this.store;
+        }
+    }
+}
@@ -380,7 +380,7 @@ class Candidates
             {
                 for (Requirement dependent : dependents)
                 {
-                    List<Capability> candidates = m_candidateMap.get(dependent);
+                    List<Capability> candidates = m_candidateMap.getForWrite(dependent);
                     if (candidates != null)
                     {
                         candidates:
@@ -678,7 +678,7 @@ class Candidates
         m_candidateMap.put(req, new CopyOnWriteList<Capability>(candidates));
         for (Capability cap : candidates)
         {
-            m_dependentMap.getOrCompute(cap).add(req);
+            m_dependentMap.getOrComputeForWrite(cap).add(req);
         }
     }
 
@@ -741,7 +741,7 @@ class Candidates
 
     public void removeFirstCandidate(Requirement req)
     {
-        List<Capability> candidates = m_candidateMap.get(req);
+        List<Capability> candidates = m_candidateMap.getForWrite(req);
         // Remove the conflicting candidate.
         Capability cap = candidates.remove(0);
         if (candidates.isEmpty())
@@ -749,16 +749,16 @@ class Candidates
             m_candidateMap.remove(req);
         }
         // Update the delta with the removed capability
-        CopyOnWriteSet<Capability> capPath = m_delta.getOrCompute(req);
+        CopyOnWriteSet<Capability> capPath = m_delta.getOrComputeForWrite(req);
         capPath.add(cap);
     }
 
     public List<Capability> clearCandidates(Requirement req, Collection<Capability> caps)
     {
-        List<Capability> l = m_candidateMap.get(req);
+        List<Capability> l = m_candidateMap.getForWrite(req);
         l.removeAll(caps);
         // Update candidates delta with the removed capabilities.
-        CopyOnWriteSet<Capability> capPath = m_delta.getOrCompute(req);
+        CopyOnWriteSet<Capability> capPath = m_delta.getOrComputeForWrite(req);
         capPath.addAll(caps);
         return l;
     }
@@ -836,8 +836,8 @@ class Candidates
                         // unselected for later removal.
                         else
                         {
-                            m_dependentMap.get(hostCap).remove(hostReq);
-                            List<Capability> hosts = m_candidateMap.get(hostReq);
+                            m_dependentMap.getForWrite(hostCap).remove(hostReq);
+                            List<Capability> hosts = m_candidateMap.getForWrite(hostReq);
                             hosts.remove(hostCap);
                             if (hosts.isEmpty())
                             {
@@ -960,7 +960,7 @@ class Candidates
                     m_candidateMap.put(r, new CopyOnWriteList<Capability>(cands));
                     for (Capability cand : cands)
                     {
-                        Set<Requirement> dependents = m_dependentMap.get(cand);
+                        Set<Requirement> dependents = m_dependentMap.getForWrite(cand);
                         dependents.remove(origReq);
                         dependents.add(r);
                     }
@@ -1099,7 +1099,7 @@ class Candidates
         {
             for (Capability cap : candidates)
             {
-                Set<Requirement> dependents = m_dependentMap.get(cap);
+                Set<Requirement> dependents = m_dependentMap.getForWrite(cap);
                 if (dependents != null)
                 {
                     dependents.remove(req);
@@ -1124,7 +1124,7 @@ class Candidates
         {
             for (Requirement r : dependents)
             {
-                List<Capability> candidates = m_candidateMap.get(r);
+                List<Capability> candidates = m_candidateMap.getForWrite(r);
                 candidates.remove(c);
                 if (candidates.isEmpty())
                 {
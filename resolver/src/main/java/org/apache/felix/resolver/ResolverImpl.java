@@ -88,6 +88,14 @@ public class ResolverImpl implements Resolver
         private Candidates m_multipleCardCandidates = null;
 
         private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
+        // Holds the wire candidates and package spaces computed for the last
+        // checked permutation, so that the next permutation only needs to
+        // recompute the package spaces of the resources it affects.
+        private Map<Resource, List<WireCandidate>> m_lastWireCandidates = null;
+        private Map<Resource, Packages> m_lastPackages = null;
+        // Holds the hosts whose package space was found consistent and
+        // has not been affected by the permutations checked since.
+        private final Set<Resource> m_consistentHosts = new HashSet<Resource>();
 
         ResolveSession(ResolveContext resolveContext)
         {
@@ -112,6 +120,44 @@ public class ResolverImpl implements Resolver
         public ConcurrentMap<String, List<String>> getUsesCache() {
             return m_usesCache;
         }
+
+        Map<Resource, List<WireCandidate>> getLastWireCandidates()
+        {
+            return m_lastWireCandidates;
+        }
+
+        Map<Resource, Packages> getLastPackages()
+        {
+            return m_lastPackages;
+        }
+
+        void setPackageSpaces(
+            Map<Resource, List<WireCandidate>> wireCandidates,
+            Map<Resource, Packages> packages,
+            Set<Resource> affected)
+        {
+            m_lastWireCandidates = wireCandidates;
+            m_lastPackages = packages;
+            m_consistentHosts.removeAll(affected);
+            m_consistentHosts.retainAll(packages.keySet());
+        }
+
+        boolean isConsistent(Resource host)
+        {
+            return m_consistentHosts.contains(host);
+        }
+
+        void setConsistent(Resource host)
+        {
+            m_consistentHosts.add(host);
+        }
+
+        void clearPackageSpaces()
+        {
+            m_lastWireCandidates = null;
+            m_lastPackages = null;
+            m_consistentHosts.clear();
+        }
     }
 
     public ResolverImpl(Logger logger)
@@ -199,6 +245,10 @@ public class ResolverImpl implements Resolver
             retry = false;
             try
             {
+                // Package spaces of a previous attempt cannot be reused
+                // since the set of resources being resolved changed.
+                session.clearPackageSpaces();
+
                 // Create object to hold all candidates.
                 Candidates allCandidates = new Candidates(validOnDemandResources);
 
@@ -475,10 +525,23 @@ public class ResolverImpl implements Resolver
                 new OpenHashMap<Resource, Object>(resourcePkgMap.size());
         for (Entry<Resource, Resource> entry : hosts.entrySet())
         {
+            // Skip hosts whose package space is unchanged since it was
+            // last found consistent.
+            if (session.isConsistent(entry.getValue()))
+            {
+                continue;
+            }
             ResolutionError rethrow = checkPackageSpaceConsistency(
                     session, usesPermutations, importPermutations, entry.getValue(),
                     allCandidates, dynamic, resourcePkgMap, resultCache);
-            if (rethrow != null)
+            // A host that is only consistent because some candidates for
+            // multiple cardinality requirements were removed must be
+            // checked again with the next permutation.
+            if (rethrow == null && session.getMultipleCardCandidates() == null)
+            {
+                session.setConsistent(entry.getValue());
+            }
+            else if (rethrow != null)
             {
                 Resource faultyResource = entry.getKey();
                 // check that the faulty requirement is not from a fragment
@@ -1160,10 +1223,20 @@ public class ResolverImpl implements Resolver
             executor.await();
         }
 
+        // Find the resources whose package space may differ from the one
+        // computed for the last permutation, the others are reused as is
+        final Set<Resource> affected = getAffectedResources(session, allWireCandidates);
+        final Map<Resource, Packages> lastPackages = session.getLastPackages();
+
         // Parallel get all exported packages
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (!affected.contains(resource))
+            {
+                allPackages.put(resource, lastPackages.get(resource));
+                continue;
+            }
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
             executor.execute(new Runnable()
@@ -1177,7 +1250,7 @@ public class ResolverImpl implements Resolver
         executor.await();
 
         // Parallel compute package lists
-        for (final Resource resource : allWireCandidates.keySet())
+        for (final Resource resource : affected)
         {
             executor.execute(new Runnable()
             {
@@ -1197,7 +1270,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (affected.contains(resource) && !packages.m_requiredPkgs.isEmpty())
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1208,7 +1281,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (affected.contains(resource) && packages.m_sources.isEmpty())
             {
                 executor.execute(new Runnable()
                 {
@@ -1222,7 +1295,7 @@ public class ResolverImpl implements Resolver
         executor.await();
 
         // Parallel compute uses
-        for (final Resource resource : allWireCandidates.keySet())
+        for (final Resource resource : affected)
         {
             executor.execute(new Runnable()
             {
@@ -1234,9 +1307,65 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        session.setPackageSpaces(allWireCandidates, allPackages, affected);
+
         return allPackages;
     }
 
+    private static Set<Resource> getAffectedResources(
+            ResolveSession session,
+            Map<Resource, List<WireCandidate>> allWireCandidates)
+    {
+        Map<Resource, List<WireCandidate>> lastWireCandidates = session.getLastWireCandidates();
+        if (lastWireCandidates == null)
+        {
+            return new HashSet<Resource>(allWireCandidates.keySet());
+        }
+
+        // The package space of a resource only depends on the wire candidates
+        // of the resources reachable from it, so a resource is affected if
+        // its own wire candidates changed or if it (indirectly) depends on a
+        // resource whose wire candidates changed.
+        Map<Resource, List<Resource>> dependents = new HashMap<Resource, List<Resource>>(allWireCandidates.size());
+        List<Resource> changed = new ArrayList<Resource>();
+        for (Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+        {
+            Resource resource = entry.getKey();
+            if (!entry.getValue().equals(lastWireCandidates.get(resource)))
+            {
+                changed.add(resource);
+            }
+            for (WireCandidate w : entry.getValue())
+            {
+                Resource provider = w.capability.getResource();
+                List<Resource> l = dependents.get(provider);
+                if (l == null)
+                {
+                    l = new ArrayList<Resource>();
+                    dependents.put(provider, l);
+                }
+                l.add(resource);
+            }
+        }
+
+        Set<Resource> affected = new HashSet<Resource>(changed);
+        while (!changed.isEmpty())
+        {
+            List<Resource> l = dependents.get(changed.remove(changed.size() - 1));
+            if (l != null)
+            {
+                for (Resource dependent : l)
+                {
+                    if (affected.add(dependent))
+                    {
+                        changed.add(dependent);
+                    }
+                }
+            }
+        }
+        return affected;
+    }
+
     private static List<String> parseUses(String s) {
         int nb = 1;
         int l = s.length();
@@ -2071,6 +2200,28 @@ public class ResolverImpl implements Resolver
             this.requirement = requirement;
             this.capability = capability;
         }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof WireCandidate))
+            {
+                return false;
+            }
+            WireCandidate other = (WireCandidate) o;
+            return requirement.equals(other.requirement)
+                && capability.equals(other.capability);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * requirement.hashCode() + capability.hashCode();
+        }
     }
 
     public static class Packages
@@ -29,6 +29,8 @@ import java.util.ListIterator;
 public class CopyOnWriteList<E> implements List<E>, Cloneable {
 
     Object[] data;
+    // the map allowed to modify this list in place, see OpenHashMapList
+    Object owner;
 
     public CopyOnWriteList() {
         data = new Object[0];
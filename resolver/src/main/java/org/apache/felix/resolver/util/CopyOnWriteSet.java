@@ -29,6 +29,8 @@ import java.util.Set;
 public class CopyOnWriteSet<E> implements Set<E>, Cloneable {
 
     Object[] data;
+    // the map allowed to modify this set in place, see OpenHashMapList
+    Object owner;
 
     public CopyOnWriteSet() {
         data = new Object[0];
@@ -58,6 +58,8 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
     protected transient SortedSet<Map.Entry<K, V>> entries;
     protected transient SortedSet<K> keys;
     protected transient Collection<V> values;
+    // true while the tables are shared with a lazy copy, see lazyClone()
+    protected transient boolean shared;
 
     public OpenHashMap(int expected, float f) {
         this.first = -1;
@@ -204,6 +206,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
 
     @SuppressWarnings("unchecked")
     private V removeEntry(int pos) {
+        ensureOwned();
         Object oldValue = this.value[pos];
         this.value[pos] = null;
         --this.size;
@@ -218,6 +221,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
 
     @SuppressWarnings("unchecked")
     private V removeNullEntry() {
+        ensureOwned();
         this.containsNullKey = false;
         Object oldValue = this.value[this.n];
         this.value[this.n] = null;
@@ -299,6 +303,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
 
     @SuppressWarnings("unchecked")
     public V put(K k, V v) {
+        ensureOwned();
         int pos = this.insert(k, v);
         if (pos < 0) {
             return this.defRetValue;
@@ -317,6 +322,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
                 return (V) this.value[this.n];
             }
 
+            ensureOwned();
             this.containsNullKey = true;
             pos = this.n;
         } else {
@@ -334,7 +340,8 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
                 }
             }
 
-            key[pos] = k;
+            ensureOwned();
+            this.key[pos] = k;
         }
 
         Object v;
@@ -414,6 +421,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
 
     @SuppressWarnings("unchecked")
     private V setValue(int pos, V v) {
+        ensureOwned();
         Object oldValue = this.value[pos];
         this.value[pos] = v;
         return (V) oldValue;
@@ -421,6 +429,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
 
     @SuppressWarnings("unchecked")
     public V removeFirst() {
+        ensureOwned();
         if (this.size == 0) {
             throw new NoSuchElementException();
         } else {
@@ -449,6 +458,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
 
     @SuppressWarnings("unchecked")
     public V removeLast() {
+        ensureOwned();
         if (this.size == 0) {
             throw new NoSuchElementException();
         } else {
@@ -476,6 +486,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
     }
 
     private void moveIndexToFirst(int i) {
+        ensureOwned();
         if (this.size != 1 && this.first != i) {
             if (this.last == i) {
                 this.last = (int) (this.link[i] >>> 32);
@@ -495,6 +506,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
     }
 
     private void moveIndexToLast(int i) {
+        ensureOwned();
         if (this.size != 1 && this.last != i) {
             if (this.first == i) {
                 this.first = (int) this.link[i];
@@ -576,6 +588,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
     }
 
     public V putAndMoveToFirst(K k, V v) {
+        ensureOwned();
         int pos;
         if (k == null) {
             if (this.containsNullKey) {
@@ -623,6 +636,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
     }
 
     public V putAndMoveToLast(K k, V v) {
+        ensureOwned();
         int pos;
         if (k == null) {
             if (this.containsNullKey) {
@@ -736,6 +750,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
     }
 
     public void clear() {
+        ensureOwned();
         if (size != 0) {
             size = 0;
             containsNullKey = false;
@@ -1001,6 +1016,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
         maxFill = maxFill(n, f);
         this.key = newKey;
         this.value = newValue;
+        shared = false;
     }
 
     @SuppressWarnings("unchecked")
@@ -1020,9 +1036,48 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
         c.key = key.clone();
         c.value = value.clone();
         c.link = link.clone();
+        c.shared = false;
+        return c;
+    }
+
+    /**
+     * Returns a copy of this map which shares its tables with this map. The
+     * tables are only copied by whichever of the two maps is modified first,
+     * so that copies which are never or seldom modified are almost free.
+     *
+     * @return a lazy copy of this map.
+     */
+    @SuppressWarnings("unchecked")
+    public OpenHashMap<K, V> lazyClone() {
+        OpenHashMap<K, V> c;
+        try {
+            c = (OpenHashMap<K, V>) super.clone();
+        } catch (CloneNotSupportedException cantHappen) {
+            throw new InternalError();
+        }
+
+        c.fast = null;
+        c.keys = null;
+        c.values = null;
+        c.entries = null;
+        c.shared = true;
+        shared = true;
         return c;
     }
 
+    /**
+     * Makes sure the tables are not shared with a lazy copy before they are
+     * modified.
+     */
+    protected final void ensureOwned() {
+        if (shared) {
+            key = key.clone();
+            value = value.clone();
+            link = link.clone();
+            shared = false;
+        }
+    }
+
     public int hashCode() {
         int h = 0;
         for( int j = realSize(), i = 0, t = 0; j-- != 0; ) {
@@ -1594,6 +1649,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
         }
 
         public void remove() {
+            ensureOwned();
             this.ensureIndexKnown();
             if (curr == -1) throw new IllegalStateException();
 
@@ -1686,6 +1742,7 @@ public class OpenHashMap<K, V> implements Serializable, Cloneable, SortedMap<K,
 
         @SuppressWarnings("unchecked")
         public V setValue(V v) {
+            ensureOwned();
             Object oldValue = value[this.index];
             value[this.index] = v;
             return (V) oldValue;
@@ -28,21 +28,63 @@ public class OpenHashMapList<K, V> extends OpenHashMap<K, CopyOnWriteList<V>> {
         super(initialCapacity);
     }
 
+    // Identifies the values this map may modify in place. Values created
+    // before the last deepClone() may be shared with the copy and must be
+    // copied before being modified, see getForWrite().
+    private Object token = new Object();
+
+    /**
+     * Returns a copy of this map whose values can be modified independently
+     * of the values of this map. The tables and values are shared until they
+     * are modified through one of the two maps.
+     *
+     * @return a copy of this map.
+     */
     @SuppressWarnings("unchecked")
     public OpenHashMapList<K, V> deepClone() {
-        OpenHashMapList<K, V> copy = (OpenHashMapList<K, V>) super.clone();
-        Object[] values = copy.value;
-        for (int i = values.length; i-- > 0;) {
-            if (values[i] != null) {
-                values[i] = new CopyOnWriteList<V>((CopyOnWriteList<V>) values[i]);
-            }
-        }
+        OpenHashMapList<K, V> copy = (OpenHashMapList<K, V>) super.lazyClone();
+        copy.token = new Object();
+        token = new Object();
         return copy;
     }
 
+    /**
+     * Returns the value associated with the given key in a form that can be
+     * modified without affecting any copy of this map.
+     *
+     * @param key the key.
+     * @return the value, or <code>null</code> if there is none.
+     */
+    public CopyOnWriteList<V> getForWrite(K key) {
+        CopyOnWriteList<V> v = get(key);
+        return v != null ? own(key, v) : null;
+    }
+
+    /**
+     * Returns the value associated with the given key in a form that can be
+     * modified without affecting any copy of this map, creating it if needed.
+     *
+     * @param key the key.
+     * @return the value.
+     */
+    public CopyOnWriteList<V> getOrComputeForWrite(K key) {
+        return own(key, getOrCompute(key));
+    }
+
+    private CopyOnWriteList<V> own(K key, CopyOnWriteList<V> v) {
+        if (v.owner != token) {
+            v = new CopyOnWriteList<V>(v);
+            v.owner = token;
+            put(key, v);
+        }
+        return v;
+    }
+
     @Override
     protected CopyOnWriteList<V> compute(K key) {
-        return new CopyOnWriteList<V>();
+        CopyOnWriteList<V> v = new CopyOnWriteList<V>();
+        v.owner = token;
+        return v;
     }
 
 }
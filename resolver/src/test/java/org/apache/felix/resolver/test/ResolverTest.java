@@ -20,6 +20,7 @@ package org.apache.felix.resolver.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -32,6 +33,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.felix.resolver.Logger;
 import org.apache.felix.resolver.ResolverImpl;
@@ -580,6 +582,91 @@ public class ResolverTest
         assertEquals(0, wireMap.size());
     }
 
+    @Test
+    public void testScenario13() throws Exception
+    {
+        AtomicInteger reads = new AtomicInteger();
+        Map<Resource, List<Wire>> wireMap = resolveScenario13(true, reads);
+
+        Resource x = findResource("X", wireMap.keySet());
+        List<Wire> xWires = wireMap.get(x);
+        assertEquals(1, xWires.size());
+        assertEquals("U", getResourceName(xWires.get(0).getProvider()));
+
+        Resource a = findResource("A", wireMap.keySet());
+        List<Wire> aWires = wireMap.get(a);
+        assertEquals(2, aWires.size());
+        List<String> providers = new ArrayList<String>();
+        for (Wire w : aWires)
+        {
+            providers.add(getResourceName(w.getProvider()));
+        }
+        Collections.sort(providers);
+        assertEquals(Arrays.asList("P2", "V2"), providers);
+        assertNull(findResource("P1", wireMap.keySet()));
+
+        // The package space of X is computed and checked as often as when
+        // resolving X alone, although A needed a second permutation.
+        AtomicInteger aloneReads = new AtomicInteger();
+        resolveScenario13(false, aloneReads);
+        assertTrue(aloneReads.get() > 0);
+        assertEquals(aloneReads.get(), reads.get());
+    }
+
+    /**
+     * Resolves X, and A if requested, counting how often the directives of
+     * the capability X is wired to are read.
+     */
+    private Map<Resource, List<Wire>> resolveScenario13(boolean withA, final AtomicInteger reads) throws Exception
+    {
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1);
+
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+
+        // X is not involved in the uses conflict of A, so its package
+        // space is only computed and checked with the first permutation
+        ResourceImpl x = new ResourceImpl("X");
+        Requirement x_utilReq = addReq(x, PackageNamespace.PACKAGE_NAMESPACE, "util");
+        ResourceImpl u = new ResourceImpl("U");
+        GenericCapability u_utilCap = new GenericCapability(u, PackageNamespace.PACKAGE_NAMESPACE)
+        {
+            @Override
+            public Map<String, String> getDirectives()
+            {
+                reads.incrementAndGet();
+                return super.getDirectives();
+            }
+        };
+        u_utilCap.addAttribute(PackageNamespace.PACKAGE_NAMESPACE, "util");
+        u.addCapability(u_utilCap);
+        candMap.put(x_utilReq, Collections.<Capability>singletonList(u_utilCap));
+
+        ResourceImpl a = new ResourceImpl("A");
+        Requirement a_pReq = addReq(a, PackageNamespace.PACKAGE_NAMESPACE, "p");
+        Requirement a_vReq = addReq(a, PackageNamespace.PACKAGE_NAMESPACE, "v");
+
+        ResourceImpl p1 = new ResourceImpl("P1");
+        Capability p1_pCap = addCap(p1, PackageNamespace.PACKAGE_NAMESPACE, "p", "v");
+        Requirement p1_vReq = addReq(p1, PackageNamespace.PACKAGE_NAMESPACE, "v");
+        ResourceImpl p2 = new ResourceImpl("P2");
+        Capability p2_pCap = addCap(p2, PackageNamespace.PACKAGE_NAMESPACE, "p");
+
+        ResourceImpl v1 = new ResourceImpl("V1");
+        Capability v1_vCap = addCap(v1, PackageNamespace.PACKAGE_NAMESPACE, "v");
+        ResourceImpl v2 = new ResourceImpl("V2");
+        Capability v2_vCap = addCap(v2, PackageNamespace.PACKAGE_NAMESPACE, "v");
+
+        candMap.put(a_pReq, Arrays.asList(p1_pCap, p2_pCap));
+        candMap.put(a_vReq, Collections.singletonList(v2_vCap));
+        candMap.put(p1_vReq, Collections.singletonList(v1_vCap));
+
+        List<Resource> mandatory = withA ? Arrays.<Resource>asList(x, a) : Arrays.<Resource>asList(x);
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap, mandatory, Collections.<Resource> emptyList());
+
+        return resolver.resolve(rci);
+    }
+
     @Test
     public void testPackageSources() throws Exception {
         Method m = ResolverImpl.class.getDeclaredMethod("getPackageSources",
@@ -22,6 +22,7 @@ import java.util.Dictionary;
 import java.util.Hashtable;
 
 import org.apache.felix.inventory.InventoryPrinter;
+import org.apache.felix.threaddump.internal.jdk5.Jdk15ThreadSampler;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -29,7 +30,8 @@ import org.osgi.framework.ServiceRegistration;
 
 /**
  * OSGi bundle activator which takes care of (un)binding the
- * Thread Dump Inventory Printer service.
+ * Thread Dump Inventory Printer service and, on Java 5 and newer,
+ * the thread sampler commands.
  */
 public final class ThreadDumpActivator implements BundleActivator
 {
@@ -44,26 +46,64 @@ public final class ThreadDumpActivator implements BundleActivator
      */
     private static final String SERVICE_NAME = "threaddump";
 
+    /**
+     * The framework property to start sampling when the bundle starts.
+     */
+    private static final String SAMPLER_AUTOSTART = "felix.threaddump.sampler.autostart";
+
     /**
      * The ThreadDumper ServiceRegistration reference.
      */
     private ServiceRegistration threadDumperRegistration;
 
+    /**
+     * The sampler command ServiceRegistration reference.
+     */
+    private ServiceRegistration samplerCommandRegistration;
+
+    /**
+     * The thread sampler, <code>null</code> if not available.
+     */
+    private ThreadSampler sampler;
+
     public void start(BundleContext context)
     {
+        if (ThreadDumpInventoryPrinter.isJdk15Available())
+        {
+            sampler = new Jdk15ThreadSampler(context);
+            if ("true".equalsIgnoreCase(context.getProperty(SAMPLER_AUTOSTART)))
+            {
+                sampler.start(0);
+            }
+
+            final Dictionary commandProps = new Hashtable();
+            commandProps.put(Constants.SERVICE_DESCRIPTION, SERVICE_TITLE + " Sampler");
+            commandProps.put("osgi.command.scope", ThreadSamplerCommand.SCOPE);
+            commandProps.put("osgi.command.function", ThreadSamplerCommand.FUNCTIONS);
+            samplerCommandRegistration = context.registerService(ThreadSamplerCommand.class.getName(),
+                new ThreadSamplerCommand(sampler), commandProps);
+        }
+
         final Dictionary props = new Hashtable();
         props.put(Constants.SERVICE_VENDOR, context.getBundle().getHeaders(Constants.BUNDLE_VENDOR));
         props.put(Constants.SERVICE_DESCRIPTION, SERVICE_TITLE);
         props.put(InventoryPrinter.NAME, SERVICE_NAME);
         props.put(InventoryPrinter.TITLE, SERVICE_TITLE);
 
-        threadDumperRegistration = context.registerService(InventoryPrinter.SERVICE, new ThreadDumpInventoryPrinter(),
+        threadDumperRegistration = context.registerService(InventoryPrinter.SERVICE, new ThreadDumpInventoryPrinter(sampler),
             props);
     }
 
     public void stop(BundleContext context)
     {
         threadDumperRegistration.unregister();
+
+        if (sampler != null)
+        {
+            samplerCommandRegistration.unregister();
+            sampler.stop();
+            sampler = null;
+        }
     }
 
 }
@@ -33,6 +33,7 @@ import org.apache.felix.threaddump.internal.jdk6.Jdk16ThreadDumper;
  * <li>falls back to Java 5 JMX API if not Java 6;</li>
  * <li>falls back to regular Java API as a last step.</li>
  * </ul>
+ * The samples of the {@link ThreadSampler}, if any, are printed after the dump.
  */
 final class ThreadDumpInventoryPrinter implements InventoryPrinter
 {
@@ -52,6 +53,26 @@ final class ThreadDumpInventoryPrinter implements InventoryPrinter
      */
     private static final String JDK15_SPECIFICATION_VERSION = "1.5";
 
+    /**
+     * The thread sampler, <code>null</code> if not available.
+     */
+    private final ThreadSampler sampler;
+
+    ThreadDumpInventoryPrinter(ThreadSampler sampler)
+    {
+        this.sampler = sampler;
+    }
+
+    /**
+     * @return <code>true</code> if the JMX APIs of Java 5 are available.
+     */
+    static boolean isJdk15Available()
+    {
+        final String javaSpecificationVersion = System.getProperty(JAVA_SPECIFICATION_VERSION);
+        return JDK16_SPECIFICATION_VERSION.compareToIgnoreCase(javaSpecificationVersion) <= 0
+            || JDK15_SPECIFICATION_VERSION.equalsIgnoreCase(javaSpecificationVersion);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -80,6 +101,12 @@ final class ThreadDumpInventoryPrinter implements InventoryPrinter
 
         threadWriter.printHeader();
         delegated.printThreads(threadWriter);
+
+        if (sampler != null && sampler.hasSamples())
+        {
+            threadWriter.printEmptyLine();
+            sampler.printSamples(threadWriter, null);
+        }
     }
 
 }
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.threaddump.internal;
+
+/**
+ * Service that periodically samples the stacks of the running threads
+ * in the JVM and aggregates them.
+ */
+public interface ThreadSampler
+{
+
+    /**
+     * Starts sampling, if not already started.
+     * 
+     * @param interval the sampling interval in milliseconds, or <code>0</code>
+     *        for the configured interval.
+     */
+    void start(long interval);
+
+    /**
+     * Stops sampling, the samples taken so far are kept.
+     */
+    void stop();
+
+    /**
+     * @return <code>true</code> if sampling is in progress.
+     */
+    boolean isRunning();
+
+    /**
+     * Discards the samples taken so far.
+     */
+    void clear();
+
+    /**
+     * @return <code>true</code> if samples are available.
+     */
+    boolean hasSamples();
+
+    /**
+     * Prints the samples aggregated per bundle and as folded stacks, one
+     * line per distinct stack, suitable for flame graph tools.
+     * 
+     * @param writer the target writer where printing the samples.
+     * @param bundle the symbolic name or id of a bundle to only print the
+     *        stacks passing through that bundle, or <code>null</code> for all
+     *        stacks.
+     */
+    void printSamples(ThreadWriter writer, String bundle);
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.threaddump.internal;
+
+import java.io.PrintWriter;
+
+/**
+ * Gogo commands controlling the {@link ThreadSampler}.
+ */
+public final class ThreadSamplerCommand
+{
+
+    /**
+     * The command scope.
+     */
+    static final String SCOPE = "threaddump";
+
+    /**
+     * The command functions.
+     */
+    static final String[] FUNCTIONS =
+        { "startsampling", "stopsampling", "clearsamples", "samples" };
+
+    private final ThreadSampler sampler;
+
+    public ThreadSamplerCommand(ThreadSampler sampler)
+    {
+        this.sampler = sampler;
+    }
+
+    /**
+     * Starts sampling with the configured interval.
+     */
+    public void startsampling()
+    {
+        startsampling(0);
+    }
+
+    /**
+     * Starts sampling with the given interval in milliseconds.
+     */
+    public void startsampling(long interval)
+    {
+        if (sampler.isRunning())
+        {
+            System.out.println("Thread sampling is already running.");
+        }
+        else
+        {
+            sampler.start(interval);
+            System.out.println("Thread sampling started.");
+        }
+    }
+
+    /**
+     * Stops sampling, the samples are kept.
+     */
+    public void stopsampling()
+    {
+        sampler.stop();
+        System.out.println("Thread sampling stopped.");
+    }
+
+    /**
+     * Discards the samples.
+     */
+    public void clearsamples()
+    {
+        sampler.clear();
+    }
+
+    /**
+     * Prints all samples.
+     */
+    public void samples()
+    {
+        samples(null);
+    }
+
+    /**
+     * Prints the samples of the stacks passing through a bundle.
+     * 
+     * @param bundle the bundle symbolic name or id.
+     */
+    public void samples(String bundle)
+    {
+        PrintWriter writer = new PrintWriter(System.out);
+        sampler.printSamples(new ThreadWriter(writer), bundle);
+        writer.flush();
+    }
+
+}
@@ -0,0 +1,615 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.threaddump.internal.jdk5;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.felix.threaddump.internal.ThreadSampler;
+import org.apache.felix.threaddump.internal.ThreadWriter;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.ExportedPackage;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+/**
+ * {@link ThreadSampler} implementation which relies on JMX APIs in JDK1.5.
+ *
+ * Samples are taken without lock information and with a limited stack depth,
+ * and are kept in a ring buffer which is bounded both by the number of samples
+ * and by an estimated memory budget; the oldest samples are dropped first.
+ * Stacks are only aggregated when they are printed.
+ *
+ * Stack frames only carry class names, so frames are attributed by package:
+ * exported packages to the exporting bundle and other packages to the bundle
+ * containing the class file; classes not found in any bundle are attributed
+ * to the system bundle.
+ */
+public final class Jdk15ThreadSampler implements ThreadSampler, Runnable, BundleListener
+{
+
+    /**
+     * The framework property with the sampling interval in milliseconds.
+     */
+    public static final String PROP_INTERVAL = "felix.threaddump.sampler.interval";
+
+    /**
+     * The framework property with the maximum number of samples kept.
+     */
+    public static final String PROP_SAMPLES = "felix.threaddump.sampler.samples";
+
+    /**
+     * The framework property with the maximum number of frames sampled per thread.
+     */
+    public static final String PROP_DEPTH = "felix.threaddump.sampler.depth";
+
+    /**
+     * The framework property with the memory budget for the samples in kilobytes.
+     */
+    public static final String PROP_BUDGET = "felix.threaddump.sampler.budget";
+
+    private static final long DEFAULT_INTERVAL = 100;
+
+    private static final int DEFAULT_SAMPLES = 600;
+
+    private static final int DEFAULT_DEPTH = 64;
+
+    private static final long DEFAULT_BUDGET = 8 * 1024;
+
+    /**
+     * Estimated size of a sample and of a thread in a sample, without the frames.
+     */
+    private static final int SAMPLE_BYTES = 32;
+
+    private static final int THREAD_BYTES = 48;
+
+    /**
+     * Estimated size of a frame which is not shared with other samples.
+     */
+    private static final int FRAME_BYTES = 120;
+
+    private static final String HEADER = "Thread samples: {0} samples every {1} ms from {2,date,yyyy-MM-dd HH:mm:ss} to {3,date,yyyy-MM-dd HH:mm:ss}";
+
+    private static final String BUNDLE = "  {0}: {1} / {2}";
+
+    private static final String[] SYSTEM_PACKAGES =
+        { "java.", "javax.", "sun.", "com.sun.", "jdk.", "org.w3c.", "org.xml.", "org.ietf." };
+
+    private final BundleContext context;
+
+    private final ThreadMXBean threadMXBean;
+
+    private final long defaultInterval;
+
+    private final int depth;
+
+    private final long budget;
+
+    /**
+     * The ring buffer of samples, guarded by <code>this</code>.
+     */
+    private final Sample[] samples;
+
+    private int first;
+
+    private int count;
+
+    private long size;
+
+    /**
+     * The frames shared between samples, guarded by <code>this</code>.
+     */
+    private final Map/* <StackTraceElement, StackTraceElement> */frames = new HashMap();
+
+    private final int maxFrames;
+
+    /**
+     * The bundle labels of packages, guarded by itself.
+     */
+    private final Map/* <String, String> */packageLabels = new HashMap();
+
+    /**
+     * The exporters of packages, guarded by {@link #packageLabels}, or
+     * <code>null</code> if not known yet.
+     */
+    private Map/* <String, Bundle> */exporters;
+
+    private long interval;
+
+    private Thread samplerThread;
+
+    public Jdk15ThreadSampler(BundleContext context)
+    {
+        this.context = context;
+        this.threadMXBean = ManagementFactory.getThreadMXBean();
+        this.defaultInterval = Math.max(1, getProperty(context, PROP_INTERVAL, DEFAULT_INTERVAL));
+        this.samples = new Sample[(int) Math.max(1, getProperty(context, PROP_SAMPLES, DEFAULT_SAMPLES))];
+        this.depth = (int) Math.max(1, getProperty(context, PROP_DEPTH, DEFAULT_DEPTH));
+        this.budget = Math.max(1, getProperty(context, PROP_BUDGET, DEFAULT_BUDGET)) * 1024;
+        // shared frames may take up a quarter of the budget
+        this.maxFrames = (int) Math.min(Integer.MAX_VALUE, this.budget / 4 / FRAME_BYTES);
+    }
+
+    public synchronized void start(long interval)
+    {
+        if (samplerThread == null)
+        {
+            this.interval = interval > 0 ? interval : defaultInterval;
+            context.addBundleListener(this);
+            samplerThread = new Thread(this, "Apache Felix Thread Sampler");
+            samplerThread.setDaemon(true);
+            samplerThread.start();
+        }
+    }
+
+    public void stop()
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            thread = samplerThread;
+            samplerThread = null;
+        }
+        if (thread != null)
+        {
+            context.removeBundleListener(this);
+            thread.interrupt();
+            try
+            {
+                thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public synchronized boolean isRunning()
+    {
+        return samplerThread != null;
+    }
+
+    public synchronized void clear()
+    {
+        for (int i = 0; i < samples.length; i++)
+        {
+            samples[i] = null;
+        }
+        first = 0;
+        count = 0;
+        size = 0;
+        frames.clear();
+    }
+
+    public synchronized boolean hasSamples()
+    {
+        return count > 0;
+    }
+
+    public void bundleChanged(BundleEvent event)
+    {
+        switch (event.getType())
+        {
+            case BundleEvent.INSTALLED:
+            case BundleEvent.UPDATED:
+            case BundleEvent.UNRESOLVED:
+            case BundleEvent.UNINSTALLED:
+                // packages may have moved to other bundles
+                synchronized (packageLabels)
+                {
+                    packageLabels.clear();
+                    exporters = null;
+                }
+                break;
+        }
+    }
+
+    public void run()
+    {
+        final Thread current = Thread.currentThread();
+        long next = System.currentTimeMillis();
+        while (isCurrentSampler(current))
+        {
+            sample(current.getId());
+
+            next += interval;
+            long delay = next - System.currentTimeMillis();
+            if (delay <= 0)
+            {
+                // sampling takes longer than the interval, don't try to catch up
+                next = System.currentTimeMillis();
+                delay = interval;
+            }
+            try
+            {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+        }
+    }
+
+    private synchronized boolean isCurrentSampler(Thread thread)
+    {
+        return samplerThread == thread;
+    }
+
+    /**
+     * Takes a sample of all threads but the sampler thread.
+     */
+    private void sample(long samplerId)
+    {
+        final long[] ids = threadMXBean.getAllThreadIds();
+        final ThreadInfo[] infos = threadMXBean.getThreadInfo(ids, depth);
+        final long time = System.currentTimeMillis();
+
+        final Thread.State[] states = new Thread.State[infos.length];
+        final StackTraceElement[][] stacks = new StackTraceElement[infos.length][];
+        for (int i = 0; i < infos.length; i++)
+        {
+            if (infos[i] != null && infos[i].getThreadId() != samplerId)
+            {
+                states[i] = infos[i].getThreadState();
+                stacks[i] = infos[i].getStackTrace();
+            }
+        }
+        addSample(time, states, stacks);
+    }
+
+    /**
+     * Adds a sample of the given threads to the ring buffer, dropping the
+     * oldest samples as needed. Threads without a stack are skipped.
+     */
+    synchronized void addSample(long time, Thread.State[] states, StackTraceElement[][] stacks)
+    {
+        final List/* <ThreadSample> */threads = new ArrayList(stacks.length);
+        long sampleSize = SAMPLE_BYTES;
+        for (int i = 0; i < stacks.length; i++)
+        {
+            final StackTraceElement[] stack = stacks[i];
+            if (stack == null || stack.length == 0)
+            {
+                continue;
+            }
+            for (int j = 0; j < stack.length; j++)
+            {
+                final StackTraceElement frame = (StackTraceElement) frames.get(stack[j]);
+                if (frame != null)
+                {
+                    stack[j] = frame;
+                }
+                else if (frames.size() < maxFrames)
+                {
+                    frames.put(stack[j], stack[j]);
+                }
+                else
+                {
+                    sampleSize += FRAME_BYTES;
+                }
+            }
+            threads.add(new ThreadSample(states[i], stack));
+            sampleSize += THREAD_BYTES + 8 * stack.length;
+        }
+
+        // drop the oldest samples to stay within the ring buffer and the budget
+        final long sampleBudget = budget - (long) maxFrames * FRAME_BYTES;
+        while (count > 0 && (count == samples.length || size + sampleSize > sampleBudget))
+        {
+            size -= samples[first].size;
+            samples[first] = null;
+            first = (first + 1) % samples.length;
+            count--;
+        }
+        samples[(first + count) % samples.length] = new Sample(time, sampleSize,
+            (ThreadSample[]) threads.toArray(new ThreadSample[threads.size()]));
+        count++;
+        size += sampleSize;
+    }
+
+    public void printSamples(ThreadWriter writer, String bundle)
+    {
+        final Sample[] taken;
+        final long sampleInterval;
+        synchronized (this)
+        {
+            taken = new Sample[count];
+            for (int i = 0; i < count; i++)
+            {
+                taken[i] = samples[(first + i) % samples.length];
+            }
+            sampleInterval = interval > 0 ? interval : defaultInterval;
+        }
+        if (taken.length == 0)
+        {
+            writer.println("No thread samples available.");
+            return;
+        }
+
+        final Map/* <String, int[]> */folded = new TreeMap();
+        final Map/* <String, int[]> */bundles = new TreeMap();
+        final Map/* <StackTraceElement, String> */labels = new HashMap();
+        for (int i = 0; i < taken.length; i++)
+        {
+            final ThreadSample[] threads = taken[i].threads;
+            for (int j = 0; j < threads.length; j++)
+            {
+                final StackTraceElement[] stack = threads[j].stack;
+                final String[] stackBundles = new String[stack.length];
+                boolean matches = bundle == null;
+                for (int k = 0; k < stack.length; k++)
+                {
+                    stackBundles[k] = getBundleLabel(stack[k].getClassName());
+                    matches |= stackBundles[k].equals(bundle) || stackBundles[k].startsWith(bundle + " [")
+                        || stackBundles[k].endsWith("[" + bundle + "]");
+                }
+                if (!matches)
+                {
+                    continue;
+                }
+
+                // self samples go to the bundle of the top frame, total samples
+                // to each bundle on the stack
+                final Map/* <String, Boolean> */seen = new HashMap();
+                for (int k = 0; k < stack.length; k++)
+                {
+                    if (seen.put(stackBundles[k], Boolean.TRUE) == null)
+                    {
+                        count(bundles, stackBundles[k], 2)[1]++;
+                    }
+                }
+                count(bundles, stackBundles[0], 2)[0]++;
+
+                // folded stacks start with the thread state and the outermost frame
+                final StringBuffer line = new StringBuffer(threads[j].state.name());
+                for (int k = stack.length - 1; k >= 0; k--)
+                {
+                    String label = (String) labels.get(stack[k]);
+                    if (label == null)
+                    {
+                        label = stack[k].getClassName() + '.' + stack[k].getMethodName() + " ("
+                            + stackBundles[k] + ')';
+                        labels.put(stack[k], label);
+                    }
+                    line.append(';').append(label);
+                }
+                count(folded, line.toString(), 1)[0]++;
+            }
+        }
+
+        writer.println(HEADER, new Object[]
+            { Integer.valueOf(taken.length), Long.valueOf(sampleInterval), new Date(taken[0].time),
+                new Date(taken[taken.length - 1].time) });
+        writer.printEmptyLine();
+        writer.println("Samples per bundle (self / total):");
+        for (Iterator i = bundles.entrySet().iterator(); i.hasNext();)
+        {
+            final Map.Entry entry = (Map.Entry) i.next();
+            final int[] counts = (int[]) entry.getValue();
+            writer.println(BUNDLE, new Object[]
+                { entry.getKey(), Integer.valueOf(counts[0]), Integer.valueOf(counts[1]) });
+        }
+        writer.printEmptyLine();
+        writer.println("Folded stacks:");
+        for (Iterator i = folded.entrySet().iterator(); i.hasNext();)
+        {
+            final Map.Entry entry = (Map.Entry) i.next();
+            writer.println(entry.getKey() + " " + ((int[]) entry.getValue())[0]);
+        }
+    }
+
+    private static int[] count(Map/* <String, int[]> */counts, String key, int size)
+    {
+        int[] value = (int[]) counts.get(key);
+        if (value == null)
+        {
+            value = new int[size];
+            counts.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the label of the bundle providing the package of a class.
+     */
+    private String getBundleLabel(String className)
+    {
+        final int dot = className.lastIndexOf('.');
+        final String packageName = dot < 0 ? "" : className.substring(0, dot);
+        synchronized (packageLabels)
+        {
+            String label = (String) packageLabels.get(packageName);
+            if (label == null)
+            {
+                label = getLabel(findBundle(packageName, className));
+                packageLabels.put(packageName, label);
+            }
+            return label;
+        }
+    }
+
+    /**
+     * Finds the bundle providing a package, called with the lock on
+     * {@link #packageLabels} held.
+     */
+    private Bundle findBundle(String packageName, String className)
+    {
+        for (int i = 0; i < SYSTEM_PACKAGES.length; i++)
+        {
+            if (className.startsWith(SYSTEM_PACKAGES[i]))
+            {
+                return context.getBundle(0);
+            }
+        }
+
+        // importers of a package use the exporter's classes, even if they
+        // contain a copy of the package themselves
+        if (exporters == null)
+        {
+            exporters = getExporters();
+        }
+        final Bundle exporter = (Bundle) exporters.get(packageName);
+        if (exporter != null)
+        {
+            return exporter;
+        }
+
+        // a private package, look for the class file once for the package;
+        // generated classes have no class file, use the class they were generated for
+        int end = className.indexOf("$$");
+        if (end < 0)
+        {
+            end = className.length();
+        }
+        final String entry = className.substring(0, end).replace('.', '/') + ".class";
+        final Bundle[] bundles = context.getBundles();
+        for (int i = 0; i < bundles.length; i++)
+        {
+            try
+            {
+                if (bundles[i].getBundleId() != 0 && bundles[i].getEntry(entry) != null)
+                {
+                    return bundles[i];
+                }
+            }
+            catch (IllegalStateException e)
+            {
+                // the bundle has been uninstalled
+            }
+        }
+        return context.getBundle(0);
+    }
+
+    /**
+     * Returns the exporters of all exported packages. If a package is
+     * exported by several bundles, the exporter with importers is used.
+     */
+    private Map/* <String, Bundle> */getExporters()
+    {
+        final Map/* <String, Bundle> */result = new HashMap();
+        final ServiceReference reference = context.getServiceReference(PackageAdmin.class.getName());
+        final PackageAdmin packageAdmin = reference == null ? null : (PackageAdmin) context.getService(reference);
+        if (packageAdmin == null)
+        {
+            return result;
+        }
+        try
+        {
+            final ExportedPackage[] packages = packageAdmin.getExportedPackages((Bundle) null);
+            for (int i = 0; packages != null && i < packages.length; i++)
+            {
+                final String name = packages[i].getName();
+                if (!packages[i].isRemovalPending()
+                    && (!result.containsKey(name) || packages[i].getImportingBundles().length > 0))
+                {
+                    result.put(name, packages[i].getExportingBundle());
+                }
+            }
+        }
+        finally
+        {
+            context.ungetService(reference);
+        }
+        return result;
+    }
+
+    private static String getLabel(Bundle bundle)
+    {
+        if (bundle == null)
+        {
+            return "unknown";
+        }
+        String name = bundle.getSymbolicName();
+        if (name == null)
+        {
+            name = bundle.getLocation();
+        }
+        return name + " [" + bundle.getBundleId() + ']';
+    }
+
+    private static long getProperty(BundleContext context, String name, long defaultValue)
+    {
+        final String value = context.getProperty(name);
+        if (value != null)
+        {
+            try
+            {
+                return Long.parseLong(value.trim());
+            }
+            catch (NumberFormatException e)
+            {
+                // use the default value
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The stacks of all threads at one point in time.
+     */
+    private static final class Sample
+    {
+
+        final long time;
+
+        final long size;
+
+        final ThreadSample[] threads;
+
+        Sample(long time, long size, ThreadSample[] threads)
+        {
+            this.time = time;
+            this.size = size;
+            this.threads = threads;
+        }
+
+    }
+
+    /**
+     * The state and stack of a thread.
+     */
+    private static final class ThreadSample
+    {
+
+        final Thread.State state;
+
+        final StackTraceElement[] stack;
+
+        ThreadSample(Thread.State state, StackTraceElement[] stack)
+        {
+            this.state = state;
+            this.stack = stack;
+        }
+
+    }
+
+}
@@ -0,0 +1,325 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.threaddump.internal.jdk5;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.threaddump.internal.ThreadWriter;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.ExportedPackage;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+public class Jdk15ThreadSamplerTest
+{
+
+    private static final StackTraceElement MAIN = new StackTraceElement("a.A", "main", "A.java", 1);
+
+    private static final StackTraceElement RUN = new StackTraceElement("b.B", "run", "B.java", 2);
+
+    private static final StackTraceElement WAIT = new StackTraceElement("java.lang.Object", "wait", null, -2);
+
+    private static final StackTraceElement EMBEDDED = new StackTraceElement("a.A$$Proxy", "call", null, -1);
+
+    private final Map<String, String> properties = new HashMap<String, String>();
+
+    private final Map<Long, Bundle> bundles = new HashMap<Long, Bundle>();
+
+    private final Map<Long, String> symbolicNames = new HashMap<Long, String>();
+
+    private final List<ExportedPackage> exports = new ArrayList<ExportedPackage>();
+
+    @Before
+    public void setUp()
+    {
+        addBundle(0, "org.apache.felix.framework");
+        // the embedding bundle contains a copy of the exported package a
+        addBundle(1, "embedding", "a/A.class");
+        addBundle(2, "b", "b/B.class");
+        addBundle(3, "a", "a/A.class");
+        exports.add(export("a", bundles.get(3L), true));
+        exports.add(export("a", bundles.get(1L), false));
+    }
+
+    @Test
+    public void testSampleCount()
+    {
+        properties.put(Jdk15ThreadSampler.PROP_SAMPLES, "3");
+        final Jdk15ThreadSampler sampler = createSampler();
+        assertFalse(sampler.hasSamples());
+        for (int i = 0; i < 5; i++)
+        {
+            sampler.addSample(i, new Thread.State[] { Thread.State.RUNNABLE },
+                new StackTraceElement[][] { stack(RUN, MAIN) });
+        }
+        assertTrue(sampler.hasSamples());
+
+        // the oldest samples are dropped
+        final String output = print(sampler, null);
+        assertTrue(output, output.startsWith("Thread samples: 3 samples every 100 ms from "
+            + format(2) + " to " + format(4) + "\n"));
+        assertTrue(output, output.contains("\nRUNNABLE;a.A.main (a [3]);b.B.run (b [2]) 3\n"));
+
+        sampler.clear();
+        assertFalse(sampler.hasSamples());
+        assertEquals("No thread samples available.\n", print(sampler, null));
+    }
+
+    @Test
+    public void testBudget()
+    {
+        // 1K leaves room for two shared frames and 784 bytes of samples
+        properties.put(Jdk15ThreadSampler.PROP_BUDGET, "1");
+        Jdk15ThreadSampler sampler = createSampler();
+        for (int i = 0; i < 20; i++)
+        {
+            sampler.addSample(i, new Thread.State[] { Thread.State.RUNNABLE },
+                new StackTraceElement[][] { stack(RUN, MAIN) });
+        }
+        // a sample of two shared frames takes 96 bytes
+        assertTrue(print(sampler, null).startsWith("Thread samples: 8 samples"));
+
+        sampler = createSampler();
+        for (int i = 0; i < 5; i++)
+        {
+            final StackTraceElement[] stack = new StackTraceElement[5];
+            for (int j = 0; j < stack.length; j++)
+            {
+                stack[j] = new StackTraceElement("c.C", "m" + i + "_" + j, null, -1);
+            }
+            sampler.addSample(i, new Thread.State[] { Thread.State.RUNNABLE }, new StackTraceElement[][] { stack });
+        }
+        // frames not shared take 120 bytes each
+        assertTrue(print(sampler, null).startsWith("Thread samples: 1 samples"));
+    }
+
+    @Test
+    public void testFoldedStacks()
+    {
+        final Jdk15ThreadSampler sampler = createSampler();
+        // threads without a stack are skipped
+        sampler.addSample(0, new Thread.State[] { Thread.State.RUNNABLE, Thread.State.WAITING, null },
+            new StackTraceElement[][] { stack(RUN, MAIN), stack(WAIT, RUN), null });
+        sampler.addSample(1, new Thread.State[] { Thread.State.RUNNABLE, Thread.State.RUNNABLE },
+            new StackTraceElement[][] { stack(RUN, MAIN), stack(EMBEDDED, MAIN) });
+
+        final String[] lines = print(sampler, null).split("\n");
+        assertEquals(Arrays.asList(
+            "",
+            "Samples per bundle (self / total):",
+            "  a [3]: 1 / 3",
+            "  b [2]: 2 / 3",
+            "  org.apache.felix.framework [0]: 1 / 1",
+            "",
+            "Folded stacks:",
+            "RUNNABLE;a.A.main (a [3]);a.A$$Proxy.call (a [3]) 1",
+            "RUNNABLE;a.A.main (a [3]);b.B.run (b [2]) 2",
+            "WAITING;b.B.run (b [2]);java.lang.Object.wait (org.apache.felix.framework [0]) 1"),
+            Arrays.asList(lines).subList(1, lines.length));
+    }
+
+    @Test
+    public void testBundleFilter()
+    {
+        final Jdk15ThreadSampler sampler = createSampler();
+        sampler.addSample(0, new Thread.State[] { Thread.State.RUNNABLE, Thread.State.WAITING },
+            new StackTraceElement[][] { stack(RUN, MAIN), stack(WAIT, RUN) });
+        sampler.addSample(1, new Thread.State[] { Thread.State.RUNNABLE },
+            new StackTraceElement[][] { stack(EMBEDDED, MAIN) });
+
+        assertEquals(3, countStacks(print(sampler, null)));
+        assertEquals(2, countStacks(print(sampler, "a")));
+        assertEquals(2, countStacks(print(sampler, "3")));
+        assertEquals(2, countStacks(print(sampler, "b")));
+        assertEquals(1, countStacks(print(sampler, "0")));
+        assertEquals(0, countStacks(print(sampler, "embedding")));
+        assertEquals(0, countStacks(print(sampler, "unknown")));
+
+        // the bundle counts only include the matching stacks
+        final String output = print(sampler, "org.apache.felix.framework");
+        assertTrue(output, output.contains("\n  b [2]: 0 / 1\n"));
+        assertFalse(output, output.contains("a [3]"));
+    }
+
+    @Test
+    public void testBundleChanged()
+    {
+        final Jdk15ThreadSampler sampler = createSampler();
+        sampler.addSample(0, new Thread.State[] { Thread.State.RUNNABLE }, new StackTraceElement[][] { stack(RUN) });
+        assertTrue(print(sampler, null).contains("(b [2])"));
+
+        symbolicNames.put(2L, "renamed");
+        sampler.bundleChanged(new BundleEvent(BundleEvent.STARTED, bundles.get(2L)));
+        sampler.bundleChanged(new BundleEvent(BundleEvent.RESOLVED, bundles.get(2L)));
+        assertTrue(print(sampler, null).contains("(b [2])"));
+
+        sampler.bundleChanged(new BundleEvent(BundleEvent.UPDATED, bundles.get(2L)));
+        assertTrue(print(sampler, null).contains("(renamed [2])"));
+    }
+
+    private Jdk15ThreadSampler createSampler()
+    {
+        return new Jdk15ThreadSampler((BundleContext) proxy(BundleContext.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                final String name = method.getName();
+                if (name.equals("getProperty"))
+                {
+                    return properties.get(args[0]);
+                }
+                if (name.equals("getBundles"))
+                {
+                    return bundles.values().toArray(new Bundle[bundles.size()]);
+                }
+                if (name.equals("getBundle"))
+                {
+                    return bundles.get(args[0]);
+                }
+                if (name.equals("getServiceReference"))
+                {
+                    return args[0].equals(PackageAdmin.class.getName()) ? proxy(ServiceReference.class, null) : null;
+                }
+                if (name.equals("getService"))
+                {
+                    return proxy(PackageAdmin.class, new InvocationHandler()
+                    {
+                        public Object invoke(Object proxy, Method method, Object[] args)
+                        {
+                            return method.getName().equals("getExportedPackages")
+                                ? exports.toArray(new ExportedPackage[exports.size()]) : null;
+                        }
+                    });
+                }
+                return name.equals("ungetService") ? Boolean.TRUE : null;
+            }
+        }));
+    }
+
+    private void addBundle(final long id, String symbolicName, final String... entries)
+    {
+        symbolicNames.put(id, symbolicName);
+        bundles.put(id, (Bundle) proxy(Bundle.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Exception
+            {
+                final String name = method.getName();
+                if (name.equals("getBundleId"))
+                {
+                    return id;
+                }
+                if (name.equals("getSymbolicName"))
+                {
+                    return symbolicNames.get(id);
+                }
+                if (name.equals("getEntry"))
+                {
+                    return Arrays.asList(entries).contains(args[0]) ? new URL("file:/" + args[0]) : null;
+                }
+                return null;
+            }
+        }));
+    }
+
+    private static ExportedPackage export(final String packageName, final Bundle exporter, final boolean imported)
+    {
+        return (ExportedPackage) proxy(ExportedPackage.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                final String name = method.getName();
+                if (name.equals("getName"))
+                {
+                    return packageName;
+                }
+                if (name.equals("getExportingBundle"))
+                {
+                    return exporter;
+                }
+                if (name.equals("getImportingBundles"))
+                {
+                    return imported ? new Bundle[] { exporter } : new Bundle[0];
+                }
+                return name.equals("isRemovalPending") ? Boolean.FALSE : null;
+            }
+        });
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler)
+    {
+        if (handler == null)
+        {
+            handler = new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    return null;
+                }
+            };
+        }
+        return Proxy.newProxyInstance(Jdk15ThreadSamplerTest.class.getClassLoader(), new Class[] { type }, handler);
+    }
+
+    /**
+     * Returns a copy of the frames as a stack, innermost frame first.
+     */
+    private static StackTraceElement[] stack(StackTraceElement... frames)
+    {
+        return frames.clone();
+    }
+
+    private static String print(Jdk15ThreadSampler sampler, String bundle)
+    {
+        final StringWriter out = new StringWriter();
+        final PrintWriter writer = new PrintWriter(out);
+        sampler.printSamples(new ThreadWriter(writer), bundle);
+        writer.flush();
+        return out.toString().replace(System.getProperty("line.separator"), "\n");
+    }
+
+    private static int countStacks(String output)
+    {
+        final int start = output.indexOf("Folded stacks:\n");
+        return start < 0 ? 0 : output.substring(start).split("\n").length - 1;
+    }
+
+    private static String format(long time)
+    {
+        return new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new java.util.Date(time));
+    }
+
+}
@@ -19,29 +19,40 @@ package org.apache.felix.useradmin.filestore;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.felix.useradmin.RoleRepositoryStore;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
+import org.osgi.service.useradmin.Role;
 import org.osgi.service.useradmin.UserAdminEvent;
 import org.osgi.service.useradmin.UserAdminListener;
 
 
 /**
  * Provides an implementation of {@link RoleRepositoryStore} using Java Serialization.
+ * <p>
+ * The repository is kept on disk as a snapshot of all roles and a log to
+ * which the roles that changed since that snapshot are appended. Upon a
+ * background write, only the changed roles are written to the log. Once
+ * the log has grown larger than the snapshot, a new snapshot is written
+ * and the log is discarded.
+ * </p>
  */
 public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implements Runnable, UserAdminListener, ManagedService {
 
@@ -58,9 +69,27 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
     private static final TimeUnit DEFAULT_WRITE_DELAY_TIMEUNIT = TimeUnit.MILLISECONDS;
 
     private static final String FILE_NAME = "ua_repo.dat";
+    private static final String LOG_FILE_NAME = "ua_repo.log";
+
+    /** Marks the trailer of a snapshot, which is ignored by older versions. */
+    private static final int SNAPSHOT_MAGIC = 0x55415331;
+    /** Marks the header of a log. */
+    private static final int LOG_MAGIC = 0x55414c31;
+    private static final int RECORD_PUT = 1;
+    private static final int RECORD_REMOVE = 2;
+    /** The minimal size of the log before a new snapshot is written. */
+    private static final long MIN_COMPACT_SIZE = 64 * 1024;
 
     private final File m_file;
+    private final File m_logFile;
     private final AtomicReference m_timerRef;
+    /** The names of the roles changed since the last write, as keys. */
+    private final ConcurrentMap m_dirty;
+
+    /** The epoch of the current snapshot, zero if there is none. Guarded by this. */
+    private long m_epoch;
+    /** Whether the log is to be replaced by a new snapshot upon the next write. Guarded by this. */
+    private boolean m_compact;
 
     /**
      * Creates a new {@link RoleRepositoryStore} instance.
@@ -79,7 +108,9 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
      */
     public RoleRepositoryFileStore(File baseDir, boolean backgroundWriteEnabled) {
         m_file = new File(baseDir, FILE_NAME);
+        m_logFile = new File(baseDir, LOG_FILE_NAME);
         
+        m_dirty = new ConcurrentHashMap();
         m_timerRef = new AtomicReference();
 
         if (backgroundWriteEnabled) {
@@ -87,8 +118,35 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
         }
     }
     
+    public Role addRole(String roleName, int type) {
+        Role result = super.addRole(roleName, type);
+        if (result != null) {
+            markDirty(roleName);
+        }
+        return result;
+    }
+
+    public Role removeRole(String roleName) {
+        Role result = super.removeRole(roleName);
+        if (result != null) {
+            markDirty(roleName);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>Called before the change returns, so the change is written by the next flush, even if its event is not delivered yet.</p>
+     */
+    public void roleChanged(Role role) {
+        super.roleChanged(role);
+        markDirty(role.getName());
+    }
+
     public void roleChanged(UserAdminEvent event) {
-        scheduleTask();
+        // Normally known already, unless the role was changed without going through the role repository...
+        markDirty(event.getRole().getName());
     }
 
     /**
@@ -112,7 +170,7 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
      * @throws IOException in case of I/O problems retrieving the store.
      */
     public void start() throws IOException {
-        m_entries.putAll(retrieve());
+        putAll(retrieve());
     }
 
     /**
@@ -185,44 +243,117 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
     }
 
     /**
-     * Retrieves the serialized repository from disk.
+     * Retrieves the serialized repository from disk, that is, the last snapshot
+     * with all changes logged since.
      * 
      * @return the retrieved repository, never <code>null</code>.
      * @throws IOException in case the retrieval of the repository failed.
      */
-    protected Map retrieve() throws IOException {
-        InputStream is = null;
+    protected synchronized Map retrieve() throws IOException {
+        RoleRepositorySerializer serializer = new RoleRepositorySerializer();
+        DataInputStream dis = null;
 
+        Map entries;
         try {
-            is = new BufferedInputStream(new FileInputStream(m_file));
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(m_file)));
 
-            return new RoleRepositorySerializer().deserialize(is);
+            entries = serializer.readEntries(dis);
+            m_epoch = readEpoch(dis);
         } catch (FileNotFoundException exception) {
             // Don't bother; file does not exist...
-            return Collections.emptyMap();
+            entries = new HashMap();
+            m_epoch = 0L;
         } catch (IOException exception) {
             exception.printStackTrace();
             throw exception;
         } finally {
-            closeSafely(is);
+            closeSafely(dis);
         }
+
+        // A log without snapshot, or written for another snapshot, is stale...
+        m_compact = (m_epoch == 0L) || !replayLog(serializer, entries);
+
+        return serializer.resolveGroups(entries);
     }
 
     /**
-     * Stores the given repository to disk as serialized objects.
+     * Stores the given repository to disk as a new snapshot, discarding the log.
      * 
      * @param roleRepository the repository to store, cannot be <code>null</code>.
      * @throws IOException in case storing the repository failed.
      */
-    protected void store(Map roleRepository) throws IOException {
-        OutputStream os = null;
+    protected synchronized void store(Map roleRepository) throws IOException {
+        long epoch = Math.max(m_epoch + 1, System.currentTimeMillis());
+        File tmpFile = new File(m_file.getPath() + ".tmp");
+
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(tmpFile);
+
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+            new RoleRepositorySerializer().serialize(roleRepository, dos);
+            dos.writeInt(SNAPSHOT_MAGIC);
+            dos.writeLong(epoch);
+            dos.flush();
+
+            fos.getFD().sync();
+        } finally {
+            closeSafely(fos);
+        }
+
+        if (!tmpFile.renameTo(m_file)) {
+            // Not all platforms allow an existing file to be replaced...
+            m_file.delete();
+            if (!tmpFile.renameTo(m_file)) {
+                throw new IOException("Failed to rename " + tmpFile + " to " + m_file + "!");
+            }
+        }
+        // The log belongs to the previous snapshot, hence is ignored when still present...
+        m_logFile.delete();
+
+        m_epoch = epoch;
+        m_compact = false;
+    }
+
+    /**
+     * Appends the given roles to the log, starting a new log if needed.
+     * 
+     * @param names the names of the roles to append, cannot be <code>null</code>.
+     * @return the size of the log, in bytes.
+     * @throws IOException in case appending to the log failed.
+     */
+    private long append(Iterator names) throws IOException {
+        RoleRepositorySerializer serializer = new RoleRepositorySerializer();
+        boolean exists = m_logFile.exists();
 
+        FileOutputStream fos = null;
         try {
-            os = new BufferedOutputStream(new FileOutputStream(m_file));
+            fos = new FileOutputStream(m_logFile, exists);
+
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+            if (!exists) {
+                dos.writeInt(LOG_MAGIC);
+                dos.writeLong(m_epoch);
+            }
+            while (names.hasNext()) {
+                String name = (String) names.next();
+                names.remove();
 
-            new RoleRepositorySerializer().serialize(roleRepository, os);
+                Role role = getRoleByName(name);
+                if (role == null) {
+                    dos.write(RECORD_REMOVE);
+                    dos.writeUTF(name);
+                } else {
+                    dos.write(RECORD_PUT);
+                    serializer.writeEntry(role, dos);
+                }
+            }
+            dos.flush();
+
+            fos.getFD().sync();
+            return fos.getChannel().size();
         } finally {
-            closeSafely(os);
+            closeSafely(fos);
         }
     }
 
@@ -242,12 +373,112 @@ public class RoleRepositoryFileStore extends RoleRepositoryMemoryStore implement
     }
 
     /**
-     * Flushes the current repository to disk.
+     * Flushes the changes to the current repository to disk.
      * 
      * @throws IOException in case of problems storing the repository.
      */
-    private void flush() throws IOException {
-        store(new HashMap(m_entries));
+    private synchronized void flush() throws IOException {
+        if (m_compact) {
+            m_dirty.clear();
+            store(new HashMap(m_entries));
+        } else if (!m_dirty.isEmpty()) {
+            try {
+                long size = append(m_dirty.keySet().iterator());
+                if (size > Math.max(MIN_COMPACT_SIZE, m_file.length())) {
+                    store(new HashMap(m_entries));
+                }
+            } catch (IOException e) {
+                // The log might be damaged; fall back to a complete snapshot...
+                m_compact = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads the epoch from the trailer of a snapshot.
+     * 
+     * @param dis the input stream positioned after the entries of the snapshot, cannot be <code>null</code>.
+     * @return the epoch of the snapshot, or zero if the snapshot has no trailer.
+     * @throws IOException in case of I/O problems.
+     */
+    private long readEpoch(DataInputStream dis) throws IOException {
+        try {
+            if (dis.readInt() == SNAPSHOT_MAGIC) {
+                return dis.readLong();
+            }
+        } catch (EOFException e) {
+            // Written by an older version...
+        }
+        return 0L;
+    }
+
+    /**
+     * Applies the records of the log, if any, to the given entries.
+     * 
+     * @param serializer the serializer to read the records with, cannot be <code>null</code>;
+     * @param entries the entries read from the snapshot, as returned by {@link RoleRepositorySerializer#readEntries(DataInputStream)}, cannot be <code>null</code>.
+     * @return <code>true</code> if the log can be appended to, <code>false</code> if it is incomplete or belongs to another snapshot.
+     */
+    private boolean replayLog(RoleRepositorySerializer serializer, Map entries) {
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(m_logFile)));
+
+            if ((dis.readInt() != LOG_MAGIC) || (dis.readLong() != m_epoch)) {
+                return false;
+            }
+
+            int record;
+            while ((record = dis.read()) >= 0) {
+                if (RECORD_PUT == record) {
+                    Role role = serializer.readEntry(dis);
+                    entries.put(role.getName(), role);
+                } else if (RECORD_REMOVE == record) {
+                    String name = dis.readUTF();
+                    entries.remove(name);
+                    removeMember(entries, name);
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        } catch (FileNotFoundException e) {
+            // Nothing changed since the snapshot...
+            return true;
+        } catch (IOException e) {
+            // The last record was not completely written; ignore it...
+            return false;
+        } finally {
+            closeSafely(dis);
+        }
+    }
+
+    /**
+     * Removes the role with the given name from all (stub) groups, like the role repository does upon its removal.
+     * 
+     * @param entries the entries to update, cannot be <code>null</code>;
+     * @param name the name of the removed role, cannot be <code>null</code>.
+     */
+    private void removeMember(Map entries, String name) {
+        Iterator iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            Object entry = iter.next();
+            if (entry instanceof StubGroupImpl) {
+                ((StubGroupImpl) entry).getMemberNames().remove(name);
+                ((StubGroupImpl) entry).getRequiredMemberNames().remove(name);
+            }
+        }
+    }
+
+    /**
+     * Marks the role with the given name to be written upon the next flush.
+     * 
+     * @param name the name of the added, changed or removed role, cannot be <code>null</code>.
+     */
+    private void markDirty(String name) {
+        m_dirty.put(name, Boolean.TRUE);
+        scheduleTask();
     }
 
     /**
@@ -18,13 +18,19 @@ package org.apache.felix.useradmin.filestore;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import org.apache.felix.useradmin.RoleChangeTrackingStore;
 import org.apache.felix.useradmin.RoleFactory;
-import org.apache.felix.useradmin.RoleRepositoryStore;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
@@ -33,10 +39,23 @@ import org.osgi.service.useradmin.Role;
 
 /**
  * Provides a thread-safe in-memory role repository store.
+ * <p>
+ * Queries for roles having a property with a given value, like the ones
+ * done by <tt>UserAdmin#getUser</tt>, are answered from an index on the
+ * property. Such an index is created for each property key used in an
+ * equality filter, up to {@link #MAX_INDEXED_KEYS} keys, and kept up to
+ * date through {@link #roleChanged(Role)}. Other filters are evaluated
+ * against all roles.
+ * </p>
  */
-public class RoleRepositoryMemoryStore implements RoleRepositoryStore {
-    
+public class RoleRepositoryMemoryStore implements RoleChangeTrackingStore {
+
+    /** The maximum number of property keys to index. */
+    static final int MAX_INDEXED_KEYS = 16;
+
     protected final ConcurrentMap m_entries = new ConcurrentHashMap();
+    /** The property indexes by lower case property key. Guarded by itself. */
+    private final Map m_indexes = new HashMap();
 
     public Role addRole(String roleName, int type) {
         if (roleName == null) {
@@ -48,11 +67,14 @@ public class RoleRepositoryMemoryStore implements RoleRepositoryStore {
     }
 
     public Role[] getRoles(String filterValue) throws InvalidSyntaxException {
-        Collection roles = m_entries.values();
-
         Filter filter = null;
+        Collection roles = null;
         if (filterValue != null) {
             filter = FrameworkUtil.createFilter(filterValue);
+            roles = getCandidates(filterValue);
+        }
+        if (roles == null) {
+            roles = m_entries.values();
         }
 
         List matchingRoles = new ArrayList();
@@ -81,6 +103,259 @@ public class RoleRepositoryMemoryStore implements RoleRepositoryStore {
         }
         Role role = getRoleByName(roleName);
         boolean result = m_entries.remove(roleName, role);
+        if (result) {
+            updateIndexes(roleName);
+        }
         return result ? role : null;
     }
+
+    public void roleChanged(Role role) {
+        updateIndexes(role.getName());
+    }
+
+    /**
+     * Adds all given roles to this store, replacing existing roles with the same name.
+     * 
+     * @param roles the roles to add, as map of role name to role, cannot be <code>null</code>.
+     */
+    protected void putAll(Map roles) {
+        synchronized (m_indexes) {
+            m_entries.putAll(roles);
+            // Rebuilt on demand...
+            m_indexes.clear();
+        }
+    }
+
+    /**
+     * Returns the roles that possibly match the given filter, based on the
+     * property indexes.
+     * 
+     * @param filter the filter to return the candidate roles for, cannot be <code>null</code>.
+     * @return the candidate roles, or <code>null</code> if all roles are candidates.
+     */
+    private Collection getCandidates(String filter) {
+        List terms = getEqualityTerms(filter);
+        if (terms.isEmpty()) {
+            return null;
+        }
+
+        Set names = null;
+        synchronized (m_indexes) {
+            for (int i = 0; i < terms.size(); i++) {
+                String[] term = (String[]) terms.get(i);
+
+                PropertyIndex index = getIndex(term[0]);
+                if (index != null) {
+                    Set candidates = index.get(term[1]);
+                    if ((names == null) || (candidates.size() < names.size())) {
+                        names = candidates;
+                    }
+                }
+            }
+            if (names == null) {
+                return null;
+            }
+            names = new HashSet(names);
+        }
+
+        List result = new ArrayList(names.size());
+        Iterator namesIter = names.iterator();
+        while (namesIter.hasNext()) {
+            Object role = m_entries.get(namesIter.next());
+            if (role != null) {
+                result.add(role);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index for the given property key, creating it if needed.
+     * 
+     * @param key the property key, cannot be <code>null</code>.
+     * @return the index, or <code>null</code> if too many keys are indexed already.
+     */
+    private PropertyIndex getIndex(String key) {
+        String lowerKey = key.toLowerCase();
+
+        PropertyIndex index = (PropertyIndex) m_indexes.get(lowerKey);
+        if ((index == null) && (m_indexes.size() < MAX_INDEXED_KEYS)) {
+            index = new PropertyIndex(lowerKey);
+
+            Iterator rolesIter = m_entries.values().iterator();
+            while (rolesIter.hasNext()) {
+                index.add((Role) rolesIter.next());
+            }
+
+            m_indexes.put(lowerKey, index);
+        }
+        return index;
+    }
+
+    /**
+     * Updates all property indexes for the role with the given name.
+     * 
+     * @param name the name of the role that changed or was removed, cannot be <code>null</code>.
+     */
+    private void updateIndexes(String name) {
+        synchronized (m_indexes) {
+            Role role = (Role) m_entries.get(name);
+
+            Iterator indexIter = m_indexes.values().iterator();
+            while (indexIter.hasNext()) {
+                PropertyIndex index = (PropertyIndex) indexIter.next();
+                index.remove(name);
+                if (role != null) {
+                    index.add(role);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the equality terms of the given filter that every matching role
+     * should satisfy, that is, the filter itself if it is a simple equality
+     * like <tt>(mail=elmer@acme.com)</tt>, or the simple equalities directly
+     * contained by a top-level conjunction.
+     * 
+     * @param filter the filter to return the terms for, cannot be <code>null</code>.
+     * @return a list with <tt>{ key, value }</tt> string arrays, can be empty, never <code>null</code>.
+     */
+    static List getEqualityTerms(String filter) {
+        List result = new ArrayList();
+
+        String f = filter.trim();
+        if ((f.indexOf('\\') >= 0) || !f.startsWith("(") || !f.endsWith(")")) {
+            // Don't bother with escaped characters...
+            return result;
+        }
+
+        if (f.startsWith("(&")) {
+            int depth = 0;
+            int start = -1;
+            for (int i = 2; i < f.length() - 1; i++) {
+                char c = f.charAt(i);
+                if (c == '(') {
+                    if (depth++ == 0) {
+                        start = i;
+                    }
+                } else if (c == ')') {
+                    if (--depth == 0) {
+                        addEqualityTerm(f.substring(start + 1, i), result);
+                    }
+                }
+            }
+        } else {
+            addEqualityTerm(f.substring(1, f.length() - 1), result);
+        }
+
+        return result;
+    }
+
+    private static void addEqualityTerm(String term, List result) {
+        int idx = term.indexOf('=');
+        if ((idx <= 0) || (term.indexOf('(') >= 0) || (term.indexOf(')') >= 0) || (term.indexOf('*') >= 0)) {
+            return;
+        }
+
+        String key = term.substring(0, idx);
+        String value = term.substring(idx + 1);
+        if ("~<>".indexOf(key.charAt(key.length() - 1)) >= 0 || !key.trim().equals(key) || !value.trim().equals(value)) {
+            // Not an equality or whitespace we're not sure how it is matched...
+            return;
+        }
+
+        result.add(new String[] { key, value });
+    }
+
+    /**
+     * Provides an index of the roles by the value of a single property.
+     */
+    private static final class PropertyIndex {
+        /** A marker for values that are no string. */
+        private static final Object OTHER = new Object();
+
+        private final String m_key;
+        /** The role names per string value. */
+        private final Map m_names = new HashMap();
+        /** The names of the roles with a value that is no string; always a candidate. */
+        private final Set m_others = new HashSet();
+        /** The indexed values per role name. */
+        private final Map m_values = new HashMap();
+
+        PropertyIndex(String lowerKey) {
+            m_key = lowerKey;
+        }
+
+        /**
+         * @return the names of the roles that possibly have the given value, never <code>null</code>.
+         */
+        Set get(String value) {
+            Set names = (Set) m_names.get(value);
+            if (m_others.isEmpty()) {
+                return (names == null) ? m_others : names;
+            }
+            Set result = new HashSet(m_others);
+            if (names != null) {
+                result.addAll(names);
+            }
+            return result;
+        }
+
+        void add(Role role) {
+            // Property keys are matched case-insensitively...
+            List values = null;
+            Dictionary properties = role.getProperties();
+            Enumeration keys = properties.keys();
+            while (keys.hasMoreElements()) {
+                Object key = keys.nextElement();
+                if ((key instanceof String) && m_key.equalsIgnoreCase((String) key)) {
+                    Object value = properties.get(key);
+                    if (value != null) {
+                        if (values == null) {
+                            values = new ArrayList(1);
+                        }
+                        values.add((value instanceof String) ? value : OTHER);
+                    }
+                }
+            }
+            if (values == null) {
+                return;
+            }
+
+            String name = role.getName();
+            m_values.put(name, values);
+            for (int i = 0; i < values.size(); i++) {
+                Object value = values.get(i);
+                if (value == OTHER) {
+                    m_others.add(name);
+                } else {
+                    Set names = (Set) m_names.get(value);
+                    if (names == null) {
+                        names = new HashSet(2);
+                        m_names.put(value, names);
+                    }
+                    names.add(name);
+                }
+            }
+        }
+
+        void remove(String name) {
+            List values = (List) m_values.remove(name);
+            for (int i = 0; (values != null) && (i < values.size()); i++) {
+                Object value = values.get(i);
+                if (value == OTHER) {
+                    m_others.remove(name);
+                } else {
+                    Set names = (Set) m_names.get(value);
+                    if (names != null) {
+                        names.remove(name);
+                        if (names.isEmpty()) {
+                            m_names.remove(value);
+                        }
+                    }
+                }
+            }
+        }
+    }
 }
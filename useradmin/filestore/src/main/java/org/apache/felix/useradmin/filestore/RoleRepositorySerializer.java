@@ -18,6 +18,7 @@ package org.apache.felix.useradmin.filestore;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -196,7 +197,9 @@ final class RoleRepositorySerializer {
             if (VALUE_TYPE_BARRAY == type) {
                 int length = dis.readInt();
                 byte[] value = new byte[length];
-                if (dis.read(value, 0, length) != length) {
+                try {
+                    dis.readFully(value);
+                } catch (EOFException e) {
                     throw new IOException("Invalid repository; failed to correctly read dictionary!");
                 }
                 dict.put(key, value);
@@ -242,26 +245,68 @@ final class RoleRepositorySerializer {
      * @throws IOException in case of I/O problems.
      */
     private Map readRepository(DataInputStream dis) throws IOException {
-        Map repository = new HashMap();
+        return resolveGroups(readEntries(dis));
+    }
+
+    /**
+     * Reads all entries of a repository from the given input stream, without
+     * resolving the members of its groups.
+     * 
+     * @param dis the input stream to read the data from, cannot be <code>null</code>.
+     * @return a {@link Map} with the name of each role as key and the role as
+     *         value, groups being represented by {@link StubGroupImpl}s.
+     * @throws IOException in case of I/O problems.
+     */
+    Map readEntries(DataInputStream dis) throws IOException {
+        Map entries = new HashMap();
         
         int entryCount = dis.readInt();
         
-        List stubGroups = new ArrayList();
-        
         // Keep reading until no more types can be read...
         while (entryCount-- > 0) {
-            int type = dis.readInt();
-            
-            Role role = null;
-            if (Role.GROUP == type) {
-                stubGroups.add(readGroup(dis));
-            } else if (Role.USER == type) {
-                role = readUser(dis);
+            Role role = readEntry(dis);
+            entries.put(role.getName(), role);
+        }
+        
+        return entries;
+    }
+
+    /**
+     * Reads a single role from the given input stream.
+     * 
+     * @param dis the input stream to read the data from, cannot be <code>null</code>.
+     * @return the read role, or a {@link StubGroupImpl} in case of a group, never <code>null</code>.
+     * @throws IOException in case of I/O problems.
+     */
+    Role readEntry(DataInputStream dis) throws IOException {
+        int type = dis.readInt();
+
+        if (Role.GROUP == type) {
+            return readGroup(dis);
+        } else if (Role.USER == type) {
+            return readUser(dis);
+        } else {
+            return readRole(dis);
+        }
+    }
+
+    /**
+     * Replaces all stub groups of the given entries by real groups.
+     * 
+     * @param entries the entries as returned by {@link #readEntries(DataInputStream)}, cannot be <code>null</code>.
+     * @return the repository {@link Map}, never <code>null</code>.
+     * @throws IOException in case a referenced role was not found in the repository.
+     */
+    Map resolveGroups(Map entries) throws IOException {
+        Map repository = new HashMap();
+        List stubGroups = new ArrayList();
+
+        Iterator entriesIter = entries.values().iterator();
+        while (entriesIter.hasNext()) {
+            Role role = (Role) entriesIter.next();
+            if (role instanceof StubGroupImpl) {
+                stubGroups.add(role);
             } else {
-                role = readRole(dis);
-            }
-            
-            if (role != null) {
                 repository.put(role.getName(), role);
             }
         }
@@ -426,19 +471,28 @@ final class RoleRepositorySerializer {
         dos.writeInt(values.size());
         
         while (valuesIter.hasNext()) {
-            Role role = (Role) valuesIter.next();
-            
-            int type = role.getType();
-            
-            dos.writeInt(type);
-            
-            if (Role.GROUP == type) {
-                writeGroup((Group) role, dos);
-            } else if (Role.USER == type) {
-                writeUser((User) role, dos);
-            } else {
-                writeRole(role, dos);
-            }
+            writeEntry((Role) valuesIter.next(), dos);
+        }
+    }
+
+    /**
+     * Writes a single role to the given output stream.
+     * 
+     * @param role the role to write, cannot be <code>null</code>;
+     * @param dos the output stream to write the data to, cannot be <code>null</code>.
+     * @throws IOException in case of I/O problems.
+     */
+    void writeEntry(Role role, DataOutputStream dos) throws IOException {
+        int type = role.getType();
+        
+        dos.writeInt(type);
+        
+        if (Role.GROUP == type) {
+            writeGroup((Group) role, dos);
+        } else if (Role.USER == type) {
+            writeUser((User) role, dos);
+        } else {
+            writeRole(role, dos);
         }
     }
     
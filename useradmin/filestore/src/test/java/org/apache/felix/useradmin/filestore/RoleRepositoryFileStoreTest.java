@@ -17,11 +17,19 @@
 package org.apache.felix.useradmin.filestore;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import junit.framework.TestCase;
 
+import org.apache.felix.useradmin.RoleFactory;
 import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.useradmin.Group;
+import org.osgi.service.useradmin.Role;
+import org.osgi.service.useradmin.User;
+import org.osgi.service.useradmin.UserAdminEvent;
 
 /**
  * Test cases for {@link RoleRepositoryFileStore}.
@@ -29,7 +37,121 @@ import org.osgi.service.cm.ConfigurationException;
 public class RoleRepositoryFileStoreTest extends TestCase {
 
     private RoleRepositoryFileStore m_store;
-    
+    private File m_baseDir;
+
+    /**
+     * Tests that changes written to the log are retrieved on top of the last snapshot.
+     */
+    public void testRetrieveLoggedChangesOk() throws Exception {
+        RoleRepositoryFileStore store = createStore();
+
+        User user1 = (User) store.addRole("user1", Role.USER);
+        User user2 = (User) store.addRole("user2", Role.USER);
+        Group group = (Group) store.addRole("group", Role.GROUP);
+        group.addMember(user1);
+        group.addRequiredMember(user2);
+        store.stop();
+
+        assertTrue(new File(m_baseDir, "ua_repo.dat").exists());
+
+        store = createStore();
+        user1 = (User) store.getRoleByName("user1");
+        user1.getProperties().put("mail", "user1@acme.com");
+        changed(store, user1);
+        store.removeRole("user2");
+        changed(store, RoleFactory.createRole(Role.USER, "user2"));
+        store.addRole("user3", Role.USER);
+        changed(store, store.getRoleByName("user3"));
+        store.run();
+
+        assertTrue(new File(m_baseDir, "ua_repo.log").exists());
+
+        Map repository = createStore().retrieve();
+        assertEquals(3, repository.size());
+        assertEquals("user1@acme.com", ((User) repository.get("user1")).getProperties().get("mail"));
+        assertNotNull(repository.get("user3"));
+
+        group = (Group) repository.get("group");
+        assertEquals(1, group.getMembers().length);
+        assertNull(group.getRequiredMembers());
+    }
+
+    /**
+     * Tests that changes whose events are not delivered yet are written when the store is stopped.
+     */
+    public void testStopWritesUndeliveredChangesOk() throws Exception {
+        RoleRepositoryFileStore store = createStore();
+        store.addRole("user1", Role.USER);
+        store.addRole("user2", Role.USER);
+        store.stop();
+
+        store = createStore();
+        User user1 = (User) store.getRoleByName("user1");
+        user1.getProperties().put("mail", "user1@acme.com");
+        store.roleChanged(user1);
+        store.removeRole("user2");
+        store.addRole("user3", Role.USER);
+        store.stop();
+
+        assertTrue(new File(m_baseDir, "ua_repo.log").exists());
+
+        Map repository = createStore().retrieve();
+        assertEquals(2, repository.size());
+        assertEquals("user1@acme.com", ((User) repository.get("user1")).getProperties().get("mail"));
+        assertNull(repository.get("user2"));
+        assertNotNull(repository.get("user3"));
+    }
+
+    /**
+     * Tests that an incompletely written change is ignored and causes a new snapshot to be written.
+     */
+    public void testRetrieveTornLogOk() throws Exception {
+        RoleRepositoryFileStore store = createStore();
+        store.addRole("user1", Role.USER);
+        store.stop();
+
+        store = createStore();
+        store.addRole("user2", Role.USER);
+        changed(store, store.getRoleByName("user2"));
+        store.run();
+
+        FileOutputStream fos = new FileOutputStream(new File(m_baseDir, "ua_repo.log"), true);
+        fos.write(new byte[] { 1, 0, 0 });
+        fos.close();
+
+        store = createStore();
+        assertNotNull(store.getRoleByName("user1"));
+        assertNotNull(store.getRoleByName("user2"));
+
+        store.stop();
+        assertFalse(new File(m_baseDir, "ua_repo.log").exists());
+        assertEquals(2, createStore().retrieve().size());
+    }
+
+    /**
+     * Tests that a log belonging to a previous snapshot is ignored.
+     */
+    public void testRetrieveStaleLogIgnoredOk() throws Exception {
+        RoleRepositoryFileStore store = createStore();
+        store.addRole("user1", Role.USER);
+        store.stop();
+
+        store = createStore();
+        store.addRole("user2", Role.USER);
+        changed(store, store.getRoleByName("user2"));
+        store.run();
+
+        File log = new File(m_baseDir, "ua_repo.log");
+        File staleLog = new File(m_baseDir, "stale.log");
+        assertTrue(log.renameTo(staleLog));
+
+        store.removeRole("user2");
+        store.store(new HashMap());
+        assertTrue(staleLog.renameTo(log));
+
+        assertEquals(0, createStore().retrieve().size());
+    }
+
     /**
      * Tests that calling updated without the key "background.write.disabled" fails.
      */
@@ -185,5 +307,29 @@ public class RoleRepositoryFileStoreTest extends TestCase {
         super.setUp();
 
         m_store = new RoleRepositoryFileStore(new File(System.getProperty("java.io.tmpdir")), false /* disable background writes */);
+
+        m_baseDir = File.createTempFile("ua_repo", "");
+        m_baseDir.delete();
+        m_baseDir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        File[] files = m_baseDir.listFiles();
+        for (int i = 0; (files != null) && (i < files.length); i++) {
+            files[i].delete();
+        }
+        m_baseDir.delete();
+
+        super.tearDown();
+    }
+
+    private void changed(RoleRepositoryFileStore store, Role role) {
+        store.roleChanged(new UserAdminEvent(null, UserAdminEvent.ROLE_CHANGED, role));
+    }
+
+    private RoleRepositoryFileStore createStore() throws Exception {
+        RoleRepositoryFileStore store = new RoleRepositoryFileStore(m_baseDir, false /* disable background writes */);
+        store.start();
+        return store;
     }
 }
@@ -0,0 +1,146 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin.filestore;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.useradmin.Role;
+import org.osgi.service.useradmin.User;
+
+/**
+ * Test cases for {@link RoleRepositoryMemoryStore}.
+ */
+public class RoleRepositoryMemoryStoreTest extends TestCase {
+
+    private RoleRepositoryMemoryStore m_store;
+
+    /**
+     * Tests that only simple equality terms are used for looking up roles in an index.
+     */
+    public void testGetEqualityTermsOk() {
+        assertTerms("(mail=a@b.c)", new String[] { "mail", "a@b.c" });
+        assertTerms("(&(objectClass=person)(mail=a@b.c))", new String[] { "objectClass", "person", "mail", "a@b.c" });
+        assertTerms("(&(mail=a@b.c)(|(a=1)(b=2))(!(c=3)))", new String[] { "mail", "a@b.c" });
+
+        assertTerms("(|(mail=a@b.c)(mail=d@e.f))", new String[0]);
+        assertTerms("(mail=a*)", new String[0]);
+        assertTerms("(mail~=a@b.c)", new String[0]);
+        assertTerms("(count>=1)", new String[0]);
+        assertTerms("(mail=a\\(b)", new String[0]);
+        assertTerms("(mail= a@b.c)", new String[0]);
+    }
+
+    /**
+     * Tests that roles are found by their properties, regardless of the case of the property keys.
+     */
+    public void testGetRolesByPropertyOk() throws Exception {
+        User user1 = (User) m_store.addRole("user1", Role.USER);
+        user1.getProperties().put("mail", "user1@acme.com");
+        user1.getProperties().put("objectClass", "person");
+        m_store.roleChanged(user1);
+
+        User user2 = (User) m_store.addRole("user2", Role.USER);
+        user2.getProperties().put("Mail", "user2@acme.com");
+        user2.getProperties().put("objectClass", "person");
+        m_store.roleChanged(user2);
+
+        assertRoles("(mail=user1@acme.com)", new String[] { "user1" });
+        assertRoles("(MAIL=user2@acme.com)", new String[] { "user2" });
+        assertRoles("(&(objectClass=person)(mail=user2@acme.com))", new String[] { "user2" });
+        assertRoles("(objectClass=person)", new String[] { "user1", "user2" });
+        assertRoles("(mail=USER1@acme.com)", new String[0]);
+        assertRoles("(mail=user*)", new String[] { "user1", "user2" });
+    }
+
+    /**
+     * Tests that the indexes follow the changes and removals of roles.
+     */
+    public void testGetRolesAfterChangesOk() throws Exception {
+        User user1 = (User) m_store.addRole("user1", Role.USER);
+        user1.getProperties().put("mail", "user1@acme.com");
+        m_store.roleChanged(user1);
+
+        // Create the index...
+        assertRoles("(mail=user1@acme.com)", new String[] { "user1" });
+
+        user1.getProperties().put("mail", "elmer@acme.com");
+        m_store.roleChanged(user1);
+
+        assertRoles("(mail=user1@acme.com)", new String[0]);
+        assertRoles("(mail=elmer@acme.com)", new String[] { "user1" });
+
+        User user2 = (User) m_store.addRole("user2", Role.USER);
+        user2.getProperties().put("mail", "elmer@acme.com");
+        m_store.roleChanged(user2);
+
+        assertRoles("(mail=elmer@acme.com)", new String[] { "user1", "user2" });
+
+        m_store.removeRole("user1");
+
+        assertRoles("(mail=elmer@acme.com)", new String[] { "user2" });
+    }
+
+    /**
+     * Tests that roles with a value that is no string are matched as usual.
+     */
+    public void testGetRolesByNonStringPropertyOk() throws Exception {
+        User user1 = (User) m_store.addRole("user1", Role.USER);
+        user1.getProperties().put("mail", "user1@acme.com".getBytes());
+        m_store.roleChanged(user1);
+
+        User user2 = (User) m_store.addRole("user2", Role.USER);
+        user2.getProperties().put("mail", "user2@acme.com");
+        m_store.roleChanged(user2);
+
+        assertRoles("(mail=user2@acme.com)", new String[] { "user2" });
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        m_store = new RoleRepositoryMemoryStore();
+    }
+
+    private void assertRoles(String filter, String[] names) throws Exception {
+        Role[] roles = m_store.getRoles(filter);
+
+        Set actual = new HashSet();
+        for (int i = 0; i < roles.length; i++) {
+            actual.add(roles[i].getName());
+        }
+        Set expected = new HashSet();
+        for (int i = 0; i < names.length; i++) {
+            expected.add(names[i]);
+        }
+        assertEquals(filter, expected, actual);
+    }
+
+    private void assertTerms(String filter, String[] expected) {
+        List terms = RoleRepositoryMemoryStore.getEqualityTerms(filter);
+
+        assertEquals(filter, expected.length / 2, terms.size());
+        for (int i = 0; i < terms.size(); i++) {
+            String[] term = (String[]) terms.get(i);
+            assertEquals(expected[2 * i], term[0]);
+            assertEquals(expected[2 * i + 1], term[1]);
+        }
+    }
+}
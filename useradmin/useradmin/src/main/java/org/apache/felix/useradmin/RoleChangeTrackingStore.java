@@ -0,0 +1,40 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin;
+
+import org.osgi.service.useradmin.Role;
+
+/**
+ * Provides an optional extension of {@link RoleRepositoryStore} for backends
+ * that need to know about changes in their roles as soon as they are made,
+ * for example to keep indexes on role properties.
+ * <p>
+ * Unlike the (asynchronously delivered) user admin events, the notification
+ * is made by the thread that changed the role, before the change returns.
+ * </p>
+ */
+public interface RoleChangeTrackingStore extends RoleRepositoryStore {
+
+    /**
+     * Called after a property or credential of a role changed.
+     * 
+     * @param role the role that changed, cannot be <code>null</code>. This
+     *        can be a different instance than the one returned by this backend.
+     * @throws Exception in case of problems processing the change.
+     */
+    void roleChanged(Role role) throws Exception;
+}
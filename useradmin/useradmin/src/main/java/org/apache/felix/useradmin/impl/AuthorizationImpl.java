@@ -54,7 +54,7 @@ public class AuthorizationImpl implements Authorization {
         m_user = user;
         m_roleManager = roleManager;
         m_name = (user != null) ? user.getName() : null;
-        m_roleChecker = new RoleChecker();
+        m_roleChecker = roleManager.getRoleChecker();
     }
 
     /**
@@ -73,7 +73,7 @@ public class AuthorizationImpl implements Authorization {
             // No role found, so it is never implied...
             return false;
         }
-        return m_roleChecker.isImpliedBy(role, m_user);
+        return m_roleChecker.getImpliedRoles(m_user).contains(role.getName());
     }
 
     /**
@@ -82,11 +82,12 @@ public class AuthorizationImpl implements Authorization {
     public String[] getRoles() {
         List result = new ArrayList();
 
-        Iterator rolesIter = m_roleManager.getRoles(null /* filter */).iterator();
-        while (rolesIter.hasNext()) {
-            Role role = (Role) rolesIter.next();
-            if (!Role.USER_ANYONE.equals(role.getName()) && m_roleChecker.isImpliedBy(role, m_user)) {
-                result.add(role.getName());
+        Iterator namesIter = m_roleChecker.getImpliedRoles(m_user).iterator();
+        while (namesIter.hasNext()) {
+            String name = (String) namesIter.next();
+            // The user itself need not be part of the repository...
+            if (!Role.USER_ANYONE.equals(name) && (m_roleManager.getRoleByName(name) != null)) {
+                result.add(name);
             }
         }
 
@@ -17,96 +17,534 @@
 package org.apache.felix.useradmin.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.felix.useradmin.BackendException;
+import org.apache.felix.useradmin.RoleRepositoryStore;
+import org.apache.felix.useradmin.impl.role.ObservableGroup;
 import org.osgi.service.useradmin.Group;
 import org.osgi.service.useradmin.Role;
 
 /**
  * Helper class to check for implied role memberships.
+ * <p>
+ * When bound to a {@link RoleRepositoryStore}, the role checker also keeps the
+ * names of all roles implied by the memberships of each user it has been asked
+ * for. These are computed from an index of the memberships of all groups, and
+ * both are kept up to date through the role change events of the
+ * {@link RoleRepository}: adding a user to a group only drops the implied roles
+ * of that user, any other change in memberships drops the implied roles of all
+ * users.
+ * </p>
  */
-final class RoleChecker {
+final class RoleChecker implements RoleChangeListener {
+
+    /** The key of the implied roles of the anonymous user. */
+    private static final Object ANONYMOUS = new Object();
+
+    private final RoleRepositoryStore m_store;
+    /** The implied roles (a set of role names) per user name. */
+    private final ConcurrentHashMap m_impliedRoles;
+    /** The memberships of all groups by group name, built on first use. Guarded by this. */
+    private Map m_memberships;
+    /** The names of the groups a role is a basic member of, by role name. Guarded by this. */
+    private Map m_parents;
+
+    /**
+     * Creates a new {@link RoleChecker} instance that can only check single roles.
+     */
+    public RoleChecker() {
+        this(null);
+    }
+
+    /**
+     * Creates a new {@link RoleChecker} instance.
+     *
+     * @param store the store to obtain the groups from, can be <code>null</code> in which case {@link #getImpliedRoles(Role)} cannot be used.
+     */
+    public RoleChecker(RoleRepositoryStore store) {
+        m_store = store;
+        m_impliedRoles = new ConcurrentHashMap();
+    }
 
     /**
      * Verifies whether the given role is implied by the memberships of the given user.
-     * 
+     *
      * @param user the user to check the roles for, cannot be <code>null</code>;
      * @param impliedRole the implied role to check for, cannot be <code>null</code>.
      * @return <code>true</code> if the given user has the implied role, <code>false</code> otherwise.
      */
     public boolean isImpliedBy(Role role, Role impliedRole) {
         if (role instanceof Group) {
-            return isGroupImpliedBy((Group) role, impliedRole, new ArrayList());
+            return new Evaluation(impliedRole, null /* memberships */).isGroupImplied(role.getName(), (Group) role);
         } else /* if ((role instanceof User) || (role instanceof Role)) */ {
             return isRoleImpliedBy(role, impliedRole);
         }
     }
 
     /**
-     * Verifies whether the given group is implied by the given role.
-     * 
-     * @param group the group to check, cannot be <code>null</code>;
-     * @param impliedRole the implied role to check for, cannot be <code>null</code>;
-     * @param seenGroups a list of all seen groups, used for detecting cycles in groups, cannot be <code>null</code>.
-     * @return <code>true</code> if the given group has the implied role, <code>false</code> otherwise.
-     */
-    private boolean isGroupImpliedBy(Group group, Role impliedRole, List seenGroups) {
-        Role[] basicRoles = group.getMembers();
-        Role[] requiredRoles = group.getRequiredMembers();
-
-        boolean isImplied = true;
-        
-        // Check whether all required roles are implied...
-        for (int i = 0; (requiredRoles != null) && isImplied && (i < requiredRoles.length); i++) {
-            Role requiredRole = requiredRoles[i];
-            if (seenGroups.contains(requiredRole)) {
-                // Found a cycle between groups; always yield false!
-                return false;
+     * Returns the names of all roles implied by the memberships of the given user.
+     * <p>
+     * The result contains {@link Role#USER_ANYONE}, the name of the given user
+     * itself (unless it is a group) and all implied groups of the store.
+     * </p>
+     *
+     * @param user the user to return the implied roles for, may be <code>null</code> for the anonymous user.
+     * @return an unmodifiable set of role names, never <code>null</code>.
+     * @throws BackendException in case the groups could not be obtained from the store.
+     */
+    public Set getImpliedRoles(Role user) {
+        Object key = (user == null) ? ANONYMOUS : user.getName();
+
+        Set result = (Set) m_impliedRoles.get(key);
+        if (result == null) {
+            synchronized (this) {
+                result = (Set) m_impliedRoles.get(key);
+                if (result == null) {
+                    result = Collections.unmodifiableSet(computeImpliedRoles(user));
+                    m_impliedRoles.put(key, result);
+                }
             }
-            
-            if (requiredRole instanceof Group) {
-                seenGroups.add(requiredRole);
-                isImplied = isGroupImpliedBy((Group) requiredRole, impliedRole, seenGroups);
-            } else /* if ((requiredRole instanceof User) || (requiredRole instanceof Role)) */ {
-                isImplied  = isRoleImpliedBy(requiredRole, impliedRole);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyAdded(Role role, Object key, Object value) {
+        if ((role instanceof Group) && (value instanceof Role)) {
+            if (ObservableGroup.BASIC_MEMBER.equals(key) && !(value instanceof Group)) {
+                basicMemberAdded((Group) role, (Role) value);
+            } else {
+                groupChanged((Group) role);
             }
         }
+    }
 
-        // Required role is not implied by the given role; we can stop now...
-        if (!isImplied) {
-            return false;
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyChanged(Role role, Object key, Object oldValue, Object newValue) {
+        if ((role instanceof Group) && ((oldValue instanceof Role) || (newValue instanceof Role))) {
+            groupChanged((Group) role);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void propertyRemoved(Role role, Object key) {
+        if ((role instanceof Group) && (ObservableGroup.BASIC_MEMBER.equals(key) || ObservableGroup.REQUIRED_MEMBER.equals(key))) {
+            groupChanged((Group) role);
         }
+    }
 
-        // Ok; all required roles are implied, let's verify whether a least one basic role is implied...
-        isImplied = false;
+    /**
+     * {@inheritDoc}
+     */
+    public void roleAdded(Role role) {
+        if (role instanceof Group) {
+            groupChanged((Group) role);
+        }
+    }
 
-        // Check whether at least one basic role is implied...
-        for (int i = 0; (basicRoles != null) && !isImplied && (i < basicRoles.length); i++) {
-            Role basicRole = (Role) basicRoles[i];
-            if (seenGroups.contains(basicRole)) {
-                // Found a cycle between groups; always yield false!
-                return false;
+    /**
+     * {@inheritDoc}
+     */
+    public void roleRemoved(Role role) {
+        // The removed role is silently removed from all groups, so rebuild everything...
+        reset();
+    }
+
+    /**
+     * Drops the membership index and all implied roles, causing them to be rebuilt from the store on next use.
+     */
+    public synchronized void reset() {
+        m_memberships = null;
+        m_parents = null;
+        m_impliedRoles.clear();
+    }
+
+    /**
+     * Updates the memberships for the given user that is added as basic member to the given group.
+     *
+     * @param group the group that changed, cannot be <code>null</code>;
+     * @param member the added member, cannot be <code>null</code>.
+     */
+    private synchronized void basicMemberAdded(Group group, Role member) {
+        Membership membership = (m_memberships == null) ? null : (Membership) m_memberships.get(group.getName());
+        if (membership == null) {
+            groupChanged(group);
+            return;
+        }
+
+        membership.m_basicNames.add(member.getName());
+        getParents(member.getName()).add(group.getName());
+
+        invalidate(Collections.singleton(member.getName()));
+    }
+
+    /**
+     * Computes the names of all roles implied by the given user.
+     *
+     * @param user the user to compute the implied roles for, may be <code>null</code>.
+     * @return a new set with role names, never <code>null</code>.
+     */
+    private Set computeImpliedRoles(Role user) {
+        ensureIndex();
+
+        Set result = new HashSet();
+        result.add(Role.USER_ANYONE);
+        if ((user != null) && !(user instanceof Group)) {
+            result.add(user.getName());
+        }
+
+        // A group can only be implied if at least one of its basic members is
+        // implied, so only look at the groups having the user or anyone as
+        // basic member, and (recursively) at the parents of implied groups...
+        Evaluation evaluation = new Evaluation(user, m_memberships);
+        LinkedList queue = new LinkedList();
+        Set seen = new HashSet();
+
+        addParents(Role.USER_ANYONE, queue, seen);
+        if (user != null) {
+            addParents(user.getName(), queue, seen);
+        }
+
+        while (!queue.isEmpty()) {
+            String name = (String) queue.removeFirst();
+            if (evaluation.isGroupImplied(name, null /* group */)) {
+                result.add(name);
+                addParents(name, queue, seen);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Builds the membership index, if not done already.
+     *
+     * @throws BackendException in case the groups could not be obtained from the store.
+     */
+    private void ensureIndex() {
+        if (m_memberships != null) {
+            return;
+        }
+        if (m_store == null) {
+            throw new IllegalStateException("No store to obtain the groups from!");
+        }
+
+        Role[] roles;
+        try {
+            roles = m_store.getRoles(null);
+        }
+        catch (Exception e) {
+            throw new BackendException("Failed to get all roles!", e);
+        }
+
+        // Only created once the roles are obtained, as that can reset this checker if the store was replaced...
+        m_memberships = new HashMap();
+        m_parents = new HashMap();
+        for (int i = 0; i < roles.length; i++) {
+            if (roles[i].getType() == Role.GROUP) {
+                addMembership(roles[i].getName(), new Membership((Group) roles[i]));
+            }
+        }
+    }
+
+    /**
+     * Updates the memberships of the given group and drops the implied roles of all affected users.
+     *
+     * @param group the group that changed, cannot be <code>null</code>.
+     */
+    private synchronized void groupChanged(Group group) {
+        if (m_memberships == null) {
+            // Nothing computed yet...
+            return;
+        }
+
+        Membership oldMembership = removeMembership(group.getName());
+        if (oldMembership == null) {
+            // Newly added group...
+            oldMembership = new Membership();
+        }
+        Membership newMembership = new Membership(group);
+        addMembership(group.getName(), newMembership);
+
+        if (oldMembership.hasSameGroups(newMembership)) {
+            // Only users are added or removed as basic member...
+            Set changed = new HashSet(oldMembership.m_basicNames);
+            changed.addAll(newMembership.m_basicNames);
+
+            Set unchanged = new HashSet(oldMembership.m_basicNames);
+            unchanged.retainAll(newMembership.m_basicNames);
+            changed.removeAll(unchanged);
+
+            invalidate(changed);
+        } else {
+            m_impliedRoles.clear();
+        }
+    }
+
+    /**
+     * Drops the implied roles of the users with the given names.
+     *
+     * @param names the names of the users whose basic memberships changed, cannot be <code>null</code>.
+     */
+    private void invalidate(Set names) {
+        if (names.contains(Role.USER_ANYONE)) {
+            m_impliedRoles.clear();
+        } else {
+            Iterator iter = names.iterator();
+            while (iter.hasNext()) {
+                m_impliedRoles.remove(iter.next());
             }
+        }
+    }
+
+    private void addMembership(String name, Membership membership) {
+        m_memberships.put(name, membership);
 
-            if (basicRole instanceof Group) {
-                seenGroups.add(basicRole);
-                isImplied = isGroupImpliedBy((Group) basicRole, impliedRole, seenGroups);
-            } else /* if ((basicRole instanceof User) || (basicRole instanceof Role)) */ {
-                isImplied = isRoleImpliedBy(basicRole, impliedRole);
+        Iterator iter = membership.getBasicMemberNames().iterator();
+        while (iter.hasNext()) {
+            getParents((String) iter.next()).add(name);
+        }
+    }
+
+    private Membership removeMembership(String name) {
+        Membership membership = (Membership) m_memberships.remove(name);
+        if (membership != null) {
+            Iterator iter = membership.getBasicMemberNames().iterator();
+            while (iter.hasNext()) {
+                String memberName = (String) iter.next();
+                Set parents = (Set) m_parents.get(memberName);
+                if (parents != null) {
+                    parents.remove(name);
+                    if (parents.isEmpty()) {
+                        m_parents.remove(memberName);
+                    }
+                }
             }
         }
+        return membership;
+    }
 
-        return isImplied;
+    private Set getParents(String name) {
+        Set parents = (Set) m_parents.get(name);
+        if (parents == null) {
+            parents = new HashSet();
+            m_parents.put(name, parents);
+        }
+        return parents;
+    }
+
+    private void addParents(String name, List queue, Set seen) {
+        Set parents = (Set) m_parents.get(name);
+        if (parents != null) {
+            Iterator iter = parents.iterator();
+            while (iter.hasNext()) {
+                Object parent = iter.next();
+                if (seen.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
     }
 
     /**
      * Verifies whether the given role is implied by the given role.
-     * 
+     *
      * @param role the role to check, cannot be <code>null</code>;
      * @param impliedRole the implied role to check for, cannot be <code>null</code>;
      * @return <code>true</code> if the given role is implied by the given role, <code>false</code> otherwise.
      */
-    private boolean isRoleImpliedBy(Role role, Role impliedRole) {
+    static boolean isRoleImpliedBy(Role role, Role impliedRole) {
         return Role.USER_ANYONE.equals(role.getName()) || (impliedRole != null && impliedRole.getName().equals(role.getName()));
     }
+
+    /**
+     * Provides the members of a group, split in the parts relevant for checking implied roles.
+     */
+    static final class Membership {
+        /** The required members of the group. */
+        final Role[] m_required;
+        /** The names of the basic members that are no group. */
+        final Set m_basicNames;
+        /** The basic members that are a group. */
+        final List m_basicGroups;
+
+        Membership() {
+            m_required = new Role[0];
+            m_basicNames = new HashSet();
+            m_basicGroups = new ArrayList();
+        }
+
+        Membership(Group group) {
+            Role[] required = group.getRequiredMembers();
+            Role[] basic = group.getMembers();
+
+            m_required = (required == null) ? new Role[0] : required;
+            m_basicNames = new HashSet();
+            m_basicGroups = new ArrayList();
+            for (int i = 0; (basic != null) && (i < basic.length); i++) {
+                if (basic[i] instanceof Group) {
+                    m_basicGroups.add(basic[i]);
+                } else {
+                    m_basicNames.add(basic[i].getName());
+                }
+            }
+        }
+
+        /**
+         * @return the names of all basic members, never <code>null</code>.
+         */
+        Set getBasicMemberNames() {
+            Set result = new HashSet(m_basicNames);
+            for (int i = 0; i < m_basicGroups.size(); i++) {
+                result.add(((Role) m_basicGroups.get(i)).getName());
+            }
+            return result;
+        }
+
+        /**
+         * @return <code>true</code> if the given membership has the same required members and the same basic members that are a group.
+         */
+        boolean hasSameGroups(Membership other) {
+            return getGroupKeys().equals(other.getGroupKeys());
+        }
+
+        /**
+         * @return the names of the required members and the basic members that are a group, each prefixed by its kind.
+         */
+        private Set getGroupKeys() {
+            Set result = new HashSet();
+            for (int i = 0; i < m_required.length; i++) {
+                result.add(((m_required[i] instanceof Group) ? "requiredGroup:" : "required:").concat(m_required[i].getName()));
+            }
+            for (int i = 0; i < m_basicGroups.size(); i++) {
+                result.add("basic:".concat(((Role) m_basicGroups.get(i)).getName()));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Checks groups for a single user, remembering the outcome for each group.
+     * <p>
+     * A group found again while it is being checked is considered not implied
+     * to break the cycle. Outcomes relying on that assumption are not
+     * remembered, as the group may still turn out to be implied through one
+     * of its other members.
+     * </p>
+     */
+    static final class Evaluation {
+        private final Role m_user;
+        private final Map m_memberships;
+        /** The final outcome per group name. */
+        private final Map m_results;
+        /** The depth of the groups being checked by group name. */
+        private final Map m_checking;
+        /** The lowest depth of a group being checked that the current outcome relies on. */
+        private int m_dependency;
+
+        /**
+         * @param user the user to check the groups for, may be <code>null</code>;
+         * @param memberships the known memberships by group name, may be <code>null</code>.
+         */
+        Evaluation(Role user, Map memberships) {
+            m_user = user;
+            m_memberships = memberships;
+            m_results = new HashMap();
+            m_checking = new HashMap();
+            m_dependency = Integer.MAX_VALUE;
+        }
+
+        /**
+         * Verifies whether the group with the given name is implied by the user.
+         *
+         * @param name the name of the group to check, cannot be <code>null</code>;
+         * @param group the group to check, used if its membership is not known, can be <code>null</code>.
+         * @return <code>true</code> if the group is implied, <code>false</code> otherwise.
+         */
+        boolean isGroupImplied(String name, Group group) {
+            Boolean result = (Boolean) m_results.get(name);
+            if (result != null) {
+                return result.booleanValue();
+            }
+
+            Integer checking = (Integer) m_checking.get(name);
+            if (checking != null) {
+                // Found a cycle between groups; yields false for now...
+                m_dependency = Math.min(m_dependency, checking.intValue());
+                return false;
+            }
+
+            int depth = m_checking.size();
+            int outerDependency = m_dependency;
+            m_checking.put(name, Integer.valueOf(depth));
+            m_dependency = Integer.MAX_VALUE;
+
+            boolean implied = false;
+            try {
+                Membership membership = (m_memberships == null) ? null : (Membership) m_memberships.get(name);
+                if (membership == null && group != null) {
+                    membership = new Membership(group);
+                }
+                implied = (membership != null) && isImplied(membership);
+            }
+            finally {
+                m_checking.remove(name);
+            }
+
+            // Being implied never relies on a group being not implied; not being implied
+            // is only final if it does not rely on a group that is still being checked...
+            if (implied || (m_dependency >= depth)) {
+                m_results.put(name, Boolean.valueOf(implied));
+                m_dependency = outerDependency;
+            }
+            else {
+                m_dependency = Math.min(outerDependency, m_dependency);
+            }
+            return implied;
+        }
+
+        private boolean isImplied(Membership membership) {
+            // Check whether all required roles are implied...
+            for (int i = 0; i < membership.m_required.length; i++) {
+                if (!isMemberImplied(membership.m_required[i])) {
+                    return false;
+                }
+            }
+
+            // Ok; all required roles are implied, let's verify whether a least one basic role is implied...
+            if (membership.m_basicNames.contains(Role.USER_ANYONE)
+                || ((m_user != null) && membership.m_basicNames.contains(m_user.getName()))) {
+                return true;
+            }
+            for (int i = 0; i < membership.m_basicGroups.size(); i++) {
+                if (isMemberImplied((Role) membership.m_basicGroups.get(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean isMemberImplied(Role member) {
+            if (member instanceof Group) {
+                return isGroupImplied(member.getName(), (Group) member);
+            } else /* if ((member instanceof User) || (member instanceof Role)) */ {
+                return isRoleImpliedBy(member, m_user);
+            }
+        }
+    }
 }
@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.felix.useradmin.BackendException;
+import org.apache.felix.useradmin.RoleChangeTrackingStore;
 import org.apache.felix.useradmin.RoleFactory;
 import org.apache.felix.useradmin.RoleRepositoryStore;
 import org.apache.felix.useradmin.impl.role.ObservableRole;
@@ -42,6 +43,9 @@ public final class RoleRepository {
          * {@inheritDoc}
          */
         public void propertyAdded(Role role, Object key, Object value) {
+            notifyStore(role);
+            m_roleChecker.propertyAdded(role, key, value);
+
             Iterator iterator = createListenerIterator();
             while (iterator.hasNext()) {
                 ((RoleChangeListener) iterator.next()).propertyAdded(role, key, value);
@@ -52,6 +56,9 @@ public final class RoleRepository {
          * {@inheritDoc}
          */
         public void propertyChanged(Role role, Object key, Object oldValue, Object newValue) {
+            notifyStore(role);
+            m_roleChecker.propertyChanged(role, key, oldValue, newValue);
+
             Iterator iterator = createListenerIterator();
             while (iterator.hasNext()) {
                 ((RoleChangeListener) iterator.next()).propertyChanged(role, key, oldValue, newValue);
@@ -62,6 +69,9 @@ public final class RoleRepository {
          * {@inheritDoc}
          */
         public void propertyRemoved(Role role, Object key) {
+            notifyStore(role);
+            m_roleChecker.propertyRemoved(role, key);
+
             Iterator iterator = createListenerIterator();
             while (iterator.hasNext()) {
                 ((RoleChangeListener) iterator.next()).propertyRemoved(role, key);
@@ -72,6 +82,8 @@ public final class RoleRepository {
          * {@inheritDoc}
          */
         public void roleAdded(Role role) {
+            m_roleChecker.roleAdded(role);
+
             Iterator iterator = createListenerIterator();
             while (iterator.hasNext()) {
                 ((RoleChangeListener) iterator.next()).roleAdded(role);
@@ -82,6 +94,8 @@ public final class RoleRepository {
          * {@inheritDoc}
          */
         public void roleRemoved(Role role) {
+            m_roleChecker.roleRemoved(role);
+
             Iterator iterator = createListenerIterator();
             while (iterator.hasNext()) {
                 ((RoleChangeListener) iterator.next()).roleRemoved(role);
@@ -95,6 +109,7 @@ public final class RoleRepository {
     private final RoleRepositoryStore m_store;
     private final CopyOnWriteArrayList m_listeners;
     private final RoleChangeReflector m_roleChangeReflector;
+    private final RoleChecker m_roleChecker;
     
     /**
      * Creates a new {@link RoleRepository} instance.
@@ -106,6 +121,7 @@ public final class RoleRepository {
         
         m_listeners = new CopyOnWriteArrayList();
         m_roleChangeReflector = new RoleChangeReflector();
+        m_roleChecker = new RoleChecker(store);
     }
 
     /**
@@ -152,6 +168,15 @@ public final class RoleRepository {
         m_listeners.addIfAbsent(listener);
     }
 
+    /**
+     * Returns the role checker that keeps the implied roles of the users of this repository.
+     * 
+     * @return the role checker, never <code>null</code>.
+     */
+    RoleChecker getRoleChecker() {
+        return m_roleChecker;
+    }
+
     /**
      * Returns the by its given name.
      * 
@@ -270,6 +295,13 @@ public final class RoleRepository {
         }
     }
 
+    /**
+     * Notifies this repository that its store has been replaced, dropping everything derived from the roles of the previous store.
+     */
+    public void storeChanged() {
+        m_roleChecker.reset();
+    }
+
     /**
      * Removes the given role change listener from be called for changes in roles.
      * 
@@ -305,6 +337,23 @@ public final class RoleRepository {
         }
     }
 
+    /**
+     * Notifies the store about a change in the given role, if it wants to know about it.
+     * 
+     * @param role the role that changed, cannot be <code>null</code>.
+     * @throws BackendException in case the store failed to process the change.
+     */
+    private void notifyStore(Role role) {
+        if (m_store instanceof RoleChangeTrackingStore) {
+            try {
+                ((RoleChangeTrackingStore) m_store).roleChanged(role);
+            }
+            catch (Exception e) {
+                throw new BackendException("Failed to process change of role " + role.getName() + "!", e);
+            }
+        }
+    }
+
     /**
      * Returns whether or not the given role is a predefined role.
      * <p>
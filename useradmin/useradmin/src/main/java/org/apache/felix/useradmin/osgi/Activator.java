@@ -70,6 +70,7 @@ public class Activator implements BundleActivator {
         RoleRepositoryStoreHelper store = new RoleRepositoryStoreHelper(context);
 
         RoleRepository roleRepository = new RoleRepository(store);
+        store.setRoleRepository(roleRepository);
 
         return new ServiceContext(eventAdmin, listenerList, eventDispatcher, roleRepository, store);
     }
@@ -16,7 +16,9 @@
  */
 package org.apache.felix.useradmin.osgi;
 
+import org.apache.felix.useradmin.RoleChangeTrackingStore;
 import org.apache.felix.useradmin.RoleRepositoryStore;
+import org.apache.felix.useradmin.impl.RoleRepository;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.useradmin.Role;
 import org.osgi.util.tracker.ServiceTracker;
@@ -28,7 +30,10 @@ import org.osgi.util.tracker.ServiceTracker;
  * worry about the possible absence of the actual store implementation.
  * </p>
  */
-class RoleRepositoryStoreHelper extends ServiceTracker implements RoleRepositoryStore {
+class RoleRepositoryStoreHelper extends ServiceTracker implements RoleChangeTrackingStore {
+
+    private volatile RoleRepository m_roleRepository;
+    private volatile RoleRepositoryStore m_lastStore;
 	
     /**
      * Creates a new {@link RoleRepositoryStoreHelper} instance.
@@ -66,6 +71,13 @@ class RoleRepositoryStoreHelper extends ServiceTracker implements RoleRepository
         return null;
     }
 
+    public void roleChanged(Role role) throws Exception {
+        RoleRepositoryStore store = getStore();
+        if (store instanceof RoleChangeTrackingStore) {
+            ((RoleChangeTrackingStore) store).roleChanged(role);
+        }
+    }
+
     public Role removeRole(String roleName) throws Exception {
         // and possibly also from our tracked store...
         RoleRepositoryStore store = getStore();
@@ -76,12 +88,30 @@ class RoleRepositoryStoreHelper extends ServiceTracker implements RoleRepository
         return null;
     }
 
+    /**
+     * Sets the role repository to notify when the tracked store is replaced.
+     * 
+     * @param roleRepository the role repository using this store, can be <code>null</code>.
+     */
+    public void setRoleRepository(RoleRepository roleRepository) {
+        m_roleRepository = roleRepository;
+    }
+
     /**
      * Returns the tracked {@link RoleRepositoryStore}.
      * 
      * @return the {@link RoleRepositoryStore}, can be <code>null</code>.
      */
     private RoleRepositoryStore getStore() {
-        return (RoleRepositoryStore) getService();
+        RoleRepositoryStore store = (RoleRepositoryStore) getService();
+        if (store != m_lastStore) {
+            m_lastStore = store;
+
+            RoleRepository roleRepository = m_roleRepository;
+            if (roleRepository != null) {
+                roleRepository.storeChanged();
+            }
+        }
+        return store;
     }
 }
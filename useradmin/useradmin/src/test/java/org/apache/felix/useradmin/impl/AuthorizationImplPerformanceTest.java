@@ -0,0 +1,90 @@
+/**
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.felix.useradmin.impl;
+
+import junit.framework.TestCase;
+
+import org.osgi.service.useradmin.Group;
+import org.osgi.service.useradmin.Role;
+import org.osgi.service.useradmin.User;
+
+/**
+ * Performance test for {@link AuthorizationImpl} with many users in nested groups.
+ */
+public class AuthorizationImplPerformanceTest extends TestCase {
+
+    private static final int USER_COUNT = 100000;
+    private static final int GROUP_COUNT = 500;
+    private static final int NESTING = 5;
+
+    private RoleRepository m_roleRepository;
+    private User[] m_users;
+
+    /**
+     * Executes the performance test.
+     */
+    public void testPerformanceOk() throws Exception {
+        long st = System.nanoTime();
+        for (int i = 0; i < m_users.length; i++) {
+            AuthorizationImpl auth = new AuthorizationImpl(m_users[i], m_roleRepository);
+            // Each user is a member of its own group and (indirectly) of a top-level group...
+            assertTrue(auth.hasRole("Group" + (i % GROUP_COUNT)));
+            assertTrue(auth.hasRole("Group" + (i % (GROUP_COUNT / NESTING))));
+            assertFalse(auth.hasRole("Group" + ((i + 1) % GROUP_COUNT)));
+        }
+        long coldTime = System.nanoTime() - st;
+
+        st = System.nanoTime();
+        for (int i = 0; i < m_users.length; i++) {
+            AuthorizationImpl auth = new AuthorizationImpl(m_users[i], m_roleRepository);
+            assertTrue(auth.hasRole("Group" + (i % GROUP_COUNT)));
+            // The user itself, its own group and all groups nested above it...
+            assertEquals(2 + (i % GROUP_COUNT) / (GROUP_COUNT / NESTING), auth.getRoles().length);
+        }
+        long warmTime = System.nanoTime() - st;
+
+        System.out.println("Authorization time: " + (coldTime / 1.0e9) + "s (cold), " + (warmTime / 1.0e9) + "s (warm) for " + USER_COUNT + " users.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        m_roleRepository = new RoleRepository(new MemoryRoleRepositoryStore());
+
+        Role anyone = m_roleRepository.getRoleByName(Role.USER_ANYONE);
+
+        // Groups are nested in levels, each group being a member of a group of the level above...
+        int perLevel = GROUP_COUNT / NESTING;
+        Group[] groups = new Group[GROUP_COUNT];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = (Group) m_roleRepository.addRole("Group" + i, Role.GROUP);
+            groups[i].addRequiredMember(anyone);
+            if (i >= perLevel) {
+                groups[i - perLevel].addMember(groups[i]);
+            }
+        }
+
+        m_users = new User[USER_COUNT];
+        for (int i = 0; i < m_users.length; i++) {
+            m_users[i] = (User) m_roleRepository.addRole("User" + i, Role.USER);
+            groups[i % GROUP_COUNT].addMember(m_users[i]);
+        }
+    }
+}
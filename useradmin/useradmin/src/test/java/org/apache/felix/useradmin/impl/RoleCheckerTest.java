@@ -16,6 +16,10 @@
  */
 package org.apache.felix.useradmin.impl;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import junit.framework.TestCase;
 
 import org.apache.felix.useradmin.RoleFactory;
@@ -204,6 +208,133 @@ public class RoleCheckerTest extends TestCase {
         assertFalse(m_roleChecker.isImpliedBy(voters, daffy));
     }
     
+    /**
+     * Test that a group reachable through several other groups is implied, even if one of these other groups is not.
+     */
+    public void testSharedGroupImpliedOk() {
+        User elmer = RoleFactory.createUser("elmer");
+
+        Group staff = RoleFactory.createGroup("staff");
+        staff.addMember(elmer);
+
+        Group managers = RoleFactory.createGroup("managers");
+
+        Group finance = RoleFactory.createGroup("finance");
+        finance.addRequiredMember(staff);
+        finance.addRequiredMember(managers);
+        finance.addMember(m_anyone);
+
+        Group building = RoleFactory.createGroup("building");
+        building.addMember(staff);
+
+        Group employees = RoleFactory.createGroup("employees");
+        employees.addMember(finance);
+        employees.addMember(building);
+
+        assertTrue(m_roleChecker.isImpliedBy(employees, elmer));
+    }
+
+    /**
+     * Test that the implied roles of users follow the changes in memberships.
+     */
+    public void testImpliedRolesFollowMembershipsOk() {
+        RoleRepository repository = new RoleRepository(new MemoryRoleRepositoryStore());
+        RoleChecker roleChecker = repository.getRoleChecker();
+
+        User elmer = (User) repository.addRole("elmer", Role.USER);
+        User pepe = (User) repository.addRole("pepe", Role.USER);
+
+        Group citizens = (Group) repository.addRole("citizen", Role.GROUP);
+        citizens.addRequiredMember(m_anyone);
+
+        Group voters = (Group) repository.addRole("voter", Role.GROUP);
+        voters.addRequiredMember(m_anyone);
+        voters.addMember(citizens);
+
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "elmer" }), roleChecker.getImpliedRoles(elmer));
+
+        citizens.addMember(elmer);
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "elmer", "citizen", "voter" }), roleChecker.getImpliedRoles(elmer));
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "pepe" }), roleChecker.getImpliedRoles(pepe));
+
+        // Pepe is a voter without being a citizen...
+        voters.addMember(pepe);
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "pepe", "voter" }), roleChecker.getImpliedRoles(pepe));
+
+        // Only citizens can vote...
+        voters.removeMember(citizens);
+        voters.addRequiredMember(citizens);
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "pepe" }), roleChecker.getImpliedRoles(pepe));
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "elmer", "citizen" }), roleChecker.getImpliedRoles(elmer));
+
+        citizens.removeMember(elmer);
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "elmer" }), roleChecker.getImpliedRoles(elmer));
+
+        // Everybody is a citizen...
+        citizens.removeMember(m_anyone);
+        citizens.addMember(m_anyone);
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "pepe", "citizen", "voter" }), roleChecker.getImpliedRoles(pepe));
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "citizen" }), roleChecker.getImpliedRoles(null));
+
+        // Removing citizens also removes it as required member of the voters...
+        repository.removeRole("citizen");
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "pepe", "voter" }), roleChecker.getImpliedRoles(pepe));
+    }
+
+    /**
+     * Test that a group in a cycle is implied through a member outside of the cycle, whatever group is checked first.
+     */
+    public void testCyclicGroupsImpliedOk() {
+        User user = RoleFactory.createUser("u");
+
+        Group x = RoleFactory.createGroup("x");
+        Group y = RoleFactory.createGroup("y");
+        Group z = RoleFactory.createGroup("z");
+        y.addMember(x);
+        y.addMember(z);
+        x.addMember(y);
+        z.addMember(user);
+
+        assertTrue(m_roleChecker.isImpliedBy(x, user));
+        assertTrue(m_roleChecker.isImpliedBy(y, user));
+        assertTrue(m_roleChecker.isImpliedBy(z, user));
+
+        // Checked within a single evaluation, where y is reached before x...
+        RoleRepository repository = new RoleRepository(new MemoryRoleRepositoryStore());
+        User u = (User) repository.addRole("u", Role.USER);
+        Group gx = (Group) repository.addRole("x", Role.GROUP);
+        Group gy = (Group) repository.addRole("y", Role.GROUP);
+        Group gz = (Group) repository.addRole("z", Role.GROUP);
+        gy.addMember(gx);
+        gy.addMember(gz);
+        gx.addMember(gy);
+        gz.addMember(u);
+
+        RoleChecker roleChecker = repository.getRoleChecker();
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "u", "x", "y", "z" }), roleChecker.getImpliedRoles(u));
+
+        // Without z, the cycle implies neither group...
+        gy.removeMember(gz);
+        assertEquals(asSet(new String[] { Role.USER_ANYONE, "u", "z" }), roleChecker.getImpliedRoles(u));
+    }
+
+    /**
+     * Test that a required group in a cycle is not implied if the cycle is only entered through itself.
+     */
+    public void testCyclicRequiredGroupsNotImpliedOk() {
+        User user = RoleFactory.createUser("u");
+
+        Group x = RoleFactory.createGroup("x");
+        Group y = RoleFactory.createGroup("y");
+        x.addRequiredMember(y);
+        x.addMember(user);
+        y.addRequiredMember(x);
+        y.addMember(user);
+
+        assertFalse(m_roleChecker.isImpliedBy(x, user));
+        assertFalse(m_roleChecker.isImpliedBy(y, user));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -214,4 +345,8 @@ public class RoleCheckerTest extends TestCase {
 
         m_roleChecker = new RoleChecker();
     }
+
+    private static Set asSet(String[] names) {
+        return new HashSet(Arrays.asList(names));
+    }
 }
@@ -16,10 +16,23 @@
  */
 package org.apache.felix.webconsole.plugins.event.internal;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * This class collects events
+ * This class collects events.
+ * <p>
+ * The events are kept in a ring buffer of fixed capacity: adding an event
+ * only claims the next sequence number and stores the event into its slot,
+ * overwriting the oldest event once the buffer is full. Readers never block
+ * the event sources. Each event gets a {@link EventInfo#sequence sequence}
+ * number such that clients can fetch the events added since the last
+ * event they have seen.
+ * <p>
+ * Events added while the buffer is cleared or resized may be lost.
  */
 public class EventCollector
 {
@@ -27,9 +40,9 @@ public class EventCollector
     private static final String PROPERTY_MAX_SIZE = "max.size";
     private static final int DEFAULT_MAX_SIZE = 250;
 
-    private List eventInfos;
+    private volatile Ring ring;
 
-    private long startTime;
+    private volatile long startTime;
 
     private int maxSize;
 
@@ -43,18 +56,14 @@ public class EventCollector
     {
         if ( info != null )
         {
-            synchronized ( this )
+            final Ring r = this.ring;
+            final long seq = r.next.getAndIncrement();
+            info.sequence = seq;
+            if ( seq == r.base )
             {
-                this.eventInfos.add( info );
-                if ( eventInfos.size() > this.maxSize )
-                {
-                    eventInfos.remove( 0 );
-                }
-                if ( this.eventInfos.size() == 1 )
-                {
-                    this.startTime = info.received;
-                }
+                this.startTime = info.received;
             }
+            r.slots.set( r.index( seq ), info );
         }
     }
 
@@ -62,7 +71,9 @@ public class EventCollector
     {
         synchronized ( this )
         {
-            this.eventInfos = new ArrayList();
+            final Ring old = this.ring;
+            final long next = ( old == null ? 0 : old.next.get() );
+            this.ring = new Ring( old == null ? DEFAULT_MAX_SIZE : old.capacity, next, next );
             this.startTime = System.currentTimeMillis();
         }
     }
@@ -72,10 +83,54 @@ public class EventCollector
      */
     public List getEvents()
     {
-        synchronized ( this )
+        final List events = new ArrayList();
+        this.getEvents( events, -1, Long.MIN_VALUE, Long.MAX_VALUE );
+        return events;
+    }
+
+    /**
+     * Copies the events with a sequence number higher than <code>since</code>
+     * and received within the given time window, oldest first.
+     *
+     * @param events the list to add the events to
+     * @param since the sequence number of the last event already seen or -1
+     * @param from the lower bound of the receive time (inclusive)
+     * @param to the upper bound of the receive time (inclusive)
+     * @return the sequence number of the last event looked at, to be passed
+     *      as <code>since</code> to fetch the following events
+     */
+    public long getEvents( final List events, final long since, final long from, final long to )
+    {
+        final Ring r = this.ring;
+        final long head = r.next.get();
+        long seq = Math.max( Math.max( r.base, head - r.capacity ), since + 1 );
+        long last = seq - 1;
+        for ( ; seq < head; seq++ )
         {
-            return new ArrayList(eventInfos);
+            final EventInfo info = ( EventInfo ) r.slots.get( r.index( seq ) );
+            if ( info == null || info.sequence < seq )
+            {
+                // claimed but not stored yet, stop here to not skip it
+                break;
+            }
+            last = seq;
+            if ( info.sequence == seq && info.received >= from && info.received <= to )
+            {
+                events.add( info );
+            }
         }
+        return last;
+    }
+
+    /**
+     * Returns whether the event with the given sequence number (and all
+     * following events) is still available, that is whether it has neither
+     * been overwritten nor been cleared.
+     */
+    public boolean isAvailable( final long sequence )
+    {
+        final Ring r = this.ring;
+        return sequence >= Math.max( r.base, r.next.get() - r.capacity );
     }
 
     public void updateConfiguration( final Dictionary props)
@@ -83,11 +138,20 @@ public class EventCollector
         this.maxSize = OsgiUtil.toInteger(props, PROPERTY_MAX_SIZE, DEFAULT_MAX_SIZE);
         synchronized ( this )
         {
-            while ( eventInfos.size() > this.maxSize )
+            final Ring old = this.ring;
+            if ( old.capacity != this.maxSize )
             {
-                eventInfos.remove( 0 );
+                // keep the newest events fitting into the new buffer
+                // and only those, a larger buffer must not expose empty slots
+                final long head = old.next.get();
+                final long first = Math.max( old.base, head - Math.min( old.capacity, this.maxSize ) );
+                final Ring r = new Ring( this.maxSize, first, head );
+                for ( long seq = first; seq < head; seq++ )
+                {
+                    r.slots.set( r.index( seq ), old.slots.get( old.index( seq ) ) );
+                }
+                this.ring = r;
             }
-
         }
     }
 
@@ -95,4 +159,35 @@ public class EventCollector
     {
         return this.startTime;
     }
+
+    /**
+     * The ring buffer. The event with sequence number <code>n</code> is
+     * stored at index <code>n % capacity</code>.
+     */
+    private static final class Ring
+    {
+
+        final int capacity;
+
+        /** The sequence number of the first event kept after a clear or resize. */
+        final long base;
+
+        /** The sequence number of the next event. */
+        final AtomicLong next;
+
+        final AtomicReferenceArray slots;
+
+        Ring( final int capacity, final long base, final long next )
+        {
+            this.capacity = Math.max( capacity, 1 );
+            this.base = base;
+            this.next = new AtomicLong( next );
+            this.slots = new AtomicReferenceArray( this.capacity );
+        }
+
+        int index( final long seq )
+        {
+            return ( int ) ( seq % this.capacity );
+        }
+    }
 }
@@ -42,6 +42,9 @@ public class EventInfo {
     /** The event class. */
     public final String category;
 
+    /** The sequence number, assigned by the {@link EventCollector}. */
+    long sequence;
+
     public EventInfo( final String topic, final String info, final String category )
     {
         this.topic = topic;
@@ -23,6 +23,7 @@ import java.io.InputStream;
 import java.io.PrintWriter;
 import java.lang.reflect.Array;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Dictionary;
 import java.util.Iterator;
@@ -50,6 +51,15 @@ public class PluginServlet extends HttpServlet
 
     private static final String PARAMETER_ACTION = "action"; //$NON-NLS-1$
 
+    /** Only list the events after this sequence number. */
+    private static final String PARAMETER_SINCE = "since"; //$NON-NLS-1$
+
+    /** Only list the events received at or after this time. */
+    private static final String PARAMETER_FROM = "from"; //$NON-NLS-1$
+
+    /** Only list the events received at or before this time. */
+    private static final String PARAMETER_TO = "to"; //$NON-NLS-1$
+
     /** The event collector. */
     private final EventCollector collector;
 
@@ -136,12 +146,40 @@ public class PluginServlet extends HttpServlet
         resp.setContentType( "application/json" ); //$NON-NLS-1$
         resp.setCharacterEncoding( "utf-8" ); //$NON-NLS-1$
 
-        renderJSON( resp.getWriter() );
+        renderJSON( resp.getWriter(), -1, Long.MIN_VALUE, Long.MAX_VALUE );
+    }
+
+    private static long getParameter( final HttpServletRequest request, final String name, final long defaultValue )
+    {
+        final String value = request.getParameter( name );
+        if ( value != null )
+        {
+            try
+            {
+                return Long.parseLong( value );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // use the default value
+            }
+        }
+        return defaultValue;
     }
 
-    private void renderJSON( final PrintWriter pw ) throws IOException
+    /**
+     * Renders the events. If <code>since</code> is not negative and all
+     * events after this sequence number are still available, only these
+     * events are listed, otherwise all events are listed and the
+     * <code>reset</code> flag is set. The <code>last</code> value is the
+     * sequence number to pass as <code>since</code> on the next request.
+     */
+    private void renderJSON( final PrintWriter pw, final long since, final long from, final long to )
+        throws IOException
     {
-        List events = this.collector.getEvents();
+        // all events are needed for the status line and the time scale
+        final List events = new ArrayList();
+        final long last = this.collector.getEvents( events, -1, Long.MIN_VALUE, Long.MAX_VALUE );
+        final boolean delta = since >= 0 && since <= last && this.collector.isAvailable( since + 1 );
 
         StringBuffer statusLine = new StringBuffer();
         statusLine.append( events.size() );
@@ -180,18 +218,38 @@ public class PluginServlet extends HttpServlet
         jsonKey( pw, "status" );
         jsonValue( pw, statusLine.toString() );
         pw.write(',');
+        jsonKey( pw, "last" );
+        jsonValue( pw, last );
+        if ( since >= 0 )
+        {
+            pw.write(',');
+            jsonKey( pw, "reset" );
+            pw.write( delta ? "false" : "true" ); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        pw.write(',');
         jsonKey( pw, "data" );
 
         pw.write('[');
 
         // display list in reverse order
+        boolean first = true;
         for ( int index = events.size() - 1; index >= 0; index-- )
         {
-            eventJson( pw, ( EventInfo ) events.get( index ), index, startTime, scale );
-            if ( index > 0 )
+            final EventInfo info = ( EventInfo ) events.get( index );
+            if ( delta && info.sequence <= since )
+            {
+                break;
+            }
+            if ( info.received < from || info.received > to )
+            {
+                continue;
+            }
+            if ( !first )
             {
                 pw.write(',');
             }
+            first = false;
+            eventJson( pw, info, startTime, scale );
         }
 
         pw.write(']');
@@ -211,7 +269,9 @@ public class PluginServlet extends HttpServlet
             response.setCharacterEncoding( "UTF-8" ); //$NON-NLS-1$
 
             PrintWriter pw = response.getWriter();
-            this.renderJSON( pw );
+            this.renderJSON( pw, getParameter( request, PARAMETER_SINCE, -1 ),
+                getParameter( request, PARAMETER_FROM, Long.MIN_VALUE ),
+                getParameter( request, PARAMETER_TO, Long.MAX_VALUE ) );
 
             // nothing more to do
             return;
@@ -313,7 +373,7 @@ public class PluginServlet extends HttpServlet
         pw.write(':');
     }
 
-    private void eventJson( PrintWriter jw, EventInfo info, int index, final long start, final float scale )
+    private void eventJson( PrintWriter jw, EventInfo info, final long start, final float scale )
     throws IOException
     {
         final long msec = info.received - start;
@@ -323,7 +383,7 @@ public class PluginServlet extends HttpServlet
 
         jw.write("{");
         jsonKey(jw, "id" );
-        jsonValue(jw, String.valueOf( index ) );
+        jsonValue(jw, String.valueOf( info.sequence ) );
         jw.write(',');
         jsonKey(jw, "offset" );
         jsonValue(jw, msec );
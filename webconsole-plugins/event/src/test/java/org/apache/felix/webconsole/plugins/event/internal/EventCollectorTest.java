@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.webconsole.plugins.event.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class EventCollectorTest
+{
+
+    @Test
+    public void ringWrapsAround()
+    {
+        final EventCollector collector = new EventCollector( config( 3 ) );
+        final EventInfo[] infos = add( collector, 5 );
+
+        final List events = collector.getEvents();
+        assertEquals( 3, events.size() );
+        assertSame( infos[2], events.get( 0 ) );
+        assertSame( infos[3], events.get( 1 ) );
+        assertSame( infos[4], events.get( 2 ) );
+        assertEquals( 4, infos[4].sequence );
+
+        assertFalse( collector.isAvailable( 1 ) );
+        assertTrue( collector.isAvailable( 2 ) );
+    }
+
+    @Test
+    public void since()
+    {
+        final EventCollector collector = new EventCollector( config( 10 ) );
+        final EventInfo[] infos = add( collector, 5 );
+
+        List events = new ArrayList();
+        assertEquals( 4, collector.getEvents( events, 2, Long.MIN_VALUE, Long.MAX_VALUE ) );
+        assertEquals( 2, events.size() );
+        assertSame( infos[3], events.get( 0 ) );
+        assertSame( infos[4], events.get( 1 ) );
+
+        // nothing new since the last event
+        events = new ArrayList();
+        assertEquals( 4, collector.getEvents( events, 4, Long.MIN_VALUE, Long.MAX_VALUE ) );
+        assertTrue( events.isEmpty() );
+
+        events = new ArrayList();
+        assertEquals( 4, collector.getEvents( events, -1, Long.MIN_VALUE, Long.MAX_VALUE ) );
+        assertEquals( 5, events.size() );
+    }
+
+    @Test
+    public void sinceOverwritten()
+    {
+        final EventCollector collector = new EventCollector( config( 3 ) );
+        final EventInfo[] infos = add( collector, 5 );
+
+        // the events following the one seen have been overwritten in part
+        final List events = new ArrayList();
+        assertEquals( 4, collector.getEvents( events, 0, Long.MIN_VALUE, Long.MAX_VALUE ) );
+        assertEquals( 3, events.size() );
+        assertSame( infos[2], events.get( 0 ) );
+    }
+
+    @Test
+    public void timeWindow() throws InterruptedException
+    {
+        final EventCollector collector = new EventCollector( config( 10 ) );
+        final EventInfo[] infos = new EventInfo[3];
+        for ( int i = 0; i < infos.length; i++ )
+        {
+            Thread.sleep( 5 );
+            infos[i] = new EventInfo( "topic/" + i, null, null );
+            collector.add( infos[i] );
+        }
+
+        // both bounds are inclusive
+        List events = new ArrayList();
+        assertEquals( 2, collector.getEvents( events, -1, infos[1].received, infos[1].received ) );
+        assertEquals( 1, events.size() );
+        assertSame( infos[1], events.get( 0 ) );
+
+        events = new ArrayList();
+        collector.getEvents( events, -1, infos[1].received + 1, Long.MAX_VALUE );
+        assertEquals( 1, events.size() );
+        assertSame( infos[2], events.get( 0 ) );
+
+        events = new ArrayList();
+        collector.getEvents( events, -1, Long.MIN_VALUE, infos[1].received - 1 );
+        assertEquals( 1, events.size() );
+        assertSame( infos[0], events.get( 0 ) );
+
+        // the window and since combine
+        events = new ArrayList();
+        collector.getEvents( events, 1, Long.MIN_VALUE, infos[1].received );
+        assertTrue( events.isEmpty() );
+    }
+
+    @Test
+    public void clear()
+    {
+        final EventCollector collector = new EventCollector( config( 10 ) );
+        add( collector, 3 );
+        collector.clear();
+
+        assertTrue( collector.getEvents().isEmpty() );
+        assertFalse( collector.isAvailable( 2 ) );
+
+        // sequence numbers continue, clients need not start over
+        final EventInfo info = add( collector, 1 )[0];
+        assertEquals( 3, info.sequence );
+        final List events = new ArrayList();
+        assertEquals( 3, collector.getEvents( events, 1, Long.MIN_VALUE, Long.MAX_VALUE ) );
+        assertEquals( 1, events.size() );
+    }
+
+    @Test
+    public void resize()
+    {
+        final EventCollector collector = new EventCollector( config( 5 ) );
+        final EventInfo[] infos = add( collector, 5 );
+
+        collector.updateConfiguration( config( 2 ) );
+        final List events = collector.getEvents();
+        assertEquals( 2, events.size() );
+        assertSame( infos[3], events.get( 0 ) );
+        assertSame( infos[4], events.get( 1 ) );
+
+        collector.updateConfiguration( config( 4 ) );
+        assertEquals( 2, collector.getEvents().size() );
+        add( collector, 3 );
+        assertEquals( 4, collector.getEvents().size() );
+    }
+
+    @Test
+    public void concurrentAddAndRead() throws InterruptedException
+    {
+        final int threads = 4;
+        final int count = 5000;
+        final EventCollector collector = new EventCollector( config( threads * count ) );
+
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final Thread[] writers = new Thread[threads];
+        for ( int t = 0; t < threads; t++ )
+        {
+            writers[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        return;
+                    }
+                    add( collector, count );
+                }
+            };
+            writers[t].start();
+        }
+
+        // the reader polls while the events are added
+        final Set seen = new HashSet();
+        final AtomicBoolean ordered = new AtomicBoolean( true );
+        long since = -1;
+        start.countDown();
+        boolean running = true;
+        while ( running )
+        {
+            running = false;
+            for ( int t = 0; t < threads; t++ )
+            {
+                running |= writers[t].isAlive();
+            }
+            since = poll( collector, since, seen, ordered );
+        }
+        since = poll( collector, since, seen, ordered );
+
+        assertTrue( ordered.get() );
+        assertEquals( threads * count, seen.size() );
+        assertEquals( threads * count - 1, since );
+    }
+
+    private long poll( final EventCollector collector, final long since, final Set seen, final AtomicBoolean ordered )
+    {
+        final List events = new ArrayList();
+        final long last = collector.getEvents( events, since, Long.MIN_VALUE, Long.MAX_VALUE );
+        long previous = since;
+        for ( int i = 0; i < events.size(); i++ )
+        {
+            final EventInfo info = ( EventInfo ) events.get( i );
+            // each event is seen once, in sequence order
+            if ( info.sequence <= previous || !seen.add( info ) )
+            {
+                ordered.set( false );
+            }
+            previous = info.sequence;
+        }
+        return last;
+    }
+
+    private static EventInfo[] add( final EventCollector collector, final int count )
+    {
+        final EventInfo[] infos = new EventInfo[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            infos[i] = new EventInfo( "topic/" + i, null, null );
+            collector.add( infos[i] );
+        }
+        return infos;
+    }
+
+    private static Dictionary config( final int maxSize )
+    {
+        final Dictionary props = new Hashtable();
+        props.put( "max.size", new Integer( maxSize ) );
+        return props;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.webconsole.internal.core;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+
+
+/**
+ * The <code>BundleJsonCache</code> keeps the JSON fragments rendered for the
+ * bundle list of the {@link BundlesServlet}.
+ * <p>
+ * Every bundle event increases a global revision and records it as the change
+ * revision of the bundle, dropping the fragments cached for the bundle. A
+ * fragment is only stored if the bundle did not change while it was rendered,
+ * that is if its change revision is still the one read before rendering.
+ * <p>
+ * The revisions of the last uninstalled bundles are kept, so that clients can
+ * ask for the bundles changed since a revision they already know. Revisions
+ * start at the time the cache is created, such that revisions handed out by a
+ * previous instance are recognized as unknown.
+ */
+class BundleJsonCache implements SynchronousBundleListener
+{
+
+    // the maximum number of uninstalled bundles remembered for delta requests
+    static final int MAX_REMOVED = 256;
+
+    // the current revision, increased on each bundle event
+    private long revision;
+
+    // the oldest revision for which the changes are completely known
+    private long floor;
+
+    // the cached status line, see BundlesServlet#getStatusLine
+    private Object[] status;
+
+    // the revision at which the status line was computed
+    private long statusRevision;
+
+    // the cached fragments and change revisions indexed by bundle id
+    private final Map bundles = new HashMap();
+
+    // the uninstalled bundles, oldest first
+    private final List removed = new ArrayList();
+
+
+    BundleJsonCache()
+    {
+        this.revision = System.currentTimeMillis();
+        this.floor = this.revision;
+        this.statusRevision = -1;
+    }
+
+
+    //---------- SynchronousBundleListener
+
+    /**
+     * @see org.osgi.framework.BundleListener#bundleChanged(org.osgi.framework.BundleEvent)
+     */
+    public void bundleChanged( BundleEvent event )
+    {
+        changed( event.getBundle().getBundleId(), event.getType() == BundleEvent.UNINSTALLED );
+    }
+
+
+    //---------- cache
+
+    /**
+     * Records a change of the given bundle.
+     *
+     * @param bundleId the id of the changed bundle
+     * @param uninstalled whether the bundle has been uninstalled
+     */
+    synchronized void changed( final long bundleId, final boolean uninstalled )
+    {
+        revision++;
+        final Long key = new Long( bundleId );
+        if ( uninstalled )
+        {
+            bundles.remove( key );
+            removed.add( new long[] { bundleId, revision } );
+            if ( removed.size() > MAX_REMOVED )
+            {
+                // the changes before the forgotten removal are no longer complete
+                floor = ( ( long[] ) removed.remove( 0 ) )[1];
+            }
+        }
+        else
+        {
+            final Entry entry = getEntry( key );
+            entry.revision = revision;
+            entry.fragments.clear();
+        }
+    }
+
+
+    /**
+     * Returns the current revision.
+     */
+    synchronized long getRevision()
+    {
+        return revision;
+    }
+
+
+    /**
+     * Returns the revision of the last change of the given bundle. Bundles
+     * which did not change since the cache was created report the creation
+     * revision.
+     */
+    synchronized long getRevision( final long bundleId )
+    {
+        final Entry entry = ( Entry ) bundles.get( new Long( bundleId ) );
+        return entry == null ? floor : entry.revision;
+    }
+
+
+    /**
+     * Returns whether all changes after the given revision are known, that is
+     * whether a delta since this revision can be computed.
+     */
+    synchronized boolean isKnown( final long since )
+    {
+        return since >= floor && since <= revision;
+    }
+
+
+    /**
+     * Returns the ids of the bundles uninstalled after the given revision.
+     */
+    synchronized long[] getRemoved( final long since )
+    {
+        int count = 0;
+        for ( int i = removed.size() - 1; i >= 0 && ( ( long[] ) removed.get( i ) )[1] > since; i-- )
+        {
+            count++;
+        }
+        final long[] ids = new long[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            ids[i] = ( ( long[] ) removed.get( removed.size() - count + i ) )[0];
+        }
+        return ids;
+    }
+
+
+    /**
+     * Returns the cached fragment of the given bundle for the given locale or
+     * <code>null</code> if none is cached.
+     */
+    synchronized String get( final long bundleId, final Object locale )
+    {
+        final Entry entry = ( Entry ) bundles.get( new Long( bundleId ) );
+        return entry == null ? null : ( String ) entry.fragments.get( locale );
+    }
+
+
+    /**
+     * Caches the fragment of the given bundle, unless the bundle changed since
+     * the given revision, which is the one returned by
+     * {@link #getRevision(long)} before the fragment has been rendered.
+     */
+    synchronized void put( final long bundleId, final Object locale, final long bundleRevision, final String fragment )
+    {
+        final Entry entry = getEntry( new Long( bundleId ) );
+        if ( entry.revision == bundleRevision )
+        {
+            entry.fragments.put( locale, fragment );
+        }
+    }
+
+
+    /**
+     * Returns the status line computed at the given revision or
+     * <code>null</code> if the bundles changed meanwhile.
+     */
+    synchronized Object[] getStatus( final long atRevision )
+    {
+        return statusRevision == atRevision ? status : null;
+    }
+
+
+    /**
+     * Caches the status line computed at the given revision.
+     */
+    synchronized void putStatus( final long atRevision, final Object[] status )
+    {
+        if ( atRevision == revision )
+        {
+            this.status = status;
+            this.statusRevision = atRevision;
+        }
+    }
+
+
+    private Entry getEntry( final Long key )
+    {
+        Entry entry = ( Entry ) bundles.get( key );
+        if ( entry == null )
+        {
+            entry = new Entry( floor );
+            bundles.put( key, entry );
+        }
+        return entry;
+    }
+
+    private static final class Entry
+    {
+        long revision;
+
+        final Map fragments = new HashMap( 4 );
+
+        Entry( final long revision )
+        {
+            this.revision = revision;
+        }
+    }
+}
@@ -95,6 +95,13 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     // an LDAP filter, that is used to search manifest headers, see FELIX-1441
     private static final String FILTER_PARAM = "filter";
 
+    // paging of the bundle list: index of the first bundle and number of bundles
+    private static final String START_PARAM = "start";
+    private static final String LIMIT_PARAM = "limit";
+
+    // a revision of a previous bundle list, only bundles changed since are listed
+    private static final String SINCE_PARAM = "since";
+
     private static final String FIELD_STARTLEVEL = "bundlestartlevel";
 
     private static final String FIELD_START = "bundlestart";
@@ -118,6 +125,9 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     private ServiceRegistration configurationPrinter;
     private ServiceTracker bundleInfoTracker;
 
+    // the JSON fragments of the bundle list, see #writeJSON
+    private final BundleJsonCache jsonCache = new BundleJsonCache();
+
     // templates
     private final String TEMPLATE_MAIN;
 
@@ -140,6 +150,8 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         bundleInfoTracker = new ServiceTracker( bundleContext, BundleInfoProvider.class.getName(), null);
         bundleInfoTracker.open();
 
+        bundleContext.addBundleListener( jsonCache );
+
         // bootdelegation property parsing from Apache Felix R4SearchPolicyCore
         String bootDelegation = bundleContext.getProperty( Constants.FRAMEWORK_BOOTDELEGATION );
         bootDelegation = ( bootDelegation == null ) ? "java.*" : bootDelegation + ",java.*";
@@ -169,6 +181,11 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
      */
     public void deactivate()
     {
+        if ( getBundleContext() != null )
+        {
+            getBundleContext().removeBundleListener( jsonCache );
+        }
+
         if ( configurationPrinter != null )
         {
             configurationPrinter.unregister();
@@ -300,9 +317,25 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         {
             final String pluginRoot = ( String ) request.getAttribute( WebConsoleConstants.ATTR_PLUGIN_ROOT );
             final String servicesRoot = getServicesRoot( request );
+            final Locale locale = request.getLocale();
+            if ( reqInfo.bundle == null )
+            {
+                // the bundle list is only sent again if a bundle changed
+                final String etag = "\"" + jsonCache.getRevision() + "-" + locale + "\"";
+                if ( matches( request.getHeader( "If-None-Match" ), etag ) )
+                {
+                    response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+                    return;
+                }
+                response.setHeader( "ETag", etag );
+                response.setHeader( "Vary", "Accept-Language" );
+                response.setHeader( "Cache-Control", "no-cache" );
+            }
             try
             {
-                this.renderJSON(response, reqInfo.bundle, pluginRoot, servicesRoot, request.getLocale(), request.getParameter(FILTER_PARAM), null );
+                this.renderJSON( response, reqInfo.bundle, pluginRoot, servicesRoot, locale,
+                    request.getParameter( FILTER_PARAM ), null, ( int ) getParameter( request, START_PARAM, 0 ),
+                    ( int ) getParameter( request, LIMIT_PARAM, -1 ), getParameter( request, SINCE_PARAM, -1 ) );
             }
             catch (InvalidSyntaxException e)
             {
@@ -542,12 +575,61 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
 
     private void renderJSON( final HttpServletResponse response, final Bundle bundle, final String pluginRoot, final String servicesRoot, final Locale locale, final String filter, final BundleException be )
         throws IOException, InvalidSyntaxException
+    {
+        renderJSON( response, bundle, pluginRoot, servicesRoot, locale, filter, be, 0, -1, -1 );
+    }
+
+
+    private void renderJSON( final HttpServletResponse response, final Bundle bundle, final String pluginRoot,
+        final String servicesRoot, final Locale locale, final String filter, final BundleException be,
+        final int start, final int limit, final long since ) throws IOException, InvalidSyntaxException
     {
         response.setContentType( "application/json" );
         response.setCharacterEncoding( "UTF-8" );
 
         final PrintWriter pw = response.getWriter();
-        writeJSON(pw, bundle, pluginRoot, servicesRoot, locale, filter, be);
+        writeJSON( pw, bundle, pluginRoot, servicesRoot, false, locale, filter, be, start, limit, since );
+    }
+
+
+    private static long getParameter( final HttpServletRequest request, final String name, final long defaultValue )
+    {
+        final String value = request.getParameter( name );
+        if ( value != null )
+        {
+            try
+            {
+                return Long.parseLong( value );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // use the default value
+            }
+        }
+        return defaultValue;
+    }
+
+
+    /**
+     * Returns whether the value of an <code>If-None-Match</code> header
+     * matches the given entity tag.
+     */
+    static boolean matches( final String ifNoneMatch, final String etag )
+    {
+        if ( ifNoneMatch == null )
+        {
+            return false;
+        }
+        final StringTokenizer tokens = new StringTokenizer( ifNoneMatch, "," );
+        while ( tokens.hasMoreTokens() )
+        {
+            final String token = tokens.nextToken().trim();
+            if ( token.equals( "*" ) || token.equals( etag ) || token.equals( "W/" + etag ) )
+            {
+                return true;
+            }
+        }
+        return false;
     }
 
 
@@ -561,8 +643,33 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
     private void writeJSON( final Writer pw, final Bundle bundle, final String pluginRoot,
         final String servicesRoot, final boolean fullDetails, final Locale locale, final String filter, final BundleException be ) throws IOException, InvalidSyntaxException
     {
+        writeJSON( pw, bundle, pluginRoot, servicesRoot, fullDetails, locale, filter, be, 0, -1, -1 );
+    }
+
+
+    /**
+     * Writes the bundle list. The list entries are cached by the
+     * {@link BundleJsonCache}, the details are always rendered.
+     * <p>
+     * The list may be restricted to <code>limit</code> bundles starting at
+     * index <code>start</code>. If <code>since</code> is a revision for which
+     * the changes are known, only the bundles changed since are listed, along
+     * with the ids of the bundles which have been uninstalled or do no longer
+     * match the filter. Otherwise the complete list is written.
+     */
+    private void writeJSON( final Writer pw, final Bundle bundle, final String pluginRoot,
+        final String servicesRoot, final boolean fullDetails, final Locale locale, final String filter,
+        final BundleException be, final int start, final int limit, final long since ) throws IOException, InvalidSyntaxException
+    {
+        // the revision must be taken before looking at the bundles
+        final long revision = jsonCache.getRevision();
         final Bundle[] allBundles = this.getBundles();
-        final Object[] status = getStatusLine(allBundles);
+        Object[] status = jsonCache.getStatus( revision );
+        if ( status == null )
+        {
+            status = getStatusLine( allBundles );
+            jsonCache.putStatus( revision, status );
+        }
         final String statusLine = (String) status[5];
         // filter bundles by headers
         final Bundle[] bundles;
@@ -592,43 +699,114 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
 
         Util.sort( bundles, locale );
 
-        final JSONWriter jw = new JSONWriter( pw );
+        final boolean details = fullDetails || bundle != null;
+        final boolean delta = bundle == null && since >= 0 && jsonCache.isKnown( since );
+
+        final List data = new ArrayList();
+        final List removed = new ArrayList();
+        if ( delta )
+        {
+            for ( int i = 0; i < bundles.length; i++ )
+            {
+                if ( jsonCache.getRevision( bundles[i].getBundleId() ) > since )
+                {
+                    data.add( bundles[i] );
+                }
+            }
+
+            final long[] uninstalled = jsonCache.getRemoved( since );
+            for ( int i = 0; i < uninstalled.length; i++ )
+            {
+                removed.add( new Long( uninstalled[i] ) );
+            }
+            if ( bundles.length != allBundles.length )
+            {
+                // changed bundles which do no longer match the filter
+                final Map matching = new HashMap();
+                for ( int i = 0; i < bundles.length; i++ )
+                {
+                    matching.put( new Long( bundles[i].getBundleId() ), bundles[i] );
+                }
+                for ( int i = 0; i < allBundles.length; i++ )
+                {
+                    final Long id = new Long( allBundles[i].getBundleId() );
+                    if ( !matching.containsKey( id ) && jsonCache.getRevision( id.longValue() ) > since )
+                    {
+                        removed.add( id );
+                    }
+                }
+            }
+        }
+        else
+        {
+            final int from = Math.min( Math.max( start, 0 ), bundles.length );
+            final int to = limit < 0 ? bundles.length : Math.min( bundles.length, from + limit );
+            data.addAll( Arrays.asList( bundles ).subList( from, to ) );
+        }
 
         try
         {
-            jw.object();
+            // the bundle entries are inserted as is, hence the object is written by hand
+            pw.write( '{' );
 
             if (null != be)
             {
                 final StringWriter s = new StringWriter();
                 final Throwable t = be.getNestedException() != null ? be.getNestedException() : be;
                 t.printStackTrace( new PrintWriter(s) );
-                jw.key( "error" );
-                jw.value( s.toString() );
+                pw.write( "\"error\":" );
+                pw.write( JSONObject.quote( s.toString() ) );
+                pw.write( ',' );
             }
 
-            jw.key( "status" );
-            jw.value( statusLine );
+            pw.write( "\"status\":" );
+            pw.write( JSONObject.quote( statusLine ) );
 
             // add raw status
-            jw.key( "s" );
-            jw.array();
-            for ( int i = 0; i < 5; i++ ) jw.value(status[i]);
-            jw.endArray();
-
-            jw.key( "data" );
-
-            jw.array();
-
-            for ( int i = 0; i < bundles.length; i++ )
+            pw.write( ",\"s\":[" );
+            for ( int i = 0; i < 5; i++ )
             {
-                bundleInfo( jw, bundles[i], fullDetails || bundle != null, pluginRoot, servicesRoot, locale );
+                if ( i > 0 ) pw.write( ',' );
+                pw.write( String.valueOf( status[i] ) );
             }
+            pw.write( ']' );
 
-            jw.endArray();
+            pw.write( ",\"rev\":" );
+            pw.write( String.valueOf( revision ) );
 
-            jw.endObject();
+            if ( delta )
+            {
+                pw.write( ",\"delta\":true,\"removed\":[" );
+                for ( int i = 0; i < removed.size(); i++ )
+                {
+                    if ( i > 0 ) pw.write( ',' );
+                    pw.write( String.valueOf( removed.get( i ) ) );
+                }
+                pw.write( ']' );
+            }
+            else
+            {
+                pw.write( ",\"total\":" );
+                pw.write( String.valueOf( bundles.length ) );
+                pw.write( ",\"start\":" );
+                pw.write( String.valueOf( Math.min( Math.max( start, 0 ), bundles.length ) ) );
+            }
 
+            pw.write( ",\"data\":[" );
+            for ( int i = 0; i < data.size(); i++ )
+            {
+                if ( i > 0 ) pw.write( ',' );
+                final Bundle b = ( Bundle ) data.get( i );
+                if ( details )
+                {
+                    pw.write( bundleInfo( b, true, pluginRoot, servicesRoot, locale ) );
+                }
+                else
+                {
+                    pw.write( cachedBundleInfo( b, locale ) );
+                }
+            }
+            pw.write( "]}" );
         }
         catch ( JSONException je )
         {
@@ -704,6 +882,27 @@ public class BundlesServlet extends SimpleWebConsolePlugin implements OsgiManage
         return ret;
     }
 
+    private String cachedBundleInfo( final Bundle bundle, final Locale locale ) throws JSONException
+    {
+        final long id = bundle.getBundleId();
+        final long bundleRevision = jsonCache.getRevision( id );
+        String info = jsonCache.get( id, locale );
+        if ( info == null )
+        {
+            info = bundleInfo( bundle, false, null, null, locale );
+            jsonCache.put( id, locale, bundleRevision, info );
+        }
+        return info;
+    }
+
+    private String bundleInfo( final Bundle bundle, final boolean details, final String pluginRoot,
+        final String servicesRoot, final Locale locale ) throws JSONException
+    {
+        final StringWriter w = new StringWriter();
+        bundleInfo( new JSONWriter( w ), bundle, details, pluginRoot, servicesRoot, locale );
+        return w.toString();
+    }
+
     private void bundleInfo( JSONWriter jw, Bundle bundle, boolean details, final String pluginRoot, final String servicesRoot, final Locale locale )
         throws JSONException
     {
@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.webconsole.internal.core;
+
+
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+
+public class BundleJsonCacheTest extends TestCase
+{
+
+    public void test_fragment_invalidated_by_change()
+    {
+        final BundleJsonCache cache = new BundleJsonCache();
+        final long rev = cache.getRevision( 5 );
+        cache.put( 5, Locale.ENGLISH, rev, "{\"id\":5}" );
+        assertEquals( "{\"id\":5}", cache.get( 5, Locale.ENGLISH ) );
+        assertNull( cache.get( 5, Locale.GERMAN ) );
+
+        cache.changed( 5, false );
+        assertNull( cache.get( 5, Locale.ENGLISH ) );
+        assertTrue( cache.getRevision( 5 ) > rev );
+        assertEquals( cache.getRevision(), cache.getRevision( 5 ) );
+    }
+
+
+    public void test_fragment_rendered_during_change_not_cached()
+    {
+        final BundleJsonCache cache = new BundleJsonCache();
+        final long rev = cache.getRevision( 5 );
+
+        // the bundle changes while its fragment is rendered
+        cache.changed( 5, false );
+        cache.put( 5, Locale.ENGLISH, rev, "{\"id\":5}" );
+        assertNull( cache.get( 5, Locale.ENGLISH ) );
+    }
+
+
+    public void test_delta()
+    {
+        final BundleJsonCache cache = new BundleJsonCache();
+        final long since = cache.getRevision();
+        assertTrue( cache.isKnown( since ) );
+        assertFalse( cache.isKnown( since - 1 ) );
+        assertFalse( cache.isKnown( since + 1 ) );
+
+        cache.changed( 3, false );
+        cache.changed( 4, true );
+        assertTrue( cache.getRevision( 3 ) > since );
+        assertFalse( cache.getRevision( 6 ) > since );
+
+        final long[] removed = cache.getRemoved( since );
+        assertEquals( 1, removed.length );
+        assertEquals( 4, removed[0] );
+        assertEquals( 0, cache.getRemoved( cache.getRevision() ).length );
+    }
+
+
+    public void test_delta_unknown_after_too_many_removals()
+    {
+        final BundleJsonCache cache = new BundleJsonCache();
+        final long since = cache.getRevision();
+        for ( int i = 0; i < BundleJsonCache.MAX_REMOVED; i++ )
+        {
+            cache.changed( i, true );
+        }
+        assertTrue( cache.isKnown( since ) );
+        assertEquals( BundleJsonCache.MAX_REMOVED, cache.getRemoved( since ).length );
+
+        cache.changed( BundleJsonCache.MAX_REMOVED, true );
+        assertFalse( cache.isKnown( since ) );
+        assertTrue( cache.isKnown( cache.getRevision() - 1 ) );
+    }
+
+
+    public void test_status()
+    {
+        final BundleJsonCache cache = new BundleJsonCache();
+        final Object[] status = new Object[6];
+        final long rev = cache.getRevision();
+        cache.putStatus( rev, status );
+        assertSame( status, cache.getStatus( rev ) );
+
+        cache.changed( 1, false );
+        assertNull( cache.getStatus( cache.getRevision() ) );
+
+        // computed before the change
+        cache.putStatus( rev, new Object[6] );
+        assertSame( status, cache.getStatus( rev ) );
+        assertNull( cache.getStatus( cache.getRevision() ) );
+    }
+
+
+    public void test_matches()
+    {
+        assertFalse( BundlesServlet.matches( null, "\"1\"" ) );
+        assertTrue( BundlesServlet.matches( "\"1\"", "\"1\"" ) );
+        assertTrue( BundlesServlet.matches( "\"0\", W/\"1\"", "\"1\"" ) );
+        assertTrue( BundlesServlet.matches( "*", "\"1\"" ) );
+        assertFalse( BundlesServlet.matches( "\"2\"", "\"1\"" ) );
+    }
+}
@@ -26,8 +26,7 @@ import org.osgi.framework.BundleContext;
 
 import java.util.Map;
 import java.util.HashMap;
-import java.util.List;
-import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.Iterator;
 
 import org.osgi.service.wireadmin.WireAdminEvent;
@@ -44,6 +43,12 @@ class EventManager implements ServiceListener
     // <ServiceReference,WireAdminListener>
     private Map m_wireAdminListeners = new HashMap();
 
+    // Snapshot of the listeners used for dispatching, replaced on changes
+    private volatile ListenerEntry[] m_listeners = new ListenerEntry[0];
+
+    // The event types any listener is interested in
+    private volatile int m_eventMask = 0;
+
     // The bundle context
     private BundleContext m_bundleContext;
     
@@ -87,6 +92,7 @@ class EventManager implements ServiceListener
                     
                     m_wireAdminListeners.put(currentRef,m_bundleContext.getService(currentRef));
                 }
+                updateListeners();
             }
         }        
     }
@@ -101,9 +107,8 @@ class EventManager implements ServiceListener
     {
         m_ref = ref;
 
-        // Activate thread that does asynchronous calls to
-        // the producersConnected and consummersConnected methods
-        new Thread(m_eventDispatcher).start();
+        // Activate thread that dispatches the events
+        new Thread(m_eventDispatcher, "WireAdmin Events").start();
     }
     
     /**
@@ -127,20 +132,63 @@ class EventManager implements ServiceListener
                 synchronized(m_wireAdminListeners)
                 {
                     m_wireAdminListeners.put(serviceRef,m_bundleContext.getService(serviceRef));
+                    updateListeners();
                 }
                 break;
             case ServiceEvent.UNREGISTERING:
             synchronized(m_wireAdminListeners)
                 {
                     m_wireAdminListeners.remove(serviceRef);
+                    updateListeners();
                 }
                 break;
             case ServiceEvent.MODIFIED:
-                // Not necessary
+                // The events the listener is interested in may have changed
+                synchronized(m_wireAdminListeners)
+                {
+                    updateListeners();
+                }
                 break;
         }
     }
     
+    /**
+     * Rebuild the listener snapshot and the event mask, must be
+     * called while holding the lock on m_wireAdminListeners
+     */
+    private void updateListeners()
+    {
+        ListenerEntry[] listeners = new ListenerEntry[m_wireAdminListeners.size()];
+        int eventMask = 0;
+        Iterator listenerIt = m_wireAdminListeners.entrySet().iterator();
+        for(int i = 0; listenerIt.hasNext(); i++)
+        {
+            Map.Entry entry = (Map.Entry) listenerIt.next();
+            ServiceReference listenerRef = (ServiceReference) entry.getKey();
+            int events = 0;
+            try
+            {
+                Integer evtsInteger = (Integer) listenerRef.getProperty(WireConstants.WIREADMIN_EVENTS);
+                if(evtsInteger != null)
+                {
+                    events = evtsInteger.intValue();
+                }
+                else
+                {
+                    WireAdminImpl.trace(new Exception("Listener with no WIREADMIN_EVENTS"+listenerRef));
+                }
+            }
+            catch(ClassCastException ex)
+            {
+                WireAdminImpl.trace("Listener returned WIREADMIN_EVENTS of wrong type:"+ex);
+            }
+            listeners[i] = new ListenerEntry((WireAdminListener) entry.getValue(), events);
+            eventMask |= events;
+        }
+        m_listeners = listeners;
+        m_eventMask = eventMask;
+    }
+
     /**
      * Fire an event
      * 
@@ -161,6 +209,12 @@ class EventManager implements ServiceListener
      */
     void fireEvent(int eventType,WireImpl wire, Throwable exception) 
     {
+        // Don't create events no listener is interested in, e.g. WIRE_TRACE
+        // events for every value sent through a wire
+        if((m_eventMask & eventType) == 0)
+        {
+            return;
+        }
         WireAdminEvent evt = new WireAdminEvent(m_ref,eventType,wire,exception);
         m_eventDispatcher.queueEvent(evt);
     }
@@ -177,19 +231,18 @@ class EventManager implements ServiceListener
     class AsyncDispatcher implements Runnable
     {
         private boolean m_stop = false;
-        private boolean m_empty = true;
 
-        private List m_eventStack = new ArrayList();
+        private LinkedList m_eventStack = new LinkedList();
 
         public void run()
         {
-            while (m_stop == false || (m_stop == true && m_empty == false))
+            while (true)
             {
                 WireAdminEvent nextEvent = null;
 
                 synchronized (m_eventStack)
                 {
-                    while (m_eventStack.size() == 0)
+                    while (m_eventStack.size() == 0 && m_stop == false)
                     {
                         try
                         {
@@ -200,42 +253,28 @@ class EventManager implements ServiceListener
                             // Ignore.
                         }
                     }
-                    nextEvent = (WireAdminEvent) m_eventStack.remove(0);
-                    
-                    if(m_eventStack.size()==0)
+                    if (m_eventStack.size() == 0)
                     {
-                        // This allows the queue to be flushed upon termination
-                        m_empty = true;
+                        // The queue has been flushed upon termination
+                        return;
                     }
+                    nextEvent = (WireAdminEvent) m_eventStack.removeFirst();
                 }
                 
-                synchronized (m_wireAdminListeners)
+                // Listeners are called without holding a lock, so they can't
+                // block listener registrations
+                ListenerEntry[] listeners = m_listeners;
+                for (int i = 0; i < listeners.length; i++)
                 {
-                    Iterator listenerIt = m_wireAdminListeners.keySet().iterator();
-                    while(listenerIt.hasNext())
+                    if ((nextEvent.getType() & listeners[i].m_events) != 0)
                     {
-                        ServiceReference listenerRef = (ServiceReference)listenerIt.next();
-                        WireAdminListener listener = (WireAdminListener)m_wireAdminListeners.get(listenerRef);
-                        
                         try
                         {
-                            Integer evtsInteger = (Integer) listenerRef.getProperty(WireConstants.WIREADMIN_EVENTS);
-                            if(evtsInteger != null)
-                            {
-                                int events = evtsInteger.intValue();
-                                if((nextEvent.getType()&events)!=0)
-                                {
-                                    listener.wireAdminEvent(nextEvent);
-                                }                            
-                            }
-                            else
-                            {
-                                WireAdminImpl.trace(new Exception("Listener with no WIREADMIN_EVENTS"+listenerRef));
-                            }
+                            listeners[i].m_listener.wireAdminEvent(nextEvent);
                         }
-                        catch(ClassCastException ex)
+                        catch (Exception ex)
                         {
-                            WireAdminImpl.trace("Listener returned WIREADMIN_EVENTS of wrong type:"+ex);
+                            WireAdminImpl.trace(ex);
                         }
                     }
                 }
@@ -251,19 +290,37 @@ class EventManager implements ServiceListener
         {
             synchronized (m_eventStack)
             {
-                m_eventStack.add(evt);
-                m_empty = false;
+                m_eventStack.addLast(evt);
                 m_eventStack.notify();
             }
         }
 
         /**
-         * stop the dispatcher
+         * stop the dispatcher, the pending events are still dispatched
          *
          */
         void stop()
         {
-            m_stop = true;
+            synchronized (m_eventStack)
+            {
+                m_stop = true;
+                m_eventStack.notify();
+            }
+        }
+    }
+
+    /**
+     * A listener and the events it is interested in
+     */
+    static class ListenerEntry
+    {
+        final WireAdminListener m_listener;
+        final int m_events;
+
+        ListenerEntry(WireAdminListener listener, int events)
+        {
+            m_listener = listener;
+            m_events = events;
         }
     }
 }
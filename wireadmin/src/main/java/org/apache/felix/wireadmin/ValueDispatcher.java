@@ -0,0 +1,130 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.wireadmin;
+
+import java.util.LinkedList;
+
+/**
+ * Delivers the values of asynchronous wires to their consumers.
+ *
+ * <p>Wires with pending values are queued here and taken by a small pool of
+ * delivery threads. A wire is queued at most once at a time, so the values of
+ * a wire are delivered in order and its consumer is never called concurrently
+ * for the same wire. A slow consumer only occupies one of the threads.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+class ValueDispatcher implements Runnable
+{
+    // Wires with pending values
+    private final LinkedList m_wires = new LinkedList();
+
+    // The number of delivery threads
+    private final int m_threadCount;
+
+    // The delivery threads, started on the first delivery
+    private Thread[] m_threads;
+
+    private boolean m_stop = false;
+
+    /**
+     * @param threadCount the number of delivery threads
+     */
+    ValueDispatcher(int threadCount)
+    {
+        m_threadCount = threadCount;
+    }
+
+    /**
+     * Queue a wire which has pending values
+     *
+     * @param wire the wire
+     */
+    void schedule(WireImpl wire)
+    {
+        synchronized (m_wires)
+        {
+            if (m_stop)
+            {
+                return;
+            }
+            if (m_threads == null)
+            {
+                m_threads = new Thread[m_threadCount];
+                for (int i = 0; i < m_threads.length; i++)
+                {
+                    m_threads[i] = new Thread(this, "WireAdmin Delivery " + i);
+                    m_threads[i].setDaemon(true);
+                    m_threads[i].start();
+                }
+            }
+            m_wires.addLast(wire);
+            m_wires.notify();
+        }
+    }
+
+    public void run()
+    {
+        while (true)
+        {
+            WireImpl wire;
+            synchronized (m_wires)
+            {
+                while (m_wires.isEmpty() && !m_stop)
+                {
+                    try
+                    {
+                        m_wires.wait();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        // Ignore.
+                    }
+                }
+                if (m_stop)
+                {
+                    return;
+                }
+                wire = (WireImpl) m_wires.removeFirst();
+            }
+            try
+            {
+                wire.deliverPending();
+            }
+            catch (Throwable t)
+            {
+                WireAdminImpl.traceln("ValueDispatcher: value delivery failed " + t);
+            }
+        }
+    }
+
+    /**
+     * Stop the delivery threads, pending values are discarded
+     */
+    void stop()
+    {
+        synchronized (m_wires)
+        {
+            m_stop = true;
+            m_wires.clear();
+            m_wires.notifyAll();
+        }
+    }
+}
@@ -91,6 +91,9 @@ public class WireAdminImpl implements WireAdmin, ServiceListener {
     // EventManager
     private EventManager m_eventManager;
 
+    // Delivers the values of asynchronous wires
+    private ValueDispatcher m_valueDispatcher;
+
 	private static int m_wireCount = 0;
     
     private AsyncMethodCaller m_asyncMethodCaller = new AsyncMethodCaller();        //m_eventDispatcher.stop();
@@ -118,6 +121,22 @@ public class WireAdminImpl implements WireAdmin, ServiceListener {
         }
         // Create the event manager (the event manager will start its own thread)       
         m_eventManager = new EventManager(m_bundleContext);
+
+        // The delivery threads for asynchronous wires are started on demand
+        int deliveryThreads = 2;
+        String threads = bundleContext.getProperty("org.apache.felix.wireadmin.delivery.threads");
+        if(threads != null)
+        {
+            try
+            {
+                deliveryThreads = Math.max(1, Integer.parseInt(threads.trim()));
+            }
+            catch(NumberFormatException ex)
+            {
+                traceln("WireAdminImpl: Ignoring invalid number of delivery threads "+threads);
+            }
+        }
+        m_valueDispatcher = new ValueDispatcher(deliveryThreads);
         
 		try 
         {
@@ -343,7 +362,7 @@ public class WireAdminImpl implements WireAdmin, ServiceListener {
         WireImpl wire = new WireImpl(producerPID, consumerPID, properties);
 
         // Initialize the wire
-        wire.initialize(m_bundleContext,m_eventManager);
+        wire.initialize(m_bundleContext,m_eventManager,m_valueDispatcher);
 
         // Add the wire to the list 
         synchronized(m_wires)
@@ -774,6 +793,9 @@ public class WireAdminImpl implements WireAdmin, ServiceListener {
         // Stop the thread
         m_asyncMethodCaller.stop();
         
+        // Stop delivering values of asynchronous wires
+        m_valueDispatcher.stop();
+
         // Notify the event manager so that it stops its thread
         m_eventManager.stop();
         
@@ -820,7 +842,7 @@ public class WireAdminImpl implements WireAdmin, ServiceListener {
                 while(wireIt.hasNext())
                 {
                     WireImpl currentWire = (WireImpl) wireIt.next();
-                    currentWire.initialize(m_bundleContext,m_eventManager);     
+                    currentWire.initialize(m_bundleContext,m_eventManager,m_valueDispatcher);     
                 }
             }
             else
@@ -875,7 +897,15 @@ public class WireAdminImpl implements WireAdmin, ServiceListener {
     }
 
 	/**
-	 * print a trace 
+	 * @return <tt>true</tt> if traces are printed
+	 */
+	static boolean isTracing()
+    {
+        return m_traceout != null;
+    }
+
+	/**
+	 * print a trace
 	 * @param message message to trace
 	 */
 	static void traceln(String message)
@@ -0,0 +1,607 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.wireadmin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.osgi.service.wireadmin.WireConstants;
+
+/**
+ * A wire filter compiled to direct comparisons on the values of a wire.
+ *
+ * <p>p. 340 "The filter can use the following attributes: WIREVALUE_CURRENT,
+ * WIREVALUE_PREVIOUS, WIREVALUE_DELTA_ABSOLUTE, WIREVALUE_DELTA_RELATIVE and
+ * WIREVALUE_ELAPSED". Instead of building a dictionary with these attributes
+ * for every update and handing it to a framework <tt>Filter</tt>, the filter
+ * string is parsed once and the comparisons are done on the values themselves.
+ *
+ * <p>The comparisons follow the framework filter: a filter value is parsed
+ * with the type of the wire value (so <tt>(wirevalue.current&lt;=70000)</tt>
+ * never matches a <tt>Short</tt>) and floating point values are compared
+ * like <tt>Double.compare</tt>, so <tt>NaN</tt> equals <tt>NaN</tt> and is
+ * greater than any other value. Values of types which are not handled here
+ * (e.g. arrays, <tt>Character</tt> or arbitrary <tt>Comparable</tt> objects),
+ * and comparisons whose result differs between framework implementations,
+ * make {@link #match} throw an {@link UnsupportedValueException}; the caller
+ * must then fall back to the framework filter.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+class WireFilter
+{
+    // Attributes
+    private static final int CURRENT = 0;
+    private static final int PREVIOUS = 1;
+    private static final int DELTA_ABSOLUTE = 2;
+    private static final int DELTA_RELATIVE = 3;
+    private static final int ELAPSED = 4;
+    private static final int OTHER = 5;
+
+    // Operations
+    private static final int AND = 0;
+    private static final int OR = 1;
+    private static final int NOT = 2;
+    private static final int EQUAL = 3;
+    private static final int APPROX = 4;
+    private static final int GREATER = 5;
+    private static final int LESS = 6;
+    private static final int PRESENT = 7;
+    private static final int SUBSTRING = 8;
+
+    private final Node m_root;
+
+    // true if the filter uses one of the delta attributes
+    private final boolean m_usesDelta;
+
+    private WireFilter(Node root, boolean usesDelta)
+    {
+        m_root = root;
+        m_usesDelta = usesDelta;
+    }
+
+    /**
+     * Compile a filter
+     *
+     * @param filter the filter string
+     * @return the compiled filter or <tt>null</tt> if the filter can not be parsed
+     */
+    static WireFilter compile(String filter)
+    {
+        try
+        {
+            Parser parser = new Parser(filter);
+            Node root = parser.parse();
+            return new WireFilter(root, parser.m_usesDelta);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Match the filter against the values of a wire
+     *
+     * @param current the value passed to the wire
+     * @param previous the last value passed to the wire
+     * @param elapsed the time since the last update in milliseconds
+     * @return <tt>true</tt> if the filter matches
+     * @throws UnsupportedValueException if a value can not be compared by this filter
+     */
+    boolean match(Object current, Object previous, long elapsed)
+    {
+        boolean hasDelta = false;
+        double deltaAbsolute = 0;
+        double deltaRelative = 0;
+        if (m_usesDelta && current instanceof Number && previous instanceof Number)
+        {
+            double currentValue = ((Number) current).doubleValue();
+            deltaAbsolute = Math.abs(currentValue - ((Number) previous).doubleValue());
+            deltaRelative = deltaAbsolute / Math.abs(currentValue);
+            hasDelta = true;
+        }
+        return m_root.match(current, previous, hasDelta, deltaAbsolute, deltaRelative, elapsed);
+    }
+
+    /**
+     * Thrown when a value can not be compared by the compiled filter. A single
+     * instance without stack trace is used, as this is not an error.
+     */
+    static class UnsupportedValueException extends RuntimeException
+    {
+        static final UnsupportedValueException INSTANCE = new UnsupportedValueException();
+
+        private UnsupportedValueException()
+        {
+            super("Value not supported by the compiled filter");
+        }
+
+        public Throwable fillInStackTrace()
+        {
+            return this;
+        }
+    }
+
+    /**
+     * A node of the filter
+     */
+    private static class Node
+    {
+        private final int m_operation;
+        private final Node[] m_children;
+        private final int m_attribute;
+        private final String m_value;
+        private final String[] m_substrings;
+
+        // The value parsed as a number, if possible
+        private final boolean m_isLong;
+        private final long m_longValue;
+        private final boolean m_isDouble;
+        private final double m_doubleValue;
+        private final float m_floatValue;
+
+        Node(int operation, Node[] children)
+        {
+            this(operation, children, OTHER, null, null);
+        }
+
+        Node(int operation, int attribute, String value, String[] substrings)
+        {
+            this(operation, null, attribute, value, substrings);
+        }
+
+        private Node(int operation, Node[] children, int attribute, String value, String[] substrings)
+        {
+            m_operation = operation;
+            m_children = children;
+            m_attribute = attribute;
+            m_value = value;
+            m_substrings = substrings;
+
+            boolean isLong = false;
+            long longValue = 0;
+            boolean isDouble = false;
+            double doubleValue = 0;
+            float floatValue = 0;
+            if (value != null)
+            {
+                String trimmed = value.trim();
+                try
+                {
+                    longValue = Long.parseLong(trimmed);
+                    isLong = true;
+                }
+                catch (NumberFormatException ex)
+                {
+                    // not a long
+                }
+                try
+                {
+                    doubleValue = Double.valueOf(trimmed).doubleValue();
+                    floatValue = Float.valueOf(trimmed).floatValue();
+                    isDouble = true;
+                }
+                catch (NumberFormatException ex)
+                {
+                    // not a double
+                }
+            }
+            m_isLong = isLong;
+            m_longValue = longValue;
+            m_isDouble = isDouble;
+            m_doubleValue = doubleValue;
+            m_floatValue = floatValue;
+        }
+
+        boolean match(Object current, Object previous, boolean hasDelta, double deltaAbsolute, double deltaRelative, long elapsed)
+        {
+            switch (m_operation)
+            {
+                case AND:
+                    for (int i = 0; i < m_children.length; i++)
+                    {
+                        if (!m_children[i].match(current, previous, hasDelta, deltaAbsolute, deltaRelative, elapsed))
+                        {
+                            return false;
+                        }
+                    }
+                    return true;
+                case OR:
+                    for (int i = 0; i < m_children.length; i++)
+                    {
+                        if (m_children[i].match(current, previous, hasDelta, deltaAbsolute, deltaRelative, elapsed))
+                        {
+                            return true;
+                        }
+                    }
+                    return false;
+                case NOT:
+                    return !m_children[0].match(current, previous, hasDelta, deltaAbsolute, deltaRelative, elapsed);
+            }
+
+            switch (m_attribute)
+            {
+                case CURRENT:
+                    return compareObject(current);
+                case PREVIOUS:
+                    return compareObject(previous);
+                case DELTA_ABSOLUTE:
+                    return hasDelta && compareDouble(deltaAbsolute);
+                case DELTA_RELATIVE:
+                    return hasDelta && compareDouble(deltaRelative);
+                case ELAPSED:
+                    return compareLong(elapsed, Long.MIN_VALUE, Long.MAX_VALUE);
+                default:
+                    // Unknown attributes are not present
+                    return false;
+            }
+        }
+
+        /**
+         * Compare an integral value. The filter value must be in the range
+         * of the type of the value, just like <tt>Short.parseShort</tt> etc.
+         * fail for the framework filter.
+         */
+        private boolean compareLong(long value, long min, long max)
+        {
+            boolean valid = m_isLong && m_longValue >= min && m_longValue <= max;
+            switch (m_operation)
+            {
+                case PRESENT:
+                    return true;
+                case EQUAL:
+                case APPROX:
+                    return valid && value == m_longValue;
+                case GREATER:
+                    return valid && value >= m_longValue;
+                case LESS:
+                    return valid && value <= m_longValue;
+                default:
+                    throw UnsupportedValueException.INSTANCE;
+            }
+        }
+
+        private boolean compareDouble(double value)
+        {
+            switch (m_operation)
+            {
+                case PRESENT:
+                    return true;
+                case EQUAL:
+                case APPROX:
+                    return m_isDouble && Double.compare(value, m_doubleValue) == 0;
+                case GREATER:
+                    return m_isDouble && Double.compare(value, m_doubleValue) >= 0;
+                case LESS:
+                    return m_isDouble && Double.compare(value, m_doubleValue) <= 0;
+                default:
+                    throw UnsupportedValueException.INSTANCE;
+            }
+        }
+
+        private boolean compareFloat(float value)
+        {
+            switch (m_operation)
+            {
+                case PRESENT:
+                    return true;
+                case EQUAL:
+                case APPROX:
+                    return m_isDouble && Float.compare(value, m_floatValue) == 0;
+                case GREATER:
+                    return m_isDouble && Float.compare(value, m_floatValue) >= 0;
+                case LESS:
+                    return m_isDouble && Float.compare(value, m_floatValue) <= 0;
+                default:
+                    throw UnsupportedValueException.INSTANCE;
+            }
+        }
+
+        private boolean compareObject(Object value)
+        {
+            if (value == null)
+            {
+                return false;
+            }
+            if (m_operation == PRESENT)
+            {
+                return true;
+            }
+            if (value instanceof String)
+            {
+                return compareString((String) value);
+            }
+            if (value instanceof Integer)
+            {
+                return compareLong(((Integer) value).intValue(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+            }
+            if (value instanceof Long)
+            {
+                return compareLong(((Long) value).longValue(), Long.MIN_VALUE, Long.MAX_VALUE);
+            }
+            if (value instanceof Short)
+            {
+                return compareLong(((Short) value).shortValue(), Short.MIN_VALUE, Short.MAX_VALUE);
+            }
+            if (value instanceof Byte)
+            {
+                return compareLong(((Byte) value).byteValue(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+            }
+            if (value instanceof Double)
+            {
+                return compareDouble(((Double) value).doubleValue());
+            }
+            if (value instanceof Float)
+            {
+                return compareFloat(((Float) value).floatValue());
+            }
+            if (value instanceof Boolean && (m_operation == EQUAL || m_operation == APPROX))
+            {
+                // Frameworks differ for the ordering operators, these are
+                // left to the framework filter
+                return value.equals(Boolean.valueOf(m_value.trim()));
+            }
+            throw UnsupportedValueException.INSTANCE;
+        }
+
+        private boolean compareString(String value)
+        {
+            switch (m_operation)
+            {
+                case EQUAL:
+                    return value.equals(m_value);
+                case APPROX:
+                    return approx(value).equalsIgnoreCase(approx(m_value));
+                case GREATER:
+                    return value.compareTo(m_value) >= 0;
+                case LESS:
+                    return value.compareTo(m_value) <= 0;
+                case SUBSTRING:
+                    return matchSubstrings(value);
+                default:
+                    throw UnsupportedValueException.INSTANCE;
+            }
+        }
+
+        private boolean matchSubstrings(String value)
+        {
+            // m_substrings has the parts between the wildcards, the first
+            // and the last part are empty if the pattern starts or ends with one
+            int last = m_substrings.length - 1;
+            if (!value.startsWith(m_substrings[0]))
+            {
+                return false;
+            }
+            int pos = m_substrings[0].length();
+            for (int i = 1; i < last; i++)
+            {
+                int index = value.indexOf(m_substrings[i], pos);
+                if (index < 0)
+                {
+                    return false;
+                }
+                pos = index + m_substrings[i].length();
+            }
+            return value.length() - pos >= m_substrings[last].length()
+                && value.endsWith(m_substrings[last]);
+        }
+
+        private static String approx(String value)
+        {
+            StringBuffer buffer = new StringBuffer(value.length());
+            for (int i = 0; i < value.length(); i++)
+            {
+                char c = value.charAt(i);
+                if (!Character.isWhitespace(c))
+                {
+                    buffer.append(c);
+                }
+            }
+            return buffer.toString();
+        }
+    }
+
+    /**
+     * Parser for the RFC 1960 filter syntax
+     */
+    private static class Parser
+    {
+        private final String m_filter;
+        private int m_pos;
+        boolean m_usesDelta;
+
+        Parser(String filter)
+        {
+            m_filter = filter;
+        }
+
+        Node parse()
+        {
+            Node node = parseFilter();
+            skipWhitespace();
+            if (m_pos != m_filter.length())
+            {
+                throw new IllegalArgumentException("Extra characters in filter: " + m_filter);
+            }
+            return node;
+        }
+
+        private Node parseFilter()
+        {
+            skipWhitespace();
+            expect('(');
+            skipWhitespace();
+            Node node;
+            char c = peek();
+            if (c == '&' || c == '|')
+            {
+                m_pos++;
+                List children = new ArrayList();
+                skipWhitespace();
+                while (peek() == '(')
+                {
+                    children.add(parseFilter());
+                    skipWhitespace();
+                }
+                if (children.isEmpty())
+                {
+                    throw new IllegalArgumentException("Missing operands in filter: " + m_filter);
+                }
+                node = new Node(c == '&' ? AND : OR, (Node[]) children.toArray(new Node[children.size()]));
+            }
+            else if (c == '!')
+            {
+                m_pos++;
+                node = new Node(NOT, new Node[] { parseFilter() });
+            }
+            else
+            {
+                node = parseItem();
+            }
+            skipWhitespace();
+            expect(')');
+            return node;
+        }
+
+        private Node parseItem()
+        {
+            int start = m_pos;
+            while ("=<>~()".indexOf(peek()) < 0)
+            {
+                m_pos++;
+            }
+            String name = m_filter.substring(start, m_pos).trim();
+            if (name.length() == 0)
+            {
+                throw new IllegalArgumentException("Missing attribute in filter: " + m_filter);
+            }
+            int attribute = getAttribute(name);
+
+            int operation;
+            char c = peek();
+            m_pos++;
+            if (c == '=')
+            {
+                operation = EQUAL;
+            }
+            else if (c == '~' || c == '>' || c == '<')
+            {
+                expect('=');
+                operation = (c == '~') ? APPROX : (c == '>') ? GREATER : LESS;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Invalid operator in filter: " + m_filter);
+            }
+
+            // Read the value, the parts between unescaped wildcards are collected
+            List parts = new ArrayList();
+            StringBuffer part = new StringBuffer();
+            for (c = peek(); c != ')'; c = peek())
+            {
+                m_pos++;
+                if (c == '(')
+                {
+                    throw new IllegalArgumentException("Invalid value in filter: " + m_filter);
+                }
+                if (c == '\\')
+                {
+                    part.append(peek());
+                    m_pos++;
+                }
+                else if (c == '*' && operation == EQUAL)
+                {
+                    parts.add(part.toString());
+                    part.setLength(0);
+                }
+                else
+                {
+                    part.append(c);
+                }
+            }
+            parts.add(part.toString());
+
+            if (parts.size() == 1)
+            {
+                return new Node(operation, attribute, (String) parts.get(0), null);
+            }
+            if (parts.size() == 2 && ((String) parts.get(0)).length() == 0
+                && ((String) parts.get(1)).length() == 0)
+            {
+                return new Node(PRESENT, attribute, null, null);
+            }
+            return new Node(SUBSTRING, attribute, null, (String[]) parts.toArray(new String[parts.size()]));
+        }
+
+        private int getAttribute(String name)
+        {
+            if (name.equalsIgnoreCase(WireConstants.WIREVALUE_CURRENT))
+            {
+                return CURRENT;
+            }
+            else if (name.equalsIgnoreCase(WireConstants.WIREVALUE_PREVIOUS))
+            {
+                return PREVIOUS;
+            }
+            else if (name.equalsIgnoreCase(WireConstants.WIREVALUE_DELTA_ABSOLUTE))
+            {
+                m_usesDelta = true;
+                return DELTA_ABSOLUTE;
+            }
+            else if (name.equalsIgnoreCase(WireConstants.WIREVALUE_DELTA_RELATIVE))
+            {
+                m_usesDelta = true;
+                return DELTA_RELATIVE;
+            }
+            else if (name.equalsIgnoreCase(WireConstants.WIREVALUE_ELAPSED))
+            {
+                return ELAPSED;
+            }
+            return OTHER;
+        }
+
+        private char peek()
+        {
+            if (m_pos >= m_filter.length())
+            {
+                throw new IllegalArgumentException("Unexpected end of filter: " + m_filter);
+            }
+            return m_filter.charAt(m_pos);
+        }
+
+        private void expect(char c)
+        {
+            if (peek() != c)
+            {
+                throw new IllegalArgumentException("Expected '" + c + "' at " + m_pos + " in filter: " + m_filter);
+            }
+            m_pos++;
+        }
+
+        private void skipWhitespace()
+        {
+            while (m_pos < m_filter.length() && Character.isWhitespace(m_filter.charAt(m_pos)))
+            {
+                m_pos++;
+            }
+        }
+    }
+}
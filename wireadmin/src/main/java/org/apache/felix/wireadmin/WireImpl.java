@@ -74,6 +74,27 @@ import org.osgi.service.wireadmin.WireAdminEvent;
 public class WireImpl implements Wire, java.io.Serializable 
 {
 	static final long serialVersionUID = -3637966367104019136L;
+
+    /**
+     * Wire property selecting how values are delivered to the consumer. With
+     * {@link #DELIVERY_ASYNCHRONOUS} the values passed to {@link #update} are
+     * queued and delivered by the WireAdmin's delivery threads, so the producer
+     * does not wait for the consumer. Otherwise they are delivered on the
+     * producer's thread.
+     */
+    static final String WIREADMIN_DELIVERY = "org.apache.felix.wireadmin.delivery";
+
+    static final String DELIVERY_ASYNCHRONOUS = "asynchronous";
+
+    /**
+     * Wire property with the maximum number of values queued for an
+     * asynchronous wire (an Integer or a String). When the queue is full,
+     * the oldest value is superseded by the new one, a size of 1 only keeps
+     * the latest value.
+     */
+    static final String WIREADMIN_QUEUE_SIZE = "org.apache.felix.wireadmin.queue.size";
+
+    static final int DEFAULT_QUEUE_SIZE = 16;
 	
     // Persistent attributes
     
@@ -90,7 +111,7 @@ public class WireImpl implements Wire, java.io.Serializable
 
 	transient private boolean m_isValid = true;
     transient private boolean m_isConnected = false;
-    transient private Filter m_filter = null;
+    transient private volatile Filters m_filters = null;
     
     transient private ServiceReference m_producerServiceRef;
     transient private Producer m_producer;
@@ -104,12 +125,21 @@ public class WireImpl implements Wire, java.io.Serializable
     
     transient private BundleContext m_bundleContext;
     transient private EventManager m_eventManager;
+    transient private ValueDispatcher m_valueDispatcher;
 	transient private Object m_lastValue;
 	transient private String[] m_scope;
     
     transient private long m_lastUpdate;    
     transient private boolean m_isFirstUpdate;
     transient FilterDictionary m_dictionary;
+
+    // Values pending for asynchronous delivery, a ring buffer guarded by m_pendingLock
+    transient private Object m_pendingLock;
+    transient private boolean m_isAsynchronous;
+    transient private Object[] m_pending;
+    transient private int m_pendingHead;
+    transient private int m_pendingCount;
+    transient private boolean m_isScheduled;
     
     /**
      * Constructor with package visibility
@@ -133,14 +163,16 @@ public class WireImpl implements Wire, java.io.Serializable
      * 
      * @param ctxt
      * @param eventManager
+     * @param valueDispatcher
      */
-    void initialize(BundleContext ctxt, EventManager eventManager)
+    void initialize(BundleContext ctxt, EventManager eventManager, ValueDispatcher valueDispatcher)
     {
         m_isValid = true;
         m_isConnected = false;
 
         m_bundleContext = ctxt;
         m_eventManager = eventManager;
+        m_valueDispatcher = valueDispatcher;
         
         m_lastValue = null;
         
@@ -155,6 +187,12 @@ public class WireImpl implements Wire, java.io.Serializable
         }
         */
         m_dictionary = new FilterDictionary();
+
+        m_pendingLock = new Object();
+        m_pendingHead = 0;
+        m_pendingCount = 0;
+        m_isScheduled = false;
+        configureDelivery();
     }
 
 	/**
@@ -286,11 +324,11 @@ public class WireImpl implements Wire, java.io.Serializable
             }
             else // not a composite (Note: p. 341 "Filtering for composite producer services is not supported")
             {
-                //long time = m_date.getTime();
-                long time = new Date().getTime();
+                long time = System.currentTimeMillis();
                 
                 // We ignore filtering the first time...
-                if(m_isFirstUpdate == false && m_filter != null)
+                Filters filters = m_filters;
+                if(m_isFirstUpdate == false && filters != null)
                 {
                     // If the Producer service was registered with the WIREADMIN_PRODUCER_FILTERS  
                     // service property indicating that the Producer service will perform the data 
@@ -298,16 +336,19 @@ public class WireImpl implements Wire, java.io.Serializable
                     // the Wire object must perform basic filtering.
                     try
                     {
-                        m_dictionary.reset(value,time);
-                        if(!m_filter.match(m_dictionary))
+                        if(!matchFilter(filters,value,time))
                         {
-                            WireAdminImpl.traceln("### Update rejected ("+m_properties.get(WireConstants.WIREADMIN_PID)+") filter evaluated to false:"+m_filter);
-                            WireAdminImpl.traceln("  WIREVALUE_CURRENT.class"+m_dictionary.get(WireConstants.WIREVALUE_CURRENT).getClass().getName());
-                            WireAdminImpl.traceln("  WIREVALUE_CURRENT="+m_dictionary.get(WireConstants.WIREVALUE_CURRENT));
-                            WireAdminImpl.traceln("  WIREVALUE_PREVIOUS="+m_dictionary.get(WireConstants.WIREVALUE_PREVIOUS));
-                            WireAdminImpl.traceln("  WIREVALUE_DELTA_ABSOLUTE="+m_dictionary.get(WireConstants.WIREVALUE_DELTA_ABSOLUTE));
-                            WireAdminImpl.traceln("  WIREVALUE_DELTA_RELATIVE="+m_dictionary.get(WireConstants.WIREVALUE_DELTA_RELATIVE));
-                            WireAdminImpl.traceln("  WIREVALUE_ELAPSED="+m_dictionary.get(WireConstants.WIREVALUE_ELAPSED));
+                            if(WireAdminImpl.isTracing())
+                            {
+                                m_dictionary.reset(value,time);
+                                WireAdminImpl.traceln("### Update rejected ("+m_properties.get(WireConstants.WIREADMIN_PID)+") filter evaluated to false:"+filters.m_filter);
+                                WireAdminImpl.traceln("  WIREVALUE_CURRENT.class"+m_dictionary.get(WireConstants.WIREVALUE_CURRENT).getClass().getName());
+                                WireAdminImpl.traceln("  WIREVALUE_CURRENT="+m_dictionary.get(WireConstants.WIREVALUE_CURRENT));
+                                WireAdminImpl.traceln("  WIREVALUE_PREVIOUS="+m_dictionary.get(WireConstants.WIREVALUE_PREVIOUS));
+                                WireAdminImpl.traceln("  WIREVALUE_DELTA_ABSOLUTE="+m_dictionary.get(WireConstants.WIREVALUE_DELTA_ABSOLUTE));
+                                WireAdminImpl.traceln("  WIREVALUE_DELTA_RELATIVE="+m_dictionary.get(WireConstants.WIREVALUE_DELTA_RELATIVE));
+                                WireAdminImpl.traceln("  WIREVALUE_ELAPSED="+m_dictionary.get(WireConstants.WIREVALUE_ELAPSED));
+                            }
                             return;
                         }
                     }
@@ -318,25 +359,216 @@ public class WireImpl implements Wire, java.io.Serializable
                     }
     
                 }
-                try
+                if(m_isAsynchronous)
+                {
+                    // The filter state is updated when the value is accepted,
+                    // the value is delivered later on
+                    m_isFirstUpdate = false;
+                    m_lastUpdate = time;
+                    m_lastValue = value;
+                    enqueue(value);
+                }
+                else if(deliver(value))
                 {
-        			m_consumer.updated(this, value);
                     if(m_isFirstUpdate == true)
                     {
                         m_isFirstUpdate = false;
                     }
                     m_lastUpdate = time;
                     m_lastValue = value;
-                    // Fire event
-                    m_eventManager.fireEvent(WireAdminEvent.WIRE_TRACE,this);
                 }
-                catch(Exception ex)
+            }
+        }
+	}
+
+    /**
+     * Evaluate the filter for a new value. The compiled filter is used
+     * unless it can not handle the values of the wire.
+     */
+    private boolean matchFilter(Filters filters, Object value, long time)
+    {
+        long elapsed = (m_lastUpdate == 0) ? 0 : time - m_lastUpdate;
+        WireFilter compiledFilter = filters.m_compiledFilter;
+        if(compiledFilter != null)
+        {
+            try
+            {
+                return compiledFilter.match(value,m_lastValue,elapsed);
+            }
+            catch(WireFilter.UnsupportedValueException ex)
+            {
+                // use the framework filter
+            }
+        }
+        m_dictionary.reset(value,time);
+        return filters.m_filter.match(m_dictionary);
+    }
+
+    /**
+     * Deliver a value to the consumer
+     * 
+     * @param value the value
+     * @return <tt>true</tt> if the consumer accepted the value
+     */
+    private boolean deliver(Object value)
+    {
+        Consumer consumer = m_consumer;
+        if(consumer == null || !m_isConnected)
+        {
+            return false;
+        }
+        try
+        {
+            consumer.updated(this, value);
+            // Fire event
+            m_eventManager.fireEvent(WireAdminEvent.WIRE_TRACE,this);
+            return true;
+        }
+        catch(Exception ex)
+        {
+            m_eventManager.fireEvent(WireAdminEvent.CONSUMER_EXCEPTION,this,ex);
+            return false;
+        }
+    }
+
+    /**
+     * Queue a value for asynchronous delivery. When the queue is full
+     * the oldest pending value is superseded.
+     * 
+     * @param value the value
+     */
+    private void enqueue(Object value)
+    {
+        boolean schedule;
+        synchronized(m_pendingLock)
+        {
+            if(m_pendingCount == m_pending.length)
+            {
+                m_pending[m_pendingHead] = null;
+                m_pendingHead = (m_pendingHead + 1) % m_pending.length;
+                m_pendingCount--;
+            }
+            m_pending[(m_pendingHead + m_pendingCount) % m_pending.length] = value;
+            m_pendingCount++;
+            schedule = !m_isScheduled;
+            m_isScheduled = true;
+        }
+        if(schedule)
+        {
+            m_valueDispatcher.schedule(this);
+        }
+    }
+
+    /**
+     * Deliver the pending values, called by the delivery threads. All values
+     * pending at this point are delivered in order; if more values arrive in
+     * the meantime the wire is queued again, so other wires get their turn.
+     */
+    void deliverPending()
+    {
+        Object[] values;
+        synchronized(m_pendingLock)
+        {
+            values = new Object[m_pendingCount];
+            for(int i = 0; i < values.length; i++)
+            {
+                int index = (m_pendingHead + i) % m_pending.length;
+                values[i] = m_pending[index];
+                m_pending[index] = null;
+            }
+            m_pendingHead = 0;
+            m_pendingCount = 0;
+        }
+        for(int i = 0; i < values.length; i++)
+        {
+            deliver(values[i]);
+        }
+        boolean reschedule;
+        synchronized(m_pendingLock)
+        {
+            reschedule = m_pendingCount > 0;
+            m_isScheduled = reschedule;
+        }
+        if(reschedule)
+        {
+            m_valueDispatcher.schedule(this);
+        }
+    }
+
+    /**
+     * Read the delivery mode and the queue size from the wire properties
+     */
+    private void configureDelivery()
+    {
+        Object size = m_properties.get(WIREADMIN_QUEUE_SIZE);
+        int queueSize = DEFAULT_QUEUE_SIZE;
+        try
+        {
+            if(size instanceof Number)
+            {
+                queueSize = ((Number) size).intValue();
+            }
+            else if(size != null)
+            {
+                queueSize = Integer.parseInt(size.toString().trim());
+            }
+        }
+        catch(NumberFormatException ex)
+        {
+            WireAdminImpl.traceln("WireImpl: Ignoring invalid queue size "+size);
+        }
+        if(queueSize < 1)
+        {
+            queueSize = 1;
+        }
+
+        synchronized(m_pendingLock)
+        {
+            if(m_pending == null || m_pending.length != queueSize)
+            {
+                // Keep the newest pending values which fit into the new queue
+                Object[] pending = new Object[queueSize];
+                int count = Math.min(m_pendingCount, queueSize);
+                for(int i = 0; i < count; i++)
                 {
-                    m_eventManager.fireEvent(WireAdminEvent.CONSUMER_EXCEPTION,this,ex);
+                    pending[i] = m_pending[(m_pendingHead + m_pendingCount - count + i) % m_pending.length];
                 }
+                m_pending = pending;
+                m_pendingHead = 0;
+                m_pendingCount = count;
             }
         }
-	}
+        m_isAsynchronous = DELIVERY_ASYNCHRONOUS.equals(m_properties.get(WIREADMIN_DELIVERY));
+    }
+
+    /**
+     * Create the filter from the wire properties, unless the producer
+     * performs the filtering itself
+     */
+    private void configureFilter()
+    {
+        Filters filters = null;
+
+        // p. 329 " If this property (wireadmin.producer.filters) is not set,
+        // the Wire object must filter according to the description in CompositeObjects"
+        if(m_producerServiceRef != null && m_producerServiceRef.getProperty(WireConstants.WIREADMIN_PRODUCER_FILTERS) == null)
+        {
+            String filter = (String) m_properties.get(WireConstants.WIREADMIN_FILTER);
+            if(filter != null)
+            {
+                try
+                {
+                    filters = new Filters(m_bundleContext.createFilter(filter), WireFilter.compile(filter));
+                }
+                catch(InvalidSyntaxException ex)
+                {
+                    WireAdminImpl.traceln("WireImpl.bindProducer: Ignoring filter with invalid syntax "+filter);                    
+                }
+            }
+        }
+        // Both filters are replaced at once, update() may run concurrently
+        m_filters = filters;
+    }
 
 	/**
 	 * Poll for an updated value.
@@ -624,23 +856,7 @@ public class WireImpl implements Wire, java.io.Serializable
         m_producerServiceRef = producerRef;
         m_producer = (Producer) m_bundleContext.getService(producerRef);
         
-        // p. 329 " If this property (wireadmin.producer.filters) is not set,
-        // the Wire object must filter according to the description in CompositeObjects"
-        if(producerRef.getProperty(WireConstants.WIREADMIN_PRODUCER_FILTERS) == null)
-        {
-            String filter = (String) m_properties.get(WireConstants.WIREADMIN_FILTER);
-            if(filter != null)
-            {
-                try
-                {
-                    m_filter = m_bundleContext.createFilter(filter);
-                }
-                catch(InvalidSyntaxException ex)
-                {
-                    WireAdminImpl.traceln("WireImpl.bindProducer: Ignoring filter with invalid syntax "+filter);                    
-                }
-            }
-        }
+        configureFilter();
         
         if(m_consumer != null)
         {
@@ -770,6 +986,8 @@ public class WireImpl implements Wire, java.io.Serializable
     void updateProperties(Dictionary properties)
     {
         m_properties = properties;
+        configureFilter();
+        configureDelivery();
     }
 
     /**
@@ -832,6 +1050,22 @@ public class WireImpl implements Wire, java.io.Serializable
         return m_consumerPID;
     }
     
+    /**
+     * The framework filter of the wire together with its compiled form,
+     * which is <tt>null</tt> if the filter could not be compiled.
+     */
+    private static final class Filters
+    {
+        final Filter m_filter;
+        final WireFilter m_compiledFilter;
+
+        Filters(Filter filter, WireFilter compiledFilter)
+        {
+            m_filter = filter;
+            m_compiledFilter = compiledFilter;
+        }
+    }
+
     /**
      * This inner class implements a dictionary that is used to filter out values
      * during calls to update. This design choice was favored to avoid constructing
@@ -868,12 +1102,21 @@ public class WireImpl implements Wire, java.io.Serializable
             {
                 return m_lastValue;
             }
-            else if(m_value instanceof Number && key.equals(WireConstants.WIREVALUE_DELTA_ABSOLUTE))
+            else if(key.equals(WireConstants.WIREVALUE_DELTA_ABSOLUTE))
             {
+                if(m_value instanceof Number && m_lastValue instanceof Number)
+                {
+                    return new Double(Math.abs(((Number) m_value).doubleValue() - ((Number) m_lastValue).doubleValue()));
+                }
                 return null;
             }
-            else if(m_value instanceof Number && key.equals(WireConstants.WIREVALUE_DELTA_RELATIVE))
+            else if(key.equals(WireConstants.WIREVALUE_DELTA_RELATIVE))
             {
+                if(m_value instanceof Number && m_lastValue instanceof Number)
+                {
+                    double current = ((Number) m_value).doubleValue();
+                    return new Double(Math.abs(current - ((Number) m_lastValue).doubleValue()) / Math.abs(current));
+                }
                 return null;
             }
             else if(key.equals(WireConstants.WIREVALUE_ELAPSED))
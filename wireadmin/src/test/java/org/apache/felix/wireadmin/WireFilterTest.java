@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.wireadmin;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.service.wireadmin.WireConstants;
+
+/**
+ * Compares the compiled {@link WireFilter} with the framework filter for
+ * all combinations of operators, filter values and wire values.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class WireFilterTest extends TestCase
+{
+    private static final String[] ATTRIBUTES =
+    {
+        WireConstants.WIREVALUE_CURRENT, WireConstants.WIREVALUE_PREVIOUS,
+        WireConstants.WIREVALUE_DELTA_ABSOLUTE, WireConstants.WIREVALUE_DELTA_RELATIVE,
+        WireConstants.WIREVALUE_ELAPSED, "WireValue.Current", "unknown"
+    };
+
+    private static final String[] OPERATORS = { "=", "~=", ">=", "<=" };
+
+    private static final String[] FILTER_VALUES =
+    {
+        "0", "1", "-1", "5", " 5 ", "+5", "127", "128", "70000", "3000000000",
+        "1.5", "-0.0", "0.0", "NaN", "Infinity", "-Infinity", "1e3", "true", "TRUE",
+        "false", "abc", "ABC", "a b", "a\\*c", "a\\)b", "a\\\\b", "", "x"
+    };
+
+    private static final String[] OTHER_FILTERS =
+    {
+        "(wirevalue.current=*)", "(wirevalue.previous=*)", "(wirevalue.delta.absolute=*)",
+        "(wirevalue.delta.relative=*)", "(wirevalue.elapsed=*)", "(unknown=*)",
+        "(wirevalue.current=a*)", "(wirevalue.current=*c)", "(wirevalue.current=a*c)",
+        "(wirevalue.current=*b*)", "(wirevalue.current=a*b*c)", "(wirevalue.current=ab*bc)",
+        "(wirevalue.current=a**c)", "(wirevalue.current=*\\**)", "(wirevalue.current=*5*)",
+        "(wirevalue.elapsed=1*)",
+        "(&(wirevalue.current>=1)(!(wirevalue.previous=5)))",
+        "(|(wirevalue.delta.absolute>=1)(wirevalue.elapsed<=0))",
+        "(!(wirevalue.current=*))",
+        "(!(unknown=5))",
+        "( & ( wirevalue.current >=1 ) ( wirevalue.delta.relative<=0.5))"
+    };
+
+    private static final Object[] VALUES =
+    {
+        null, new Integer(0), new Integer(5), new Integer(-1), new Long(3000000000L), new Long(5),
+        new Short((short) 5), new Short((short) -1), new Byte((byte) 5), new Byte((byte) 127),
+        new Float(1.5f), new Float(Float.NaN), new Float(-0.0f), new Double(0.0), new Double(-0.0),
+        new Double(1.5), new Double(Double.NaN), new Double(Double.POSITIVE_INFINITY),
+        new Double(1000), Boolean.TRUE, Boolean.FALSE, "abc", "ABC", "a b", "a*c", "a)b", "a\\b",
+        "abbc", "abc*", "", "5", new Character('a'), new int[] { 5 }
+    };
+
+    private static final long[] ELAPSED = { 0, 5 };
+
+    public void testMatchesFrameworkFilter() throws InvalidSyntaxException
+    {
+        int compared = 0;
+        for (int a = 0; a < ATTRIBUTES.length; a++)
+        {
+            for (int o = 0; o < OPERATORS.length; o++)
+            {
+                for (int v = 0; v < FILTER_VALUES.length; v++)
+                {
+                    compared += compare("(" + ATTRIBUTES[a] + OPERATORS[o] + FILTER_VALUES[v] + ")");
+                }
+            }
+        }
+        for (int i = 0; i < OTHER_FILTERS.length; i++)
+        {
+            compared += compare(OTHER_FILTERS[i]);
+        }
+        // Most combinations must be handled without the framework filter
+        assertTrue("compared " + compared, compared > 100000);
+    }
+
+    public void testShortAndByteRange() throws InvalidSyntaxException
+    {
+        assertMatch("(wirevalue.current<=70000)", new Short((short) 5), null, false);
+        assertMatch("(wirevalue.current<=32767)", new Short((short) 5), null, true);
+        assertMatch("(wirevalue.current>=-200)", new Byte((byte) 5), null, false);
+        assertMatch("(wirevalue.current<=3000000000)", new Integer(5), null, false);
+        assertMatch("(wirevalue.current<=3000000000)", new Long(5), null, true);
+    }
+
+    public void testNaN() throws InvalidSyntaxException
+    {
+        // 0 / 0 is NaN, which is greater than anything and equal to itself
+        assertMatch("(wirevalue.delta.relative>=1)", new Integer(0), new Integer(0), true);
+        assertMatch("(wirevalue.delta.relative<=1)", new Integer(0), new Integer(0), false);
+        assertMatch("(wirevalue.delta.relative=NaN)", new Integer(0), new Integer(0), true);
+        assertMatch("(wirevalue.current=NaN)", new Double(Double.NaN), null, true);
+        assertMatch("(wirevalue.current=0.0)", new Double(-0.0), null, false);
+        assertMatch("(wirevalue.current<=0)", new Float(-0.0f), null, true);
+    }
+
+    public void testUnsupportedValues()
+    {
+        WireFilter filter = WireFilter.compile("(wirevalue.current=a)");
+        try
+        {
+            filter.match(new Character('a'), null, 0);
+            fail("Character values are left to the framework filter");
+        }
+        catch (WireFilter.UnsupportedValueException ex)
+        {
+            // expected
+        }
+        try
+        {
+            WireFilter.compile("(wirevalue.current>=true)").match(Boolean.TRUE, null, 0);
+            fail("Ordering booleans is left to the framework filter");
+        }
+        catch (WireFilter.UnsupportedValueException ex)
+        {
+            // expected
+        }
+    }
+
+    public void testInvalidFilters()
+    {
+        String[] filters = { "", "(", "wirevalue.current=5", "(wirevalue.current=5", "(=5)",
+            "(wirevalue.current5)", "(&)", "(wirevalue.current=5))", "(wirevalue.current=(5)" };
+        for (int i = 0; i < filters.length; i++)
+        {
+            assertNull(filters[i], WireFilter.compile(filters[i]));
+        }
+    }
+
+    /**
+     * Compare the compiled and the framework filter for all values
+     *
+     * @return the number of values compared without falling back to the framework filter
+     */
+    private int compare(String filterString) throws InvalidSyntaxException
+    {
+        Filter filter;
+        try
+        {
+            filter = FrameworkUtil.createFilter(filterString);
+        }
+        catch (InvalidSyntaxException ex)
+        {
+            return 0;
+        }
+        WireFilter compiled = WireFilter.compile(filterString);
+        if (compiled == null)
+        {
+            // The wire uses the framework filter
+            return 0;
+        }
+
+        int compared = 0;
+        for (int c = 0; c < VALUES.length; c++)
+        {
+            for (int p = 0; p < VALUES.length; p++)
+            {
+                for (int e = 0; e < ELAPSED.length; e++)
+                {
+                    Object current = VALUES[c];
+                    Object previous = VALUES[p];
+                    boolean actual;
+                    try
+                    {
+                        actual = compiled.match(current, previous, ELAPSED[e]);
+                    }
+                    catch (WireFilter.UnsupportedValueException ex)
+                    {
+                        continue;
+                    }
+                    boolean expected = filter.match(dictionary(current, previous, ELAPSED[e]));
+                    if (expected != actual)
+                    {
+                        fail(filterString + " current=" + describe(current) + " previous="
+                            + describe(previous) + " elapsed=" + ELAPSED[e] + ": expected " + expected);
+                    }
+                    compared++;
+                }
+            }
+        }
+        return compared;
+    }
+
+    private static void assertMatch(String filterString, Object current, Object previous, boolean expected)
+        throws InvalidSyntaxException
+    {
+        Dictionary dictionary = dictionary(current, previous, 0);
+        assertEquals(filterString, expected, FrameworkUtil.createFilter(filterString).match(dictionary));
+        assertEquals(filterString, expected, WireFilter.compile(filterString).match(current, previous, 0));
+    }
+
+    /**
+     * The values WireImpl.FilterDictionary returns for the attributes
+     */
+    private static Dictionary dictionary(Object current, Object previous, long elapsed)
+    {
+        Hashtable dictionary = new Hashtable();
+        if (current != null)
+        {
+            dictionary.put(WireConstants.WIREVALUE_CURRENT, current);
+        }
+        if (previous != null)
+        {
+            dictionary.put(WireConstants.WIREVALUE_PREVIOUS, previous);
+        }
+        if (current instanceof Number && previous instanceof Number)
+        {
+            double currentValue = ((Number) current).doubleValue();
+            double delta = Math.abs(currentValue - ((Number) previous).doubleValue());
+            dictionary.put(WireConstants.WIREVALUE_DELTA_ABSOLUTE, new Double(delta));
+            dictionary.put(WireConstants.WIREVALUE_DELTA_RELATIVE, new Double(delta / Math.abs(currentValue)));
+        }
+        dictionary.put(WireConstants.WIREVALUE_ELAPSED, new Long(elapsed));
+        return dictionary;
+    }
+
+    private static String describe(Object value)
+    {
+        return (value == null) ? "null" : value.getClass().getName() + "(" + value + ")";
+    }
+}
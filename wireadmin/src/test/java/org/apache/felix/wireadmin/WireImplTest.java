@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.felix.wireadmin;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.wireadmin.Consumer;
+import org.osgi.service.wireadmin.Producer;
+import org.osgi.service.wireadmin.Wire;
+import org.osgi.service.wireadmin.WireConstants;
+
+/**
+ * Tests the value delivery of {@link WireImpl}.
+ *
+ * @author <a href="mailto:dev@felix.apache.org">Felix Project Team</a>
+ */
+public class WireImplTest extends TestCase
+{
+    private RecordingDispatcher m_dispatcher;
+
+    private RecordingConsumer m_consumer;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        m_dispatcher = new RecordingDispatcher();
+        m_consumer = new RecordingConsumer();
+    }
+
+    public void testSynchronousDelivery()
+    {
+        WireImpl wire = createWire(null, null, null);
+        wire.update(new Integer(1));
+        wire.update(new Integer(2));
+        assertValues(new int[] { 1, 2 });
+        assertEquals(0, m_dispatcher.m_scheduled);
+    }
+
+    public void testAsynchronousOrder()
+    {
+        WireImpl wire = createWire(WireImpl.DELIVERY_ASYNCHRONOUS, null, null);
+        wire.update(new Integer(1));
+        wire.update(new Integer(2));
+        wire.update(new Integer(3));
+        assertValues(new int[0]);
+        // The wire is queued once for all pending values
+        assertEquals(1, m_dispatcher.m_scheduled);
+
+        wire.deliverPending();
+        assertValues(new int[] { 1, 2, 3 });
+        assertEquals(1, m_dispatcher.m_scheduled);
+
+        wire.update(new Integer(4));
+        assertEquals(2, m_dispatcher.m_scheduled);
+        wire.deliverPending();
+        assertValues(new int[] { 1, 2, 3, 4 });
+    }
+
+    public void testConflation()
+    {
+        WireImpl wire = createWire(WireImpl.DELIVERY_ASYNCHRONOUS, "3", null);
+        for (int i = 1; i <= 5; i++)
+        {
+            wire.update(new Integer(i));
+        }
+        wire.deliverPending();
+        // The oldest values are superseded
+        assertValues(new int[] { 3, 4, 5 });
+        assertEquals(new Integer(5), wire.getLastValue());
+    }
+
+    public void testLatestValueOnly()
+    {
+        WireImpl wire = createWire(WireImpl.DELIVERY_ASYNCHRONOUS, new Integer(1), null);
+        wire.update(new Integer(1));
+        wire.update(new Integer(2));
+        wire.deliverPending();
+        wire.update(new Integer(3));
+        wire.update(new Integer(4));
+        wire.deliverPending();
+        assertValues(new int[] { 2, 4 });
+    }
+
+    public void testQueueResize()
+    {
+        WireImpl wire = createWire(WireImpl.DELIVERY_ASYNCHRONOUS, "4", null);
+        for (int i = 1; i <= 4; i++)
+        {
+            wire.update(new Integer(i));
+        }
+        // Shrinking the queue keeps the newest values
+        wire.updateProperties(properties(WireImpl.DELIVERY_ASYNCHRONOUS, "2", null));
+        wire.update(new Integer(5));
+        wire.deliverPending();
+        assertValues(new int[] { 4, 5 });
+    }
+
+    public void testValuesArrivingDuringDelivery()
+    {
+        final WireImpl wire = createWire(WireImpl.DELIVERY_ASYNCHRONOUS, null, null);
+        m_consumer.m_onUpdate = new Runnable()
+        {
+            public void run()
+            {
+                if (m_consumer.m_values.size() == 1)
+                {
+                    wire.update(new Integer(3));
+                }
+            }
+        };
+        wire.update(new Integer(1));
+        wire.update(new Integer(2));
+        wire.deliverPending();
+        // The value sent while delivering waits for the next turn of the wire
+        assertValues(new int[] { 1, 2 });
+        assertEquals(2, m_dispatcher.m_scheduled);
+        wire.deliverPending();
+        assertValues(new int[] { 1, 2, 3 });
+        assertEquals(2, m_dispatcher.m_scheduled);
+    }
+
+    public void testFilterBeforeQueue()
+    {
+        WireImpl wire = createWire(WireImpl.DELIVERY_ASYNCHRONOUS, null, "(wirevalue.delta.absolute>=2)");
+        int[] values = { 1, 2, 4, 5, 5, 7 };
+        for (int i = 0; i < values.length; i++)
+        {
+            wire.update(new Integer(values[i]));
+        }
+        wire.deliverPending();
+        // The first value is not filtered, the others are compared to the
+        // last accepted value rather than the last delivered one
+        assertValues(new int[] { 1, 4, 7 });
+    }
+
+    public void testFilterReplaced()
+    {
+        WireImpl wire = createWire(null, null, "(wirevalue.current>=10)");
+        wire.update(new Integer(1));
+        wire.update(new Integer(2));
+        wire.update(new Integer(20));
+        wire.updateProperties(properties(null, null, "(wirevalue.current<=10)"));
+        wire.update(new Integer(30));
+        wire.update(new Integer(3));
+        wire.updateProperties(properties(null, null, null));
+        wire.update(new Integer(40));
+        assertValues(new int[] { 1, 20, 3, 40 });
+    }
+
+    private void assertValues(int[] expected)
+    {
+        List values = new ArrayList();
+        for (int i = 0; i < expected.length; i++)
+        {
+            values.add(new Integer(expected[i]));
+        }
+        assertEquals(values, m_consumer.m_values);
+    }
+
+    private WireImpl createWire(String delivery, Object queueSize, String filter)
+    {
+        BundleContext context = createContext();
+        WireImpl wire = new WireImpl("producer", "consumer", properties(delivery, queueSize, filter));
+        wire.initialize(context, new EventManager(context), m_dispatcher);
+
+        Hashtable producerProperties = new Hashtable();
+        producerProperties.put(Constants.SERVICE_PID, "producer");
+        producerProperties.put(WireConstants.WIREADMIN_PRODUCER_FLAVORS, new Class[] { Integer.class });
+        wire.bindProducer(createReference(producerProperties));
+
+        Hashtable consumerProperties = new Hashtable();
+        consumerProperties.put(Constants.SERVICE_PID, "consumer");
+        consumerProperties.put(WireConstants.WIREADMIN_CONSUMER_FLAVORS, new Class[] { Integer.class });
+        wire.bindConsumer(createReference(consumerProperties));
+
+        assertTrue(wire.isConnected());
+        return wire;
+    }
+
+    private static Dictionary properties(String delivery, Object queueSize, String filter)
+    {
+        Hashtable properties = new Hashtable();
+        properties.put(WireConstants.WIREADMIN_PID, "wire");
+        properties.put(WireConstants.WIREADMIN_PRODUCER_PID, "producer");
+        properties.put(WireConstants.WIREADMIN_CONSUMER_PID, "consumer");
+        if (delivery != null)
+        {
+            properties.put(WireImpl.WIREADMIN_DELIVERY, delivery);
+        }
+        if (queueSize != null)
+        {
+            properties.put(WireImpl.WIREADMIN_QUEUE_SIZE, queueSize);
+        }
+        if (filter != null)
+        {
+            properties.put(WireConstants.WIREADMIN_FILTER, filter);
+        }
+        return properties;
+    }
+
+    private static ServiceReference createReference(final Dictionary properties)
+    {
+        return (ServiceReference) Proxy.newProxyInstance(WireImplTest.class.getClassLoader(),
+            new Class[] { ServiceReference.class }, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getName().equals("getProperty"))
+                    {
+                        return properties.get(args[0]);
+                    }
+                    return defaultValue(proxy, method, args);
+                }
+            });
+    }
+
+    private BundleContext createContext()
+    {
+        final Producer producer = new Producer()
+        {
+            public Object polled(Wire wire)
+            {
+                return null;
+            }
+
+            public void consumersConnected(Wire[] wires)
+            {
+            }
+        };
+        return (BundleContext) Proxy.newProxyInstance(WireImplTest.class.getClassLoader(),
+            new Class[] { BundleContext.class }, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+                {
+                    if (method.getName().equals("getService"))
+                    {
+                        ServiceReference ref = (ServiceReference) args[0];
+                        return (ref.getProperty(WireConstants.WIREADMIN_PRODUCER_FLAVORS) != null)
+                            ? (Object) producer : m_consumer;
+                    }
+                    if (method.getName().equals("createFilter"))
+                    {
+                        return FrameworkUtil.createFilter((String) args[0]);
+                    }
+                    return defaultValue(proxy, method, args);
+                }
+            });
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args)
+    {
+        if (method.getName().equals("equals"))
+        {
+            return Boolean.valueOf(proxy == args[0]);
+        }
+        if (method.getName().equals("hashCode"))
+        {
+            return new Integer(System.identityHashCode(proxy));
+        }
+        if (method.getReturnType() == boolean.class)
+        {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * Records the wires queued for delivery instead of starting threads
+     */
+    private static class RecordingDispatcher extends ValueDispatcher
+    {
+        int m_scheduled;
+
+        RecordingDispatcher()
+        {
+            super(1);
+        }
+
+        void schedule(WireImpl wire)
+        {
+            m_scheduled++;
+        }
+    }
+
+    private static class RecordingConsumer implements Consumer
+    {
+        final List m_values = new ArrayList();
+        Runnable m_onUpdate;
+
+        public void updated(Wire wire, Object value)
+        {
+            m_values.add(value);
+            if (m_onUpdate != null)
+            {
+                m_onUpdate.run();
+            }
+        }
+
+        public void producersConnected(Wire[] wires)
+        {
+        }
+    }
+}